@@ -21,7 +21,10 @@ import android.content.SharedPreferences;
 import com.rakuten.tech.mobile.datastore.keys.CodedKey;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.commons.codec.binary.Base64;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -34,7 +37,7 @@ import org.jetbrains.annotations.Nullable;
  *
  * @since 1.0
  */
-public class SharedPreferencesBlobTable implements BlobTable {
+public class SharedPreferencesBlobTable implements PrefixScannableBlobTable {
 
   private final SharedPreferences prefs;
 
@@ -64,6 +67,12 @@ public class SharedPreferencesBlobTable implements BlobTable {
     });
   }
 
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator(final @NotNull CodedKey prefix) {
+    return BlobTableIterator.of(this, getKeys(prefix).iterator());
+  }
+
   @Override
   public boolean contains(final @NotNull CodedKey codedKey) {
     return prefs.contains(getPreferenceNameForKey(codedKey));
@@ -105,11 +114,44 @@ public class SharedPreferencesBlobTable implements BlobTable {
         .apply();
   }
 
+  @Override
+  public int removeAll(final @NotNull CodedKey prefix) {
+    final List<CodedKey> codedKeys = getKeys(prefix);
+    final SharedPreferences.Editor editor = prefs.edit();
+    for (CodedKey codedKey : codedKeys) {
+      editor.remove(getPreferenceNameForKey(codedKey));
+    }
+    editor.apply();
+    return codedKeys.size();
+  }
+
   @Override
   public void clear() throws IOException {
     prefs.edit().clear().apply();
   }
 
+  /**
+   * List the keys starting with {@code prefix}. Preference names are matched against the encoded
+   * prefix before anything gets decoded.
+   */
+  @NotNull
+  private List<CodedKey> getKeys(final @NotNull CodedKey prefix) {
+    final byte[] bytes = prefix.getBytes();
+    final String namePrefix = Base64.encodeBase64URLSafeString(
+        Arrays.copyOf(bytes, bytes.length - bytes.length % 3));
+
+    final List<CodedKey> codedKeys = new ArrayList<>();
+    for (String name : prefs.getAll().keySet()) {
+      if (name.startsWith(namePrefix)) {
+        final CodedKey codedKey = new CodedKey(Base64.decodeBase64(name));
+        if (codedKey.startsWith(prefix)) {
+          codedKeys.add(codedKey);
+        }
+      }
+    }
+    return codedKeys;
+  }
+
   private String getPreferenceNameForKey(final @NotNull CodedKey codedKey) {
     return Base64.encodeBase64URLSafeString(codedKey.getBytes());
   }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Throughput of {@link SimpleCryptoOperations#encrypt(ByteBuffer)} from concurrent writers, with
+ * IVs drawn from a shared {@link SecureRandom} or from a {@link ThreadLocalNonceSource}. Scores are
+ * for all threads together, so they should grow with the thread count, up to the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncryptConcurrencyBenchmark {
+
+  static {
+    Security.insertProviderAt(new BouncyCastleProvider(), 1);
+  }
+
+  private static final byte[] KEY_BYTES = new byte[16];
+
+  private final SimpleCryptoOperations sharedRandom = new SimpleCryptoOperations(
+      new SecretKeySpec(KEY_BYTES, "AES"),
+      new SecretKeySpec(KEY_BYTES, "HmacSHA256"),
+      new SecureRandom());
+
+  private final SimpleCryptoOperations threadLocal = SimpleCryptoOperations.withNonceSource(
+      new SecretKeySpec(KEY_BYTES, "AES"),
+      new SecretKeySpec(KEY_BYTES, "HmacSHA256"),
+      new ThreadLocalNonceSource());
+
+  private final ByteBuffer message = ByteBuffer.allocate(64);
+
+  @Benchmark
+  @Threads(1)
+  public ByteBuffer sharedRandom1() throws GeneralSecurityException {
+    return sharedRandom.encrypt(message.duplicate());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public ByteBuffer sharedRandom4() throws GeneralSecurityException {
+    return sharedRandom.encrypt(message.duplicate());
+  }
+
+  @Benchmark
+  @Threads(8)
+  public ByteBuffer sharedRandom8() throws GeneralSecurityException {
+    return sharedRandom.encrypt(message.duplicate());
+  }
+
+  @Benchmark
+  @Threads(1)
+  public ByteBuffer threadLocal1() throws GeneralSecurityException {
+    return threadLocal.encrypt(message.duplicate());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public ByteBuffer threadLocal4() throws GeneralSecurityException {
+    return threadLocal.encrypt(message.duplicate());
+  }
+
+  @Benchmark
+  @Threads(8)
+  public ByteBuffer threadLocal8() throws GeneralSecurityException {
+    return threadLocal.encrypt(message.duplicate());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of the bundled key coders, for clear-text keys of various lengths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyCoderBenchmark {
+
+  @Param({"16", "64", "512"})
+  public int keyLength;
+
+  private final Utf8KeyCoder utf8 = new Utf8KeyCoder();
+  private final Sha256KeyCoder sha256 = new Sha256KeyCoder();
+  private final SipHashKeyCoder sipHash = new SipHashKeyCoder(new byte[16]);
+  private final Xxh3KeyCoder xxh3 = new Xxh3KeyCoder(42);
+  private String key;
+
+  @Setup
+  public void setup() {
+    final StringBuilder builder = new StringBuilder(keyLength);
+    for (int i = 0; i < keyLength; i++) {
+      builder.append((char) ('a' + i % 26));
+    }
+    key = builder.toString();
+  }
+
+  @Benchmark
+  public CodedKey utf8() {
+    return utf8.encode(key);
+  }
+
+  @Benchmark
+  public CodedKey sha256() throws GeneralSecurityException {
+    return sha256.encode(key);
+  }
+
+  @Benchmark
+  public CodedKey sipHash() {
+    return sipHash.encode(key);
+  }
+
+  @Benchmark
+  public CodedKey xxh3() {
+    return xxh3.encode(key);
+  }
+}
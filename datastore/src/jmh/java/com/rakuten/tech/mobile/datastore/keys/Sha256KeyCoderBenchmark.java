@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Throughput of {@link Sha256KeyCoder}, compared to looking up a new digest for every key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class Sha256KeyCoderBenchmark {
+
+  private static final int KEY_COUNT = 1024;
+
+  private static final Sha256KeyCoder UNCACHED = new Sha256KeyCoder();
+  private static final Sha256KeyCoder CACHED = new Sha256KeyCoder(2 * KEY_COUNT);
+
+  private final String[] keys = new String[KEY_COUNT];
+  private int index;
+
+  @Setup
+  public void setup() {
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = "com.example.preferences.user." + i;
+    }
+  }
+
+  private String nextKey() {
+    return keys[index++ & (KEY_COUNT - 1)];
+  }
+
+  @Benchmark
+  public CodedKey newDigestPerKey() throws GeneralSecurityException {
+    return new CodedKey(MessageDigest.getInstance("SHA-256")
+        .digest(nextKey().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Benchmark
+  public CodedKey threadLocalDigest() throws GeneralSecurityException {
+    return UNCACHED.encode(nextKey());
+  }
+
+  @Benchmark
+  public CodedKey cachedKeys() throws GeneralSecurityException {
+    return CACHED.encode(nextKey());
+  }
+}
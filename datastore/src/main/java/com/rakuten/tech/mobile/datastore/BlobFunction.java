@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes the new content of a blob from its current one, for {@link DataStore#compute(String,
+ * BlobFunction)}.
+ *
+ * <p>Functions may be called several times for a single update, when other threads update the
+ * same blob concurrently, so they should be free of side effects.
+ *
+ * @since 1.1
+ */
+public interface BlobFunction {
+
+  /**
+   * Compute the new content of a blob.
+   *
+   * @param blob Current content of the blob, read-only, or {@code null} if there is none.
+   * @return New content of the blob, or {@code null} to remove it.
+   * @since 1.1
+   */
+  @Nullable
+  ByteBuffer apply(final @Nullable ByteBuffer blob);
+}
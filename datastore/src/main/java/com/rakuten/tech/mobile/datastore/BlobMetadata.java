@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+/**
+ * Metadata of a blob in a {@link DataStore}, as returned by {@link DataStore#stat(String)}.
+ *
+ * @since 1.1
+ */
+public final class BlobMetadata {
+
+  private final int size;
+  private final long timestamp;
+  private final int formatVersion;
+
+  BlobMetadata(final int size, final long timestamp, final int formatVersion) {
+    this.size = size;
+    this.timestamp = timestamp;
+    this.formatVersion = formatVersion;
+  }
+
+  /**
+   * Size of the blob, as it was passed to {@link DataStore#put(String, java.nio.ByteBuffer)}.
+   *
+   * @return Size, in bytes.
+   * @since 1.1
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Time at which the blob was written.
+   *
+   * @return Milliseconds since the epoch.
+   * @since 1.1
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Version of the format the blob was written with.
+   *
+   * @return Format version.
+   * @since 1.1
+   */
+  public int getFormatVersion() {
+    return formatVersion;
+  }
+}
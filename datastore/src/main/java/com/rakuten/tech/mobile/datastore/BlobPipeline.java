@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.KeyCoder;
+import com.rakuten.tech.mobile.datastore.metrics.Metrics;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import com.rakuten.tech.mobile.datastore.tables.BlobTables;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlob;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlobTable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The path of a single blob between a {@link DataStore} and its blob table: key coding, record
+ * format and read coalescing.
+ *
+ * <p>Conditional operations need a {@link VersionedBlobTable}. They read the record and its version
+ * stamp, decode it, then write the new record only if the version didn't change, or start over.
+ *
+ * <p>Every operation reports its stages to the probe it is given, and ends it.
+ */
+final class BlobPipeline {
+
+  private final @NotNull BlobTable blobTable;
+  private final @NotNull KeyCoder keyCoder;
+  private final @NotNull RecordFormat recordFormat;
+  private final @NotNull ReadCoalescer readCoalescer;
+
+  BlobPipeline(
+      final @NotNull BlobTable blobTable,
+      final @NotNull KeyCoder keyCoder,
+      final @NotNull RecordFormat recordFormat,
+      final @NotNull ReadCoalescer readCoalescer) {
+
+    this.blobTable = blobTable;
+    this.keyCoder = keyCoder;
+    this.recordFormat = recordFormat;
+    this.readCoalescer = readCoalescer;
+  }
+
+  @Nullable
+  ByteBuffer get(final @NotNull String key, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      final CodedKey codedKey = encode(key, probe);
+      final ByteBuffer blob = readCoalescer.get(codedKey, new ReadCoalescer.Loader() {
+        @Nullable
+        @Override
+        public ByteBuffer load() throws FailedDatastoreOperationException {
+          return read(codedKey, probe);
+        }
+      });
+      probe.addBytesOut(blob == null ? 0 : blob.remaining());
+      probe.succeed();
+      return blob;
+    } finally {
+      probe.end();
+    }
+  }
+
+  @Nullable
+  BlobMetadata stat(final @NotNull String key, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      final CodedKey codedKey = encode(key, probe);
+      long start = probe.now();
+      final ByteBuffer prefix =
+          BlobTables.peek(blobTable, codedKey, recordFormat.getMetadataLength());
+      probe.stage(Metrics.TABLE_READ, start);
+
+      start = probe.now();
+      final BlobMetadata metadata = prefix == null
+          ? null : recordFormat.readMetadata(codedKey, prefix);
+      probe.stage(Metrics.CRYPTO, start);
+      probe.addBytesIn(prefix == null ? 0 : prefix.remaining());
+      probe.succeed();
+      return metadata;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to read from data store", e);
+    } finally {
+      probe.end();
+    }
+  }
+
+  /**
+   * Write a blob, or remove it if {@code null}.
+   */
+  void put(final @NotNull String key, final @Nullable ByteBuffer blob, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      write(encode(key, probe), blob, probe);
+      probe.succeed();
+    } finally {
+      probe.end();
+    }
+  }
+
+  boolean putIfAbsent(
+      final @NotNull String key,
+      final @NotNull ByteBuffer blob,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final boolean written = write(encode(key, probe), null, blob, probe);
+      probe.succeed();
+      return written;
+    } finally {
+      probe.end();
+    }
+  }
+
+  boolean replace(
+      final @NotNull String key,
+      final @NotNull ByteBuffer expected,
+      final @Nullable ByteBuffer blob,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final CodedKey codedKey = encode(key, probe);
+      boolean replaced = false;
+      while (!replaced) {
+        final VersionedBlob current = readVersioned(codedKey, probe);
+        if (current == null || !current.getBlob().equals(expected.slice())) {
+          break;
+        }
+        replaced = write(codedKey, current, blob, probe);
+      }
+      probe.succeed();
+      return replaced;
+    } finally {
+      probe.end();
+    }
+  }
+
+  @Nullable
+  ByteBuffer compute(
+      final @NotNull String key,
+      final @NotNull BlobFunction function,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final CodedKey codedKey = encode(key, probe);
+      ByteBuffer blob = null;
+      boolean written = false;
+      while (!written) {
+        final VersionedBlob current = readVersioned(codedKey, probe);
+        blob = function.apply(current == null ? null : current.getBlob().asReadOnlyBuffer());
+        written = write(codedKey, current, blob, probe);
+      }
+      probe.succeed();
+      return blob;
+    } finally {
+      probe.end();
+    }
+  }
+
+  @Nullable
+  private ByteBuffer read(final @NotNull CodedKey codedKey, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      final long start = probe.now();
+      final ByteBuffer record = blobTable.get(codedKey);
+      probe.stage(Metrics.TABLE_READ, start);
+      if (record == null) {
+        return null;
+      }
+
+      probe.addBytesIn(record.remaining());
+      return recordFormat.decode(codedKey, record, probe);
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to read from data store", e);
+    }
+  }
+
+  private void write(
+      final @NotNull CodedKey codedKey,
+      final @Nullable ByteBuffer blob,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final ByteBuffer record = blob == null
+          ? null : recordFormat.encode(codedKey, blob.slice(), probe);
+      final long start = probe.now();
+      if (record == null) {
+        blobTable.remove(codedKey);
+      } else {
+        probe.addBytesIn(blob.remaining());
+        probe.addBytesOut(record.remaining());
+        blobTable.put(codedKey, record);
+      }
+      probe.stage(Metrics.TABLE_WRITE, start);
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to write in data store", e);
+    } finally {
+      readCoalescer.forget(codedKey);
+    }
+  }
+
+  /**
+   * Read and decode a record, along with its version stamp.
+   */
+  @Nullable
+  private VersionedBlob readVersioned(final @NotNull CodedKey codedKey, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      final long start = probe.now();
+      final VersionedBlob record = ((VersionedBlobTable) blobTable).getVersioned(codedKey);
+      probe.stage(Metrics.TABLE_READ, start);
+      if (record == null) {
+        return null;
+      }
+
+      probe.addBytesIn(record.getBlob().remaining());
+      return new VersionedBlob(
+          recordFormat.decode(codedKey, record.getBlob(), probe), record.getVersion());
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to read from data store", e);
+    }
+  }
+
+  /**
+   * Write a blob, or remove it if {@code null}, only if the record is still the one read, or is
+   * still missing if {@code current} is {@code null}.
+   *
+   * @return Whether the blob was written.
+   */
+  private boolean write(
+      final @NotNull CodedKey codedKey,
+      final @Nullable VersionedBlob current,
+      final @Nullable ByteBuffer blob,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    final VersionedBlobTable table = (VersionedBlobTable) blobTable;
+    try {
+      final ByteBuffer record = blob == null
+          ? null : recordFormat.encode(codedKey, blob.slice(), probe);
+      final long start = probe.now();
+      final boolean written;
+      if (current != null) {
+        written = table.replace(codedKey, current.getVersion(), record);
+      } else {
+        // Removing a missing blob is a no-op
+        written = record == null || table.putIfAbsent(codedKey, record);
+      }
+      probe.stage(Metrics.TABLE_WRITE, start);
+      if (written && record != null) {
+        probe.addBytesIn(blob.remaining());
+        probe.addBytesOut(record.remaining());
+      }
+      return written;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to write in data store", e);
+    } finally {
+      readCoalescer.forget(codedKey);
+    }
+  }
+
+  @NotNull
+  private CodedKey encode(final @NotNull String key, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      final long start = probe.now();
+      final CodedKey codedKey = keyCoder.encode(key);
+      probe.stage(Metrics.KEY_CODING, start);
+      probe.key(codedKey);
+      return codedKey;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    }
+  }
+}
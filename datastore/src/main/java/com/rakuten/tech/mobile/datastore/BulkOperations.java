@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.crypto.EnvelopeCryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.PrefixKeyCoder;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import com.rakuten.tech.mobile.datastore.tables.BlobTables;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlob;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Operations of a {@link DataStore} on many blobs at once, which keep its compression
+ * dictionaries.
+ *
+ * <p>Every operation reports to the probe it is given, and ends it.
+ */
+final class BulkOperations {
+
+  private final @NotNull BlobTable blobTable;
+  private final @NotNull RecordFormat recordFormat;
+  private final @Nullable DictionaryManager dictionaryManager;
+  private final @NotNull ReadCoalescer readCoalescer;
+
+  BulkOperations(
+      final @NotNull BlobTable blobTable,
+      final @NotNull RecordFormat recordFormat,
+      final @Nullable DictionaryManager dictionaryManager,
+      final @NotNull ReadCoalescer readCoalescer) {
+
+    this.blobTable = blobTable;
+    this.recordFormat = recordFormat;
+    this.dictionaryManager = dictionaryManager;
+    this.readCoalescer = readCoalescer;
+  }
+
+  void clear(final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      if (dictionaryManager == null) {
+        blobTable.clear();
+      } else {
+        removeAllBut(blobTable.iterator(), dictionaryManager.getCodedKey());
+      }
+      probe.succeed();
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to clear data store", e);
+    } finally {
+      readCoalescer.forgetAll();
+      probe.end();
+    }
+  }
+
+  int removeAll(
+      final @NotNull PrefixKeyCoder keyCoder,
+      final @NotNull String namespace,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final CodedKey prefix = keyCoder.encodePrefix(namespace);
+      final CodedKey dictionariesKey = dictionaryManager == null
+          ? null : dictionaryManager.getCodedKey();
+      final int removed;
+      if (dictionariesKey == null || !dictionariesKey.startsWith(prefix)) {
+        removed = BlobTables.removeAll(blobTable, prefix);
+      } else {
+        // Only possible with some separators, as the dictionaries key has none by default
+        removed = removeAllBut(BlobTables.iterator(blobTable, prefix), dictionariesKey);
+      }
+      probe.succeed();
+      return removed;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to remove namespace", e);
+    } finally {
+      readCoalescer.forgetAll();
+      probe.end();
+    }
+  }
+
+  /**
+   * Remove every blob whose key an iterator yields, except the dictionaries. Their record is left
+   * untouched, as writing it back could drop dictionaries that other instances added meanwhile and
+   * still compress with.
+   *
+   * @return Number of blobs removed.
+   */
+  private int removeAllBut(
+      final @NotNull Iterator<CodedKey> keys,
+      final @NotNull CodedKey dictionariesKey) throws IOException {
+    final List<CodedKey> codedKeys = new ArrayList<>();
+    while (keys.hasNext()) {
+      final CodedKey codedKey = keys.next();
+      if (!codedKey.equals(dictionariesKey)) {
+        codedKeys.add(codedKey);
+      }
+    }
+    for (CodedKey codedKey : codedKeys) {
+      blobTable.remove(codedKey);
+    }
+    return codedKeys.size();
+  }
+
+  /**
+   * Recompress every record that gets smaller with the current compression stage.
+   */
+  int compact(final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final CodedKey dictionariesKey = dictionaryManager == null
+          ? null : dictionaryManager.getCodedKey();
+
+      int rewritten = 0;
+      for (Iterator<CodedKey> it = blobTable.iterator(); it.hasNext(); ) {
+        final CodedKey codedKey = it.next();
+        final VersionedBlob record = codedKey.equals(dictionariesKey)
+            ? null : RecordRewrites.read(blobTable, codedKey);
+        final ByteBuffer recompressed = record == null
+            ? null : recordFormat.recompress(codedKey, record.getBlob());
+        if (recompressed != null
+            && RecordRewrites.write(blobTable, codedKey, record, recompressed)) {
+          rewritten++;
+        }
+      }
+      probe.succeed();
+      return rewritten;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to compact data store", e);
+    } finally {
+      probe.end();
+    }
+  }
+
+  int train(final int sampleCount, final @NotNull Probe probe)
+      throws FailedDatastoreOperationException {
+    try {
+      final int version = dictionaryManager.train(recordFormat, sampleCount);
+      probe.succeed();
+      return version;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to train compression dictionary", e);
+    } finally {
+      probe.end();
+    }
+  }
+
+  int rewrapKeys(
+      final @NotNull EnvelopeCryptoOperations cryptoOperations,
+      final long pauseMillis,
+      final @NotNull Probe probe) throws FailedDatastoreOperationException {
+    try {
+      final CodedKey dictionariesKey = dictionaryManager == null
+          ? null : dictionaryManager.getCodedKey();
+      final int rewritten = new KeyRewrapper(blobTable, recordFormat, cryptoOperations,
+          dictionariesKey).run(pauseMillis);
+      probe.succeed();
+      return rewritten;
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to rewrap keys", e);
+    } finally {
+      probe.end();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.KeyCoder;
+import com.rakuten.tech.mobile.datastore.keys.PrefixKeyCoder;
+import com.rakuten.tech.mobile.datastore.tables.BlobTableListener;
+import com.rakuten.tech.mobile.datastore.tables.ObservableBlobTable;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Dispatches the changes reported by an {@link ObservableBlobTable} to the listeners watching
+ * their keys or namespaces, and invalidates the plaintext cache entries of changed blobs, which
+ * were possibly written by another instance or process.
+ *
+ * <p>It only listens to the table while something is watched, or while the plaintext cache is
+ * enabled.
+ */
+final class ChangeDispatcher implements BlobTableListener {
+
+  private final @NotNull ObservableBlobTable blobTable;
+  private final @NotNull KeyCoder keyCoder;
+  private final @NotNull ReadCoalescer readCoalescer;
+  private final @NotNull List<Watch> watches = new CopyOnWriteArrayList<>();
+  private boolean invalidating;
+  private boolean listening;
+
+  ChangeDispatcher(
+      final @NotNull ObservableBlobTable blobTable,
+      final @NotNull KeyCoder keyCoder,
+      final @NotNull ReadCoalescer readCoalescer) {
+    this.blobTable = blobTable;
+    this.keyCoder = keyCoder;
+    this.readCoalescer = readCoalescer;
+  }
+
+  /**
+   * Watch a key, or a namespace if {@code prefix} is true, in which case the key coder must be a
+   * {@link PrefixKeyCoder}.
+   */
+  void watch(
+      final @NotNull String watched,
+      final boolean prefix,
+      final @NotNull ChangeListener listener) throws FailedDatastoreOperationException {
+    final CodedKey codedKey;
+    try {
+      codedKey = prefix
+          ? ((PrefixKeyCoder) keyCoder).encodePrefix(watched) : keyCoder.encode(watched);
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    }
+
+    synchronized (this) {
+      watches.add(new Watch(codedKey, prefix, watched, listener));
+      update();
+    }
+  }
+
+  synchronized void unwatch(final @NotNull ChangeListener listener) {
+    for (Watch watch : watches) {
+      if (watch.listener == listener) {
+        watches.remove(watch);
+      }
+    }
+    update();
+  }
+
+  synchronized void setInvalidating(final boolean invalidating) {
+    this.invalidating = invalidating;
+    update();
+  }
+
+  @Override
+  public void onChanged(final @NotNull CodedKey codedKey) {
+    readCoalescer.forget(codedKey);
+    for (Watch watch : watches) {
+      if (watch.prefix ? codedKey.startsWith(watch.codedKey) : codedKey.equals(watch.codedKey)) {
+        watch.listener.onChanged(watch.watched);
+      }
+    }
+  }
+
+  private void update() {
+    final boolean needed = invalidating || !watches.isEmpty();
+    if (needed && !listening) {
+      blobTable.addListener(this);
+    } else if (!needed && listening) {
+      blobTable.removeListener(this);
+    }
+    listening = needed;
+  }
+
+  private static final class Watch {
+
+    private final @NotNull CodedKey codedKey;
+    private final boolean prefix;
+    private final @NotNull String watched;
+    private final @NotNull ChangeListener listener;
+
+    Watch(
+        final @NotNull CodedKey codedKey,
+        final boolean prefix,
+        final @NotNull String watched,
+        final @NotNull ChangeListener listener) {
+      this.codedKey = codedKey;
+      this.prefix = prefix;
+      this.watched = watched;
+      this.listener = listener;
+    }
+  }
+}
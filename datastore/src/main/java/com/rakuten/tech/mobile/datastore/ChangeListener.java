@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Notified of changes to the blobs watched with {@link DataStore#watch(String, ChangeListener)} or
+ * {@link DataStore#watchNamespace(String, ChangeListener)}.
+ *
+ * <p>Listeners are called synchronously, from the thread that wrote the blob, or from a watcher
+ * thread for changes made outside the process, so they must be thread-safe, fast, and must not
+ * throw. They typically schedule a read of the blob on a thread of their own.
+ *
+ * @since 1.1
+ */
+public interface ChangeListener {
+
+  /**
+   * Called after a watched blob was written or removed. A change may occasionally be reported more
+   * than once.
+   *
+   * @param watched The key or namespace that was watched. For namespaces, the key of the blob that
+   *     changed isn't known, as key coders may not be reversible.
+   * @since 1.1
+   */
+  void onChanged(final @NotNull String watched);
+}
@@ -16,13 +16,25 @@
 
 package com.rakuten.tech.mobile.datastore;
 
+import com.rakuten.tech.mobile.datastore.compression.CompressionStage;
+import com.rakuten.tech.mobile.datastore.compression.DictionaryDeflateCodec;
 import com.rakuten.tech.mobile.datastore.crypto.CryptoOperations;
-import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.crypto.EnvelopeCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.SigningOperations;
 import com.rakuten.tech.mobile.datastore.keys.KeyCoder;
+import com.rakuten.tech.mobile.datastore.keys.PrefixKeyCoder;
+import com.rakuten.tech.mobile.datastore.metrics.FlightRecorderMetricsListener;
+import com.rakuten.tech.mobile.datastore.metrics.HistogramMetricsListener;
+import com.rakuten.tech.mobile.datastore.metrics.Metrics;
+import com.rakuten.tech.mobile.datastore.metrics.MetricsListener;
+import com.rakuten.tech.mobile.datastore.metrics.SlowOperationLogger;
 import com.rakuten.tech.mobile.datastore.tables.BlobTable;
-import java.io.IOException;
+import com.rakuten.tech.mobile.datastore.tables.FileBlobTable;
+import com.rakuten.tech.mobile.datastore.tables.FileBlobTableWatcher;
+import com.rakuten.tech.mobile.datastore.tables.ObservableBlobTable;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlobTable;
+import com.rakuten.tech.mobile.datastore.tables.WarmableBlobTable;
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -48,13 +60,110 @@ import org.jetbrains.annotations.Nullable;
  *   String hello = new String(store.get("foo"), "UTF-8");
  * </code></pre>
  *
+ * <h3>Compression</h3>
+ *
+ * <p>Blobs can be compressed before they get encrypted by passing a {@link CompressionStage}. This
+ * changes the format of the stored records, so a given blob table must always be used either with
+ * or without a compression stage.
+ *
+ * <pre><code>
+ *   final DataStore store = new DataStore(
+ *       new FileBlobTable("default", directory),
+ *       new SimpleCryptoOperations(encryptionKey, signingKey),
+ *       new Sha256KeyCoder(),
+ *       new CompressionStage(new DeflateCodec()));
+ * </code></pre>
+ *
+ * <p>When the compression stage includes a {@link DictionaryDeflateCodec}, the store can train
+ * shared dictionaries from its own content with {@link #trainCompressionDictionary(int)}, and
+ * recompress older records with {@link #compact()}. Dictionaries are stored, encrypted, under the
+ * reserved {@link #DICTIONARIES_KEY} key.
+ *
+ * <h3>Metadata headers</h3>
+ *
+ * <p>Records can also start with a small header holding the size of the blob and the time it was
+ * written, which {@link #stat(String)} reads without fetching nor decrypting the whole record. When
+ * the crypto operations implement {@link SigningOperations}, the header is authenticated and bound
+ * to its key. As with compression, a given blob table must always be used either with or without
+ * headers.
+ *
+ * <h3>Plaintext cache</h3>
+ *
+ * <p>Frequently read blobs can be kept decrypted in memory with {@link
+ * #setPlaintextCacheSize(long)}, saving their decryption on every read. The cache is disabled by
+ * default, as it keeps plaintext on the heap, though it zeroes blobs when they leave the cache.
+ *
+ * <h3>Key rotation</h3>
+ *
+ * <p>With {@link EnvelopeCryptoOperations}, rotating the key-encryption key applies at once to new
+ * blobs, and {@link #rewrapKeys(long)} moves the older ones to the new key from a background
+ * thread, without re-encrypting them.
+ *
+ * <h3>Change notifications</h3>
+ *
+ * <p>With an {@link ObservableBlobTable}, a {@link ChangeListener} can {@link #watch(String,
+ * ChangeListener)} blobs, or {@link #watchNamespace(String, ChangeListener)} namespaces, instead of
+ * polling them. Writes through the table are reported right away, and a {@link
+ * FileBlobTableWatcher} also reports changes made by other processes sharing a directory.
+ *
+ * <pre><code>
+ *   final FileBlobTable table = new FileBlobTable("shared", directory);
+ *   new FileBlobTableWatcher(table, 100, TimeUnit.MILLISECONDS).start();
+ *   final DataStore store = new DataStore(table, cryptoOperations, keyCoder);
+ *   store.watch("settings", listener);
+ * </code></pre>
+ *
+ * <h3>Conditional writes</h3>
+ *
+ * <p>{@link #putIfAbsent(String, ByteBuffer)}, {@link #replace(String, ByteBuffer, ByteBuffer)}
+ * and {@link #compute(String, BlobFunction)} are only atomic within the blob table instance
+ * they go through. A {@link FileBlobTable} locks keys in memory, so writes through other instances
+ * or processes sharing its directory are not excluded, and either side can lose the other's
+ * update. Stores sharing a directory should leave each key to a single writer.
+ *
+ * <h3>Warm-up</h3>
+ *
+ * <p>Creating a store does no I/O: blob tables, crypto operations and dictionaries are set up on
+ * first use. To keep that first use off the critical path of application startup, {@link
+ * #warmUp(WarmUpListener)} can do it from a background thread.
+ *
+ * <h3>Metrics</h3>
+ *
+ * <p>A {@link MetricsListener} set with {@link #setMetricsListener(MetricsListener)} gets the
+ * duration, bytes and outcome of every operation, and the time spent in each stage, e.g. key
+ * coding, table access, crypto or compression. {@link HistogramMetricsListener} keeps them in
+ * latency histograms, ready to be exported, while {@link SlowOperationLogger} and {@link
+ * FlightRecorderMetricsListener} help finding latency outliers in production.
+ *
+ * <pre><code>
+ *   final HistogramMetricsListener metrics = new HistogramMetricsListener();
+ *   store.setMetricsListener(metrics);
+ *   ...
+ *   final MetricsSnapshot snapshot = metrics.snapshot();
+ * </code></pre>
+ *
  * @since 0.1
  */
 public class DataStore {
 
+  /**
+   * Reserved key under which compression dictionaries are stored.
+   *
+   * @since 1.1
+   */
+  public static final String DICTIONARIES_KEY = "\u0000datastore:compression-dictionaries";
+
   private final @NotNull BlobTable blobTable;
   private final @NotNull CryptoOperations cryptoOperations;
   private final @NotNull KeyCoder keyCoder;
+  private final @Nullable CompressionStage compressionStage;
+  private final @Nullable DictionaryManager dictionaryManager;
+  private final @NotNull RecordFormat recordFormat;
+  private final @NotNull ReadCoalescer readCoalescer = new ReadCoalescer();
+  private final @NotNull BlobPipeline pipeline;
+  private final @NotNull BulkOperations bulkOperations;
+  private final @Nullable ChangeDispatcher changeDispatcher;
+  private volatile @Nullable MetricsListener metricsListener;
 
   /**
    * Construct a new datastore instance.
@@ -69,9 +178,59 @@ public class DataStore {
       final @NotNull CryptoOperations cryptoOperations,
       final @NotNull KeyCoder keyCoder) {
 
+    this(blobTable, cryptoOperations, keyCoder, null);
+  }
+
+  /**
+   * Construct a new datastore instance that compresses blobs before encrypting them.
+   *
+   * @param blobTable Concrete {@link BlobTable} instance.
+   * @param cryptoOperations Concrete {@link CryptoOperations} instance.
+   * @param keyCoder Concrete {@link KeyCoder} instance.
+   * @param compressionStage Compression applied to blobs before they get encrypted, or {@code
+   *     null} to store them uncompressed.
+   * @since 1.1
+   */
+  public DataStore(
+      final @NotNull BlobTable blobTable,
+      final @NotNull CryptoOperations cryptoOperations,
+      final @NotNull KeyCoder keyCoder,
+      final @Nullable CompressionStage compressionStage) {
+
+    this(blobTable, cryptoOperations, keyCoder, compressionStage, false);
+  }
+
+  /**
+   * Construct a new datastore instance, optionally prefixing records with a metadata header.
+   *
+   * @param blobTable Concrete {@link BlobTable} instance.
+   * @param cryptoOperations Concrete {@link CryptoOperations} instance.
+   * @param keyCoder Concrete {@link KeyCoder} instance.
+   * @param compressionStage Compression applied to blobs before they get encrypted, or {@code
+   *     null} to store them uncompressed.
+   * @param metadataHeaders Whether records start with a header readable by {@link #stat(String)}.
+   * @since 1.1
+   */
+  public DataStore(
+      final @NotNull BlobTable blobTable,
+      final @NotNull CryptoOperations cryptoOperations,
+      final @NotNull KeyCoder keyCoder,
+      final @Nullable CompressionStage compressionStage,
+      final boolean metadataHeaders) {
+
     this.blobTable = blobTable;
     this.cryptoOperations = cryptoOperations;
     this.keyCoder = keyCoder;
+    this.compressionStage = compressionStage;
+    this.dictionaryManager = DictionaryManager.create(
+        blobTable, cryptoOperations, keyCoder, compressionStage);
+    this.recordFormat = new RecordFormat(
+        cryptoOperations, compressionStage, dictionaryManager, metadataHeaders);
+    this.pipeline = new BlobPipeline(blobTable, keyCoder, recordFormat, readCoalescer);
+    this.bulkOperations =
+        new BulkOperations(blobTable, recordFormat, dictionaryManager, readCoalescer);
+    this.changeDispatcher = blobTable instanceof ObservableBlobTable
+        ? new ChangeDispatcher((ObservableBlobTable) blobTable, keyCoder, readCoalescer) : null;
   }
 
   /**
@@ -107,9 +266,117 @@ public class DataStore {
     return keyCoder;
   }
 
+  /**
+   * Get the compression stage used by this instance.
+   *
+   * @return A {@link CompressionStage} object, or {@code null} if blobs are stored uncompressed.
+   * @since 1.1
+   */
+  @Nullable
+  public CompressionStage getCompressionStage() {
+    return compressionStage;
+  }
+
+  /**
+   * Get the number of reads that were served by waiting for a concurrent read of the same blob,
+   * rather than by reading and decrypting the blob again.
+   *
+   * @return Number of coalesced reads since this instance was created.
+   * @since 1.1
+   */
+  public long getCoalescedReadCount() {
+    return readCoalescer.getCoalescedCount();
+  }
+
+  /**
+   * Enable, resize or disable the cache of decrypted blobs. Blobs written by this instance are
+   * invalidated, yet writes from other instances sharing the same blob table are not seen until
+   * their blobs leave the cache, unless the table is an {@link ObservableBlobTable} that reports
+   * them.
+   *
+   * <p>Blobs are copied in and out of the cache, and zeroed when they get evicted or invalidated,
+   * or when the cache is disabled or resized, so that plaintext doesn't linger on the heap longer
+   * than needed.
+   *
+   * @param maximumBytes Total size of the blobs kept in the cache, or {@code 0} to disable it.
+   * @throws IllegalArgumentException {@code maximumBytes} is negative.
+   * @since 1.1
+   */
+  public void setPlaintextCacheSize(final long maximumBytes) {
+    if (maximumBytes < 0) {
+      throw new IllegalArgumentException("Cache size must not be negative");
+    }
+
+    readCoalescer.setPlaintextCache(maximumBytes == 0 ? null : new PlaintextCache(maximumBytes));
+    if (changeDispatcher != null) {
+      changeDispatcher.setInvalidating(maximumBytes != 0);
+    }
+  }
+
+  /**
+   * Set the listener notified of every operation and its stages. Without a listener, operations
+   * don't even read the clock.
+   *
+   * @param metricsListener The listener, or {@code null} to stop reporting metrics.
+   * @since 1.1
+   */
+  public void setMetricsListener(final @Nullable MetricsListener metricsListener) {
+    this.metricsListener = metricsListener;
+  }
+
+  /**
+   * Watch a blob for changes, made through this instance or any other sharing its blob table.
+   *
+   * @param key The blob's key.
+   * @param listener Listener, called with {@code key}.
+   * @throws IllegalStateException The blob table isn't an {@link ObservableBlobTable}.
+   * @throws FailedDatastoreOperationException The key could not be encoded.
+   * @since 1.1
+   */
+  public void watch(final @NotNull String key, final @NotNull ChangeListener listener)
+      throws FailedDatastoreOperationException {
+    getChangeDispatcher().watch(key, false, listener);
+  }
+
+  /**
+   * Watch all the blobs of a namespace for changes, using the prefix of their coded keys.
+   *
+   * @param namespace Clear-text namespace, as understood by the key coder.
+   * @param listener Listener, called with {@code namespace}.
+   * @throws IllegalStateException The blob table isn't an {@link ObservableBlobTable}, or the key
+   *     coder isn't a {@link PrefixKeyCoder}.
+   * @throws FailedDatastoreOperationException The namespace could not be encoded.
+   * @since 1.1
+   */
+  public void watchNamespace(
+      final @NotNull String namespace,
+      final @NotNull ChangeListener listener) throws FailedDatastoreOperationException {
+    if (!(keyCoder instanceof PrefixKeyCoder)) {
+      throw new IllegalStateException("Key coder does not preserve namespaces");
+    }
+
+    getChangeDispatcher().watch(namespace, true, listener);
+  }
+
+  /**
+   * Stop all the watches of a listener.
+   *
+   * @param listener Listener, as passed to {@link #watch(String, ChangeListener)} or {@link
+   *     #watchNamespace(String, ChangeListener)}.
+   * @since 1.1
+   */
+  public void unwatch(final @NotNull ChangeListener listener) {
+    if (changeDispatcher != null) {
+      changeDispatcher.unwatch(listener);
+    }
+  }
+
   /**
    * Read a blob from the data store.
    *
+   * <p>Concurrent reads of the same blob are coalesced: only the first one reads and decrypts the
+   * blob, and the others get their own copy of it.
+   *
    * @param key The requested blob's key.
    * @return The blob's content if found, {@code null} otherwise.
    * @throws FailedDatastoreOperationException Reading from the data store failed.
@@ -117,19 +384,28 @@ public class DataStore {
    */
   @Nullable
   public ByteBuffer get(final @NotNull String key) throws FailedDatastoreOperationException {
-    try {
-      final CodedKey codedKey = keyCoder.encode(key);
-      final ByteBuffer encrypted = blobTable.get(codedKey);
-      if (encrypted == null) {
-        return null;
-      } else {
-        return cryptoOperations.decrypt(encrypted);
-      }
-    } catch (GeneralSecurityException e) {
-      throw new FailedDatastoreOperationException("Crypto operation failed", e);
-    } catch (IOException e) {
-      throw new FailedDatastoreOperationException("Failed to read from data store", e);
+    checkKey(key);
+    return pipeline.get(key, Probe.start(metricsListener, Metrics.GET));
+  }
+
+  /**
+   * Read the metadata of a blob, without reading nor decrypting its content.
+   *
+   * @param key The requested blob's key.
+   * @return The blob's metadata if found, {@code null} otherwise.
+   * @throws IllegalStateException This instance doesn't use metadata headers.
+   * @throws FailedDatastoreOperationException Reading from the data store failed, or the header
+   *     failed authentication.
+   * @since 1.1
+   */
+  @Nullable
+  public BlobMetadata stat(final @NotNull String key) throws FailedDatastoreOperationException {
+    if (!recordFormat.hasMetadataHeaders()) {
+      throw new IllegalStateException("Metadata headers are disabled");
     }
+
+    checkKey(key);
+    return pipeline.stat(key, Probe.start(metricsListener, Metrics.STAT));
   }
 
   /**
@@ -143,18 +419,77 @@ public class DataStore {
    */
   public void put(final @NotNull String key, final @Nullable ByteBuffer blob)
       throws FailedDatastoreOperationException {
-    try {
-      final CodedKey codedKey = keyCoder.encode(key);
-      if (blob == null) {
-        blobTable.remove(codedKey);
-      } else {
-        blobTable.put(codedKey, cryptoOperations.encrypt(blob.slice()));
-      }
-    } catch (GeneralSecurityException e) {
-      throw new FailedDatastoreOperationException("Crypto operation failed", e);
-    } catch (IOException e) {
-      throw new FailedDatastoreOperationException("Failed to write in data store", e);
-    }
+    checkKey(key);
+    final int operation = blob == null ? Metrics.REMOVE : Metrics.PUT;
+    pipeline.put(key, blob, Probe.start(metricsListener, operation));
+  }
+
+  /**
+   * Save a blob into the data store, only if there is none for its key yet.
+   *
+   * <p>This is only atomic within one blob table instance, see the class documentation.
+   *
+   * @param key The blob's key.
+   * @param blob The blob's content.
+   * @return Whether the blob was saved.
+   * @throws IllegalStateException The blob table isn't a {@link VersionedBlobTable}.
+   * @throws FailedDatastoreOperationException Writing to the data store failed.
+   * @since 1.1
+   */
+  public boolean putIfAbsent(final @NotNull String key, final @NotNull ByteBuffer blob)
+      throws FailedDatastoreOperationException {
+    checkKey(key);
+    checkVersioned();
+    return pipeline.putIfAbsent(key, blob, Probe.start(metricsListener, Metrics.PUT_IF_ABSENT));
+  }
+
+  /**
+   * Replace a blob, only if its current content is a given one. This is a compare-and-set on the
+   * decrypted content, built on the version stamps of the blob table, so that updates of other
+   * keys never wait.
+   *
+   * <p>A write through another blob table instance, e.g. from another process sharing a {@link
+   * FileBlobTable} directory, can still be lost, see the class documentation.
+   *
+   * @param key The blob's key.
+   * @param expected The blob's expected current content.
+   * @param blob The blob's new content, or {@code null} to remove it.
+   * @return Whether the blob was replaced.
+   * @throws IllegalStateException The blob table isn't a {@link VersionedBlobTable}.
+   * @throws FailedDatastoreOperationException Reading or writing the data store failed.
+   * @since 1.1
+   */
+  public boolean replace(
+      final @NotNull String key,
+      final @NotNull ByteBuffer expected,
+      final @Nullable ByteBuffer blob) throws FailedDatastoreOperationException {
+    checkKey(key);
+    checkVersioned();
+    return pipeline.replace(key, expected, blob, Probe.start(metricsListener, Metrics.REPLACE));
+  }
+
+  /**
+   * Atomically update a blob: read it, compute its new content, and write it only if no other
+   * write happened in between, or start over. Concurrent updaters of the same key never lose each
+   * other's writes, while updaters of different keys don't contend.
+   *
+   * <p>Updaters using other blob table instances, e.g. other processes sharing a {@link
+   * FileBlobTable} directory, are not excluded, see the class documentation.
+   *
+   * @param key The blob's key.
+   * @param function Computes the new content from the current one. It may be called several
+   *     times.
+   * @return The blob's new content, or {@code null} if it was removed.
+   * @throws IllegalStateException The blob table isn't a {@link VersionedBlobTable}.
+   * @throws FailedDatastoreOperationException Reading or writing the data store failed.
+   * @since 1.1
+   */
+  @Nullable
+  public ByteBuffer compute(final @NotNull String key, final @NotNull BlobFunction function)
+      throws FailedDatastoreOperationException {
+    checkKey(key);
+    checkVersioned();
+    return pipeline.compute(key, function, Probe.start(metricsListener, Metrics.COMPUTE));
   }
 
   /**
@@ -171,14 +506,144 @@ public class DataStore {
   /**
    * Wipe out all blobs in the data store.
    *
+   * <p>Compression dictionaries, if any, are kept.
+   *
    * @throws FailedDatastoreOperationException Writing to the data store failed.
    * @since 0.1
    */
   public void clear() throws FailedDatastoreOperationException {
-    try {
-      blobTable.clear();
-    } catch (IOException e) {
-      throw new FailedDatastoreOperationException("Failed to clear data store", e);
+    bulkOperations.clear(Probe.start(metricsListener, Metrics.CLEAR));
+  }
+
+  /**
+   * Remove all the blobs in a namespace, using a prefix scan of the blob table rather than
+   * decoding every key.
+   *
+   * <p>Compression dictionaries, if any, are kept.
+   *
+   * @param namespace Clear-text namespace, as understood by the key coder.
+   * @return Number of blobs removed.
+   * @throws IllegalArgumentException {@code namespace} is empty.
+   * @throws IllegalStateException The key coder isn't a {@link PrefixKeyCoder}.
+   * @throws FailedDatastoreOperationException Writing to the data store failed.
+   * @since 1.1
+   */
+  public int removeAll(final @NotNull String namespace) throws FailedDatastoreOperationException {
+    if (namespace.isEmpty()) {
+      throw new IllegalArgumentException("Empty namespace");
+    }
+    if (!(keyCoder instanceof PrefixKeyCoder)) {
+      throw new IllegalStateException("Key coder does not preserve namespaces");
+    }
+
+    final Probe probe = Probe.start(metricsListener, Metrics.REMOVE_ALL);
+    return bulkOperations.removeAll((PrefixKeyCoder) keyCoder, namespace, probe);
+  }
+
+  /**
+   * Train a new compression dictionary from a random sample of the blobs in the store.
+   *
+   * <p>The new dictionary is only kept if it compresses the sample better than the current one.
+   * Blobs written afterwards use it, and older ones can be recompressed by calling {@link
+   * #compact()}.
+   *
+   * <p>Only one process sharing a given blob table should train dictionaries.
+   *
+   * @param sampleCount Maximum number of blobs to sample.
+   * @return Version of the new dictionary, or {@code 0} if none was kept.
+   * @throws IllegalStateException The compression stage has no {@link DictionaryDeflateCodec}.
+   * @throws FailedDatastoreOperationException Reading or writing the data store failed.
+   * @since 1.1
+   */
+  public int trainCompressionDictionary(final int sampleCount)
+      throws FailedDatastoreOperationException {
+    if (dictionaryManager == null) {
+      throw new IllegalStateException("No dictionary codec in the compression stage");
+    }
+
+    return bulkOperations.train(sampleCount, Probe.start(metricsListener, Metrics.TRAIN));
+  }
+
+  /**
+   * Recompress every blob that would get smaller with the current compression stage, e.g. after
+   * a better dictionary was trained.
+   *
+   * <p>This reads and decrypts the whole store, so it should run from a background thread.
+   *
+   * @return Number of blobs that were rewritten.
+   * @throws FailedDatastoreOperationException Reading or writing the data store failed.
+   * @since 1.1
+   */
+  public int compact() throws FailedDatastoreOperationException {
+    if (compressionStage == null) {
+      return 0;
+    }
+
+    return bulkOperations.compact(Probe.start(metricsListener, Metrics.COMPACT));
+  }
+
+  /**
+   * Rewrap the data keys of all blobs with the current key-encryption key, e.g. after calling
+   * {@link EnvelopeCryptoOperations#rotate(String,
+   * com.rakuten.tech.mobile.datastore.crypto.AeadCryptoOperations)}.
+   *
+   * <p>Blobs are neither decrypted nor re-encrypted, yet the whole store is scanned, so this should
+   * run from a background thread. It stops early when that thread is interrupted, and can be run
+   * again later to finish the job.
+   *
+   * @param pauseMillis Time to sleep after each rewritten blob, to throttle the job.
+   * @return Number of blobs that were rewritten.
+   * @throws IllegalStateException The crypto operations aren't {@link EnvelopeCryptoOperations}.
+   * @throws FailedDatastoreOperationException Reading or writing the data store failed, or a blob
+   *     uses an unknown key-encryption key.
+   * @since 1.1
+   */
+  public int rewrapKeys(final long pauseMillis) throws FailedDatastoreOperationException {
+    if (!(cryptoOperations instanceof EnvelopeCryptoOperations)) {
+      throw new IllegalStateException("Crypto operations don't use envelope encryption");
+    }
+
+    final Probe probe = Probe.start(metricsListener, Metrics.REWRAP);
+    return bulkOperations.rewrapKeys(
+        (EnvelopeCryptoOperations) cryptoOperations, pauseMillis, probe);
+  }
+
+  /**
+   * Pay ahead of time the one-time costs of the first operations: initialization of the key coder
+   * and crypto operations, loading of the compression dictionaries, and warm-up of the blob table
+   * if it is a {@link WarmableBlobTable}.
+   *
+   * <p>This blocks until done, so it should run from a background thread right after the store is
+   * created. The store can be used meanwhile, with its first operations waiting on, or sharing, the
+   * work in progress.
+   *
+   * @param listener Notified after each step, or {@code null}.
+   * @throws FailedDatastoreOperationException A step of the warm-up failed. The store can still be
+   *     used, the failing step being retried on demand.
+   * @since 1.1
+   */
+  public void warmUp(final @Nullable WarmUpListener listener)
+      throws FailedDatastoreOperationException {
+    new WarmUp(blobTable, cryptoOperations, keyCoder, dictionaryManager).run(listener);
+  }
+
+  @NotNull
+  private ChangeDispatcher getChangeDispatcher() {
+    if (changeDispatcher == null) {
+      throw new IllegalStateException("Blob table does not report changes");
+    }
+    return changeDispatcher;
+  }
+
+  private void checkVersioned() {
+    if (!(blobTable instanceof VersionedBlobTable)) {
+      throw new IllegalStateException("Blob table has no version stamps");
+    }
+  }
+
+  private void checkKey(final @NotNull String key) {
+    if (DICTIONARIES_KEY.equals(key)) {
+      throw new IllegalArgumentException("Reserved key");
     }
   }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.compression.CompressionCodec;
+import com.rakuten.tech.mobile.datastore.compression.CompressionDictionaries;
+import com.rakuten.tech.mobile.datastore.compression.CompressionStage;
+import com.rakuten.tech.mobile.datastore.compression.DictionaryDeflateCodec;
+import com.rakuten.tech.mobile.datastore.compression.DictionaryTrainer;
+import com.rakuten.tech.mobile.datastore.crypto.CryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.KeyCoder;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Loads, trains and persists the compression dictionaries of a {@link DataStore}.
+ *
+ * <p>Dictionaries are stored encrypted under {@link DataStore#DICTIONARIES_KEY}, without any
+ * compression or record header, so that they can be read before anything else.
+ */
+final class DictionaryManager {
+
+  private final @NotNull BlobTable blobTable;
+  private final @NotNull CryptoOperations cryptoOperations;
+  private final @NotNull KeyCoder keyCoder;
+  private final @NotNull DictionaryDeflateCodec codec;
+  private volatile boolean loaded;
+
+  private DictionaryManager(
+      final @NotNull BlobTable blobTable,
+      final @NotNull CryptoOperations cryptoOperations,
+      final @NotNull KeyCoder keyCoder,
+      final @NotNull DictionaryDeflateCodec codec) {
+
+    this.blobTable = blobTable;
+    this.cryptoOperations = cryptoOperations;
+    this.keyCoder = keyCoder;
+    this.codec = codec;
+  }
+
+  /**
+   * Create a manager for the dictionary codec of a compression stage, if it has one.
+   */
+  @Nullable
+  static DictionaryManager create(
+      final @NotNull BlobTable blobTable,
+      final @NotNull CryptoOperations cryptoOperations,
+      final @NotNull KeyCoder keyCoder,
+      final @Nullable CompressionStage compressionStage) {
+
+    if (compressionStage != null) {
+      for (CompressionCodec codec : compressionStage.getCodecs()) {
+        if (codec instanceof DictionaryDeflateCodec) {
+          return new DictionaryManager(
+              blobTable, cryptoOperations, keyCoder, (DictionaryDeflateCodec) codec);
+        }
+      }
+    }
+    return null;
+  }
+
+  @NotNull
+  CodedKey getCodedKey() throws GeneralSecurityException {
+    return keyCoder.encode(DataStore.DICTIONARIES_KEY);
+  }
+
+  /**
+   * Load the persisted dictionaries, unless they were already loaded and {@code reload} is false.
+   */
+  void load(final boolean reload) throws IOException, GeneralSecurityException {
+    if (loaded && !reload) {
+      return;
+    }
+
+    synchronized (this) {
+      if (!loaded || reload) {
+        final ByteBuffer encrypted = blobTable.get(getCodedKey());
+        if (encrypted != null) {
+          codec.getDictionaries().load(cryptoOperations.decrypt(encrypted));
+        }
+        loaded = true;
+      }
+    }
+  }
+
+  /**
+   * Persist the dictionaries currently in use, if any.
+   */
+  void persist() throws IOException, GeneralSecurityException {
+    final CompressionDictionaries dictionaries = codec.getDictionaries();
+    if (dictionaries.getLatestVersion() > 0) {
+      blobTable.put(getCodedKey(), cryptoOperations.encrypt(dictionaries.serialize()));
+    }
+  }
+
+  /**
+   * Train a new dictionary from a random sample of the blobs in the table.
+   *
+   * @return Version of the new dictionary, or {@code 0} if it wasn't better than the current one.
+   */
+  synchronized int train(final @NotNull RecordFormat format, final int sampleCount)
+      throws IOException, GeneralSecurityException {
+    load(false);
+    final CompressionDictionaries dictionaries = codec.getDictionaries();
+    final List<ByteBuffer> samples = sample(format, sampleCount);
+    final byte[] dictionary = DictionaryTrainer.train(
+        samples, DictionaryTrainer.DEFAULT_DICTIONARY_LENGTH);
+    final byte[] current = dictionaries.get(dictionaries.getLatestVersion());
+
+    if (dictionary == null || DictionaryTrainer.measure(samples, dictionary)
+        >= DictionaryTrainer.measure(samples, current)) {
+      return 0;
+    }
+
+    // Persist the new dictionary before anything gets compressed with it
+    final CompressionDictionaries updated = new CompressionDictionaries();
+    updated.load(dictionaries.serialize());
+    final int version = updated.add(dictionary);
+    final ByteBuffer serialized = updated.serialize();
+    blobTable.put(getCodedKey(), cryptoOperations.encrypt(serialized));
+    dictionaries.load(serialized);
+    return version;
+  }
+
+  /**
+   * Pick blobs at random using reservoir sampling over the table's keys.
+   */
+  @NotNull
+  private List<ByteBuffer> sample(final @NotNull RecordFormat format, final int sampleCount)
+      throws IOException, GeneralSecurityException {
+    final CodedKey dictionariesKey = getCodedKey();
+    final List<CodedKey> keys = new ArrayList<>(sampleCount);
+    final Random random = new Random();
+
+    int seen = 0;
+    for (Iterator<CodedKey> it = blobTable.iterator(); it.hasNext(); ) {
+      final CodedKey codedKey = it.next();
+      if (codedKey.equals(dictionariesKey)) {
+        continue;
+      }
+
+      if (keys.size() < sampleCount) {
+        keys.add(codedKey);
+      } else {
+        final int slot = random.nextInt(seen + 1);
+        if (slot < sampleCount) {
+          keys.set(slot, codedKey);
+        }
+      }
+      seen++;
+    }
+
+    final List<ByteBuffer> samples = new ArrayList<>(keys.size());
+    for (CodedKey codedKey : keys) {
+      final ByteBuffer stored = blobTable.get(codedKey);
+      if (stored != null) {
+        final ByteBuffer blob = format.decode(codedKey, stored, Probe.DISABLED);
+        if (blob.hasRemaining() && blob.remaining() <= codec.getMaximumLength()) {
+          samples.add(blob);
+        }
+      }
+    }
+    return samples;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.crypto.EnvelopeCryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import com.rakuten.tech.mobile.datastore.tables.BlobTables;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlob;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Moves the records of a {@link DataStore} using {@link EnvelopeCryptoOperations} to the current
+ * key-encryption key, one record at a time.
+ *
+ * <p>Only the beginning of each record is read to tell whether it needs rewrapping, so that
+ * records already moved cost little. Rewrapped records are written back whole, as blob tables have
+ * no partial writes, but their blob is neither decrypted nor re-encrypted.
+ */
+final class KeyRewrapper {
+
+  private final @NotNull BlobTable blobTable;
+  private final @NotNull RecordFormat recordFormat;
+  private final @NotNull EnvelopeCryptoOperations envelope;
+  private final @Nullable CodedKey dictionariesKey;
+
+  KeyRewrapper(
+      final @NotNull BlobTable blobTable,
+      final @NotNull RecordFormat recordFormat,
+      final @NotNull EnvelopeCryptoOperations envelope,
+      final @Nullable CodedKey dictionariesKey) {
+
+    this.blobTable = blobTable;
+    this.recordFormat = recordFormat;
+    this.envelope = envelope;
+    this.dictionariesKey = dictionariesKey;
+  }
+
+  /**
+   * Rewrap all records not using the current key-encryption key.
+   *
+   * @param pauseMillis Time to sleep after each rewritten record, so as not to starve the
+   *     foreground work of I/O.
+   * @return Number of records rewritten, possibly before all were done if the thread got
+   *     interrupted.
+   */
+  int run(final long pauseMillis) throws IOException, GeneralSecurityException {
+    int rewritten = 0;
+    for (Iterator<CodedKey> it = blobTable.iterator(); it.hasNext(); ) {
+      final CodedKey codedKey = it.next();
+      if (rewrap(codedKey)) {
+        rewritten++;
+        if (!pause(pauseMillis)) {
+          break;
+        }
+      }
+    }
+    return rewritten;
+  }
+
+  private boolean rewrap(final @NotNull CodedKey codedKey)
+      throws IOException, GeneralSecurityException {
+    // Dictionaries are stored without record header
+    final boolean dictionaries = codedKey.equals(dictionariesKey);
+    final ByteBuffer prefix = BlobTables.peek(blobTable, codedKey, dictionaries
+        ? EnvelopeCryptoOperations.MAXIMUM_HEADER_LENGTH : recordFormat.getRewrapPeekLength());
+    if (prefix == null || (dictionaries
+        ? envelope.isCurrent(prefix) : recordFormat.isWrappedByCurrentKey(prefix))) {
+      return false;
+    }
+
+    final VersionedBlob record = RecordRewrites.read(blobTable, codedKey);
+    if (record == null) {
+      return false;
+    }
+
+    final ByteBuffer rewrapped = dictionaries
+        ? envelope.rewrap(record.getBlob()) : recordFormat.rewrap(codedKey, record.getBlob());
+    return rewrapped != null && RecordRewrites.write(blobTable, codedKey, record, rewrapped);
+  }
+
+  private static boolean pause(final long pauseMillis) {
+    if (pauseMillis > 0) {
+      try {
+        Thread.sleep(pauseMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return !Thread.currentThread().isInterrupted();
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decrypted blobs of a {@link DataStore}, kept within a byte budget and evicting the least recently
+ * used ones first.
+ *
+ * <p>The cache keeps its own copies of blobs and hands out copies too, so that it can zero blobs
+ * when they get evicted or invalidated without affecting callers.
+ *
+ * <p>Loads are registered when they start, and their result is only cached if their key was not
+ * invalidated meanwhile, so that a load racing with a write cannot cache the blob the write
+ * replaced. Invalidations are tracked per key, only for keys being loaded, so writes to other keys
+ * don't keep a load from being cached.
+ */
+final class PlaintextCache {
+
+  private final long maximumBytes;
+  private final @NotNull Map<CodedKey, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final @NotNull Map<CodedKey, Loads> loads = new HashMap<>();
+  private long bytes;
+  private long sequence;
+  private long clearedAt;
+
+  PlaintextCache(final long maximumBytes) {
+    this.maximumBytes = maximumBytes;
+  }
+
+  /**
+   * Get a copy of a cached blob.
+   *
+   * @return The blob, or {@code null} if it isn't cached.
+   */
+  @Nullable
+  synchronized ByteBuffer get(final @NotNull CodedKey codedKey) {
+    final byte[] blob = entries.get(codedKey);
+    return blob == null ? null : ByteBuffer.wrap(blob.clone());
+  }
+
+  /**
+   * Register a load of a blob, which must then be passed to {@link #finishLoad(CodedKey,
+   * ByteBuffer, long)}, whether it succeeds or not.
+   *
+   * @return Stamp to pass to {@link #finishLoad(CodedKey, ByteBuffer, long)}.
+   */
+  synchronized long startLoad(final @NotNull CodedKey codedKey) {
+    Loads current = loads.get(codedKey);
+    if (current == null) {
+      current = new Loads();
+      loads.put(codedKey, current);
+    }
+    current.count++;
+    return sequence;
+  }
+
+  /**
+   * Unregister a load, caching a copy of its blob unless its key was invalidated since the load
+   * started or the blob is larger than the whole budget.
+   *
+   * @param blob Loaded blob, or {@code null} if there was none or the load failed.
+   * @param started Stamp returned by {@link #startLoad(CodedKey)}.
+   */
+  synchronized void finishLoad(
+      final @NotNull CodedKey codedKey,
+      final @Nullable ByteBuffer blob,
+      final long started) {
+    final Loads current = loads.get(codedKey);
+    final long invalidated = Math.max(clearedAt, current == null ? 0 : current.invalidated);
+    if (current != null && --current.count == 0) {
+      loads.remove(codedKey);
+    }
+    if (blob == null || invalidated > started || blob.remaining() > maximumBytes) {
+      return;
+    }
+
+    final byte[] copy = new byte[blob.remaining()];
+    blob.duplicate().get(copy);
+    wipe(entries.put(codedKey, copy));
+    bytes += copy.length;
+
+    final Iterator<byte[]> it = entries.values().iterator();
+    while (bytes > maximumBytes && it.hasNext()) {
+      wipe(it.next());
+      it.remove();
+    }
+  }
+
+  /**
+   * Drop and zero a cached blob.
+   */
+  synchronized void invalidate(final @NotNull CodedKey codedKey) {
+    final Loads current = loads.get(codedKey);
+    if (current != null) {
+      current.invalidated = ++sequence;
+    }
+    wipe(entries.remove(codedKey));
+  }
+
+  /**
+   * Drop and zero all cached blobs.
+   */
+  synchronized void invalidateAll() {
+    clearedAt = ++sequence;
+    for (byte[] blob : entries.values()) {
+      wipe(blob);
+    }
+    entries.clear();
+  }
+
+  private void wipe(final @Nullable byte[] blob) {
+    if (blob != null) {
+      Arrays.fill(blob, (byte) 0);
+      bytes -= blob.length;
+    }
+  }
+
+  /**
+   * Loads in flight for a key.
+   */
+  private static final class Loads {
+
+    private int count;
+
+    /**
+     * Stamp of the last invalidation of the key since the first of these loads started.
+     */
+    private long invalidated;
+  }
+}
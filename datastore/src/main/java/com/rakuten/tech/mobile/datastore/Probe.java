@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.metrics.MetricsListener;
+import com.rakuten.tech.mobile.datastore.metrics.TracingMetricsListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Times one data store operation and its stages for a {@link MetricsListener}.
+ *
+ * <p>Without a listener, operations share the {@link #DISABLED} probe, which neither allocates nor
+ * reads the clock, so that instrumentation costs next to nothing when unused.
+ */
+final class Probe {
+
+  static final Probe DISABLED = new Probe(null, 0);
+
+  private final @Nullable MetricsListener listener;
+  private final int operation;
+  private final long start;
+  private long bytesIn;
+  private long bytesOut;
+  private boolean succeeded;
+
+  private Probe(final @Nullable MetricsListener listener, final int operation) {
+    this.listener = listener;
+    this.operation = operation;
+    this.start = listener == null ? 0 : System.nanoTime();
+  }
+
+  static Probe start(final @Nullable MetricsListener listener, final int operation) {
+    if (listener == null) {
+      return DISABLED;
+    }
+
+    if (listener instanceof TracingMetricsListener) {
+      ((TracingMetricsListener) listener).onStart(operation);
+    }
+    return new Probe(listener, operation);
+  }
+
+  /**
+   * Tell tracing listeners which key the operation is about.
+   */
+  void key(final @NotNull CodedKey codedKey) {
+    if (listener instanceof TracingMetricsListener) {
+      ((TracingMetricsListener) listener).onKey(operation, codedKey.hashCode());
+    }
+  }
+
+  /**
+   * Start time of a stage, to pass to {@link #stage(int, long)}.
+   */
+  long now() {
+    return listener == null ? 0 : System.nanoTime();
+  }
+
+  void stage(final int stage, final long stageStart) {
+    if (listener != null) {
+      listener.onStage(operation, stage, System.nanoTime() - stageStart);
+    }
+  }
+
+  void addBytesIn(final long bytes) {
+    if (listener != null) {
+      bytesIn += bytes;
+    }
+  }
+
+  void addBytesOut(final long bytes) {
+    if (listener != null) {
+      bytesOut += bytes;
+    }
+  }
+
+  void succeed() {
+    if (listener != null) {
+      succeeded = true;
+    }
+  }
+
+  /**
+   * Report the operation, as failed unless {@link #succeed()} was called.
+   */
+  void end() {
+    if (listener != null) {
+      listener.onOperation(operation, System.nanoTime() - start, bytesIn, bytesOut, !succeeded);
+    }
+  }
+}
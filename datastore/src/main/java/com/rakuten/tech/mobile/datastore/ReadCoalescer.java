@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Coalesces concurrent reads of the same key into a single load: the first reader loads the blob,
+ * while the others wait for it and get their own copy, so that callers may modify or zero what
+ * they get. Read-only blobs can't be modified, so waiters share them instead. Loaded blobs also go
+ * to the plaintext cache, if any, which serves later reads.
+ *
+ * <p>Writes call {@link #forget(CodedKey)} once done, so that reads starting afterwards neither
+ * join a load that may have started before the write nor get the blob it replaced from the cache.
+ */
+final class ReadCoalescer {
+
+  /**
+   * Reads a blob, for the first of concurrent readers.
+   */
+  interface Loader {
+    @Nullable
+    ByteBuffer load() throws FailedDatastoreOperationException;
+  }
+
+  private final @NotNull ConcurrentMap<CodedKey, Flight> flights = new ConcurrentHashMap<>();
+  private final @NotNull AtomicLong coalesced = new AtomicLong();
+  private volatile @Nullable PlaintextCache plaintextCache;
+
+  /**
+   * Replace the plaintext cache, zeroing the blobs held by the previous one.
+   */
+  void setPlaintextCache(final @Nullable PlaintextCache plaintextCache) {
+    final PlaintextCache previous = this.plaintextCache;
+    this.plaintextCache = plaintextCache;
+    if (previous != null) {
+      previous.invalidateAll();
+    }
+  }
+
+  /**
+   * Read a blob, or wait for the read already in flight for the same key.
+   */
+  @Nullable
+  ByteBuffer get(final @NotNull CodedKey codedKey, final @NotNull Loader loader)
+      throws FailedDatastoreOperationException {
+    final PlaintextCache cache = plaintextCache;
+    final ByteBuffer cached = cache == null ? null : cache.get(codedKey);
+    if (cached != null) {
+      return cached;
+    }
+
+    final Flight flight = new Flight();
+    for (Flight existing = flights.putIfAbsent(codedKey, flight); existing != null;
+        existing = flights.putIfAbsent(codedKey, flight)) {
+      if (existing.join()) {
+        coalesced.incrementAndGet();
+        return existing.await();
+      }
+      // Completed, but not removed by its first reader yet
+      flights.remove(codedKey, existing);
+    }
+
+    try {
+      final ByteBuffer blob = load(codedKey, loader, cache);
+      flight.complete(blob, null);
+      return blob;
+    } catch (FailedDatastoreOperationException | RuntimeException | Error e) {
+      flight.complete(null, e);
+      throw e;
+    } finally {
+      flights.remove(codedKey, flight);
+    }
+  }
+
+  /**
+   * Load a blob, caching it if nothing invalidated its key meanwhile.
+   */
+  @Nullable
+  private static ByteBuffer load(
+      final @NotNull CodedKey codedKey,
+      final @NotNull Loader loader,
+      final @Nullable PlaintextCache cache) throws FailedDatastoreOperationException {
+    if (cache == null) {
+      return loader.load();
+    }
+
+    final long started = cache.startLoad(codedKey);
+    ByteBuffer blob = null;
+    try {
+      blob = loader.load();
+      return blob;
+    } finally {
+      cache.finishLoad(codedKey, blob, started);
+    }
+  }
+
+  /**
+   * Make later reads of a key load it again rather than join a read in flight or hit the cache.
+   */
+  void forget(final @NotNull CodedKey codedKey) {
+    flights.remove(codedKey);
+    final PlaintextCache cache = plaintextCache;
+    if (cache != null) {
+      cache.invalidate(codedKey);
+    }
+  }
+
+  /**
+   * Make later reads of all keys load them again rather than join reads in flight or hit the
+   * cache.
+   */
+  void forgetAll() {
+    flights.clear();
+    final PlaintextCache cache = plaintextCache;
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * Number of reads served by joining another read in flight.
+   */
+  long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /**
+   * A read in flight. Readers join it until it completes, at which point the blob is copied if
+   * any did, since the first reader's caller owns the loaded blob.
+   */
+  private static final class Flight {
+
+    private final @NotNull CountDownLatch done = new CountDownLatch(1);
+    private int waiters;
+    private boolean completed;
+    private @Nullable ByteBuffer blob;
+    private @Nullable Throwable failure;
+
+    /**
+     * Register a reader waiting for this read, unless it already completed.
+     */
+    synchronized boolean join() {
+      if (completed) {
+        return false;
+      }
+      waiters++;
+      return true;
+    }
+
+    void complete(final @Nullable ByteBuffer blob, final @Nullable Throwable failure) {
+      synchronized (this) {
+        completed = true;
+        this.blob = blob == null || waiters == 0 ? null : share(blob);
+        this.failure = failure;
+      }
+      done.countDown();
+    }
+
+    @Nullable
+    ByteBuffer await() throws FailedDatastoreOperationException {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FailedDatastoreOperationException("Interrupted while waiting for a read", e);
+      }
+
+      if (failure instanceof FailedDatastoreOperationException) {
+        // Rethrown from this thread
+        throw new FailedDatastoreOperationException(failure.getMessage(), failure.getCause());
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      return blob == null ? null : share(blob);
+    }
+
+    @NotNull
+    private static ByteBuffer share(final @NotNull ByteBuffer blob) {
+      if (blob.isReadOnly()) {
+        return blob.duplicate();
+      }
+
+      final byte[] bytes = new byte[blob.remaining()];
+      blob.duplicate().get(bytes);
+      return ByteBuffer.wrap(bytes);
+    }
+  }
+}
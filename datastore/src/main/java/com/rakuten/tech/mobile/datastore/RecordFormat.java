@@ -0,0 +1,354 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.compression.CompressionStage;
+import com.rakuten.tech.mobile.datastore.compression.UnknownDictionaryException;
+import com.rakuten.tech.mobile.datastore.crypto.BufferCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.CryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.EnvelopeCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.SigningOperations;
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.metrics.Metrics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Turns blobs into the records stored in a blob table and back: compression, encryption and,
+ * optionally, a metadata header.
+ *
+ * <p>The header is stored in clear in front of the ciphertext so that metadata can be read without
+ * fetching nor decrypting the whole record:
+ *
+ * <pre>
+ *   offset  size  content
+ *        0     1  magic, 'D'
+ *        1     1  format version
+ *        2     2  reserved, zero
+ *        4     4  size of the blob
+ *        8     8  write timestamp, in milliseconds since the epoch
+ *       16     8  tag
+ * </pre>
+ *
+ * <p>When the crypto operations implement {@link SigningOperations}, the tag is a truncated MAC
+ * of the coded key, the first 16 bytes of the header and the beginning of the ciphertext, so that a
+ * header can neither be altered nor moved to another record. Otherwise, the tag is zero. With
+ * {@link EnvelopeCryptoOperations}, the MAC is keyed by the key-encryption key of the record, so
+ * that tags survive key rotations.
+ */
+final class RecordFormat {
+
+  static final int HEADER_LENGTH = 24;
+  static final int FORMAT_VERSION = 1;
+
+  /**
+   * Number of bytes at the start of a record covered by the tag, including the header.
+   */
+  private static final int SIGNED_LENGTH = HEADER_LENGTH + 32;
+
+  private static final byte MAGIC = 'D';
+  private static final int TAG_OFFSET = 16;
+  private static final int TAG_LENGTH = HEADER_LENGTH - TAG_OFFSET;
+  private static final byte[] TAG_LABEL =
+      "datastore record header\u0000".getBytes(Charset.forName("UTF-8"));
+
+  private final @NotNull CryptoOperations cryptoOperations;
+  private final @Nullable CompressionStage compressionStage;
+  private final @Nullable DictionaryManager dictionaryManager;
+  private final boolean metadataHeaders;
+
+  RecordFormat(
+      final @NotNull CryptoOperations cryptoOperations,
+      final @Nullable CompressionStage compressionStage,
+      final @Nullable DictionaryManager dictionaryManager,
+      final boolean metadataHeaders) {
+
+    this.cryptoOperations = cryptoOperations;
+    this.compressionStage = compressionStage;
+    this.dictionaryManager = dictionaryManager;
+    this.metadataHeaders = metadataHeaders;
+  }
+
+  boolean hasMetadataHeaders() {
+    return metadataHeaders;
+  }
+
+  /**
+   * Number of bytes to read from the start of a record to get its metadata.
+   */
+  int getMetadataLength() {
+    return cryptoOperations instanceof EnvelopeCryptoOperations
+        ? Math.max(SIGNED_LENGTH, getRewrapPeekLength()) : SIGNED_LENGTH;
+  }
+
+  /**
+   * Turn a blob into a record, timestamped with the current time.
+   */
+  @NotNull
+  ByteBuffer encode(
+      final @NotNull CodedKey codedKey,
+      final @NotNull ByteBuffer blob,
+      final @NotNull Probe probe) throws IOException, GeneralSecurityException {
+    long start = probe.now();
+    final ByteBuffer compressed = compress(blob);
+    probe.stage(Metrics.COMPRESSION, start);
+
+    start = probe.now();
+    final ByteBuffer record =
+        encode(codedKey, blob.remaining(), compressed, System.currentTimeMillis());
+    probe.stage(Metrics.CRYPTO, start);
+    return record;
+  }
+
+  @NotNull
+  private ByteBuffer encode(
+      final @NotNull CodedKey codedKey,
+      final int size,
+      final @NotNull ByteBuffer compressed,
+      final long timestamp) throws GeneralSecurityException {
+    if (!metadataHeaders) {
+      return cryptoOperations.encrypt(compressed);
+    }
+
+    final ByteBuffer record;
+    if (cryptoOperations instanceof BufferCryptoOperations) {
+      // Encrypt straight after the header
+      final BufferCryptoOperations operations = (BufferCryptoOperations) cryptoOperations;
+      record = ByteBuffer.allocate(
+          HEADER_LENGTH + operations.getEncryptedLength(compressed.remaining()));
+      record.position(HEADER_LENGTH);
+      operations.encrypt(compressed, record);
+      record.limit(record.position());
+    } else {
+      final ByteBuffer encrypted = cryptoOperations.encrypt(compressed);
+      record = ByteBuffer.allocate(HEADER_LENGTH + encrypted.remaining());
+      record.position(HEADER_LENGTH);
+      record.put(encrypted);
+    }
+
+    record.position(0);
+    record.put(MAGIC).put((byte) FORMAT_VERSION).putShort((short) 0)
+        .putInt(size)
+        .putLong(timestamp);
+
+    record.position(TAG_OFFSET);
+    record.put(computeTag(codedKey, record));
+    record.rewind();
+    return record;
+  }
+
+  /**
+   * Turn a record back into the blob it was created from.
+   */
+  @NotNull
+  ByteBuffer decode(
+      final @NotNull CodedKey codedKey,
+      final @NotNull ByteBuffer record,
+      final @NotNull Probe probe) throws IOException, GeneralSecurityException {
+    long start = probe.now();
+    final BlobMetadata metadata = metadataHeaders ? readMetadata(codedKey, record) : null;
+    final ByteBuffer encrypted = record.slice();
+    if (metadataHeaders) {
+      encrypted.position(HEADER_LENGTH);
+    }
+    final ByteBuffer compressed = cryptoOperations.decrypt(encrypted.slice());
+    probe.stage(Metrics.CRYPTO, start);
+
+    start = probe.now();
+    final ByteBuffer blob = decompress(compressed);
+    probe.stage(Metrics.COMPRESSION, start);
+    if (metadata != null && blob.remaining() != metadata.getSize()) {
+      throw new SignatureException("Blob size doesn't match its header");
+    }
+    return blob;
+  }
+
+  /**
+   * Re-encode a record with the current compression stage, keeping its timestamp.
+   *
+   * @return The new record if it is smaller than the old one, {@code null} otherwise.
+   */
+  @Nullable
+  ByteBuffer recompress(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer record)
+      throws IOException, GeneralSecurityException {
+    final long timestamp = metadataHeaders
+        ? readMetadata(codedKey, record).getTimestamp() : System.currentTimeMillis();
+    final ByteBuffer blob = decode(codedKey, record, Probe.DISABLED);
+    final ByteBuffer recompressed = encode(codedKey, blob.remaining(), compress(blob), timestamp);
+    return recompressed.remaining() < record.remaining() ? recompressed : null;
+  }
+
+  /**
+   * Check whether the data key of a record is wrapped by the current key-encryption key.
+   *
+   * @param prefix The record, or at least its first {@link #getRewrapPeekLength()} bytes.
+   */
+  boolean isWrappedByCurrentKey(final @NotNull ByteBuffer prefix)
+      throws GeneralSecurityException {
+    final ByteBuffer encrypted = prefix.slice();
+    if (metadataHeaders) {
+      encrypted.position(Math.min(HEADER_LENGTH, encrypted.limit()));
+    }
+    return ((EnvelopeCryptoOperations) cryptoOperations).isCurrent(encrypted);
+  }
+
+  /**
+   * Number of bytes {@link #isWrappedByCurrentKey(ByteBuffer)} needs to look at.
+   */
+  int getRewrapPeekLength() {
+    return (metadataHeaders ? HEADER_LENGTH : 0) + EnvelopeCryptoOperations.MAXIMUM_HEADER_LENGTH;
+  }
+
+  /**
+   * Rewrap the data key of a record with the current key-encryption key, keeping its header and
+   * encrypted blob.
+   *
+   * @return The new record, or {@code null} if it is already wrapped by the current key.
+   */
+  @Nullable
+  ByteBuffer rewrap(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer record)
+      throws IOException, GeneralSecurityException {
+    final EnvelopeCryptoOperations envelope = (EnvelopeCryptoOperations) cryptoOperations;
+    if (!metadataHeaders) {
+      return envelope.rewrap(record);
+    }
+
+    readMetadata(codedKey, record);
+    final ByteBuffer encrypted = record.slice();
+    encrypted.position(HEADER_LENGTH);
+    final ByteBuffer rewrapped = envelope.rewrap(encrypted.slice());
+    if (rewrapped == null) {
+      return null;
+    }
+
+    final ByteBuffer header = record.slice();
+    header.limit(TAG_OFFSET);
+    final ByteBuffer result = ByteBuffer.allocate(HEADER_LENGTH + rewrapped.remaining());
+    result.put(header);
+    result.position(HEADER_LENGTH);
+    result.put(rewrapped);
+    result.flip();
+
+    // The tag covers the beginning of the ciphertext, which changed
+    result.position(TAG_OFFSET);
+    result.put(computeTag(codedKey, result));
+    result.rewind();
+    return result;
+  }
+
+  /**
+   * Read and authenticate the header of a record.
+   *
+   * @param record The record, or at least its first {@link #getMetadataLength()} bytes.
+   */
+  @NotNull
+  BlobMetadata readMetadata(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer record)
+      throws IOException, GeneralSecurityException {
+    final ByteBuffer header = record.slice();
+    if (header.remaining() < HEADER_LENGTH || header.get(0) != MAGIC) {
+      throw new IOException("Missing record header");
+    }
+
+    final int version = header.get(1) & 0xff;
+    if (version > FORMAT_VERSION) {
+      throw new IOException("Unsupported record format version " + version);
+    }
+
+    final byte[] expected = computeTag(codedKey, header);
+    final byte[] actual = new byte[TAG_LENGTH];
+    header.position(TAG_OFFSET);
+    header.get(actual);
+    if (!MessageDigest.isEqual(expected, actual)) {
+      throw new SignatureException("Record header failed authentication");
+    }
+
+    return new BlobMetadata(header.getInt(4), header.getLong(8), version);
+  }
+
+  @NotNull
+  private byte[] computeTag(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer record)
+      throws GeneralSecurityException {
+    final byte[] tag = new byte[TAG_LENGTH];
+    if (!(cryptoOperations instanceof SigningOperations)) {
+      return tag;
+    }
+
+    final int bound = Math.min(record.limit(), SIGNED_LENGTH) - HEADER_LENGTH;
+    final ByteBuffer message = ByteBuffer.allocate(
+        TAG_LABEL.length + codedKey.length() + TAG_OFFSET + bound);
+    message.put(TAG_LABEL);
+    codedKey.writeTo(message);
+
+    final ByteBuffer part = record.duplicate();
+    part.limit(TAG_OFFSET);
+    part.position(0);
+    message.put(part);
+    part.limit(HEADER_LENGTH + bound);
+    part.position(HEADER_LENGTH);
+    message.put(part);
+    message.flip();
+
+    if (cryptoOperations instanceof EnvelopeCryptoOperations) {
+      final ByteBuffer encrypted = record.duplicate();
+      encrypted.position(HEADER_LENGTH);
+      ((EnvelopeCryptoOperations) cryptoOperations).sign(message, encrypted).get(tag);
+    } else {
+      ((SigningOperations) cryptoOperations).sign(message).get(tag);
+    }
+    return tag;
+  }
+
+  @NotNull
+  private ByteBuffer compress(final @NotNull ByteBuffer blob)
+      throws IOException, GeneralSecurityException {
+    if (compressionStage == null) {
+      return blob;
+    }
+
+    if (dictionaryManager != null) {
+      dictionaryManager.load(false);
+    }
+    return compressionStage.encode(blob);
+  }
+
+  @NotNull
+  private ByteBuffer decompress(final @NotNull ByteBuffer record)
+      throws IOException, GeneralSecurityException {
+    if (compressionStage == null) {
+      return record;
+    }
+
+    if (dictionaryManager == null) {
+      return compressionStage.decode(record);
+    }
+
+    dictionaryManager.load(false);
+    try {
+      return compressionStage.decode(record);
+    } catch (UnknownDictionaryException e) {
+      // Another process may have trained a new dictionary since we last loaded them
+      dictionaryManager.load(true);
+      return compressionStage.decode(record);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlob;
+import com.rakuten.tech.mobile.datastore.tables.VersionedBlobTable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads and writes back records for background jobs that rewrite them without changing their blob,
+ * e.g. compaction. On a {@link VersionedBlobTable}, records written concurrently by the foreground
+ * are left alone rather than overwritten with a rewrite of their previous content.
+ */
+final class RecordRewrites {
+
+  private RecordRewrites() {
+  }
+
+  /**
+   * Read a record to rewrite, with its version stamp if the table has them.
+   */
+  @Nullable
+  static VersionedBlob read(final @NotNull BlobTable blobTable, final @NotNull CodedKey codedKey)
+      throws IOException {
+    if (blobTable instanceof VersionedBlobTable) {
+      return ((VersionedBlobTable) blobTable).getVersioned(codedKey);
+    }
+
+    final ByteBuffer record = blobTable.get(codedKey);
+    return record == null ? null : new VersionedBlob(record, 0);
+  }
+
+  /**
+   * Write a rewritten record back, unless the table has version stamps and the record changed
+   * since it was read.
+   *
+   * @return Whether the record was written.
+   */
+  static boolean write(
+      final @NotNull BlobTable blobTable,
+      final @NotNull CodedKey codedKey,
+      final @NotNull VersionedBlob read,
+      final @NotNull ByteBuffer record) throws IOException {
+    if (blobTable instanceof VersionedBlobTable) {
+      return ((VersionedBlobTable) blobTable).replace(codedKey, read.getVersion(), record);
+    }
+
+    blobTable.put(codedKey, record);
+    return true;
+  }
+}
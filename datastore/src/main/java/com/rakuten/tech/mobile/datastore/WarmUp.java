@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import com.rakuten.tech.mobile.datastore.crypto.CryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.KeyCoder;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import com.rakuten.tech.mobile.datastore.tables.WarmableBlobTable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Warm-up of a {@link DataStore}: pays the one-time costs of its first operations, e.g. loading
+ * security providers, compression dictionaries or the index of the blob table, ahead of time.
+ */
+final class WarmUp {
+
+  private static final String[] STEPS = {"keyCoder", "crypto", "dictionaries", "table"};
+
+  private final @NotNull BlobTable blobTable;
+  private final @NotNull CryptoOperations cryptoOperations;
+  private final @NotNull KeyCoder keyCoder;
+  private final @Nullable DictionaryManager dictionaryManager;
+
+  WarmUp(
+      final @NotNull BlobTable blobTable,
+      final @NotNull CryptoOperations cryptoOperations,
+      final @NotNull KeyCoder keyCoder,
+      final @Nullable DictionaryManager dictionaryManager) {
+
+    this.blobTable = blobTable;
+    this.cryptoOperations = cryptoOperations;
+    this.keyCoder = keyCoder;
+    this.dictionaryManager = dictionaryManager;
+  }
+
+  void run(final @Nullable WarmUpListener listener) throws FailedDatastoreOperationException {
+    try {
+      keyCoder.encode("");
+      report(listener, 0);
+
+      cryptoOperations.decrypt(cryptoOperations.encrypt(ByteBuffer.allocate(0)));
+      report(listener, 1);
+
+      if (dictionaryManager != null) {
+        dictionaryManager.load(false);
+      }
+      report(listener, 2);
+
+      if (blobTable instanceof WarmableBlobTable) {
+        ((WarmableBlobTable) blobTable).warmUp();
+      }
+      report(listener, 3);
+    } catch (GeneralSecurityException e) {
+      throw new FailedDatastoreOperationException("Crypto operation failed", e);
+    } catch (IOException e) {
+      throw new FailedDatastoreOperationException("Failed to warm up data store", e);
+    }
+  }
+
+  private static void report(final @Nullable WarmUpListener listener, final int step) {
+    if (listener != null) {
+      listener.onProgress(STEPS[step], step + 1, STEPS.length);
+    }
+  }
+}
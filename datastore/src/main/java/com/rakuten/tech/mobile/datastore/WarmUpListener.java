@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Notified of the progress of {@link DataStore#warmUp(WarmUpListener)}, e.g. to report it in a
+ * startup trace.
+ *
+ * <p>Listeners are called synchronously, from the thread warming up the store.
+ *
+ * @since 1.1
+ */
+public interface WarmUpListener {
+
+  /**
+   * Called after each step of the warm-up.
+   *
+   * @param step Name of the step that was completed: {@code "keyCoder"}, {@code "crypto"}, {@code
+   *     "dictionaries"} or {@code "table"}.
+   * @param completed Number of steps completed so far.
+   * @param total Number of steps of the warm-up.
+   * @since 1.1
+   */
+  void onProgress(final @NotNull String step, final int completed, final int total);
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compression algorithm usable by a {@link CompressionStage}.
+ *
+ * <p>Every codec is identified by a stable numeric identifier that gets written in the header of
+ * each record it produced, so that the record can later be decompressed by the same codec.
+ *
+ * @since 1.1
+ */
+public interface CompressionCodec {
+
+  /**
+   * Identifier written in the header of records produced by this codec.
+   *
+   * @return A value between {@code 1} and {@code 255}. {@code 0} is reserved for records that are
+   *     stored without compression.
+   * @since 1.1
+   */
+  int getId();
+
+  /**
+   * Compress a block of data.
+   *
+   * @param data Data to compress. Its position and limit are left untouched.
+   * @return Compressed data, or {@code null} if the codec declined to compress the data, e.g.
+   *     because the result would not be smaller than the original.
+   * @throws IOException Compression failed.
+   * @since 1.1
+   */
+  @Nullable
+  ByteBuffer compress(final @NotNull ByteBuffer data) throws IOException;
+
+  /**
+   * Decompress a block of data.
+   *
+   * @param data Data to decompress. Its position and limit are left untouched.
+   * @param originalLength Length of the data before it got compressed.
+   * @return Decompressed data.
+   * @throws IOException The data is corrupted, or was not produced by this codec.
+   * @since 1.1
+   */
+  @NotNull
+  ByteBuffer decompress(final @NotNull ByteBuffer data, final int originalLength)
+      throws IOException;
+}
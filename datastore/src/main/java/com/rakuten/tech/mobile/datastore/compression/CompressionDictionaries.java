@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Versioned set of preset dictionaries used by a {@link DictionaryDeflateCodec}.
+ *
+ * <p>New dictionaries get increasing version numbers, and older ones are kept so that records
+ * compressed with them can still be read.
+ *
+ * @since 1.1
+ */
+public final class CompressionDictionaries {
+
+  private static final int FORMAT = 1;
+
+  private final @NotNull Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+  private volatile int latestVersion;
+
+  /**
+   * Add a new dictionary.
+   *
+   * @param dictionary Content of the dictionary.
+   * @return Version number of the new dictionary.
+   * @since 1.1
+   */
+  public synchronized int add(final @NotNull byte[] dictionary) {
+    final int version = latestVersion + 1;
+    dictionaries.put(version, dictionary.clone());
+    latestVersion = version;
+    return version;
+  }
+
+  /**
+   * Get a dictionary.
+   *
+   * @param version Version number of the dictionary.
+   * @return Copy of the dictionary's content, or {@code null} if there is no such version.
+   * @since 1.1
+   */
+  @Nullable
+  public byte[] get(final int version) {
+    final byte[] dictionary = dictionaries.get(version);
+    return dictionary == null ? null : dictionary.clone();
+  }
+
+  /**
+   * Version number of the most recent dictionary.
+   *
+   * @return Version number, or {@code 0} if there is no dictionary.
+   * @since 1.1
+   */
+  public int getLatestVersion() {
+    return latestVersion;
+  }
+
+  /**
+   * Serialize all the dictionaries, e.g. for persisting them.
+   *
+   * @return New buffer.
+   * @since 1.1
+   */
+  @NotNull
+  public synchronized ByteBuffer serialize() {
+    int length = 8;
+    for (byte[] dictionary : dictionaries.values()) {
+      length += 8 + dictionary.length;
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    buffer.putInt(FORMAT);
+    buffer.putInt(dictionaries.size());
+    for (Map.Entry<Integer, byte[]> entry : dictionaries.entrySet()) {
+      buffer.putInt(entry.getKey());
+      buffer.putInt(entry.getValue().length);
+      buffer.put(entry.getValue());
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Add the dictionaries from a buffer produced by {@link #serialize()}. Versions already known to
+   * this instance are left untouched.
+   *
+   * @param serialized Serialized dictionaries. Its position and limit are left untouched.
+   * @throws IOException The buffer is corrupted.
+   * @since 1.1
+   */
+  public synchronized void load(final @NotNull ByteBuffer serialized) throws IOException {
+    final ByteBuffer buffer = serialized.slice();
+    try {
+      if (buffer.getInt() != FORMAT) {
+        throw new IOException("Unsupported dictionary format");
+      }
+
+      final int count = buffer.getInt();
+      for (int i = 0; i < count; i++) {
+        final int version = buffer.getInt();
+        final byte[] dictionary = new byte[buffer.getInt()];
+        buffer.get(dictionary);
+
+        if (!dictionaries.containsKey(version)) {
+          dictionaries.put(version, dictionary);
+          latestVersion = Math.max(latestVersion, version);
+        }
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupted dictionaries", e);
+    }
+  }
+
+  /**
+   * Get a dictionary without copying it, for use by codecs.
+   */
+  @Nullable
+  byte[] peek(final int version) {
+    return dictionaries.get(version);
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compression stage of a {@link com.rakuten.tech.mobile.datastore.DataStore}, applied to blobs
+ * before they get encrypted.
+ *
+ * <p>Every record produced by this class starts with a 5-byte header holding the identifier of the
+ * codec that compressed it, or {@code 0} if it is stored as-is, followed by the length of the
+ * uncompressed data. Records compressed by different codecs, or not compressed at all, can
+ * therefore be mixed in the same table.
+ *
+ * <p>Blobs are stored uncompressed when they are smaller than a minimum length, when a quick
+ * sample of their content shows an entropy too high for compression to pay off, e.g. because they
+ * are already compressed, or when none of the codecs manages to make them smaller.
+ *
+ * @since 1.1
+ */
+public final class CompressionStage {
+
+  /**
+   * Length of the header prepended to every record.
+   *
+   * @since 1.1
+   */
+  public static final int HEADER_LENGTH = 5;
+
+  /**
+   * Default minimum length of the blobs worth compressing.
+   *
+   * @since 1.1
+   */
+  public static final int DEFAULT_MINIMUM_LENGTH = 64;
+
+  /**
+   * Default entropy, in bits per byte, above which blobs are not compressed.
+   *
+   * @since 1.1
+   */
+  public static final double DEFAULT_MAXIMUM_ENTROPY = 7.5;
+
+  private static final int STORED = 0;
+  private static final int SAMPLE_WINDOWS = 16;
+  private static final int SAMPLE_WINDOW_LENGTH = 256;
+
+  private final @NotNull CompressionCodec[] codecs;
+  private final @NotNull CompressionCodec[] codecsById;
+  private final int minimumLength;
+  private final double maximumEntropy;
+
+  /**
+   * Create a new instance using the default thresholds.
+   *
+   * @param codecs Codecs to use, in order of preference. Blobs get compressed with the first codec
+   *     that accepts them, and records compressed by any of the codecs can be read back.
+   * @since 1.1
+   */
+  public CompressionStage(final @NotNull CompressionCodec... codecs) {
+    this(Arrays.asList(codecs), DEFAULT_MINIMUM_LENGTH, DEFAULT_MAXIMUM_ENTROPY);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param codecs Codecs to use, in order of preference. Blobs get compressed with the first codec
+   *     that accepts them, and records compressed by any of the codecs can be read back.
+   * @param minimumLength Blobs shorter than this are never compressed.
+   * @param maximumEntropy Blobs whose sampled entropy, in bits per byte, is above this value are
+   *     never compressed. Passing {@code 8} or more disables sampling.
+   * @since 1.1
+   */
+  public CompressionStage(
+      final @NotNull List<CompressionCodec> codecs,
+      final int minimumLength,
+      final double maximumEntropy) {
+
+    this.codecs = codecs.toArray(new CompressionCodec[codecs.size()]);
+    this.codecsById = new CompressionCodec[256];
+    this.minimumLength = Math.max(minimumLength, 0);
+    this.maximumEntropy = maximumEntropy;
+
+    for (CompressionCodec codec : this.codecs) {
+      final int id = codec.getId();
+      if (id <= STORED || id >= codecsById.length) {
+        throw new IllegalArgumentException("Invalid codec identifier: " + id);
+      }
+      if (codecsById[id] != null) {
+        throw new IllegalArgumentException("Duplicate codec identifier: " + id);
+      }
+      codecsById[id] = codec;
+    }
+  }
+
+  /**
+   * Codecs used by this instance.
+   *
+   * @return Unmodifiable list of codecs, in order of preference.
+   * @since 1.1
+   */
+  @NotNull
+  public List<CompressionCodec> getCodecs() {
+    return Collections.unmodifiableList(Arrays.asList(codecs));
+  }
+
+  /**
+   * Turn a blob into a record, compressing it if worthwhile.
+   *
+   * @param blob Blob to encode. Its position and limit are left untouched.
+   * @return New record, starting with a header.
+   * @throws IOException A codec failed.
+   * @since 1.1
+   */
+  @NotNull
+  public ByteBuffer encode(final @NotNull ByteBuffer blob) throws IOException {
+    final int length = blob.remaining();
+    if (length >= minimumLength && isCompressible(blob)) {
+      for (CompressionCodec codec : codecs) {
+        final ByteBuffer compressed = codec.compress(blob);
+        if (compressed != null && compressed.remaining() < length) {
+          return record(codec.getId(), length, compressed);
+        }
+      }
+    }
+
+    return record(STORED, length, blob);
+  }
+
+  /**
+   * Turn a record produced by {@link #encode(ByteBuffer)} back into a blob.
+   *
+   * @param record Record to decode. Its position and limit are left untouched.
+   * @return Original blob.
+   * @throws IOException The record is corrupted, or was compressed by an unknown codec.
+   * @since 1.1
+   */
+  @NotNull
+  public ByteBuffer decode(final @NotNull ByteBuffer record) throws IOException {
+    if (record.remaining() < HEADER_LENGTH) {
+      throw new IOException("Record too short to contain a compression header");
+    }
+
+    final int position = record.position();
+    final int id = record.get(position) & 0xff;
+    final int length = record.getInt(position + 1);
+
+    final ByteBuffer payload = record.duplicate();
+    payload.position(position + HEADER_LENGTH);
+
+    if (id == STORED) {
+      if (payload.remaining() != length) {
+        throw new IOException("Invalid length for uncompressed record");
+      }
+      return payload.slice();
+    }
+
+    final CompressionCodec codec = codecsById[id];
+    if (codec == null) {
+      throw new IOException("Unknown compression codec: " + id);
+    }
+
+    return codec.decompress(payload.slice(), length);
+  }
+
+  /**
+   * Estimate whether a blob is worth compressing from the order-0 entropy of a few evenly spaced
+   * windows of its content.
+   */
+  private boolean isCompressible(final @NotNull ByteBuffer blob) {
+    final int length = blob.remaining();
+    if (length == 0 || maximumEntropy >= 8) {
+      return length > 0;
+    }
+
+    final int[] histogram = new int[256];
+    final int start = blob.position();
+    final int windowLength = Math.min(SAMPLE_WINDOW_LENGTH, length);
+    final int windows = Math.min(SAMPLE_WINDOWS, length / windowLength);
+    final int stride = windows > 1 ? (length - windowLength) / (windows - 1) : 0;
+
+    int samples = 0;
+    for (int window = 0; window < windows; window++) {
+      final int offset = start + window * stride;
+      for (int i = 0; i < windowLength; i++) {
+        histogram[blob.get(offset + i) & 0xff]++;
+      }
+      samples += windowLength;
+    }
+
+    double entropy = 0;
+    int distinct = 0;
+    for (int count : histogram) {
+      if (count > 0) {
+        final double p = (double) count / samples;
+        entropy -= p * Math.log(p);
+        distinct++;
+      }
+    }
+
+    // Miller-Madow correction for the bias of small samples, then convert from nats to bits
+    entropy += (distinct - 1) / (2.0 * samples);
+    return entropy / Math.log(2) <= maximumEntropy;
+  }
+
+  @NotNull
+  private static ByteBuffer record(
+      final int id,
+      final int length,
+      final @NotNull ByteBuffer payload) {
+
+    final ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + payload.remaining());
+    record.put((byte) id);
+    record.putInt(length);
+    record.put(payload.duplicate());
+    record.flip();
+    return record;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Codec producing raw Deflate streams, as implemented by {@link Deflater}.
+ *
+ * <p>Each thread reuses its own {@link Deflater} and {@link Inflater}, since allocating those is
+ * much more expensive than compressing a small blob.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class DeflateCodec implements CompressionCodec {
+
+  /**
+   * Identifier of this codec in record headers.
+   *
+   * @since 1.1
+   */
+  public static final int ID = 1;
+
+  private final ThreadLocal<Deflater> deflaters;
+  private final ThreadLocal<Inflater> inflaters;
+
+  /**
+   * Create a new instance using {@link Deflater#DEFAULT_COMPRESSION}.
+   *
+   * @since 1.1
+   */
+  public DeflateCodec() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param level Compression level, from {@link Deflater#BEST_SPEED} to {@link
+   *     Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+   * @since 1.1
+   */
+  public DeflateCodec(final int level) {
+    if (level != Deflater.DEFAULT_COMPRESSION
+        && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+
+    deflaters = new ThreadLocal<Deflater>() {
+      @Override
+      protected Deflater initialValue() {
+        return new Deflater(level, true);
+      }
+    };
+    inflaters = new ThreadLocal<Inflater>() {
+      @Override
+      protected Inflater initialValue() {
+        return new Inflater(true);
+      }
+    };
+  }
+
+  @Override
+  public int getId() {
+    return ID;
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer compress(final @NotNull ByteBuffer data) throws IOException {
+    final Deflater deflater = deflaters.get();
+    deflater.reset();
+    return deflate(deflater, data);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decompress(final @NotNull ByteBuffer data, final int originalLength)
+      throws IOException {
+    final Inflater inflater = inflaters.get();
+    inflater.reset();
+    return inflate(inflater, data, originalLength, null);
+  }
+
+  /**
+   * Run a prepared deflater over some data.
+   *
+   * @return The compressed data, or {@code null} if it is not smaller than the original.
+   */
+  @Nullable
+  static ByteBuffer deflate(final @NotNull Deflater deflater, final @NotNull ByteBuffer data) {
+    final int length = data.remaining();
+    if (length < 2) {
+      return null;
+    }
+
+    final ByteBuffer input = arrayBacked(data);
+    deflater.setInput(input.array(), input.arrayOffset() + input.position(), length);
+    deflater.finish();
+
+    // Anything that doesn't fit in less than the original length isn't worth keeping
+    final byte[] output = new byte[length - 1];
+    int size = 0;
+    while (!deflater.finished() && size < output.length) {
+      size += deflater.deflate(output, size, output.length - size);
+    }
+
+    return deflater.finished() ? ByteBuffer.wrap(output, 0, size).slice() : null;
+  }
+
+  /**
+   * Run a prepared inflater over some data.
+   *
+   * @param dictionary Preset dictionary, if the data was compressed with one.
+   * @throws IOException The data is corrupted or truncated.
+   */
+  @NotNull
+  static ByteBuffer inflate(
+      final @NotNull Inflater inflater,
+      final @NotNull ByteBuffer data,
+      final int originalLength,
+      final @Nullable byte[] dictionary) throws IOException {
+
+    if (originalLength < 0) {
+      throw new IOException("Invalid original length: " + originalLength);
+    }
+
+    final ByteBuffer input = arrayBacked(data);
+    inflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+    if (dictionary != null) {
+      inflater.setDictionary(dictionary);
+    }
+
+    final byte[] output = new byte[originalLength];
+    int size = 0;
+    try {
+      while (size < originalLength) {
+        final int inflated = inflater.inflate(output, size, originalLength - size);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput()
+            || inflater.needsDictionary())) {
+          break;
+        }
+        size += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted compressed data", e);
+    }
+
+    if (size != originalLength) {
+      throw new IOException("Truncated compressed data");
+    }
+
+    return ByteBuffer.wrap(output);
+  }
+
+  @NotNull
+  private static ByteBuffer arrayBacked(final @NotNull ByteBuffer data) {
+    if (data.hasArray()) {
+      return data;
+    }
+
+    final byte[] bytes = new byte[data.remaining()];
+    data.duplicate().get(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+}
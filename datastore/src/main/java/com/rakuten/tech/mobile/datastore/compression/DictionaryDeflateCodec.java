@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Codec producing raw Deflate streams primed with a preset dictionary, for small blobs that share
+ * a lot of structure with each other.
+ *
+ * <p>Generic compression gains almost nothing on blobs of a few hundred bytes, since there is not
+ * enough content to find repetitions in. A dictionary trained on a sample of similar blobs by
+ * {@link DictionaryTrainer} supplies those repetitions instead.
+ *
+ * <p>Blobs are always compressed with the latest dictionary, whose version is written in front of
+ * the compressed data. This codec declines blobs longer than its maximum length, and all blobs as
+ * long as there is no dictionary, so it should be followed by a general-purpose codec in the
+ * {@link CompressionStage}:
+ *
+ * <pre><code>
+ *   final CompressionDictionaries dictionaries = new CompressionDictionaries();
+ *   final CompressionStage stage = new CompressionStage(
+ *       new DictionaryDeflateCodec(dictionaries),
+ *       new DeflateCodec());
+ * </code></pre>
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class DictionaryDeflateCodec implements CompressionCodec {
+
+  /**
+   * Identifier of this codec in record headers.
+   *
+   * @since 1.1
+   */
+  public static final int ID = 2;
+
+  /**
+   * Default maximum length of the blobs handled by this codec.
+   *
+   * @since 1.1
+   */
+  public static final int DEFAULT_MAXIMUM_LENGTH = 4096;
+
+  private static final int VERSION_LENGTH = 4;
+
+  private final @NotNull CompressionDictionaries dictionaries;
+  private final int maximumLength;
+  private final ThreadLocal<Deflater> deflaters;
+  private final ThreadLocal<Inflater> inflaters;
+
+  /**
+   * Create a new instance using the default maximum length and compression level.
+   *
+   * @param dictionaries Dictionaries to use.
+   * @since 1.1
+   */
+  public DictionaryDeflateCodec(final @NotNull CompressionDictionaries dictionaries) {
+    this(dictionaries, DEFAULT_MAXIMUM_LENGTH, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param dictionaries Dictionaries to use.
+   * @param maximumLength Blobs longer than this are declined.
+   * @param level Compression level, from {@link Deflater#BEST_SPEED} to {@link
+   *     Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+   * @since 1.1
+   */
+  public DictionaryDeflateCodec(
+      final @NotNull CompressionDictionaries dictionaries,
+      final int maximumLength,
+      final int level) {
+
+    if (level != Deflater.DEFAULT_COMPRESSION
+        && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+
+    this.dictionaries = dictionaries;
+    this.maximumLength = maximumLength;
+    deflaters = new ThreadLocal<Deflater>() {
+      @Override
+      protected Deflater initialValue() {
+        return new Deflater(level, true);
+      }
+    };
+    inflaters = new ThreadLocal<Inflater>() {
+      @Override
+      protected Inflater initialValue() {
+        return new Inflater(true);
+      }
+    };
+  }
+
+  /**
+   * Dictionaries used by this codec.
+   *
+   * @return Dictionaries.
+   * @since 1.1
+   */
+  @NotNull
+  public CompressionDictionaries getDictionaries() {
+    return dictionaries;
+  }
+
+  /**
+   * Maximum length of the blobs handled by this codec.
+   *
+   * @return Length, in bytes.
+   * @since 1.1
+   */
+  public int getMaximumLength() {
+    return maximumLength;
+  }
+
+  @Override
+  public int getId() {
+    return ID;
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer compress(final @NotNull ByteBuffer data) throws IOException {
+    final int version = dictionaries.getLatestVersion();
+    final byte[] dictionary = dictionaries.peek(version);
+    if (dictionary == null || data.remaining() > maximumLength) {
+      return null;
+    }
+
+    return compress(data, version, dictionary);
+  }
+
+  /**
+   * Compress a block of data with a specific dictionary.
+   *
+   * @return Compressed data, or {@code null} if it is not smaller than the original.
+   */
+  @Nullable
+  ByteBuffer compress(
+      final @NotNull ByteBuffer data,
+      final int version,
+      final @NotNull byte[] dictionary) {
+
+    final Deflater deflater = deflaters.get();
+    deflater.reset();
+    deflater.setDictionary(dictionary);
+
+    final ByteBuffer compressed = DeflateCodec.deflate(deflater, data);
+    if (compressed == null || compressed.remaining() + VERSION_LENGTH >= data.remaining()) {
+      return null;
+    }
+
+    final ByteBuffer result = ByteBuffer.allocate(VERSION_LENGTH + compressed.remaining());
+    result.putInt(version);
+    result.put(compressed);
+    result.flip();
+    return result;
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decompress(final @NotNull ByteBuffer data, final int originalLength)
+      throws IOException {
+    if (data.remaining() < VERSION_LENGTH) {
+      throw new IOException("Record too short to contain a dictionary version");
+    }
+
+    final int version = data.getInt(data.position());
+    final byte[] dictionary = dictionaries.peek(version);
+    if (dictionary == null) {
+      throw new UnknownDictionaryException(version);
+    }
+
+    final ByteBuffer payload = data.duplicate();
+    payload.position(data.position() + VERSION_LENGTH);
+
+    final Inflater inflater = inflaters.get();
+    inflater.reset();
+    return DeflateCodec.inflate(inflater, payload, originalLength, dictionary);
+  }
+}
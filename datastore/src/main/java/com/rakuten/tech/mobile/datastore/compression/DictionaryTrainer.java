@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Builds preset dictionaries for {@link DictionaryDeflateCodec} from samples of existing blobs.
+ *
+ * <p>The trainer looks for the 8-byte sequences found in many of the samples, e.g. field names
+ * and structural characters of serialized records, and collects the longest runs of such sequences
+ * into the dictionary. The most valuable segments are placed at the end of the dictionary, where
+ * Deflate can reference them with the shortest distances.
+ *
+ * @since 1.1
+ */
+public final class DictionaryTrainer {
+
+  /**
+   * Default maximum length of trained dictionaries.
+   *
+   * @since 1.1
+   */
+  public static final int DEFAULT_DICTIONARY_LENGTH = 8192;
+
+  /**
+   * Deflate cannot reference anything further back than its 32 KiB window.
+   */
+  private static final int MAXIMUM_DICTIONARY_LENGTH = 32 * 1024;
+
+  private static final int GRAM_LENGTH = 8;
+
+  private DictionaryTrainer() {
+  }
+
+  /**
+   * Train a dictionary.
+   *
+   * @param samples Samples of the blobs the dictionary should help compress.
+   * @param maximumLength Maximum length of the dictionary, up to 32 KiB.
+   * @return Content of the dictionary, or {@code null} if the samples have nothing in common.
+   * @since 1.1
+   */
+  @Nullable
+  public static byte[] train(final @NotNull List<ByteBuffer> samples, final int maximumLength) {
+    final int capacity = Math.min(maximumLength, MAXIMUM_DICTIONARY_LENGTH);
+    final Map<Long, Integer> frequencies = countSampleFrequencies(samples);
+    final int threshold = Math.max(2, samples.size() / 20);
+
+    // Collect maximal runs of frequent grams, scored by how often their grams appear
+    final Map<ByteBuffer, Long> segments = new HashMap<>();
+    for (ByteBuffer sample : samples) {
+      final int end = sample.limit() - GRAM_LENGTH;
+      int runStart = -1;
+      long score = 0;
+      for (int i = sample.position(); i <= end + 1; i++) {
+        final Integer frequency = i <= end ? frequencies.get(sample.getLong(i)) : null;
+        if (frequency != null && frequency >= threshold) {
+          if (runStart < 0) {
+            runStart = i;
+            score = 0;
+          }
+          score += frequency;
+        } else if (runStart >= 0) {
+          addSegment(segments, sample, runStart, i - 1 + GRAM_LENGTH, score);
+          runStart = -1;
+        }
+      }
+    }
+
+    if (segments.isEmpty()) {
+      return null;
+    }
+
+    final List<Map.Entry<ByteBuffer, Long>> ranked = new ArrayList<>(segments.entrySet());
+    Collections.sort(ranked, new Comparator<Map.Entry<ByteBuffer, Long>>() {
+      @Override
+      public int compare(
+          final Map.Entry<ByteBuffer, Long> a,
+          final Map.Entry<ByteBuffer, Long> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+
+    final List<ByteBuffer> chosen = new ArrayList<>();
+    final StringBuilder contents = new StringBuilder();
+    int length = 0;
+    for (Map.Entry<ByteBuffer, Long> entry : ranked) {
+      final ByteBuffer segment = entry.getKey();
+      final int segmentLength = Math.min(segment.remaining(), capacity - length);
+      if (segmentLength < GRAM_LENGTH) {
+        continue;
+      }
+
+      // Skip segments the dictionary already contains
+      final String latin1 = latin1(segment, segmentLength);
+      if (contents.indexOf(latin1) < 0) {
+        final ByteBuffer truncated = segment.duplicate();
+        truncated.limit(truncated.position() + segmentLength);
+        chosen.add(truncated);
+        contents.append(latin1);
+        length += segmentLength;
+      }
+    }
+
+    // Best segments go last
+    final ByteBuffer dictionary = ByteBuffer.allocate(length);
+    for (int i = chosen.size() - 1; i >= 0; i--) {
+      dictionary.put(chosen.get(i).duplicate());
+    }
+    return dictionary.array();
+  }
+
+  /**
+   * Measure how well a dictionary compresses some samples.
+   *
+   * @param samples Samples to compress.
+   * @param dictionary Dictionary to use, or {@code null} to compress without one.
+   * @return Total size of the compressed samples, counting samples that do not compress at their
+   *     original size.
+   * @since 1.1
+   */
+  public static long measure(final @NotNull List<ByteBuffer> samples,
+      final @Nullable byte[] dictionary) {
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      long total = 0;
+      for (ByteBuffer sample : samples) {
+        deflater.reset();
+        if (dictionary != null) {
+          deflater.setDictionary(dictionary);
+        }
+
+        final ByteBuffer compressed = DeflateCodec.deflate(deflater, sample);
+        total += compressed == null ? sample.remaining() : compressed.remaining();
+      }
+      return total;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Count, for every 8-byte sequence, the number of samples it appears in.
+   */
+  @NotNull
+  private static Map<Long, Integer> countSampleFrequencies(
+      final @NotNull List<ByteBuffer> samples) {
+    final Map<Long, Integer> frequencies = new HashMap<>();
+    final Set<Long> seen = new HashSet<>();
+    for (ByteBuffer sample : samples) {
+      seen.clear();
+      for (int i = sample.position(); i <= sample.limit() - GRAM_LENGTH; i++) {
+        final Long gram = sample.getLong(i);
+        if (seen.add(gram)) {
+          final Integer frequency = frequencies.get(gram);
+          frequencies.put(gram, frequency == null ? 1 : frequency + 1);
+        }
+      }
+    }
+    return frequencies;
+  }
+
+  private static void addSegment(
+      final @NotNull Map<ByteBuffer, Long> segments,
+      final @NotNull ByteBuffer sample,
+      final int start,
+      final int end,
+      final long score) {
+
+    final byte[] bytes = new byte[end - start];
+    final ByteBuffer source = sample.duplicate();
+    source.position(start);
+    source.get(bytes);
+
+    final ByteBuffer segment = ByteBuffer.wrap(bytes);
+    final Long previous = segments.get(segment);
+    if (previous == null || previous < score) {
+      segments.put(segment, score);
+    }
+  }
+
+  @NotNull
+  private static String latin1(final @NotNull ByteBuffer segment, final int length) {
+    final char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) (segment.get(segment.position() + i) & 0xff);
+    }
+    return new String(chars);
+  }
+}
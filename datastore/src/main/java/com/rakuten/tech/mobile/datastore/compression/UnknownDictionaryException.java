@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import java.io.IOException;
+
+/**
+ * Signals that a record was compressed with a dictionary that is not known yet, e.g. because it
+ * was trained by another process sharing the same table.
+ *
+ * {@inheritDoc}
+ *
+ * @since 1.1
+ */
+public final class UnknownDictionaryException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int version;
+
+  /**
+   * Constructs an {@code UnknownDictionaryException} for a dictionary version.
+   *
+   * @param version Version of the missing dictionary.
+   * @since 1.1
+   */
+  public UnknownDictionaryException(final int version) {
+    super("Unknown compression dictionary: " + version);
+    this.version = version;
+  }
+
+  /**
+   * Version of the missing dictionary.
+   *
+   * @return Version number.
+   * @since 1.1
+   */
+  public int getVersion() {
+    return version;
+  }
+}
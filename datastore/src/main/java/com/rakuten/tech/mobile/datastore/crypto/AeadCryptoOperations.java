@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Crypto operations using an AEAD cipher, either AES-GCM or ChaCha20-Poly1305, which encrypts and
+ * authenticates messages in a single pass.
+ *
+ * <p>Records have the following layout, 29 bytes longer than the message:
+ *
+ * <pre>
+ *   offset  size  content
+ *        0     1  version, i.e. the algorithm
+ *        1    12  nonce
+ *       13     n  ciphertext
+ *     13+n    16  authentication tag
+ * </pre>
+ *
+ * <p>The version byte is also authenticated. Records written by {@link SimpleCryptoOperations} have
+ * no version byte: use {@link MigratingCryptoOperations} to read them while writing new records
+ * with this class.
+ *
+ * <p>AES-GCM is available from Android API level 19 and ChaCha20-Poly1305 from API level 28 or
+ * Java 11, see {@link #isAvailable(byte)}. Random nonces are safe for up to 2^32 messages per key.
+ *
+ * <p>Data that isn't encrypted, such as record headers, is signed with HmacSHA256, keyed by a
+ * subkey derived from the AEAD key. Keys that cannot be exported, e.g. from the {@code
+ * AndroidKeyStore} provider, need a separate signing key instead.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class AeadCryptoOperations implements BufferCryptoOperations, SigningOperations {
+
+  /**
+   * Version byte of records encrypted with AES-GCM, using a 128-bit tag.
+   *
+   * @since 1.1
+   */
+  public static final byte AES_GCM = 0x02;
+
+  /**
+   * Version byte of records encrypted with ChaCha20-Poly1305.
+   *
+   * @since 1.1
+   */
+  public static final byte CHACHA20_POLY1305 = 0x03;
+
+  static final int NONCE_LENGTH = 12;
+  static final int TAG_LENGTH = 16;
+  private static final int HEADER_LENGTH = 1 + NONCE_LENGTH;
+
+  private final @NotNull Key key;
+  private final byte algorithm;
+  private final @Nullable NonceSource nonceSource;
+  private final @NotNull byte[] associatedData;
+  private final @NotNull ThreadLocal<Cipher> ciphers;
+  private final @NotNull HmacSigner signer;
+
+  /**
+   * Create a new instance using AES-GCM and a {@link ThreadLocalNonceSource}.
+   *
+   * @param key AES key.
+   * @since 1.1
+   */
+  public AeadCryptoOperations(final @NotNull Key key) {
+    this(key, AES_GCM, new ThreadLocalNonceSource());
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param key Key to use for encryption/decryption, matching {@code algorithm}.
+   * @param algorithm Either {@link #AES_GCM} or {@link #CHACHA20_POLY1305}.
+   * @param nonceSource If {@code null}, nonces are generated by the provider, such as e.g. the
+   *     {@code AndroidKeyStore} provider, which does not accept nonces from the caller.
+   * @throws IllegalArgumentException {@code algorithm} is unknown.
+   * @since 1.1
+   */
+  public AeadCryptoOperations(
+      final @NotNull Key key,
+      final byte algorithm,
+      final @Nullable NonceSource nonceSource) {
+    this(key, algorithm, nonceSource, new ThreadLocal<Cipher>(), null);
+  }
+
+  /**
+   * Create a new instance signing with its own key, e.g. because {@code key} cannot be exported.
+   *
+   * @param key Key to use for encryption/decryption, matching {@code algorithm}.
+   * @param algorithm Either {@link #AES_GCM} or {@link #CHACHA20_POLY1305}.
+   * @param nonceSource If {@code null}, nonces are generated by the provider, such as e.g. the
+   *     {@code AndroidKeyStore} provider, which does not accept nonces from the caller.
+   * @param signingKey HmacSHA256 key to use for signing.
+   * @throws IllegalArgumentException {@code algorithm} is unknown.
+   * @since 1.1
+   */
+  public AeadCryptoOperations(
+      final @NotNull Key key,
+      final byte algorithm,
+      final @Nullable NonceSource nonceSource,
+      final @NotNull Key signingKey) {
+    this(key, algorithm, nonceSource, new ThreadLocal<Cipher>(), signingKey);
+  }
+
+  /**
+   * Create a new instance sharing its per-thread ciphers with other instances using the same
+   * algorithm, e.g. short-lived ones. If {@code signingKey} is {@code null}, it is derived from
+   * {@code key} when first needed.
+   */
+  AeadCryptoOperations(
+      final @NotNull Key key,
+      final byte algorithm,
+      final @Nullable NonceSource nonceSource,
+      final @NotNull ThreadLocal<Cipher> ciphers,
+      final @Nullable Key signingKey) {
+
+    getTransformation(algorithm);
+    this.key = key;
+    this.algorithm = algorithm;
+    this.nonceSource = nonceSource;
+    associatedData = new byte[] {algorithm};
+    this.ciphers = ciphers;
+    signer = new HmacSigner(key, signingKey);
+  }
+
+  /**
+   * Check whether an algorithm is supported by the installed providers.
+   *
+   * @param algorithm Either {@link #AES_GCM} or {@link #CHACHA20_POLY1305}.
+   * @return {@code true} if the algorithm can be used.
+   * @throws IllegalArgumentException {@code algorithm} is unknown.
+   * @since 1.1
+   */
+  public static boolean isAvailable(final byte algorithm) {
+    try {
+      Cipher.getInstance(getTransformation(algorithm));
+      return true;
+    } catch (GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get the algorithm of this instance.
+   *
+   * @return Either {@link #AES_GCM} or {@link #CHACHA20_POLY1305}.
+   * @since 1.1
+   */
+  public byte getAlgorithm() {
+    return algorithm;
+  }
+
+  @Override
+  public int getEncryptedLength(final int length) {
+    return HEADER_LENGTH + length + TAG_LENGTH;
+  }
+
+  @Override
+  public int getDecryptedLength(final int length) {
+    return Math.max(0, length - HEADER_LENGTH - TAG_LENGTH);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer encrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer buffer = ByteBuffer.allocate(getEncryptedLength(message.remaining()));
+    encrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int encrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    byte[] nonce = null;
+    if (nonceSource != null) {
+      nonce = new byte[NONCE_LENGTH];
+      nonceSource.nextNonce(nonce);
+    }
+    return encrypt(message, destination, nonce);
+  }
+
+  /**
+   * Encrypt a message with a given nonce, or one generated by the provider if {@code null}.
+   */
+  @IgnoreJRERequirement
+  int encrypt(
+      final @NotNull ByteBuffer message,
+      final @NotNull ByteBuffer destination,
+      final @Nullable byte[] nonce) throws GeneralSecurityException {
+    if (destination.remaining() < getEncryptedLength(message.remaining())) {
+      throw new ShortBufferException("Destination too small");
+    }
+
+    final Cipher cipher = borrowCipher(Cipher.ENCRYPT_MODE, nonce);
+    try {
+      final byte[] iv = cipher.getIV();
+      if (iv == null || iv.length != NONCE_LENGTH) {
+        throw new GeneralSecurityException("Unexpected nonce length");
+      }
+
+      destination.put(algorithm);
+      destination.put(iv);
+      cipher.updateAAD(associatedData);
+      return HEADER_LENGTH + cipher.doFinal(message.slice(), destination);
+    } finally {
+      ciphers.set(cipher);
+    }
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer buffer = ByteBuffer.allocate(getDecryptedLength(message.remaining()));
+    decrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  @IgnoreJRERequirement
+  public int decrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    if (message.remaining() < HEADER_LENGTH + TAG_LENGTH) {
+      throw new GeneralSecurityException("Message too short");
+    }
+    if (message.get(message.position()) != algorithm) {
+      throw new GeneralSecurityException("Unsupported record version");
+    }
+
+    final byte[] nonce = new byte[NONCE_LENGTH];
+    final ByteBuffer encrypted = message.slice();
+    encrypted.position(1);
+    encrypted.get(nonce);
+
+    final Cipher cipher = borrowCipher(Cipher.DECRYPT_MODE, nonce);
+    try {
+      cipher.updateAAD(associatedData);
+      return cipher.doFinal(encrypted, destination);
+    } finally {
+      ciphers.set(cipher);
+    }
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return signer.sign(message);
+  }
+
+  @NotNull
+  private Cipher borrowCipher(final int mode, final @Nullable byte[] nonce)
+      throws GeneralSecurityException {
+    final Cipher cached = ciphers.get();
+    if (cached != null) {
+      ciphers.set(null);
+      try {
+        initCipher(cached, mode, nonce);
+        return cached;
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+        // Some providers refuse to reuse a key and nonce pair, even for decryption or for equal
+        // messages, start afresh
+      }
+    }
+
+    final Cipher cipher = Cipher.getInstance(getTransformation(algorithm));
+    initCipher(cipher, mode, nonce);
+    return cipher;
+  }
+
+  private void initCipher(
+      final @NotNull Cipher cipher,
+      final int mode,
+      final @Nullable byte[] nonce) throws GeneralSecurityException {
+    if (nonce == null) {
+      cipher.init(mode, key);
+    } else {
+      cipher.init(mode, key, getParameterSpec(algorithm, nonce));
+    }
+  }
+
+  @NotNull
+  @IgnoreJRERequirement
+  static AlgorithmParameterSpec getParameterSpec(
+      final byte algorithm,
+      final @NotNull byte[] nonce) {
+    if (algorithm == AES_GCM) {
+      return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+    return new IvParameterSpec(nonce);
+  }
+
+  @NotNull
+  static String getTransformation(final byte algorithm) {
+    switch (algorithm) {
+      case AES_GCM:
+        return "AES/GCM/NoPadding";
+      case CHACHA20_POLY1305:
+        return "ChaCha20-Poly1305";
+      default:
+        throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+    }
+  }
+}
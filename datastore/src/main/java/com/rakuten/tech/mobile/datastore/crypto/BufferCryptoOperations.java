@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Crypto operations that can write their results into buffers provided by the caller, heap or
+ * direct, rather than allocating new ones.
+ *
+ * <p>The position and limit of the input buffers are left untouched, while the position of the
+ * destination buffers is advanced past the bytes written. Input and destination must not overlap.
+ *
+ * @since 1.1
+ */
+public interface BufferCryptoOperations extends CryptoOperations {
+
+  /**
+   * Get the maximum size of the result of {@link #encrypt(ByteBuffer, ByteBuffer)}.
+   *
+   * @param length Size of the data to encrypt.
+   * @return Space needed in the destination buffer.
+   * @since 1.1
+   */
+  int getEncryptedLength(final int length);
+
+  /**
+   * Get the maximum size of the result of {@link #decrypt(ByteBuffer, ByteBuffer)}.
+   *
+   * @param length Size of the data to decrypt.
+   * @return Space needed in the destination buffer.
+   * @since 1.1
+   */
+  int getDecryptedLength(final int length);
+
+  /**
+   * Encrypt a block of data into a buffer.
+   *
+   * @param message Data to encrypt.
+   * @param destination Buffer receiving the encrypted data, from its position.
+   * @return Number of bytes written.
+   * @throws javax.crypto.ShortBufferException {@code destination} is too small.
+   * @throws GeneralSecurityException Encryption failed.
+   * @since 1.1
+   */
+  int encrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypt a block of data into a buffer.
+   *
+   * @param message Data to decrypt.
+   * @param destination Buffer receiving the decrypted data, from its position.
+   * @return Number of bytes written.
+   * @throws javax.crypto.ShortBufferException {@code destination} is too small.
+   * @throws GeneralSecurityException Decryption failed.
+   * @since 1.1
+   */
+  int decrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException;
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encryption and decryption of the successive chunks of a segmented record, following the STREAM
+ * construction: the nonce of each chunk is made of a random prefix shared by the whole record, the
+ * index of the chunk, and a flag telling whether it is the last one. Chunks can thus be neither
+ * reordered, dropped nor truncated without failing authentication.
+ *
+ * <p>Each record is encrypted with its own key, derived with HKDF-SHA256 from the long-term key and
+ * a random 16-byte salt, as in Tink's streaming AEAD. An 8-byte nonce prefix alone would repeat a
+ * (key, nonce) pair with a probability above 2^-32 after about 2^16 records; with the salt, two
+ * records only share a key after about 2^64 records. The long-term key must thus be exportable.
+ *
+ * <p>The header of the record is authenticated along with every chunk:
+ *
+ * <pre>
+ *   offset  size  content
+ *        0     1  version
+ *        1     4  size of plaintext chunks, in bytes
+ *        5    16  salt of the record key
+ *       21     8  nonce prefix
+ * </pre>
+ */
+final class ChunkCipher {
+
+  static final int HEADER_LENGTH = 29;
+  static final int MINIMUM_CHUNK_SIZE = 16;
+  static final int MAXIMUM_CHUNK_SIZE = 1 << 24;
+
+  /**
+   * Chunk indices take 3 bytes of the nonce.
+   */
+  private static final int MAXIMUM_CHUNK_COUNT = 1 << 24;
+  private static final int SALT_OFFSET = 5;
+  private static final int SALT_LENGTH = 16;
+  private static final int PREFIX_OFFSET = 21;
+  private static final int PREFIX_LENGTH = 8;
+  private static final byte[] KEY_LABEL =
+      "datastore chunk key\u0000".getBytes(Charset.forName("UTF-8"));
+
+  private final @NotNull Cipher cipher;
+  private final @NotNull Key key;
+  private final byte algorithm;
+  private final @NotNull byte[] header;
+  private final @NotNull byte[] nonce = new byte[AeadCryptoOperations.NONCE_LENGTH];
+  private final int chunkSize;
+  private int index;
+
+  /**
+   * @param key Key of the record, not the long-term key.
+   */
+  private ChunkCipher(
+      final @NotNull Key key,
+      final byte algorithm,
+      final @NotNull byte[] header) throws GeneralSecurityException {
+
+    cipher = Cipher.getInstance(AeadCryptoOperations.getTransformation(algorithm));
+    this.key = key;
+    this.algorithm = algorithm;
+    this.header = header;
+    chunkSize = ByteBuffer.wrap(header).getInt(1);
+    System.arraycopy(header, PREFIX_OFFSET, nonce, 0, PREFIX_LENGTH);
+  }
+
+  /**
+   * Start a new record.
+   */
+  @NotNull
+  static ChunkCipher create(
+      final @NotNull Key key,
+      final byte algorithm,
+      final byte version,
+      final int chunkSize,
+      final @NotNull NonceSource nonceSource) throws GeneralSecurityException {
+
+    final byte[] salt = new byte[SALT_LENGTH];
+    nonceSource.nextNonce(salt);
+    final byte[] prefix = new byte[PREFIX_LENGTH];
+    nonceSource.nextNonce(prefix);
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.put(version).putInt(chunkSize).put(salt).put(prefix);
+    return new ChunkCipher(deriveKey(key, header.array()), algorithm, header.array());
+  }
+
+  /**
+   * Continue a record, checking its header.
+   *
+   * @param header Header of the record, which must not be modified afterwards.
+   */
+  @NotNull
+  static ChunkCipher open(
+      final @NotNull Key key,
+      final byte algorithm,
+      final byte version,
+      final @NotNull byte[] header) throws GeneralSecurityException {
+
+    if (header.length != HEADER_LENGTH || header[0] != version) {
+      throw new GeneralSecurityException("Unsupported record version");
+    }
+
+    final int chunkSize = ByteBuffer.wrap(header).getInt(1);
+    if (chunkSize < MINIMUM_CHUNK_SIZE || chunkSize > MAXIMUM_CHUNK_SIZE) {
+      throw new GeneralSecurityException("Invalid chunk size");
+    }
+    return new ChunkCipher(deriveKey(key, header), algorithm, header);
+  }
+
+  /**
+   * Derive the key of a record from the long-term key and the salt in its header, with HKDF-SHA256.
+   * The version byte is part of the info, so that records can't be moved to another algorithm.
+   */
+  @NotNull
+  private static Key deriveKey(final @NotNull Key key, final @NotNull byte[] header)
+      throws GeneralSecurityException {
+    final byte[] encoded = key.getEncoded();
+    if (encoded == null) {
+      throw new InvalidKeyException("Key cannot be exported, records need their own keys");
+    }
+
+    final Mac mac = Mac.getInstance("HmacSHA256");
+    try {
+      // Extract
+      mac.init(new SecretKeySpec(header, SALT_OFFSET, SALT_LENGTH, "HmacSHA256"));
+      final byte[] pseudoRandomKey = mac.doFinal(encoded);
+
+      // Expand, a single block being enough for keys of up to 32 bytes
+      mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+      Arrays.fill(pseudoRandomKey, (byte) 0);
+      mac.update(KEY_LABEL);
+      mac.update(header[0]);
+      mac.update((byte) 1);
+      final byte[] output = mac.doFinal();
+      if (encoded.length > output.length) {
+        throw new InvalidKeyException("Key too long");
+      }
+      return new SecretKeySpec(output, 0, encoded.length, key.getAlgorithm());
+    } finally {
+      Arrays.fill(encoded, (byte) 0);
+    }
+  }
+
+  @NotNull
+  byte[] getHeader() {
+    return header.clone();
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Create a new instance for the same record, e.g. to process its chunks on another thread.
+   */
+  @NotNull
+  ChunkCipher copy() throws GeneralSecurityException {
+    return new ChunkCipher(key, algorithm, header);
+  }
+
+  /**
+   * Encrypt or decrypt the next chunk.
+   *
+   * @param mode Either {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}.
+   * @param input Whole chunk, consumed.
+   * @param output Receives the result.
+   * @param last Whether this is the last chunk of the record.
+   * @return Number of bytes written to {@code output}.
+   */
+  int update(
+      final int mode,
+      final @NotNull ByteBuffer input,
+      final @NotNull ByteBuffer output,
+      final boolean last) throws GeneralSecurityException {
+    return update(mode, index++, input, output, last);
+  }
+
+  /**
+   * Encrypt or decrypt a range of chunks laid out contiguously, all full but the last one of the
+   * record.
+   *
+   * @param input Whole record body, i.e. chunks without the header.
+   * @param output Receives the results, from its position.
+   * @param from Index of the first chunk to process.
+   * @param to Index past the last chunk to process.
+   * @param count Number of chunks in the record.
+   */
+  void update(
+      final int mode,
+      final @NotNull ByteBuffer input,
+      final @NotNull ByteBuffer output,
+      final int from,
+      final int to,
+      final int count) throws GeneralSecurityException {
+
+    final int tagLength = AeadCryptoOperations.TAG_LENGTH;
+    final int inputStride = mode == Cipher.ENCRYPT_MODE ? chunkSize : chunkSize + tagLength;
+    final int outputStride = mode == Cipher.ENCRYPT_MODE ? chunkSize + tagLength : chunkSize;
+
+    final ByteBuffer in = input.slice();
+    final ByteBuffer out = output.slice();
+    final int end = in.limit();
+    for (int i = from; i < to; i++) {
+      in.limit(Math.min(end, (i + 1) * inputStride));
+      in.position(i * inputStride);
+      out.position(i * outputStride);
+      update(mode, i, in, out, i == count - 1);
+    }
+  }
+
+  @IgnoreJRERequirement
+  private int update(
+      final int mode,
+      final int chunkIndex,
+      final @NotNull ByteBuffer input,
+      final @NotNull ByteBuffer output,
+      final boolean last) throws GeneralSecurityException {
+
+    if (chunkIndex >= MAXIMUM_CHUNK_COUNT) {
+      throw new GeneralSecurityException("Too many chunks");
+    }
+
+    nonce[PREFIX_LENGTH] = (byte) (chunkIndex >>> 16);
+    nonce[PREFIX_LENGTH + 1] = (byte) (chunkIndex >>> 8);
+    nonce[PREFIX_LENGTH + 2] = (byte) chunkIndex;
+    nonce[PREFIX_LENGTH + 3] = (byte) (last ? 1 : 0);
+
+    cipher.init(mode, key, AeadCryptoOperations.getParameterSpec(algorithm, nonce));
+    cipher.updateAAD(header);
+    return cipher.doFinal(input, output);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Crypto operations encrypting equal messages into equal records, so that a {@link
+ * com.rakuten.tech.mobile.datastore.tables.DedupBlobTable} can store them only once.
+ *
+ * <p>Records are those of {@link AeadCryptoOperations}, which can read them given the same key and
+ * algorithm, and vice versa. Only their nonce differs: instead of being random, it is the start of
+ * the HmacSHA256 of the message, keyed by a subkey derived from the AEAD key. A nonce can therefore
+ * only repeat for equal messages, which are then encrypted into equal records, and never for
+ * different ones.
+ *
+ * <p>Anyone able to read the blob table can tell which blobs are equal, and check whether a blob
+ * holds a given message. Only use this class for data where that is acceptable. Keys must be
+ * exportable, which rules out e.g. the {@code AndroidKeyStore} provider.
+ *
+ * <p>Data that isn't encrypted is signed like with {@link AeadCryptoOperations}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class ConvergentCryptoOperations implements BufferCryptoOperations, SigningOperations {
+
+  private static final byte[] NONCE_KEY_LABEL =
+      "datastore nonce key\u0000".getBytes(Charset.forName("UTF-8"));
+
+  private final @NotNull AeadCryptoOperations operations;
+  private final @NotNull HmacSigner nonces;
+
+  /**
+   * Create a new instance using AES-GCM.
+   *
+   * @param key AES key.
+   * @since 1.1
+   */
+  public ConvergentCryptoOperations(final @NotNull Key key) {
+    this(key, AeadCryptoOperations.AES_GCM);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param key Key to use for encryption/decryption, matching {@code algorithm}.
+   * @param algorithm Either {@link AeadCryptoOperations#AES_GCM} or {@link
+   *     AeadCryptoOperations#CHACHA20_POLY1305}.
+   * @throws IllegalArgumentException {@code algorithm} is unknown.
+   * @since 1.1
+   */
+  public ConvergentCryptoOperations(final @NotNull Key key, final byte algorithm) {
+    operations = new AeadCryptoOperations(key, algorithm, null);
+    nonces = new HmacSigner(key, null, NONCE_KEY_LABEL);
+  }
+
+  @Override
+  public int getEncryptedLength(final int length) {
+    return operations.getEncryptedLength(length);
+  }
+
+  @Override
+  public int getDecryptedLength(final int length) {
+    return operations.getDecryptedLength(length);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer encrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer buffer = ByteBuffer.allocate(getEncryptedLength(message.remaining()));
+    encrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int encrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    final byte[] nonce = new byte[AeadCryptoOperations.NONCE_LENGTH];
+    nonces.sign(message).get(nonce);
+    return operations.encrypt(message, destination, nonce);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return operations.decrypt(message);
+  }
+
+  @Override
+  public int decrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    return operations.decrypt(message, destination);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return operations.sign(message);
+  }
+}
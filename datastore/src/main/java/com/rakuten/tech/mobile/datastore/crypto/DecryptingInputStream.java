@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import javax.crypto.Cipher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stream decrypting and authenticating its source one chunk at a time. One byte past each chunk is
+ * read ahead, to tell whether the chunk is the last one.
+ */
+final class DecryptingInputStream extends InputStream {
+
+  private final @NotNull InputStream source;
+  private final @NotNull Key key;
+  private final byte algorithm;
+  private final byte version;
+  private @Nullable ChunkCipher chunks;
+  private @Nullable ByteBuffer sealed;
+  private @NotNull ByteBuffer plain = ByteBuffer.allocate(0);
+  private boolean done;
+  private @Nullable IOException failure;
+
+  DecryptingInputStream(
+      final @NotNull InputStream source,
+      final @NotNull Key key,
+      final byte algorithm,
+      final byte version) {
+
+    this.source = source;
+    this.key = key;
+    this.algorithm = algorithm;
+    this.version = version;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+  }
+
+  @Override
+  public int read(final @NotNull byte[] b, final int off, final int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    while (!plain.hasRemaining()) {
+      if (failure != null) {
+        // Don't let callers mistake a failure for the end of the stream
+        throw new IOException(failure.getMessage(), failure);
+      }
+      if (done) {
+        return -1;
+      }
+
+      try {
+        open();
+      } catch (IOException e) {
+        failure = e;
+        plain.limit(0);
+        throw e;
+      }
+    }
+
+    final int count = Math.min(len, plain.remaining());
+    plain.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return plain.remaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  /**
+   * Decrypt the next chunk.
+   */
+  private void open() throws IOException {
+    try {
+      if (chunks == null) {
+        final byte[] header = new byte[ChunkCipher.HEADER_LENGTH];
+        if (fill(header, 0) < header.length) {
+          throw new IOException("Truncated record");
+        }
+
+        chunks = ChunkCipher.open(key, algorithm, version, header);
+        final int chunkSize = chunks.getChunkSize();
+        sealed = ByteBuffer.allocate(chunkSize + AeadCryptoOperations.TAG_LENGTH + 1);
+        plain = ByteBuffer.allocate(chunkSize);
+        plain.limit(0);
+      }
+
+      final ByteBuffer input = sealed;
+      input.position(fill(input.array(), input.position()));
+      input.flip();
+
+      final int chunkLength = input.capacity() - 1;
+      final boolean last = input.remaining() <= chunkLength;
+      final ByteBuffer chunk = input.duplicate();
+      if (!last) {
+        chunk.limit(chunkLength);
+      }
+
+      plain.clear();
+      chunks.update(Cipher.DECRYPT_MODE, chunk, plain, last);
+      plain.flip();
+
+      input.position(chunk.limit());
+      input.compact();
+      done = last;
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Decryption failed", e);
+    }
+  }
+
+  /**
+   * Read from the source until {@code array} is full or the source is exhausted.
+   *
+   * @return Position in {@code array} after the last byte read.
+   */
+  private int fill(final @NotNull byte[] array, final int offset) throws IOException {
+    int position = offset;
+    while (position < array.length) {
+      final int count = source.read(array, position, array.length - position);
+      if (count < 0) {
+        break;
+      }
+      position += count;
+    }
+    return position;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stream encrypting its data one chunk at a time. A full chunk is only sealed once more data
+ * arrives, as the last chunk of a record, written on {@link #close()}, must be flagged as such.
+ */
+final class EncryptingOutputStream extends OutputStream {
+
+  private final @NotNull OutputStream destination;
+  private final @NotNull ChunkCipher chunks;
+  private final @NotNull ByteBuffer plain;
+  private final @NotNull ByteBuffer sealed;
+  private boolean closed;
+
+  EncryptingOutputStream(
+      final @NotNull OutputStream destination,
+      final @NotNull ChunkCipher chunks) throws IOException {
+
+    this.destination = destination;
+    this.chunks = chunks;
+    plain = ByteBuffer.allocate(chunks.getChunkSize());
+    sealed = ByteBuffer.allocate(chunks.getChunkSize() + AeadCryptoOperations.TAG_LENGTH);
+    destination.write(chunks.getHeader());
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0) {
+      if (!plain.hasRemaining()) {
+        seal(false);
+      }
+
+      final int count = Math.min(remaining, plain.remaining());
+      plain.put(b, offset, count);
+      offset += count;
+      remaining -= count;
+    }
+  }
+
+  /**
+   * Flush the destination. Data of the current chunk is kept until the chunk is full, as sealing
+   * it early would end the record.
+   */
+  @Override
+  public void flush() throws IOException {
+    destination.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    try {
+      seal(true);
+    } finally {
+      destination.close();
+    }
+  }
+
+  private void seal(final boolean last) throws IOException {
+    plain.flip();
+    sealed.clear();
+    try {
+      chunks.update(Cipher.ENCRYPT_MODE, plain, sealed, last);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Encryption failed", e);
+    }
+    destination.write(sealed.array(), 0, sealed.position());
+    plain.clear();
+  }
+}
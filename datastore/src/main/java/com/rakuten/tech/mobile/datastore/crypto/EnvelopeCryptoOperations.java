@@ -0,0 +1,388 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Crypto operations using envelope encryption: every record is encrypted with its own random data
+ * key, stored in the record wrapped by a key-encryption key. Key-encryption keys are identified by
+ * an id, also stored in the record.
+ *
+ * <p>Records have the following layout, 93 bytes plus the length of the key id longer than the
+ * message:
+ *
+ * <pre>
+ *   offset  size  content
+ *        0     1  version, 0x06
+ *        1     1  length n of the key id, in UTF-8
+ *        2     n  key id
+ *      2+n    61  data key, wrapped by the key-encryption key as an {@link AeadCryptoOperations}
+ *                 record
+ *     63+n     m  message, encrypted with AES-GCM by the data key as an {@link
+ *                 AeadCryptoOperations} record
+ * </pre>
+ *
+ * <p>Rotating the key-encryption key with {@link #rotate(String, AeadCryptoOperations)} takes
+ * effect immediately for new records. Older records remain readable as long as their key is known,
+ * and {@link #rewrap(ByteBuffer)} moves them to the current key by rewrapping their data key only,
+ * leaving the message as is.
+ *
+ * <p>Unwrapped data keys are kept in a bounded cache, so reading a record again does not unwrap
+ * its data key again.
+ *
+ * <p>Data that isn't encrypted is signed by the current key-encryption key, or with {@link
+ * #sign(ByteBuffer, ByteBuffer)} by the key of a given record, so that signatures stored along
+ * records remain valid after a rotation.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class EnvelopeCryptoOperations implements CryptoOperations, SigningOperations {
+
+  /**
+   * Version byte of envelope records.
+   *
+   * @since 1.1
+   */
+  public static final byte ENVELOPE = 0x06;
+
+  /**
+   * Default number of unwrapped data keys kept in memory.
+   *
+   * @since 1.1
+   */
+  public static final int DEFAULT_CACHE_SIZE = 64;
+
+  /**
+   * Maximum length of the part of a record preceding the encrypted message, i.e. the number of
+   * bytes {@link #isCurrent(ByteBuffer)} needs to look at.
+   *
+   * @since 1.1
+   */
+  public static final int MAXIMUM_HEADER_LENGTH = 2 + 255 + 61;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int DATA_KEY_LENGTH = 32;
+  private static final int WRAPPED_KEY_LENGTH =
+      1 + AeadCryptoOperations.NONCE_LENGTH + DATA_KEY_LENGTH + AeadCryptoOperations.TAG_LENGTH;
+
+  private final @NotNull Map<String, AeadCryptoOperations> keys = new ConcurrentHashMap<>();
+  private final @NotNull DataKeyCache cache;
+  private final @NotNull Random random = new SecureRandom();
+  private final @NotNull NonceSource nonceSource = new ThreadLocalNonceSource();
+  private final @NotNull ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+  private volatile @NotNull String currentKeyId;
+
+  /**
+   * Create a new instance with a default cache size.
+   *
+   * @param keyId Id of the key-encryption key.
+   * @param keyEncryption Crypto operations wrapping data keys with the key-encryption key.
+   * @throws IllegalArgumentException {@code keyId} is empty or longer than 255 bytes in UTF-8.
+   * @since 1.1
+   */
+  public EnvelopeCryptoOperations(
+      final @NotNull String keyId,
+      final @NotNull AeadCryptoOperations keyEncryption) {
+    this(keyId, keyEncryption, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param keyId Id of the key-encryption key.
+   * @param keyEncryption Crypto operations wrapping data keys with the key-encryption key.
+   * @param cacheSize Maximum number of unwrapped data keys kept in memory.
+   * @throws IllegalArgumentException {@code keyId} is empty or longer than 255 bytes in UTF-8, or
+   *     {@code cacheSize} is not positive.
+   * @since 1.1
+   */
+  public EnvelopeCryptoOperations(
+      final @NotNull String keyId,
+      final @NotNull AeadCryptoOperations keyEncryption,
+      final int cacheSize) {
+
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+
+    cache = new DataKeyCache(cacheSize);
+    addKey(keyId, keyEncryption);
+    currentKeyId = keyId;
+  }
+
+  /**
+   * Register a key-encryption key, e.g. a retired one still used by older records.
+   *
+   * @param keyId Id of the key-encryption key.
+   * @param keyEncryption Crypto operations wrapping data keys with the key-encryption key.
+   * @throws IllegalArgumentException {@code keyId} is empty or longer than 255 bytes in UTF-8.
+   * @since 1.1
+   */
+  public void addKey(
+      final @NotNull String keyId,
+      final @NotNull AeadCryptoOperations keyEncryption) {
+
+    final int length = keyId.getBytes(UTF8).length;
+    if (length == 0 || length > 255) {
+      throw new IllegalArgumentException("Key id must be 1 to 255 bytes long");
+    }
+    keys.put(keyId, keyEncryption);
+  }
+
+  /**
+   * Register a key-encryption key and use it for all records written from now on.
+   *
+   * @param keyId Id of the key-encryption key.
+   * @param keyEncryption Crypto operations wrapping data keys with the key-encryption key.
+   * @throws IllegalArgumentException {@code keyId} is empty or longer than 255 bytes in UTF-8.
+   * @since 1.1
+   */
+  public void rotate(
+      final @NotNull String keyId,
+      final @NotNull AeadCryptoOperations keyEncryption) {
+
+    addKey(keyId, keyEncryption);
+    currentKeyId = keyId;
+  }
+
+  /**
+   * Get the id of the key-encryption key wrapping the data keys of new records.
+   *
+   * @return Key id.
+   * @since 1.1
+   */
+  @NotNull
+  public String getCurrentKeyId() {
+    return currentKeyId;
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer encrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final String keyId = currentKeyId;
+    final byte[] id = keyId.getBytes(UTF8);
+
+    final byte[] dataKey = new byte[DATA_KEY_LENGTH];
+    random.nextBytes(dataKey);
+    final ByteBuffer wrapped = keys.get(keyId).encrypt(ByteBuffer.wrap(dataKey));
+    if (wrapped.remaining() != WRAPPED_KEY_LENGTH) {
+      throw new GeneralSecurityException("Unexpected wrapped key length");
+    }
+
+    final AeadCryptoOperations data = newDataOperations(dataKey);
+    final ByteBuffer record = ByteBuffer.allocate(
+        2 + id.length + WRAPPED_KEY_LENGTH + data.getEncryptedLength(message.remaining()));
+    record.put(ENVELOPE).put((byte) id.length).put(id);
+    cache.put(wrapped.duplicate(), data);
+    record.put(wrapped);
+    data.encrypt(message, record);
+    record.flip();
+    return record;
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer record = message.slice();
+    final String keyId = readKeyId(record);
+    final ByteBuffer wrapped = readWrappedKey(record);
+
+    AeadCryptoOperations data = cache.get(wrapped);
+    if (data == null) {
+      data = newDataOperations(unwrap(keyId, wrapped));
+      // Copied, not to keep the whole record in memory
+      final ByteBuffer copy = ByteBuffer.allocate(WRAPPED_KEY_LENGTH);
+      copy.put(wrapped.duplicate()).flip();
+      cache.put(copy, data);
+    }
+    return data.decrypt(record);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return keys.get(currentKeyId).sign(message);
+  }
+
+  /**
+   * Sign data with the key-encryption key of a record, e.g. data stored along the record.
+   *
+   * @param message Data to sign. Its position and limit are left untouched.
+   * @param record The record, or at least its first {@link #MAXIMUM_HEADER_LENGTH} bytes.
+   * @return New buffer holding the signature.
+   * @throws GeneralSecurityException {@code record} is not an envelope record, or its
+   *     key-encryption key is unknown.
+   * @since 1.1
+   */
+  @NotNull
+  public ByteBuffer sign(final @NotNull ByteBuffer message, final @NotNull ByteBuffer record)
+      throws GeneralSecurityException {
+    final String keyId = readKeyId(record.slice());
+    final AeadCryptoOperations keyEncryption = keys.get(keyId);
+    if (keyEncryption == null) {
+      throw new GeneralSecurityException("Unknown key-encryption key: " + keyId);
+    }
+    return keyEncryption.sign(message);
+  }
+
+  /**
+   * Check whether a record has its data key wrapped by the current key-encryption key.
+   *
+   * @param record The record, or at least its first {@link #MAXIMUM_HEADER_LENGTH} bytes.
+   * @return {@code true} if the record doesn't need to be rewrapped.
+   * @throws GeneralSecurityException {@code record} is not an envelope record.
+   * @since 1.1
+   */
+  public boolean isCurrent(final @NotNull ByteBuffer record) throws GeneralSecurityException {
+    return currentKeyId.equals(readKeyId(record.slice()));
+  }
+
+  /**
+   * Rewrap the data key of a record with the current key-encryption key. The encrypted message is
+   * copied as is, neither decrypted nor re-encrypted.
+   *
+   * @param record Record to rewrap.
+   * @return The rewrapped record, or {@code null} if its data key is already wrapped by the current
+   *     key-encryption key.
+   * @throws GeneralSecurityException {@code record} is not an envelope record, its key-encryption
+   *     key is unknown, or its data key failed authentication.
+   * @since 1.1
+   */
+  @Nullable
+  public ByteBuffer rewrap(final @NotNull ByteBuffer record) throws GeneralSecurityException {
+    final ByteBuffer input = record.slice();
+    final String keyId = readKeyId(input);
+    final String current = currentKeyId;
+    if (current.equals(keyId)) {
+      return null;
+    }
+
+    final byte[] dataKey = unwrap(keyId, readWrappedKey(input));
+    final ByteBuffer wrapped = keys.get(current).encrypt(ByteBuffer.wrap(dataKey));
+    if (wrapped.remaining() != WRAPPED_KEY_LENGTH) {
+      throw new GeneralSecurityException("Unexpected wrapped key length");
+    }
+
+    final byte[] id = current.getBytes(UTF8);
+    final ByteBuffer rewrapped = ByteBuffer.allocate(
+        2 + id.length + WRAPPED_KEY_LENGTH + input.remaining());
+    rewrapped.put(ENVELOPE).put((byte) id.length).put(id).put(wrapped).put(input);
+    rewrapped.flip();
+    return rewrapped;
+  }
+
+  @NotNull
+  private AeadCryptoOperations newDataOperations(final @NotNull byte[] dataKey) {
+    final Key key = new SecretKeySpec(dataKey, "AES");
+    return new AeadCryptoOperations(key, AeadCryptoOperations.AES_GCM, nonceSource, ciphers, null);
+  }
+
+  @NotNull
+  private byte[] unwrap(final @NotNull String keyId, final @NotNull ByteBuffer wrapped)
+      throws GeneralSecurityException {
+    final AeadCryptoOperations keyEncryption = keys.get(keyId);
+    if (keyEncryption == null) {
+      throw new GeneralSecurityException("Unknown key-encryption key: " + keyId);
+    }
+
+    final ByteBuffer unwrapped = keyEncryption.decrypt(wrapped.duplicate());
+    if (unwrapped.remaining() != DATA_KEY_LENGTH) {
+      throw new GeneralSecurityException("Invalid data key");
+    }
+    final byte[] dataKey = new byte[DATA_KEY_LENGTH];
+    unwrapped.get(dataKey);
+    return dataKey;
+  }
+
+  /**
+   * Read the version byte and the key id, leaving {@code record} positioned on the wrapped key.
+   */
+  @NotNull
+  private static String readKeyId(final @NotNull ByteBuffer record)
+      throws GeneralSecurityException {
+    if (record.remaining() < 2 || record.get() != ENVELOPE) {
+      throw new GeneralSecurityException("Unsupported record version");
+    }
+
+    final int length = record.get() & 0xff;
+    if (length == 0 || record.remaining() < length) {
+      throw new GeneralSecurityException("Invalid key id");
+    }
+    final byte[] id = new byte[length];
+    record.get(id);
+    return new String(id, UTF8);
+  }
+
+  /**
+   * Read the wrapped key, leaving {@code record} positioned on the encrypted message.
+   */
+  @NotNull
+  private static ByteBuffer readWrappedKey(final @NotNull ByteBuffer record)
+      throws GeneralSecurityException {
+    if (record.remaining() < WRAPPED_KEY_LENGTH) {
+      throw new GeneralSecurityException("Message too short");
+    }
+
+    final ByteBuffer wrapped = record.slice();
+    wrapped.limit(WRAPPED_KEY_LENGTH);
+    record.position(record.position() + WRAPPED_KEY_LENGTH);
+    return wrapped;
+  }
+
+  /**
+   * Unwrapped data keys, indexed by their wrapped form.
+   */
+  private static final class DataKeyCache {
+
+    private final @NotNull Map<ByteBuffer, AeadCryptoOperations> entries;
+
+    DataKeyCache(final int maximumSize) {
+      entries = new LinkedHashMap<ByteBuffer, AeadCryptoOperations>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<ByteBuffer, AeadCryptoOperations> eldest) {
+          return size() > maximumSize;
+        }
+      };
+    }
+
+    @Nullable
+    synchronized AeadCryptoOperations get(final @NotNull ByteBuffer wrapped) {
+      return entries.get(wrapped);
+    }
+
+    synchronized void put(
+        final @NotNull ByteBuffer wrapped,
+        final @NotNull AeadCryptoOperations data) {
+      entries.put(wrapped, data);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * HmacSHA256 signing for AEAD crypto operations, keyed either by a given signing key or by a
+ * subkey derived from the AEAD key when first needed. Subkeys for other purposes use other labels.
+ * Each thread keeps the {@link Mac} it last used.
+ */
+final class HmacSigner {
+
+  private static final byte[] SIGNING_KEY_LABEL =
+      "datastore signing key\u0000".getBytes(Charset.forName("UTF-8"));
+
+  private final @NotNull Key key;
+  private final @NotNull byte[] label;
+  private final @NotNull ThreadLocal<Mac> macs = new ThreadLocal<>();
+  private volatile @Nullable Key signingKey;
+
+  /**
+   * @param key AEAD key, from which the signing key is derived if none is given.
+   * @param signingKey HmacSHA256 key, or {@code null} to derive one from {@code key}.
+   */
+  HmacSigner(final @NotNull Key key, final @Nullable Key signingKey) {
+    this(key, signingKey, SIGNING_KEY_LABEL);
+  }
+
+  /**
+   * @param key AEAD key, from which the signing key is derived if none is given.
+   * @param signingKey HmacSHA256 key, or {@code null} to derive one from {@code key}.
+   * @param label Label of the derived signing key, telling its purpose.
+   */
+  HmacSigner(
+      final @NotNull Key key,
+      final @Nullable Key signingKey,
+      final @NotNull byte[] label) {
+    this.key = key;
+    this.signingKey = signingKey;
+    this.label = label;
+  }
+
+  @NotNull
+  ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    Mac mac = macs.get();
+    if (mac == null) {
+      mac = Mac.getInstance("HmacSHA256");
+      mac.init(getSigningKey());
+    } else {
+      macs.set(null);
+    }
+
+    mac.update(message.slice());
+    final ByteBuffer signature = ByteBuffer.wrap(mac.doFinal());
+    macs.set(mac);
+    return signature;
+  }
+
+  /**
+   * Get the signing key, deriving it from the AEAD key if none was given.
+   */
+  @NotNull
+  private Key getSigningKey() throws GeneralSecurityException {
+    Key current = signingKey;
+    if (current == null) {
+      final byte[] encoded = key.getEncoded();
+      if (encoded == null) {
+        throw new InvalidKeyException("Key cannot be exported, a signing key is needed");
+      }
+
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(encoded, "HmacSHA256"));
+      Arrays.fill(encoded, (byte) 0);
+      current = new SecretKeySpec(mac.doFinal(label), "HmacSHA256");
+      signingKey = current;
+    }
+    return current;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Crypto operations writing new records with an {@link AeadCryptoOperations} or a {@link
+ * StreamingAeadCryptoOperations}, while still reading
+ * records written by the crypto operations used before, e.g. a {@link SimpleCryptoOperations}.
+ * This lets an existing store switch to AEAD without rewriting its records first.
+ *
+ * <p>Records starting with the version byte of the AEAD operations are decrypted with them first.
+ * As the first byte of legacy records is random, records failing AEAD authentication are then
+ * handed to the legacy operations.
+ *
+ * <p>Data that isn't encrypted, such as metadata headers, is signed by the legacy operations when
+ * they implement {@link SigningOperations}, so that existing headers remain valid, and by the
+ * current operations otherwise.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class MigratingCryptoOperations implements CryptoOperations, SigningOperations {
+
+  private final @NotNull CryptoOperations current;
+  private final byte version;
+  private final @NotNull CryptoOperations legacy;
+  private final @NotNull SigningOperations signing;
+
+  private MigratingCryptoOperations(
+      final @NotNull CryptoOperations current,
+      final byte version,
+      final @NotNull CryptoOperations legacy,
+      final @NotNull SigningOperations currentSigning) {
+
+    this.current = current;
+    this.version = version;
+    this.legacy = legacy;
+    signing = legacy instanceof SigningOperations ? (SigningOperations) legacy : currentSigning;
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param current Crypto operations used to write records, and to read those they wrote.
+   * @param legacy Crypto operations used to read older records.
+   * @return New instance.
+   * @since 1.1
+   */
+  @NotNull
+  public static MigratingCryptoOperations of(
+      final @NotNull AeadCryptoOperations current,
+      final @NotNull CryptoOperations legacy) {
+
+    return new MigratingCryptoOperations(current, current.getAlgorithm(), legacy, current);
+  }
+
+  /**
+   * Create a new instance writing segmented records.
+   *
+   * @param current Crypto operations used to write records, and to read those they wrote.
+   * @param legacy Crypto operations used to read older records.
+   * @return New instance.
+   * @since 1.1
+   */
+  @NotNull
+  public static MigratingCryptoOperations of(
+      final @NotNull StreamingAeadCryptoOperations current,
+      final @NotNull CryptoOperations legacy) {
+
+    return new MigratingCryptoOperations(current, current.getVersion(), legacy, current);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer encrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return current.encrypt(message);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    if (!message.hasRemaining() || message.get(message.position()) != version) {
+      return legacy.decrypt(message);
+    }
+
+    try {
+      return current.decrypt(message);
+    } catch (GeneralSecurityException e) {
+      try {
+        return legacy.decrypt(message);
+      } catch (GeneralSecurityException | RuntimeException ignored) {
+        throw e;
+      }
+    }
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return signing.sign(message);
+  }
+}
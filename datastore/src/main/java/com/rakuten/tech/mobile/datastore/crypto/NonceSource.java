@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Source of the IVs and nonces of crypto operations, which must be unpredictable but need not be
+ * secret.
+ *
+ * <p>Implementations must be thread-safe, and should avoid contention between threads as they are
+ * called for every message encrypted.
+ *
+ * @see ThreadLocalNonceSource
+ * @since 1.1
+ */
+public interface NonceSource {
+
+  /**
+   * Fill an array with a new nonce.
+   *
+   * @param nonce Array to fill entirely.
+   * @since 1.1
+   */
+  void nextNonce(final @NotNull byte[] nonce);
+}
@@ -17,25 +17,74 @@
 package com.rakuten.tech.mobile.datastore.crypto;
 
 import java.nio.ByteBuffer;
+import javax.crypto.ShortBufferException;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Crypto operations that do not implement any crypto.
  *
+ * <p>By default, results are copies of the input. Instances created with {@link
+ * #NullCryptoOperations(boolean)} can instead return read-only views of the input, sharing its
+ * content, which spares a copy of every blob on both reads and writes.
+ *
  * @since 0.1 {@inheritDoc}
  */
-public final class NullCryptoOperations implements CryptoOperations {
+public final class NullCryptoOperations implements BufferCryptoOperations {
+
+  private final boolean views;
+
+  /**
+   * Create a new instance returning copies.
+   *
+   * @since 0.1
+   */
+  public NullCryptoOperations() {
+    this(false);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param views Whether to return read-only views of the input rather than copies. Callers then
+   *     must not modify the input while using the result.
+   * @since 1.1
+   */
+  public NullCryptoOperations(final boolean views) {
+    this.views = views;
+  }
+
+  @Override
+  public int getEncryptedLength(final int length) {
+    return length;
+  }
+
+  @Override
+  public int getDecryptedLength(final int length) {
+    return length;
+  }
 
   @NotNull
   @Override
   public ByteBuffer encrypt(final @NotNull ByteBuffer message) {
-    return deepCopyOf(message);
+    return views ? message.slice().asReadOnlyBuffer() : deepCopyOf(message);
+  }
+
+  @Override
+  public int encrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws ShortBufferException {
+    return copy(message, destination);
   }
 
   @NotNull
   @Override
   public ByteBuffer decrypt(final @NotNull ByteBuffer message) {
-    return deepCopyOf(message);
+    return views ? message.slice().asReadOnlyBuffer() : deepCopyOf(message);
+  }
+
+  @Override
+  public int decrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws ShortBufferException {
+    return copy(message, destination);
   }
 
   private ByteBuffer deepCopyOf(final @NotNull ByteBuffer buffer) {
@@ -43,4 +92,15 @@ public final class NullCryptoOperations implements CryptoOperations {
     buffer.duplicate().get(bytes);
     return ByteBuffer.wrap(bytes);
   }
+
+  private static int copy(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws ShortBufferException {
+    if (destination.remaining() < message.remaining()) {
+      throw new ShortBufferException("Destination too small");
+    }
+
+    final int length = message.remaining();
+    destination.put(message.duplicate());
+    return length;
+  }
 }
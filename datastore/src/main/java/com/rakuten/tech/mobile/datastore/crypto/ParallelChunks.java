@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Processes the chunks of a record on several threads. Chunks are grouped into ranges claimed by
+ * workers one at a time, so that faster workers take over the ranges slower ones did not get to.
+ * The calling thread works too, and waits for the ranges claimed by others to be done before
+ * returning, as they write into its buffers.
+ *
+ * <p>Workers the executor rejects are simply not started, leaving their share to the others.
+ */
+final class ParallelChunks implements Runnable {
+
+  /**
+   * Ranges per worker, so a worker stalled by the scheduler does not hold up the whole record.
+   */
+  private static final int RANGES_PER_WORKER = 4;
+
+  private final @NotNull ChunkCipher chunks;
+  private final int mode;
+  private final @NotNull ByteBuffer input;
+  private final @NotNull ByteBuffer output;
+  private final int count;
+  private final int rangeSize;
+  private final int rangeCount;
+  private final @NotNull AtomicInteger next = new AtomicInteger();
+  private final @NotNull AtomicReference<Throwable> failure = new AtomicReference<>();
+  private final @NotNull CountDownLatch done;
+
+  private ParallelChunks(
+      final @NotNull ChunkCipher chunks,
+      final int mode,
+      final @NotNull ByteBuffer input,
+      final @NotNull ByteBuffer output,
+      final int count,
+      final int workers) {
+
+    this.chunks = chunks;
+    this.mode = mode;
+    this.input = input;
+    this.output = output;
+    this.count = count;
+    final int ranges = Math.min(count, workers * RANGES_PER_WORKER);
+    rangeSize = (count + ranges - 1) / ranges;
+    rangeCount = (count + rangeSize - 1) / rangeSize;
+    done = new CountDownLatch(rangeCount);
+  }
+
+  /**
+   * Encrypt or decrypt chunks as {@link ChunkCipher#update(int, ByteBuffer, ByteBuffer, int, int,
+   * int)} does for the whole record, splitting the work between the calling thread and up to
+   * {@code workers - 1} tasks run by {@code executor}.
+   */
+  static void update(
+      final @NotNull Executor executor,
+      final int workers,
+      final @NotNull ChunkCipher chunks,
+      final int mode,
+      final @NotNull ByteBuffer input,
+      final @NotNull ByteBuffer output,
+      final int count) throws GeneralSecurityException {
+
+    final ParallelChunks task = new ParallelChunks(chunks, mode, input, output, count, workers);
+    for (int i = 1; i < Math.min(workers, task.rangeCount); i++) {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException ignored) {
+        break;
+      }
+    }
+
+    task.work(chunks);
+    task.await();
+
+    final Throwable failure = task.failure.get();
+    if (failure instanceof GeneralSecurityException) {
+      throw (GeneralSecurityException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+  }
+
+  @Override
+  public void run() {
+    if (next.get() >= rangeCount) {
+      return;
+    }
+
+    try {
+      work(chunks.copy());
+    } catch (GeneralSecurityException | RuntimeException e) {
+      failure.compareAndSet(null, e);
+      work(null);
+    }
+  }
+
+  /**
+   * Claim and process ranges until none is left. After a failure, ranges are still claimed but
+   * skipped, so that the caller is not left waiting for them.
+   */
+  private void work(final ChunkCipher cipher) {
+    int range;
+    while ((range = next.getAndIncrement()) < rangeCount) {
+      try {
+        if (cipher != null && failure.get() == null) {
+          final int from = range * rangeSize;
+          final int to = Math.min(count, from + rangeSize);
+          cipher.update(mode, input.duplicate(), output.duplicate(), from, to, count);
+        }
+      } catch (GeneralSecurityException | RuntimeException | Error e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  private void await() {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        done.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
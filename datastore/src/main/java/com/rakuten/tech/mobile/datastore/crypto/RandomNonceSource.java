@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.util.Random;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Nonce source drawing from a given {@link Random}, for constructors taking one.
+ */
+final class RandomNonceSource implements NonceSource {
+
+  private final @NotNull Random random;
+
+  RandomNonceSource(final @NotNull Random random) {
+    this.random = random;
+  }
+
+  @Override
+  public void nextNonce(final @NotNull byte[] nonce) {
+    random.nextBytes(nonce);
+  }
+}
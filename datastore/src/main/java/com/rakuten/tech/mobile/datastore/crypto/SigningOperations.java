@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Message authentication, for crypto operations that can also authenticate data they don't
+ * encrypt.
+ *
+ * @since 1.1
+ */
+public interface SigningOperations {
+
+  /**
+   * Compute an authentication tag for a block of data.
+   *
+   * @param message Data to sign. Its position and limit are left untouched.
+   * @return New buffer holding the tag.
+   * @throws GeneralSecurityException Signing failed.
+   * @since 1.1
+   */
+  @NotNull
+  ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException;
+}
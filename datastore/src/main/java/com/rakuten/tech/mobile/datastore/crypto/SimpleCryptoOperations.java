@@ -20,11 +20,11 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.Key;
-import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.util.Random;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -32,20 +32,28 @@ import org.jetbrains.annotations.Nullable;
 /**
  * Crypto operations implementing encrypt-then-mac with AES/CBC/PKCS7Padding and HmacSHA256.
  *
+ * <p>Each thread keeps the {@link Cipher} and {@link Mac} it last used, so that providers are only
+ * looked up once per thread. Ciphers get re-initialized with a fresh IV for every message through
+ * {@link #initCipherInstance(Cipher, int, ByteBuffer)}, while MACs are reused as they are, since
+ * they reset themselves after producing a signature.
+ *
  * @since 0.1 {@inheritDoc}
  */
 @SuppressFBWarnings("CIPHER_INTEGRITY")
-public class SimpleCryptoOperations implements CryptoOperations {
+public class SimpleCryptoOperations implements BufferCryptoOperations, SigningOperations {
 
   private static final int SIGNATURE_LENGTH = 32;
   private static final int IV_LENGTH = 16;
+  private static final int BLOCK_LENGTH = 16;
 
-  private final Random random;
+  private final NonceSource nonceSource;
   private final Key encryptionKey;
   private final Key signingKey;
+  private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+  private final ThreadLocal<Mac> macs = new ThreadLocal<>();
 
   /**
-   * Create a new instance using a default {@link Random}.
+   * Create a new instance generating IVs with a {@link ThreadLocalNonceSource}.
    *
    * @param encryptionKey Key to use for encryption/decryption.
    * @param signingKey Key to use for signing/verifying.
@@ -54,7 +62,7 @@ public class SimpleCryptoOperations implements CryptoOperations {
   public SimpleCryptoOperations(
       final @NotNull Key encryptionKey,
       final @NotNull Key signingKey) {
-    this(encryptionKey, signingKey, new SecureRandom());
+    this(new ThreadLocalNonceSource(), encryptionKey, signingKey);
   }
 
   /**
@@ -71,10 +79,45 @@ public class SimpleCryptoOperations implements CryptoOperations {
       final @NotNull Key encryptionKey,
       final @NotNull Key signingKey,
       final @Nullable Random random) {
+    this(random == null ? null : new RandomNonceSource(random), encryptionKey, signingKey);
+  }
+
+  /**
+   * Create a new instance generating IVs with a given nonce source. The nonce source comes first,
+   * so that passing a {@code null} {@link Random} to the public constructor stays unambiguous.
+   *
+   * @param nonceSource If {@code null}, {@link #encrypt(ByteBuffer)} will not specify an {@link
+   * IvParameterSpec} when calling {@link Cipher#init(int, Key)}, as with a {@code null} {@link
+   * Random}.
+   * @param encryptionKey Key to use for encryption/decryption.
+   * @param signingKey Key to use for signing/verifying.
+   * @since 1.1
+   */
+  protected SimpleCryptoOperations(
+      final @Nullable NonceSource nonceSource,
+      final @NotNull Key encryptionKey,
+      final @NotNull Key signingKey) {
 
     this.encryptionKey = encryptionKey;
     this.signingKey = signingKey;
-    this.random = random;
+    this.nonceSource = nonceSource;
+  }
+
+  /**
+   * Create a new instance generating IVs with a given nonce source.
+   *
+   * @param encryptionKey Key to use for encryption/decryption.
+   * @param signingKey Key to use for signing/verifying.
+   * @param nonceSource Source of the IVs.
+   * @return The new instance.
+   * @since 1.1
+   */
+  @NotNull
+  public static SimpleCryptoOperations withNonceSource(
+      final @NotNull Key encryptionKey,
+      final @NotNull Key signingKey,
+      final @NotNull NonceSource nonceSource) {
+    return new SimpleCryptoOperations(nonceSource, encryptionKey, signingKey);
   }
 
   @NotNull
@@ -85,55 +128,120 @@ public class SimpleCryptoOperations implements CryptoOperations {
   }
 
   @NotNull
-  @SuppressFBWarnings("STATIC_IV")
   protected Cipher createNewCipherInstance(final int mode, final @Nullable ByteBuffer presetIv)
       throws GeneralSecurityException {
     final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS7Padding");
+    initCipherInstance(cipher, mode, presetIv);
+    return cipher;
+  }
+
+  /**
+   * Initialize a cipher for a new message. This is called on ciphers created by {@link
+   * #createNewCipherInstance(int, ByteBuffer)} every time they get reused.
+   *
+   * @param cipher Cipher to initialize.
+   * @param mode Either {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}.
+   * @param presetIv IV to use, or {@code null} to let the provider generate one.
+   * @throws GeneralSecurityException The cipher could not be initialized.
+   * @since 1.1
+   */
+  @SuppressFBWarnings("STATIC_IV")
+  protected void initCipherInstance(
+      final @NotNull Cipher cipher,
+      final int mode,
+      final @Nullable ByteBuffer presetIv) throws GeneralSecurityException {
     if (presetIv == null) {
       cipher.init(mode, encryptionKey);
     } else {
 
-      cipher.init(mode, encryptionKey, new IvParameterSpec(
-          presetIv.array(), presetIv.arrayOffset() + presetIv.position(), presetIv.remaining()));
+      // Copied, as the IV may live in a direct buffer
+      final byte[] iv = new byte[presetIv.remaining()];
+      presetIv.duplicate().get(iv);
+      cipher.init(mode, encryptionKey, new IvParameterSpec(iv));
     }
-    return cipher;
+  }
+
+  @Override
+  public int getEncryptedLength(final int length) {
+    // PKCS7 always adds between 1 and 16 bytes of padding
+    return SIGNATURE_LENGTH + IV_LENGTH + (length / BLOCK_LENGTH + 1) * BLOCK_LENGTH;
+  }
+
+  @Override
+  public int getDecryptedLength(final int length) {
+    return Math.max(0, length - SIGNATURE_LENGTH - IV_LENGTH);
   }
 
   @NotNull
   @Override
   public ByteBuffer encrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
-    ByteBuffer iv = null;
-    if (random != null) {
-      iv = ByteBuffer.allocate(IV_LENGTH);
-      random.nextBytes(iv.array());
-    }
+    final ByteBuffer buffer = ByteBuffer.allocate(getEncryptedLength(message.remaining()));
+    encrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
 
-    final Cipher cipher = createNewCipherInstance(Cipher.ENCRYPT_MODE, iv);
-    ByteBuffer buffer = ByteBuffer.allocate(
-        SIGNATURE_LENGTH + IV_LENGTH + cipher.getOutputSize(message.remaining()));
+  @Override
+  public int encrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    if (destination.remaining() < getEncryptedLength(message.remaining())) {
+      throw new ShortBufferException("Destination too small");
+    }
 
-    // Copy IV
-    buffer.position(SIGNATURE_LENGTH);
-    buffer.put(cipher.getIV());
+    ByteBuffer iv = null;
+    if (nonceSource != null) {
+      final byte[] bytes = new byte[IV_LENGTH];
+      nonceSource.nextNonce(bytes);
+      iv = ByteBuffer.wrap(bytes);
+    }
 
-    // Encrypt
-    int size = SIGNATURE_LENGTH + IV_LENGTH + cipher.doFinal(message.slice(), buffer);
-    buffer.rewind();
-    buffer.limit(size);
+    // Leave room for the signature, then copy IV and encrypt
+    final int start = destination.position();
+    final ByteBuffer signed = destination.duplicate();
+    signed.position(start + SIGNATURE_LENGTH);
+    final Cipher cipher = borrowCipher(Cipher.ENCRYPT_MODE, iv);
+    try {
+      signed.put(cipher.getIV());
+      cipher.doFinal(message.slice(), signed);
+    } finally {
+      ciphers.set(cipher);
+    }
 
     // Sign IV and message, and prepend signature
-    final Mac mac = createNewMacInstance();
-    buffer.position(SIGNATURE_LENGTH);
-    mac.update(buffer);
-    mac.doFinal(buffer.array(), 0);
+    final int end = signed.position();
+    signed.flip();
+    signed.position(start + SIGNATURE_LENGTH);
+    final Mac mac = borrowMac();
+    mac.update(signed);
+    destination.put(mac.doFinal());
+    macs.set(mac);
+
+    destination.position(end);
+    return end - start;
+  }
 
-    buffer.rewind();
-    return buffer.slice();
+  @NotNull
+  @Override
+  public ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final Mac mac = borrowMac();
+    mac.update(message.slice());
+    final ByteBuffer signature = ByteBuffer.wrap(mac.doFinal());
+    macs.set(mac);
+    return signature;
   }
 
   @NotNull
   @Override
   public ByteBuffer decrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer buffer = ByteBuffer.allocate(getDecryptedLength(message.remaining()));
+    decrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int decrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
     // Grab a slice for the signature
     ByteBuffer signature = message.slice();
     signature.limit(SIGNATURE_LENGTH);
@@ -151,11 +259,12 @@ public class SimpleCryptoOperations implements CryptoOperations {
     encrypted = encrypted.slice();
 
     // Verify signature
-    final Mac mac = createNewMacInstance();
+    final Mac mac = borrowMac();
     mac.update(iv);
     mac.update(encrypted);
 
     final ByteBuffer expected = ByteBuffer.wrap(mac.doFinal());
+    macs.set(mac);
     if (signature.compareTo(expected) != 0) {
       throw new SignatureException("Signature mismatch");
     }
@@ -163,12 +272,42 @@ public class SimpleCryptoOperations implements CryptoOperations {
     // Decrypt
     iv.rewind();
     encrypted.rewind();
-    final Cipher cipher = createNewCipherInstance(Cipher.DECRYPT_MODE, iv);
-    ByteBuffer buffer = ByteBuffer.allocate(cipher.getOutputSize(encrypted.remaining()));
-    int size = cipher.doFinal(encrypted, buffer);
-    buffer.rewind();
-    buffer.limit(size);
+    final Cipher cipher = borrowCipher(Cipher.DECRYPT_MODE, iv);
+    try {
+      return cipher.doFinal(encrypted, destination);
+    } finally {
+      ciphers.set(cipher);
+    }
+  }
+
+  /*
+   * Instances are taken out of their thread-local slot while in use, so that a subclass calling
+   * back into this class from one of its hooks gets instances of its own. Ciphers go back once
+   * done, as they get re-initialized anyway. MACs only go back once they have produced a result,
+   * which also resets them.
+   */
+
+  @NotNull
+  private Cipher borrowCipher(final int mode, final @Nullable ByteBuffer presetIv)
+      throws GeneralSecurityException {
+    final Cipher cipher = ciphers.get();
+    if (cipher == null) {
+      return createNewCipherInstance(mode, presetIv);
+    }
+
+    ciphers.set(null);
+    initCipherInstance(cipher, mode, presetIv);
+    return cipher;
+  }
 
-    return buffer.slice();
+  @NotNull
+  private Mac borrowMac() throws GeneralSecurityException {
+    final Mac mac = macs.get();
+    if (mac == null) {
+      return createNewMacInstance();
+    }
+
+    macs.set(null);
+    return mac;
   }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Crypto operations splitting records into fixed-size chunks, each encrypted and authenticated on
+ * its own with an AEAD cipher. Streams are thus encrypted and decrypted in constant memory, and
+ * readers get the first bytes of a record as soon as its first chunk has been authenticated.
+ *
+ * <p>Records start with a 29-byte header holding the version byte, the chunk size, a random salt
+ * and a random nonce prefix, followed by the chunks, each 16 bytes longer than its plaintext. Every
+ * record has at least one chunk, and only its last chunk may be shorter than the chunk size. Chunks
+ * are bound to their position and to the end of the record, so they can be neither reordered,
+ * dropped nor truncated without failing authentication.
+ *
+ * <p>Each record is encrypted with its own key, derived with HKDF-SHA256 from the key and the
+ * 16-byte salt, so that nonces can't repeat under the same key in practice, however many records
+ * get written: about 2^64 records would be needed for two of them to share a key. Keys must thus
+ * be exportable, which e.g. keys of the {@code AndroidKeyStore} provider are not.
+ *
+ * <p>Records hold at most 2^24 chunks, i.e. 1 TiB with the default 64 KiB chunks.
+ *
+ * <p>Given an executor, records of at least {@link #PARALLEL_THRESHOLD} bytes are encrypted and
+ * decrypted from buffers on several threads, each handling its own share of chunks. Their output
+ * is the same as if done on a single thread, since each chunk depends only on the header and on
+ * its position. Streams are always processed by the calling thread.
+ *
+ * <p>Data that isn't encrypted, such as record headers, is signed with HmacSHA256, keyed by a
+ * subkey derived from the key as with {@link AeadCryptoOperations}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class StreamingAeadCryptoOperations
+    implements BufferCryptoOperations, StreamingCryptoOperations, SigningOperations {
+
+  /**
+   * Version byte of segmented records encrypted with AES-GCM.
+   *
+   * @since 1.1
+   */
+  public static final byte AES_GCM_STREAM = 0x04;
+
+  /**
+   * Version byte of segmented records encrypted with ChaCha20-Poly1305.
+   *
+   * @since 1.1
+   */
+  public static final byte CHACHA20_POLY1305_STREAM = 0x05;
+
+  /**
+   * Default size of plaintext chunks, in bytes.
+   *
+   * @since 1.1
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * Size of the plaintext from which buffers are processed in parallel, given an executor, in
+   * bytes. Smaller records are not worth the cost of handing their chunks to other threads.
+   *
+   * @since 1.1
+   */
+  public static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+  private static final int TAG_LENGTH = AeadCryptoOperations.TAG_LENGTH;
+
+  private final @NotNull Key key;
+  private final byte algorithm;
+  private final byte version;
+  private final int chunkSize;
+  private final @NotNull NonceSource nonceSource;
+  private final @Nullable Executor executor;
+  private final int workers;
+  private final @NotNull HmacSigner signer;
+
+  /**
+   * Create a new instance using AES-GCM and chunks of {@link #DEFAULT_CHUNK_SIZE} bytes.
+   *
+   * @param key AES key.
+   * @since 1.1
+   */
+  public StreamingAeadCryptoOperations(final @NotNull Key key) {
+    this(key, AeadCryptoOperations.AES_GCM, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param key Key to use for encryption/decryption, matching {@code algorithm}.
+   * @param algorithm Either {@link AeadCryptoOperations#AES_GCM} or {@link
+   *     AeadCryptoOperations#CHACHA20_POLY1305}.
+   * @param chunkSize Size of plaintext chunks, in bytes, between 16 bytes and 16 MiB. Only used
+   *     for writing, as records carry their own chunk size.
+   * @throws IllegalArgumentException {@code algorithm} is unknown or {@code chunkSize} is out of
+   *     range.
+   * @since 1.1
+   */
+  public StreamingAeadCryptoOperations(
+      final @NotNull Key key,
+      final byte algorithm,
+      final int chunkSize) {
+    this(key, algorithm, chunkSize, null);
+  }
+
+  /**
+   * Create a new instance processing large buffers in parallel.
+   *
+   * @param key Key to use for encryption/decryption, matching {@code algorithm}.
+   * @param algorithm Either {@link AeadCryptoOperations#AES_GCM} or {@link
+   *     AeadCryptoOperations#CHACHA20_POLY1305}.
+   * @param chunkSize Size of plaintext chunks, in bytes, between 16 bytes and 16 MiB. Only used
+   *     for writing, as records carry their own chunk size.
+   * @param executor Executor running a share of the chunks of records of at least {@link
+   *     #PARALLEL_THRESHOLD} bytes, alongside the calling thread, or {@code null} to process all
+   *     records on the calling thread. Tasks it rejects are done by the calling thread instead.
+   * @throws IllegalArgumentException {@code algorithm} is unknown or {@code chunkSize} is out of
+   *     range.
+   * @since 1.1
+   */
+  public StreamingAeadCryptoOperations(
+      final @NotNull Key key,
+      final byte algorithm,
+      final int chunkSize,
+      final @Nullable Executor executor) {
+    this(key, algorithm, chunkSize, executor, Runtime.getRuntime().availableProcessors(),
+        new ThreadLocalNonceSource());
+  }
+
+  StreamingAeadCryptoOperations(
+      final @NotNull Key key,
+      final byte algorithm,
+      final int chunkSize,
+      final @Nullable Executor executor,
+      final int workers,
+      final @NotNull NonceSource nonceSource) {
+
+    AeadCryptoOperations.getTransformation(algorithm);
+    if (chunkSize < ChunkCipher.MINIMUM_CHUNK_SIZE || chunkSize > ChunkCipher.MAXIMUM_CHUNK_SIZE) {
+      throw new IllegalArgumentException("Chunk size out of range");
+    }
+
+    this.key = key;
+    this.algorithm = algorithm;
+    this.version = algorithm == AeadCryptoOperations.AES_GCM
+        ? AES_GCM_STREAM : CHACHA20_POLY1305_STREAM;
+    this.chunkSize = chunkSize;
+    this.nonceSource = nonceSource;
+    this.executor = executor;
+    this.workers = workers;
+    signer = new HmacSigner(key, null);
+  }
+
+  /**
+   * Get the version byte of the records written by this instance.
+   *
+   * @return Either {@link #AES_GCM_STREAM} or {@link #CHACHA20_POLY1305_STREAM}.
+   * @since 1.1
+   */
+  public byte getVersion() {
+    return version;
+  }
+
+  @NotNull
+  @Override
+  public OutputStream newEncryptingStream(final @NotNull OutputStream destination)
+      throws GeneralSecurityException, IOException {
+    return new EncryptingOutputStream(destination, newRecord());
+  }
+
+  @NotNull
+  @Override
+  public InputStream newDecryptingStream(final @NotNull InputStream source) {
+    return new DecryptingInputStream(source, key, algorithm, version);
+  }
+
+  @Override
+  public int getEncryptedLength(final int length) {
+    final int count = Math.max(1, (length + chunkSize - 1) / chunkSize);
+    return ChunkCipher.HEADER_LENGTH + length + count * TAG_LENGTH;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The result is only exact for records of a single chunk, as the chunk size of a record is
+   * only known from its header.
+   */
+  @Override
+  public int getDecryptedLength(final int length) {
+    return Math.max(0, length - ChunkCipher.HEADER_LENGTH - TAG_LENGTH);
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer encrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer buffer = ByteBuffer.allocate(getEncryptedLength(message.remaining()));
+    encrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int encrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    final int length = message.remaining();
+    if (destination.remaining() < getEncryptedLength(length)) {
+      throw new ShortBufferException("Destination too small");
+    }
+
+    final ChunkCipher chunks = newRecord();
+    destination.put(chunks.getHeader());
+
+    final int count = Math.max(1, (length + chunkSize - 1) / chunkSize);
+    update(chunks, Cipher.ENCRYPT_MODE, message.slice(), destination, count, length);
+
+    final int encryptedLength = length + count * TAG_LENGTH;
+    destination.position(destination.position() + encryptedLength);
+    return ChunkCipher.HEADER_LENGTH + encryptedLength;
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer decrypt(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    final ByteBuffer buffer = ByteBuffer.allocate(getDecryptedLength(message.remaining()));
+    decrypt(message, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int decrypt(final @NotNull ByteBuffer message, final @NotNull ByteBuffer destination)
+      throws GeneralSecurityException {
+    if (message.remaining() < ChunkCipher.HEADER_LENGTH + TAG_LENGTH) {
+      throw new GeneralSecurityException("Message too short");
+    }
+
+    final ByteBuffer input = message.slice();
+    final byte[] header = new byte[ChunkCipher.HEADER_LENGTH];
+    input.get(header);
+    final ChunkCipher chunks = ChunkCipher.open(key, algorithm, version, header);
+
+    final int chunkLength = chunks.getChunkSize() + TAG_LENGTH;
+    final int count = (input.remaining() + chunkLength - 1) / chunkLength;
+    final int length = input.remaining() - count * TAG_LENGTH;
+    if (destination.remaining() < length) {
+      throw new ShortBufferException("Destination too small");
+    }
+
+    update(chunks, Cipher.DECRYPT_MODE, input.slice(), destination, count, length);
+    destination.position(destination.position() + length);
+    return length;
+  }
+
+  @NotNull
+  @Override
+  public ByteBuffer sign(final @NotNull ByteBuffer message) throws GeneralSecurityException {
+    return signer.sign(message);
+  }
+
+  /**
+   * Process all chunks of a record, in parallel if large enough. The position of {@code
+   * destination} is left unchanged.
+   */
+  private void update(
+      final @NotNull ChunkCipher chunks,
+      final int mode,
+      final @NotNull ByteBuffer input,
+      final @NotNull ByteBuffer destination,
+      final int count,
+      final int length) throws GeneralSecurityException {
+
+    if (executor != null && workers > 1 && count > 1 && length >= PARALLEL_THRESHOLD) {
+      ParallelChunks.update(executor, workers, chunks, mode, input, destination, count);
+    } else {
+      chunks.update(mode, input, destination, 0, count, count);
+    }
+  }
+
+  @NotNull
+  private ChunkCipher newRecord() throws GeneralSecurityException {
+    return ChunkCipher.create(key, algorithm, version, chunkSize, nonceSource);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Crypto operations that can encrypt and decrypt streams, using constant memory whatever the size
+ * of the data.
+ *
+ * @since 1.1
+ */
+public interface StreamingCryptoOperations {
+
+  /**
+   * Create a stream encrypting everything written to it. The encrypted data is only complete once
+   * the stream has been closed.
+   *
+   * @param destination Stream receiving the encrypted data. Closed along with the new stream.
+   * @return New encrypting stream.
+   * @throws GeneralSecurityException The encryption could not be set up.
+   * @throws IOException Writing to {@code destination} failed.
+   * @since 1.1
+   */
+  @NotNull
+  OutputStream newEncryptingStream(final @NotNull OutputStream destination)
+      throws GeneralSecurityException, IOException;
+
+  /**
+   * Create a stream decrypting data read from another stream. Decrypted data is only returned once
+   * it has been authenticated, and reads throw an {@link IOException} if the data was altered or
+   * truncated.
+   *
+   * @param source Stream providing the encrypted data. Closed along with the new stream.
+   * @return New decrypting stream.
+   * @throws GeneralSecurityException The decryption could not be set up.
+   * @since 1.1
+   */
+  @NotNull
+  InputStream newDecryptingStream(final @NotNull InputStream source)
+      throws GeneralSecurityException;
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Nonce source giving each thread its own {@link SecureRandom}, so that concurrent writers don't
+ * contend for a shared generator.
+ *
+ * <p>Each thread draws random bytes in batches and hands out nonces from them, so that generators
+ * whose calls are costly, or which still take a process-wide lock such as {@code NativePRNG}, are
+ * only called once every few messages. The {@code DRBG} generator is used where available, and
+ * reseeds itself; the platform default one is used otherwise, which on Android is backed by a
+ * lock-free per-thread generator.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class ThreadLocalNonceSource implements NonceSource {
+
+  /**
+   * Default number of random bytes drawn at once by each thread.
+   *
+   * @since 1.1
+   */
+  public static final int DEFAULT_BATCH_SIZE = 512;
+
+  private final int batchSize;
+  private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>() {
+    @Override
+    protected Batch initialValue() {
+      return new Batch(createRandom(), batchSize);
+    }
+  };
+
+  /**
+   * Create a new instance drawing {@link #DEFAULT_BATCH_SIZE} bytes at once.
+   *
+   * @since 1.1
+   */
+  public ThreadLocalNonceSource() {
+    this(DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param batchSize Number of random bytes drawn at once by each thread. Nonces longer than this
+   *     are drawn directly.
+   * @throws IllegalArgumentException {@code batchSize} is not positive.
+   * @since 1.1
+   */
+  public ThreadLocalNonceSource(final int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Create the generator of a thread. This is called once per thread using this instance.
+   *
+   * @return New generator.
+   * @since 1.1
+   */
+  @NotNull
+  protected SecureRandom createRandom() {
+    try {
+      return SecureRandom.getInstance("DRBG");
+    } catch (NoSuchAlgorithmException e) {
+      return new SecureRandom();
+    }
+  }
+
+  @Override
+  public void nextNonce(final @NotNull byte[] nonce) {
+    batches.get().next(nonce);
+  }
+
+  /**
+   * Random bytes drawn by a thread and not handed out yet.
+   */
+  private static final class Batch {
+
+    private final @NotNull SecureRandom random;
+    private final @NotNull byte[] bytes;
+    private int position;
+
+    Batch(final @NotNull SecureRandom random, final int size) {
+      this.random = random;
+      bytes = new byte[size];
+      position = size;
+    }
+
+    void next(final @NotNull byte[] nonce) {
+      if (nonce.length > bytes.length) {
+        random.nextBytes(nonce);
+        return;
+      }
+
+      if (bytes.length - position < nonce.length) {
+        random.nextBytes(bytes);
+        position = 0;
+      }
+      System.arraycopy(bytes, position, nonce, 0, nonce.length);
+      position += nonce.length;
+    }
+  }
+}
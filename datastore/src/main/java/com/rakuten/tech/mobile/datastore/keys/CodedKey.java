@@ -17,17 +17,23 @@
 package com.rakuten.tech.mobile.datastore.keys;
 
 import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Represents the key of a blob in a {@link BlobTable}.
  *
+ * <p>Instances are immutable and cache their hash value, so they are cheap to use as map keys.
+ * Tables that only need to read the key's content should prefer {@link #asReadOnlyBuffer()} or
+ * {@link #writeTo(ByteBuffer)} over {@link #getBytes()}, which returns a copy.
+ *
  * @since 0.1 {@inheritDoc}
  */
 public final class CodedKey implements Comparable<CodedKey> {
 
   private final byte[] bytes;
+  private final int hash;
 
   /**
    * Create a new instance.
@@ -36,7 +42,22 @@ public final class CodedKey implements Comparable<CodedKey> {
    * @since 0.1
    */
   public CodedKey(final @NotNull byte[] bytes) {
-    this.bytes = Arrays.copyOf(bytes, bytes.length);
+    this(Arrays.copyOf(bytes, bytes.length), Arrays.hashCode(bytes));
+  }
+
+  private CodedKey(final @NotNull byte[] bytes, final int hash) {
+    this.bytes = bytes;
+    this.hash = hash;
+  }
+
+  /**
+   * Create a new instance that takes ownership of an array, without copying it.
+   *
+   * <p>Only for key coders in this package: the caller must not keep nor modify the array.
+   */
+  @NotNull
+  static CodedKey wrap(final @NotNull byte[] bytes) {
+    return new CodedKey(bytes, Arrays.hashCode(bytes));
   }
 
   /**
@@ -49,19 +70,79 @@ public final class CodedKey implements Comparable<CodedKey> {
     return Arrays.copyOf(bytes, bytes.length);
   }
 
+  /**
+   * Read-only view of the content of the key, without copying it.
+   *
+   * @return New buffer positioned at the start of the key.
+   * @since 1.1
+   */
+  @NotNull
+  public ByteBuffer asReadOnlyBuffer() {
+    return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  /**
+   * Copy the content of the key into a buffer.
+   *
+   * @param destination Buffer to write to, at its current position, which gets advanced.
+   * @throws java.nio.BufferOverflowException There is less than {@link #length()} bytes remaining
+   *     in {@code destination}.
+   * @since 1.1
+   */
+  public void writeTo(final @NotNull ByteBuffer destination) {
+    destination.put(bytes);
+  }
+
+  /**
+   * Length of the key.
+   *
+   * @return Length of the key, in bytes.
+   * @since 1.1
+   */
+  public int length() {
+    return bytes.length;
+  }
+
+  /**
+   * Tells whether this key starts with the content of another.
+   *
+   * @param prefix Potential prefix of this key.
+   * @return Whether this key starts with {@code prefix}. Every key starts with an empty prefix.
+   * @since 1.1
+   */
+  public boolean startsWith(final @NotNull CodedKey prefix) {
+    if (prefix.bytes.length > bytes.length) {
+      return false;
+    }
+
+    for (int i = 0; i < prefix.bytes.length; i++) {
+      if (bytes[i] != prefix.bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public int hashCode() {
-    return Arrays.hashCode(bytes);
+    return hash;
   }
 
   @Override
   public boolean equals(final Object o) {
-    return o instanceof CodedKey && Arrays.equals(bytes, ((CodedKey) o).bytes);
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof CodedKey)) {
+      return false;
+    }
+
+    final CodedKey other = (CodedKey) o;
+    return hash == other.hash && Arrays.equals(bytes, other.bytes);
   }
 
   @Override
   public int compareTo(final @NotNull CodedKey codedKey) {
-    return Arrays.equals(bytes, codedKey.bytes) ? 0
-        : Arrays.hashCode(bytes) < Arrays.hashCode(codedKey.bytes) ? 1 : -1;
+    return Arrays.equals(bytes, codedKey.bytes) ? 0 : hash < codedKey.hash ? 1 : -1;
   }
 }
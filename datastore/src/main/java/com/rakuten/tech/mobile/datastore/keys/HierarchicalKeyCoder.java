@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Key coder for hierarchical keys such as {@code "user/42/avatar"}, hashing each segment
+ * separately so that coded keys preserve their namespaces.
+ *
+ * <p>Every segment is coded as the first {@value #SEGMENT_LENGTH} bytes of the SHA-256 digest of
+ * the previous segment's code, a marker telling whether the segment is the last one, and the
+ * segment itself. The coded key of {@code "user/42/avatar"} thus starts with the prefix of the
+ * {@code "user/42"} namespace, while the key {@code "user/42"} itself does not, and neither does
+ * {@code "user/420/avatar"}.
+ *
+ * <p>{@link com.rakuten.tech.mobile.datastore.tables.FileBlobTable} uses coded keys in file names,
+ * which most file systems limit to 255 bytes: keys stored there should not have more than 15
+ * segments.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class HierarchicalKeyCoder implements PrefixKeyCoder {
+
+  /**
+   * Length of a coded segment. Multiple of 3, so that the Base64 encoding of a namespace is also a
+   * prefix of the encoding of its keys.
+   */
+  static final int SEGMENT_LENGTH = 12;
+
+  private static final byte INNER_SEGMENT = 'D';
+  private static final byte LAST_SEGMENT = 'L';
+
+  private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<>();
+
+  private final byte separator;
+
+  /**
+   * Create a new instance, using {@code '/'} as separator.
+   *
+   * @since 1.1
+   */
+  public HierarchicalKeyCoder() {
+    this('/');
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param separator Separator between the segments of a key.
+   * @throws IllegalArgumentException {@code separator} isn't an ASCII character.
+   * @since 1.1
+   */
+  public HierarchicalKeyCoder(final char separator) {
+    if (separator >= 0x80) {
+      throw new IllegalArgumentException("Separator must be an ASCII character");
+    }
+    this.separator = (byte) separator;
+  }
+
+  @Override
+  public @NotNull CodedKey encode(final @NotNull String clearKey) throws GeneralSecurityException {
+    final ByteBuffer bytes = Utf8Scratch.encode(clearKey);
+    return code(bytes, bytes.limit(), true);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>A trailing separator is ignored, so {@code "user/42/"} and {@code "user/42"} are the same
+   * namespace. The empty namespace has an empty prefix.
+   */
+  @Override
+  public @NotNull CodedKey encodePrefix(final @NotNull String namespace)
+      throws GeneralSecurityException {
+    final ByteBuffer bytes = Utf8Scratch.encode(namespace);
+    int length = bytes.limit();
+    if (length > 0 && bytes.get(length - 1) == separator) {
+      length--;
+    }
+
+    if (length == 0 && namespace.isEmpty()) {
+      return CodedKey.wrap(new byte[0]);
+    }
+    return code(bytes, length, false);
+  }
+
+  @NotNull
+  private CodedKey code(
+      final @NotNull ByteBuffer bytes,
+      final int length,
+      final boolean lastIsLeaf) throws GeneralSecurityException {
+
+    final byte[] array = bytes.array();
+    int segments = 1;
+    for (int i = 0; i < length; i++) {
+      if (array[i] == separator) {
+        segments++;
+      }
+    }
+
+    final Scratch scratch = Scratch.get();
+    final byte[] coded = new byte[segments * SEGMENT_LENGTH];
+    int start = 0;
+    for (int segment = 0; segment < segments; segment++) {
+      int end = start;
+      while (end < length && array[end] != separator) {
+        end++;
+      }
+
+      final boolean last = segment == segments - 1;
+      final MessageDigest digest = scratch.digest;
+      if (segment > 0) {
+        digest.update(coded, (segment - 1) * SEGMENT_LENGTH, SEGMENT_LENGTH);
+      }
+      digest.update(last && lastIsLeaf ? LAST_SEGMENT : INNER_SEGMENT);
+      digest.update(array, start, end - start);
+      try {
+        // digest() also resets the instance for its next use
+        digest.digest(scratch.output, 0, scratch.output.length);
+      } catch (DigestException e) {
+        throw new GeneralSecurityException(e);
+      }
+      System.arraycopy(scratch.output, 0, coded, segment * SEGMENT_LENGTH, SEGMENT_LENGTH);
+      start = end + 1;
+    }
+    return CodedKey.wrap(coded);
+  }
+
+  /**
+   * Per-thread digest and output buffer.
+   */
+  private static final class Scratch {
+    private final @NotNull MessageDigest digest;
+    private final @NotNull byte[] output;
+
+    private Scratch(final @NotNull MessageDigest digest) {
+      this.digest = digest;
+      output = new byte[digest.getDigestLength()];
+    }
+
+    @NotNull
+    static Scratch get() throws GeneralSecurityException {
+      Scratch scratch = SCRATCH.get();
+      if (scratch == null) {
+        scratch = new Scratch(MessageDigest.getInstance("SHA-256"));
+        SCRATCH.set(scratch);
+      }
+      return scratch;
+    }
+  }
+}
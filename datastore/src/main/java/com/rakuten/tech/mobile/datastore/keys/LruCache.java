@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded, thread-safe cache evicting its least recently used entries.
+ *
+ * <p>Entries are spread over independently locked stripes, each an access-ordered {@link
+ * LinkedHashMap}, so that concurrent lookups of different keys rarely contend. Eviction is
+ * per-stripe, hence only approximately LRU over the whole cache.
+ */
+final class LruCache<K, V> {
+
+  private static final int MAXIMUM_STRIPES = 16;
+
+  private final List<Stripe<K, V>> stripes;
+
+  LruCache(final int maximumSize) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+
+    int stripeCount = 1;
+    while (stripeCount < MAXIMUM_STRIPES && stripeCount * 2 <= maximumSize) {
+      stripeCount *= 2;
+    }
+
+    stripes = new ArrayList<>(stripeCount);
+    for (int i = 0; i < stripeCount; i++) {
+      stripes.add(new Stripe<K, V>((maximumSize + stripeCount - 1) / stripeCount));
+    }
+  }
+
+  @Nullable
+  V get(final @NotNull K key) {
+    final Stripe<K, V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    }
+  }
+
+  void put(final @NotNull K key, final @NotNull V value) {
+    final Stripe<K, V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      stripe.put(key, value);
+    }
+  }
+
+  void clear() {
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  @NotNull
+  private Stripe<K, V> stripeFor(final @NotNull K key) {
+    final int hash = key.hashCode();
+    return stripes.get((hash ^ (hash >>> 16)) & (stripes.size() - 1));
+  }
+
+  private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    Stripe(final int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+      return size() > capacity;
+    }
+  }
+}
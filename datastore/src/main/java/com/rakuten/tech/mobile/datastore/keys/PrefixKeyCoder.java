@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.security.GeneralSecurityException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Key coder whose coded keys preserve the namespaces of clear-text keys: every key belonging to a
+ * namespace starts with the coded form of that namespace, so a whole namespace can be found or
+ * removed with a prefix scan.
+ *
+ * @see com.rakuten.tech.mobile.datastore.tables.PrefixScannableBlobTable#iterator(CodedKey)
+ * @see com.rakuten.tech.mobile.datastore.tables.PrefixScannableBlobTable#removeAll(CodedKey)
+ * @since 1.1
+ */
+public interface PrefixKeyCoder extends KeyCoder {
+
+  /**
+   * Encode a namespace into the prefix shared by the coded form of all the keys it contains.
+   *
+   * @param namespace Clear-text namespace.
+   * @return Coded prefix of the namespace.
+   * @throws GeneralSecurityException The namespace could not be encoded.
+   * @since 1.1
+   */
+  @NotNull CodedKey encodePrefix(final @NotNull String namespace) throws GeneralSecurityException;
+}
@@ -20,17 +20,66 @@ import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Simple key coder producing a SHA-256 digest of the clear-text key.
  *
+ * <p>Each thread reuses its own {@link MessageDigest}, avoiding a provider lookup per key. An
+ * optional cache maps recently used clear-text keys to their coded form, so that popular keys are
+ * not hashed again. The cache keeps clear-text keys in memory, hence it is disabled by default.
+ *
  * @since 0.1 {@inheritDoc}
  */
 public final class Sha256KeyCoder implements KeyCoder {
 
+  private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<>();
+
+  private final @Nullable LruCache<String, CodedKey> cache;
+
+  /**
+   * Create a new instance, without any cache.
+   *
+   * @since 0.1
+   */
+  public Sha256KeyCoder() {
+    cache = null;
+  }
+
+  /**
+   * Create a new instance that caches recently used keys.
+   *
+   * @param cacheSize Maximum number of keys to cache.
+   * @throws IllegalArgumentException {@code cacheSize} isn't positive.
+   * @since 1.1
+   */
+  public Sha256KeyCoder(final int cacheSize) {
+    cache = new LruCache<>(cacheSize);
+  }
+
   @Override
   public @NotNull CodedKey encode(final @NotNull String clearKey) throws GeneralSecurityException {
-    return new CodedKey(
-        MessageDigest.getInstance("SHA-256").digest(clearKey.getBytes(StandardCharsets.UTF_8)));
+    if (cache == null) {
+      return digest(clearKey);
+    }
+
+    CodedKey codedKey = cache.get(clearKey);
+    if (codedKey == null) {
+      codedKey = digest(clearKey);
+      cache.put(clearKey, codedKey);
+    }
+    return codedKey;
+  }
+
+  @NotNull
+  private static CodedKey digest(final @NotNull String clearKey) throws GeneralSecurityException {
+    MessageDigest digest = DIGEST.get();
+    if (digest == null) {
+      digest = MessageDigest.getInstance("SHA-256");
+      DIGEST.set(digest);
+    }
+
+    // digest() also resets the instance for its next use
+    return CodedKey.wrap(digest.digest(clearKey.getBytes(StandardCharsets.UTF_8)));
   }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Key coder producing a keyed SipHash-2-4 of the clear-text key.
+ *
+ * <p>SipHash is much faster than SHA-256, and, as long as its 128-bit key stays secret, its output
+ * can't be predicted nor deliberately made to collide. It is meant for tables where keys only need
+ * obfuscation: it is not a cryptographic digest.
+ *
+ * <p>Coded keys are 64-bit long, so the probability of any two of {@code n} keys colliding is
+ * about {@code n^2 / 2^65}: 3e-10 for 100,000 keys, 3e-8 for a million. Use {@link
+ * Xxh3KeyCoder} or {@link Sha256KeyCoder} for more keys than that.
+ *
+ * <p>Keys are hashed from a per-thread UTF-8 buffer, so that encoding only allocates the
+ * returned {@link CodedKey}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class SipHashKeyCoder implements KeyCoder {
+
+  /**
+   * Length of the key, in bytes.
+   *
+   * @since 1.1
+   */
+  public static final int KEY_LENGTH = 16;
+
+  private final long k0;
+  private final long k1;
+
+  /**
+   * Create a new instance.
+   *
+   * @param key Secret key, {@link #KEY_LENGTH} bytes long.
+   * @throws IllegalArgumentException The key doesn't have the right length.
+   * @since 1.1
+   */
+  public SipHashKeyCoder(final @NotNull byte[] key) {
+    if (key.length != KEY_LENGTH) {
+      throw new IllegalArgumentException("Key must be " + KEY_LENGTH + " bytes long");
+    }
+
+    final ByteBuffer buffer = ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN);
+    k0 = buffer.getLong(0);
+    k1 = buffer.getLong(8);
+  }
+
+  @Override
+  public @NotNull CodedKey encode(final @NotNull String clearKey) {
+    final long hash = hash(Utf8Scratch.encode(clearKey));
+    final byte[] bytes = new byte[8];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (hash >>> (8 * i));
+    }
+    return CodedKey.wrap(bytes);
+  }
+
+  /**
+   * SipHash-2-4 of the bytes of a little-endian buffer, from 0 to its limit.
+   */
+  long hash(final @NotNull ByteBuffer input) {
+    final int length = input.limit();
+    long v0 = k0 ^ 0x736f6d6570736575L;
+    long v1 = k1 ^ 0x646f72616e646f6dL;
+    long v2 = k0 ^ 0x6c7967656e657261L;
+    long v3 = k1 ^ 0x7465646279746573L;
+
+    final int end = length - (length & 7);
+    for (int offset = 0; offset < end; offset += 8) {
+      final long m = input.getLong(offset);
+      v3 ^= m;
+      for (int round = 0; round < 2; round++) {
+        v0 += v1;
+        v1 = Long.rotateLeft(v1, 13) ^ v0;
+        v0 = Long.rotateLeft(v0, 32);
+        v2 += v3;
+        v3 = Long.rotateLeft(v3, 16) ^ v2;
+        v0 += v3;
+        v3 = Long.rotateLeft(v3, 21) ^ v0;
+        v2 += v1;
+        v1 = Long.rotateLeft(v1, 17) ^ v2;
+        v2 = Long.rotateLeft(v2, 32);
+      }
+      v0 ^= m;
+    }
+
+    long last = (long) length << 56;
+    for (int i = end; i < length; i++) {
+      last |= (input.get(i) & 0xFFL) << (8 * (i - end));
+    }
+
+    // Two compression rounds for the last block, then four finalization rounds
+    v3 ^= last;
+    for (int round = 0; round < 6; round++) {
+      if (round == 2) {
+        v0 ^= last;
+        v2 ^= 0xFF;
+      }
+      v0 += v1;
+      v1 = Long.rotateLeft(v1, 13) ^ v0;
+      v0 = Long.rotateLeft(v0, 32);
+      v2 += v3;
+      v3 = Long.rotateLeft(v3, 16) ^ v2;
+      v0 += v3;
+      v3 = Long.rotateLeft(v3, 21) ^ v0;
+      v2 += v1;
+      v1 = Long.rotateLeft(v1, 17) ^ v2;
+      v2 = Long.rotateLeft(v2, 32);
+    }
+    return v0 ^ v1 ^ v2 ^ v3;
+  }
+}
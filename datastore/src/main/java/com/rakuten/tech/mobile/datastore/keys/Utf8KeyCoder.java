@@ -28,6 +28,6 @@ public final class Utf8KeyCoder implements KeyCoder {
 
   @Override
   public @NotNull CodedKey encode(final @NotNull String clearKey) {
-    return new CodedKey(clearKey.getBytes(StandardCharsets.UTF_8));
+    return CodedKey.wrap(clearKey.getBytes(StandardCharsets.UTF_8));
   }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * UTF-8 encoding of clear-text keys into per-thread scratch buffers, for key coders that hash
+ * keys without keeping them.
+ *
+ * <p>The output matches {@code String.getBytes(StandardCharsets.UTF_8)}, including the replacement
+ * of unpaired surrogates with {@code '?'}.
+ */
+final class Utf8Scratch {
+
+  /**
+   * Longest key, in chars, whose buffers are kept per thread. Longer keys get buffers of their
+   * own.
+   */
+  private static final int MAXIMUM_RETAINED_LENGTH = 1024;
+
+  private static final ThreadLocal<Utf8Scratch> SCRATCH = new ThreadLocal<Utf8Scratch>() {
+    @Override
+    protected Utf8Scratch initialValue() {
+      return new Utf8Scratch(64);
+    }
+  };
+
+  private final char[] chars;
+  private final byte[] bytes;
+  private final ByteBuffer buffer;
+
+  private Utf8Scratch(final int length) {
+    chars = new char[length];
+    // At most three bytes per char: supplementary characters take four bytes for two chars
+    bytes = new byte[3 * length];
+    buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Encode a string.
+   *
+   * @return Little-endian buffer holding the encoded string between 0 and its limit, only valid
+   *     until the next call from the same thread.
+   */
+  @NotNull
+  static ByteBuffer encode(final @NotNull String string) {
+    final int count = string.length();
+    Utf8Scratch scratch = SCRATCH.get();
+    if (scratch.chars.length < count) {
+      scratch = new Utf8Scratch(count);
+      if (count <= MAXIMUM_RETAINED_LENGTH) {
+        SCRATCH.set(scratch);
+      }
+    }
+
+    final char[] chars = scratch.chars;
+    final byte[] bytes = scratch.bytes;
+    string.getChars(0, count, chars, 0);
+
+    // Most keys are ASCII, and this loop is simple enough to get unrolled
+    int ascii = 0;
+    while (ascii < count && chars[ascii] < 0x80) {
+      bytes[ascii] = (byte) chars[ascii];
+      ascii++;
+    }
+
+    int position = ascii;
+    for (int i = ascii; i < count; i++) {
+      final char c = chars[i];
+      if (c < 0x80) {
+        bytes[position++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[position++] = (byte) (0xC0 | c >> 6);
+        bytes[position++] = (byte) (0x80 | c & 0x3F);
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < count && Character.isLowSurrogate(chars[i + 1])) {
+        final int codePoint = Character.toCodePoint(c, chars[++i]);
+        bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+        bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+      } else if (Character.isSurrogate(c)) {
+        bytes[position++] = '?';
+      } else {
+        bytes[position++] = (byte) (0xE0 | c >> 12);
+        bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+        bytes[position++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+
+    scratch.buffer.limit(position);
+    return scratch.buffer;
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Pure Java implementation of the 128-bit variant of XXH3, as of xxHash 0.8.
+ *
+ * <p>Instances are immutable and can be shared between threads.
+ */
+final class Xxh3 {
+
+  private static final long PRIME32_1 = 0x9E3779B1L;
+  private static final long PRIME32_2 = 0x85EBCA77L;
+  private static final long PRIME32_3 = 0xC2B2AE3DL;
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+  private static final long PRIME_MX1 = 0x165667919E3779F9L;
+  private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+  private static final int STRIPE_LENGTH = 64;
+  private static final int SECRET_CONSUME_RATE = 8;
+  private static final int SECRET_MERGEACCS_START = 11;
+  private static final int SECRET_LASTACC_START = 7;
+  private static final int SECRET_SIZE_MIN = 136;
+  private static final int MIDSIZE_MAX = 240;
+  private static final int MIDSIZE_STARTOFFSET = 3;
+  private static final int MIDSIZE_LASTOFFSET = 17;
+
+  private static final ByteBuffer DEFAULT_SECRET = decodeHex(""
+      + "b8fe6c3923a44bbe7c01812cf721ad1cded46de9839097db7240a4a4b7b3671f"
+      + "cb79e64eccc0e578825ad07dccff7221b8084674f743248ee03590e6813a264c"
+      + "3c2852bb91c300cb88d0658b1b532ea371644897a20df94e3819ef46a9deacd8"
+      + "a8fa763fe39c343ff9dcbbc7c70b4f1d8a51e04bcdb45931c89f7ec9d9787364"
+      + "eac5ac8334d3ebc3c581a0fffa1363eb170ddd51b7f0da49d316552629d4689e"
+      + "2b16be587d47a1fc8ff8b8d17ad031ce45cb3a8f95160428afd7fbcabb4b407e");
+
+  private final long seed;
+
+  /**
+   * Secret used for inputs longer than {@link #MIDSIZE_MAX}, derived from the seed.
+   */
+  private final ByteBuffer longSecret;
+
+  Xxh3(final long seed) {
+    this.seed = seed;
+    if (seed == 0) {
+      longSecret = DEFAULT_SECRET;
+    } else {
+      longSecret = ByteBuffer.allocate(DEFAULT_SECRET.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < DEFAULT_SECRET.capacity(); i += 16) {
+        longSecret.putLong(i, DEFAULT_SECRET.getLong(i) + seed);
+        longSecret.putLong(i + 8, DEFAULT_SECRET.getLong(i + 8) - seed);
+      }
+    }
+  }
+
+  /**
+   * Hash {@code length} bytes from the start of {@code input}, which must be little-endian.
+   *
+   * <p>Inputs of up to 240 bytes are hashed without allocating any memory.
+   *
+   * @param output Receives the canonical, big-endian representation of the hash: high 64 bits
+   *     first. Must hold at least 16 bytes from {@code offset}.
+   */
+  void hash128(
+      final @NotNull ByteBuffer input,
+      final int length,
+      final @NotNull byte[] output,
+      final int offset) {
+    if (length <= 16) {
+      hashShort(input, length, output, offset);
+    } else if (length <= 128) {
+      hashMedium(input, length, output, offset);
+    } else if (length <= MIDSIZE_MAX) {
+      hashMidSize(input, length, output, offset);
+    } else {
+      hashLong(input, length, output, offset);
+    }
+  }
+
+  private void hashShort(
+      final ByteBuffer input,
+      final int length,
+      final byte[] output,
+      final int offset) {
+    final ByteBuffer secret = DEFAULT_SECRET;
+    if (length > 8) {
+      final long bitflipl = (readLong(secret, 32) ^ readLong(secret, 40)) - seed;
+      final long bitfliph = (readLong(secret, 48) ^ readLong(secret, 56)) + seed;
+      final long inputLo = readLong(input, 0);
+      long inputHi = readLong(input, length - 8);
+
+      final long keyed = inputLo ^ inputHi ^ bitflipl;
+      long mLo = keyed * PRIME64_1;
+      long mHi = multiplyHigh(keyed, PRIME64_1);
+      mLo += (long) (length - 1) << 54;
+      inputHi ^= bitfliph;
+      mHi += inputHi + (inputHi & 0xFFFFFFFFL) * (PRIME32_2 - 1);
+      mLo ^= Long.reverseBytes(mHi);
+
+      final long hLo = mLo * PRIME64_2;
+      final long hHi = multiplyHigh(mLo, PRIME64_2) + mHi * PRIME64_2;
+      store(output, offset, avalanche(hLo), avalanche(hHi));
+    } else if (length >= 4) {
+      final long s = seed ^ ((long) Integer.reverseBytes((int) seed) << 32);
+      final long inputLo = readInt(input, 0);
+      final long inputHi = readInt(input, length - 4);
+      final long bitflip = (readLong(secret, 16) ^ readLong(secret, 24)) + s;
+      final long keyed = (inputLo + (inputHi << 32)) ^ bitflip;
+
+      final long multiplier = PRIME64_1 + ((long) length << 2);
+      long mLo = keyed * multiplier;
+      long mHi = multiplyHigh(keyed, multiplier);
+      mHi += mLo << 1;
+      mLo ^= mHi >>> 3;
+      mLo ^= mLo >>> 35;
+      mLo *= PRIME_MX2;
+      mLo ^= mLo >>> 28;
+      store(output, offset, mLo, avalanche(mHi));
+    } else if (length > 0) {
+      final int c1 = input.get(0) & 0xFF;
+      final int c2 = input.get(length >> 1) & 0xFF;
+      final int c3 = input.get(length - 1) & 0xFF;
+      final int combinedl = (c1 << 16) | (c2 << 24) | c3 | (length << 8);
+      final int combinedh = Integer.rotateLeft(Integer.reverseBytes(combinedl), 13);
+      final long bitflipl = (readInt(secret, 0) ^ readInt(secret, 4)) + seed;
+      final long bitfliph = (readInt(secret, 8) ^ readInt(secret, 12)) - seed;
+      store(output, offset,
+          xxh64Avalanche((combinedl & 0xFFFFFFFFL) ^ bitflipl),
+          xxh64Avalanche((combinedh & 0xFFFFFFFFL) ^ bitfliph));
+    } else {
+      store(output, offset,
+          xxh64Avalanche(seed ^ readLong(secret, 64) ^ readLong(secret, 72)),
+          xxh64Avalanche(seed ^ readLong(secret, 80) ^ readLong(secret, 88)));
+    }
+  }
+
+  private void hashMedium(
+      final ByteBuffer input,
+      final int length,
+      final byte[] output,
+      final int offset) {
+    long lo = length * PRIME64_1;
+    long hi = 0;
+    if (length > 32) {
+      if (length > 64) {
+        if (length > 96) {
+          lo = mix32(lo, input, 48, length - 64, 96, seed);
+          hi = mix32(hi, input, length - 64, 48, 96 + 16, seed);
+        }
+        lo = mix32(lo, input, 32, length - 48, 64, seed);
+        hi = mix32(hi, input, length - 48, 32, 64 + 16, seed);
+      }
+      lo = mix32(lo, input, 16, length - 32, 32, seed);
+      hi = mix32(hi, input, length - 32, 16, 32 + 16, seed);
+    }
+    lo = mix32(lo, input, 0, length - 16, 0, seed);
+    hi = mix32(hi, input, length - 16, 0, 16, seed);
+    finish(lo, hi, length, output, offset);
+  }
+
+  private void hashMidSize(
+      final ByteBuffer input,
+      final int length,
+      final byte[] output,
+      final int offset) {
+    long lo = length * PRIME64_1;
+    long hi = 0;
+    for (int i = 0; i < 4; i++) {
+      lo = mix32(lo, input, 32 * i, 32 * i + 16, 32 * i, seed);
+      hi = mix32(hi, input, 32 * i + 16, 32 * i, 32 * i + 16, seed);
+    }
+    lo = avalanche(lo);
+    hi = avalanche(hi);
+
+    final int rounds = length / 32;
+    for (int i = 4; i < rounds; i++) {
+      final int secretOffset = MIDSIZE_STARTOFFSET + 32 * (i - 4);
+      lo = mix32(lo, input, 32 * i, 32 * i + 16, secretOffset, seed);
+      hi = mix32(hi, input, 32 * i + 16, 32 * i, secretOffset + 16, seed);
+    }
+
+    // Last bytes
+    final int secretOffset = SECRET_SIZE_MIN - MIDSIZE_LASTOFFSET - 16;
+    lo = mix32(lo, input, length - 16, length - 32, secretOffset, -seed);
+    hi = mix32(hi, input, length - 32, length - 16, secretOffset + 16, -seed);
+    finish(lo, hi, length, output, offset);
+  }
+
+  private void finish(
+      final long lo,
+      final long hi,
+      final int length,
+      final byte[] output,
+      final int offset) {
+    final long hLo = lo + hi;
+    final long hHi = lo * PRIME64_1 + hi * PRIME64_4 + (length - seed) * PRIME64_2;
+    store(output, offset, avalanche(hLo), -avalanche(hHi));
+  }
+
+  private void hashLong(
+      final ByteBuffer input,
+      final int length,
+      final byte[] output,
+      final int offset) {
+    final ByteBuffer secret = longSecret;
+    final long[] acc = {
+        PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1};
+
+    final int stripesPerBlock = (secret.capacity() - STRIPE_LENGTH) / SECRET_CONSUME_RATE;
+    final int blockLength = STRIPE_LENGTH * stripesPerBlock;
+    final int blocks = (length - 1) / blockLength;
+
+    for (int n = 0; n < blocks; n++) {
+      accumulate(acc, input, n * blockLength, secret, stripesPerBlock);
+      scramble(acc, secret, secret.capacity() - STRIPE_LENGTH);
+    }
+
+    // Last partial block, then last stripe
+    final int stripes = (length - 1 - blockLength * blocks) / STRIPE_LENGTH;
+    accumulate(acc, input, blocks * blockLength, secret, stripes);
+    accumulate512(acc, input, length - STRIPE_LENGTH,
+        secret, secret.capacity() - STRIPE_LENGTH - SECRET_LASTACC_START);
+
+    store(output, offset,
+        mergeAccumulators(acc, secret, SECRET_MERGEACCS_START, length * PRIME64_1),
+        mergeAccumulators(acc, secret, secret.capacity() - STRIPE_LENGTH - SECRET_MERGEACCS_START,
+            ~(length * PRIME64_2)));
+  }
+
+  private static void accumulate(
+      final long[] acc,
+      final ByteBuffer input,
+      final int offset,
+      final ByteBuffer secret,
+      final int stripes) {
+    for (int n = 0; n < stripes; n++) {
+      accumulate512(acc, input, offset + n * STRIPE_LENGTH, secret, n * SECRET_CONSUME_RATE);
+    }
+  }
+
+  private static void accumulate512(
+      final long[] acc,
+      final ByteBuffer input,
+      final int offset,
+      final ByteBuffer secret,
+      final int secretOffset) {
+    for (int i = 0; i < 8; i++) {
+      final long value = readLong(input, offset + 8 * i);
+      final long key = value ^ readLong(secret, secretOffset + 8 * i);
+      acc[i ^ 1] += value;
+      acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+    }
+  }
+
+  private static void scramble(final long[] acc, final ByteBuffer secret, final int secretOffset) {
+    for (int i = 0; i < 8; i++) {
+      long value = acc[i];
+      value ^= value >>> 47;
+      value ^= readLong(secret, secretOffset + 8 * i);
+      acc[i] = value * PRIME32_1;
+    }
+  }
+
+  private static long mergeAccumulators(
+      final long[] acc,
+      final ByteBuffer secret,
+      final int secretOffset,
+      final long start) {
+    long result = start;
+    for (int i = 0; i < 4; i++) {
+      result += multiplyFold(
+          acc[2 * i] ^ readLong(secret, secretOffset + 16 * i),
+          acc[2 * i + 1] ^ readLong(secret, secretOffset + 16 * i + 8));
+    }
+    return avalanche(result);
+  }
+
+  /**
+   * One half of XXH3's 32-byte mixing step: mixes 16 bytes at {@code mixed} into the accumulator,
+   * then folds in 16 bytes at {@code folded}.
+   */
+  private static long mix32(
+      final long acc,
+      final ByteBuffer input,
+      final int mixed,
+      final int folded,
+      final int secretOffset,
+      final long seed) {
+    return (acc + mix16(input, mixed, DEFAULT_SECRET, secretOffset, seed))
+        ^ (readLong(input, folded) + readLong(input, folded + 8));
+  }
+
+  private static long mix16(
+      final ByteBuffer input,
+      final int offset,
+      final ByteBuffer secret,
+      final int secretOffset,
+      final long seed) {
+    return multiplyFold(
+        readLong(input, offset) ^ (readLong(secret, secretOffset) + seed),
+        readLong(input, offset + 8) ^ (readLong(secret, secretOffset + 8) - seed));
+  }
+
+  private static long multiplyFold(final long a, final long b) {
+    return a * b ^ multiplyHigh(a, b);
+  }
+
+  /**
+   * High 64 bits of the unsigned 128-bit product of {@code a} and {@code b}.
+   */
+  private static long multiplyHigh(final long a, final long b) {
+    final long aLo = a & 0xFFFFFFFFL;
+    final long aHi = a >>> 32;
+    final long bLo = b & 0xFFFFFFFFL;
+    final long bHi = b >>> 32;
+
+    final long loLo = aLo * bLo;
+    final long hiLo = aHi * bLo;
+    final long cross = (loLo >>> 32) + (hiLo & 0xFFFFFFFFL) + aLo * bHi;
+    return (hiLo >>> 32) + (cross >>> 32) + aHi * bHi;
+  }
+
+  private static long avalanche(final long value) {
+    long h = value;
+    h ^= h >>> 37;
+    h *= PRIME_MX1;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long xxh64Avalanche(final long value) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= PRIME64_2;
+    h ^= h >>> 29;
+    h *= PRIME64_3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long readInt(final ByteBuffer bytes, final int offset) {
+    return bytes.getInt(offset) & 0xFFFFFFFFL;
+  }
+
+  private static long readLong(final ByteBuffer bytes, final int offset) {
+    return bytes.getLong(offset);
+  }
+
+  private static void store(final byte[] output, final int offset, final long lo, final long hi) {
+    for (int i = 0; i < 8; i++) {
+      output[offset + i] = (byte) (hi >>> (56 - 8 * i));
+      output[offset + 8 + i] = (byte) (lo >>> (56 - 8 * i));
+    }
+  }
+
+  private static ByteBuffer decodeHex(final String hex) {
+    final ByteBuffer bytes = ByteBuffer.allocate(hex.length() / 2).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < bytes.capacity(); i++) {
+      bytes.put(i, (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16));
+    }
+    return bytes;
+  }
+}
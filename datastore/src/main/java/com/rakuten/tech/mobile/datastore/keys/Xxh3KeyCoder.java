@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Key coder producing a seeded, 128-bit XXH3 hash of the clear-text key.
+ *
+ * <p>XXH3 is one of the fastest non-cryptographic hash functions. Its seed changes every coded key
+ * but, unlike the key of {@link SipHashKeyCoder}, does not prevent someone who controls the
+ * clear-text keys from crafting collisions. Use it only for tables whose keys are not chosen by
+ * untrusted parties and only need obfuscation.
+ *
+ * <p>Coded keys are 128-bit long, so the probability of any two of {@code n} keys colliding is
+ * about {@code n^2 / 2^129}: 1.5e-27 for a million keys.
+ *
+ * <p>Keys are hashed from a per-thread UTF-8 buffer, so that encoding only allocates the
+ * returned {@link CodedKey}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class Xxh3KeyCoder implements KeyCoder {
+
+  private final Xxh3 xxh3;
+
+  /**
+   * Create a new instance.
+   *
+   * @param seed Seed of the hash function.
+   * @since 1.1
+   */
+  public Xxh3KeyCoder(final long seed) {
+    xxh3 = new Xxh3(seed);
+  }
+
+  @Override
+  public @NotNull CodedKey encode(final @NotNull String clearKey) {
+    final ByteBuffer input = Utf8Scratch.encode(clearKey);
+    final byte[] bytes = new byte[16];
+    xxh3.hash128(input, input.limit(), bytes, 0);
+    return CodedKey.wrap(bytes);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A latency histogram recorded without locks, with the buckets of {@link LatencyHistogram}.
+ *
+ * <p>Snapshots taken while values are being recorded may miss some of them, and their sum and
+ * maximum may not exactly match their buckets.
+ */
+final class AtomicHistogram {
+
+  private final @NotNull AtomicLongArray counts =
+      new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+  private final @NotNull AtomicLong sum = new AtomicLong();
+  private final @NotNull AtomicLong max = new AtomicLong();
+
+  void record(final long nanos) {
+    final long value = Math.min(Math.max(nanos, 0), LatencyHistogram.MAXIMUM_VALUE);
+    counts.incrementAndGet(LatencyHistogram.getBucketIndex(value));
+    sum.addAndGet(value);
+
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  @NotNull
+  LatencyHistogram snapshot() {
+    final long[] copy = new long[counts.length()];
+    for (int index = 0; index < copy.length; index++) {
+      copy[index] = counts.get(index);
+    }
+    return new LatencyHistogram(copy, sum.get(), max.get());
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Defines the flight recorder event of data store operations at runtime, through {@code
+ * jdk.jfr.EventFactory}, as the baseline of this library has no {@code jdk.jfr} to compile
+ * against.
+ */
+final class FlightRecorderEvents {
+
+  static final String EVENT_NAME = "com.rakuten.tech.mobile.datastore.Operation";
+
+  private static final String[] FIELDS = {"operation", "keyHash", "bytesIn", "bytesOut", "failed"};
+
+  private final @NotNull Object factory;
+  private final @NotNull Method newEvent;
+  private final @NotNull Method begin;
+  private final @NotNull Method end;
+  private final @NotNull Method shouldCommit;
+  private final @NotNull Method set;
+  private final @NotNull Method commit;
+
+  private FlightRecorderEvents() throws ClassNotFoundException, NoSuchMethodException,
+      InstantiationException, IllegalAccessException, InvocationTargetException {
+    final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+    final Class<?> event = Class.forName("jdk.jfr.Event");
+    final Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement")
+        .getConstructor(Class.class, Object.class);
+    final Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor")
+        .getConstructor(Class.class, String.class, List.class);
+
+    final List<Object> annotations = Arrays.asList(
+        annotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME),
+        annotation.newInstance(Class.forName("jdk.jfr.Label"), "DataStore Operation"),
+        annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"DataStore"}),
+        annotation.newInstance(Class.forName("jdk.jfr.Description"),
+            "Operation of a data store, with the time spent in each stage"));
+
+    final Object bytes = annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES");
+    final Object nanoseconds =
+        annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS");
+    final List<Object> fields = new ArrayList<>();
+    fields.add(field.newInstance(String.class, FIELDS[0], Arrays.asList()));
+    fields.add(field.newInstance(int.class, FIELDS[1], Arrays.asList()));
+    fields.add(field.newInstance(long.class, FIELDS[2], Arrays.asList(bytes)));
+    fields.add(field.newInstance(long.class, FIELDS[3], Arrays.asList(bytes)));
+    fields.add(field.newInstance(boolean.class, FIELDS[4], Arrays.asList()));
+    for (int stage = 0; stage < Metrics.STAGE_COUNT; stage++) {
+      fields.add(field.newInstance(
+          long.class, Metrics.getStageName(stage), Arrays.asList(nanoseconds)));
+    }
+
+    factory = eventFactory.getMethod("create", List.class, List.class)
+        .invoke(null, annotations, fields);
+    newEvent = eventFactory.getMethod("newEvent");
+    begin = event.getMethod("begin");
+    end = event.getMethod("end");
+    shouldCommit = event.getMethod("shouldCommit");
+    set = event.getMethod("set", int.class, Object.class);
+    commit = event.getMethod("commit");
+  }
+
+  /**
+   * Define the event, if the flight recorder is available.
+   */
+  @Nullable
+  static FlightRecorderEvents load() {
+    try {
+      return new FlightRecorderEvents();
+    } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException
+        | IllegalAccessException | InvocationTargetException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Create an event, and start timing it.
+   */
+  @NotNull
+  Object begin() {
+    final Object event = invoke(newEvent, factory);
+    invoke(begin, event);
+    return event;
+  }
+
+  /**
+   * Stop timing an event, and commit it if it is enabled and above its threshold.
+   */
+  void commit(
+      final @NotNull Object event,
+      final int operation,
+      final @NotNull Trace trace,
+      final long bytesIn,
+      final long bytesOut,
+      final boolean failed) {
+    invoke(end, event);
+    if (!(Boolean) invoke(shouldCommit, event)) {
+      return;
+    }
+
+    invoke(set, event, 0, Metrics.getOperationName(operation));
+    invoke(set, event, 1, trace.getKeyHash());
+    invoke(set, event, 2, bytesIn);
+    invoke(set, event, 3, bytesOut);
+    invoke(set, event, 4, failed);
+    for (int stage = 0; stage < Metrics.STAGE_COUNT; stage++) {
+      invoke(set, event, FIELDS.length + stage, trace.getStage(stage));
+    }
+    invoke(commit, event);
+  }
+
+  private static Object invoke(
+      final @NotNull Method method, final @NotNull Object target, final Object... arguments) {
+    try {
+      return method.invoke(target, arguments);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Flight recorder call failed", e);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A metrics listener emitting a Java Flight Recorder event for every operation, named {@code
+ * com.rakuten.tech.mobile.datastore.Operation}, with the operation, the hash of its coded key, its
+ * bytes in and out, whether it failed, and the time spent in each stage.
+ *
+ * <p>The event is defined at runtime, so this class can be shipped where there is no flight
+ * recorder, e.g. on Android, as long as it isn't instantiated there: check {@link #isSupported()}
+ * first. Events are only committed while a recording enables them, and their threshold can be set
+ * as for any other event, e.g. to only record operations slower than 10 ms, with these recording
+ * settings:
+ *
+ * <pre>
+ *   &lt;event name="com.rakuten.tech.mobile.datastore.Operation"&gt;
+ *     &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ *     &lt;setting name="threshold"&gt;10 ms&lt;/setting&gt;
+ *   &lt;/event&gt;
+ * </pre>
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class FlightRecorderMetricsListener implements TracingMetricsListener {
+
+  private static final @Nullable FlightRecorderEvents EVENTS = FlightRecorderEvents.load();
+
+  private final @NotNull FlightRecorderEvents events;
+  private final @NotNull ThreadLocal<Trace> traces = new ThreadLocal<Trace>() {
+    @Override
+    protected Trace initialValue() {
+      return new Trace();
+    }
+  };
+  private final @NotNull ThreadLocal<Object> current = new ThreadLocal<>();
+
+  /**
+   * Create a new instance.
+   *
+   * @throws IllegalStateException The flight recorder isn't available.
+   * @since 1.1
+   */
+  public FlightRecorderMetricsListener() {
+    if (EVENTS == null) {
+      throw new IllegalStateException("Flight recorder events are not supported");
+    }
+    this.events = EVENTS;
+  }
+
+  /**
+   * Check whether the flight recorder is available, which takes Java 9 or later.
+   *
+   * @return Whether instances can be created.
+   * @since 1.1
+   */
+  public static boolean isSupported() {
+    return EVENTS != null;
+  }
+
+  @Override
+  public void onStart(final int operation) {
+    traces.get().start();
+    current.set(events.begin());
+  }
+
+  @Override
+  public void onKey(final int operation, final int keyHash) {
+    traces.get().setKeyHash(keyHash);
+  }
+
+  @Override
+  public void onStage(final int operation, final int stage, final long nanos) {
+    traces.get().addStage(stage, nanos);
+  }
+
+  @Override
+  public void onOperation(
+      final int operation,
+      final long nanos,
+      final long bytesIn,
+      final long bytesOut,
+      final boolean failed) {
+
+    final Object event = current.get();
+    if (event != null) {
+      current.remove();
+      events.commit(event, operation, traces.get(), bytesIn, bytesOut, failed);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A metrics listener keeping a latency histogram of every operation and of every stage of each
+ * operation, along with the bytes they moved and the number of failed operations.
+ *
+ * <p>Recording takes no lock, and histograms are only allocated, about 8 KiB each, once their
+ * operation or stage is first reported. Counters are cumulative: exporters wanting rates should
+ * take {@link #snapshot()}s periodically and compute the differences.
+ *
+ * <pre><code>
+ *   final HistogramMetricsListener metrics = new HistogramMetricsListener();
+ *   store.setMetricsListener(metrics);
+ *   ...
+ *   final long p99 = metrics.snapshot().getLatency(Metrics.GET).getValueAtPercentile(99);
+ * </code></pre>
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class HistogramMetricsListener implements MetricsListener {
+
+  private final @NotNull AtomicReferenceArray<AtomicHistogram> operations =
+      new AtomicReferenceArray<>(Metrics.OPERATION_COUNT);
+  private final @NotNull AtomicReferenceArray<AtomicHistogram> stages =
+      new AtomicReferenceArray<>(Metrics.OPERATION_COUNT * Metrics.STAGE_COUNT);
+  private final @NotNull AtomicLongArray bytesIn = new AtomicLongArray(Metrics.OPERATION_COUNT);
+  private final @NotNull AtomicLongArray bytesOut = new AtomicLongArray(Metrics.OPERATION_COUNT);
+  private final @NotNull AtomicLongArray errors = new AtomicLongArray(Metrics.OPERATION_COUNT);
+
+  @Override
+  public void onStage(final int operation, final int stage, final long nanos) {
+    getHistogram(stages, operation * Metrics.STAGE_COUNT + stage).record(nanos);
+  }
+
+  @Override
+  public void onOperation(
+      final int operation,
+      final long nanos,
+      final long bytesIn,
+      final long bytesOut,
+      final boolean failed) {
+
+    getHistogram(operations, operation).record(nanos);
+    this.bytesIn.addAndGet(operation, bytesIn);
+    this.bytesOut.addAndGet(operation, bytesOut);
+    if (failed) {
+      errors.incrementAndGet(operation);
+    }
+  }
+
+  /**
+   * Take a snapshot of the metrics recorded so far.
+   *
+   * @return An immutable copy of the metrics.
+   * @since 1.1
+   */
+  @NotNull
+  public MetricsSnapshot snapshot() {
+    return new MetricsSnapshot(
+        snapshot(operations), snapshot(stages),
+        snapshot(bytesIn), snapshot(bytesOut), snapshot(errors));
+  }
+
+  @NotNull
+  private static AtomicHistogram getHistogram(
+      final @NotNull AtomicReferenceArray<AtomicHistogram> histograms, final int index) {
+    final AtomicHistogram histogram = histograms.get(index);
+    if (histogram != null) {
+      return histogram;
+    }
+
+    // Racing threads all end up with the same instance
+    histograms.compareAndSet(index, null, new AtomicHistogram());
+    return histograms.get(index);
+  }
+
+  @NotNull
+  private static LatencyHistogram[] snapshot(
+      final @NotNull AtomicReferenceArray<AtomicHistogram> histograms) {
+    final LatencyHistogram[] copy = new LatencyHistogram[histograms.length()];
+    for (int index = 0; index < copy.length; index++) {
+      final AtomicHistogram histogram = histograms.get(index);
+      copy[index] = histogram == null ? LatencyHistogram.EMPTY : histogram.snapshot();
+    }
+    return copy;
+  }
+
+  @NotNull
+  private static long[] snapshot(final @NotNull AtomicLongArray counters) {
+    final long[] copy = new long[counters.length()];
+    for (int index = 0; index < copy.length; index++) {
+      copy[index] = counters.get(index);
+    }
+    return copy;
+  }
+}
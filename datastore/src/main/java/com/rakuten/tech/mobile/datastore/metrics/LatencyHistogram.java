@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An immutable snapshot of a latency histogram, in nanoseconds.
+ *
+ * <p>As in HdrHistogram, buckets are log-linear: values under 64 are counted exactly, and each
+ * power of two above is split into 32 buckets, so that values are reported within about 3% of
+ * their actual value. Values above {@link #MAXIMUM_VALUE} are counted as that value.
+ *
+ * @since 1.1
+ */
+public final class LatencyHistogram {
+
+  /**
+   * Highest value told apart from higher ones, about 68.7 seconds.
+   *
+   * @since 1.1
+   */
+  public static final long MAXIMUM_VALUE = (1L << 36) - 1;
+
+  static final int BUCKET_COUNT = getBucketIndex(MAXIMUM_VALUE) + 1;
+
+  static final LatencyHistogram EMPTY = new LatencyHistogram(new long[BUCKET_COUNT], 0, 0);
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+
+  private final @NotNull long[] counts;
+  private final long count;
+  private final long sum;
+  private final long max;
+
+  LatencyHistogram(final @NotNull long[] counts, final long sum, final long max) {
+    long count = 0;
+    for (final long bucket : counts) {
+      count += bucket;
+    }
+
+    this.counts = counts;
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+  }
+
+  /**
+   * Get the number of recorded values.
+   *
+   * @return Number of values.
+   * @since 1.1
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the sum of the recorded values.
+   *
+   * @return Total, in nanoseconds.
+   * @since 1.1
+   */
+  public long getSum() {
+    return sum;
+  }
+
+  /**
+   * Get the highest recorded value.
+   *
+   * @return Highest value, in nanoseconds, or {@code 0} if there are none.
+   * @since 1.1
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Get the mean of the recorded values.
+   *
+   * @return Mean, in nanoseconds, or {@code 0} if there are none.
+   * @since 1.1
+   */
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Get the value under which a given percentage of the recorded values fall.
+   *
+   * @param percentile Percentage, from {@code 0} to {@code 100}, e.g. {@code 99.9}.
+   * @return Highest value of the bucket holding the percentile, in nanoseconds, and at most {@link
+   *     #getMax()}, or {@code 0} if there are no values.
+   * @throws IllegalArgumentException {@code percentile} is out of range.
+   * @since 1.1
+   */
+  public long getValueAtPercentile(final double percentile) {
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("Percentile out of range");
+    }
+    if (count == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int index = 0; index < counts.length; index++) {
+      seen += counts[index];
+      if (seen >= rank) {
+        return Math.min(getHighestValue(index), max);
+      }
+    }
+    return max;
+  }
+
+  static int getBucketIndex(final long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+  }
+
+  static long getHighestValue(final int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+
+    final int shift = index / SUB_BUCKET_COUNT - 1;
+    final long lowest = (long) (index - shift * SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
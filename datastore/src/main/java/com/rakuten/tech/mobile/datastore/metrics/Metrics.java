@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Operations and stages reported to a {@link MetricsListener}. Both are small integers, usable as
+ * array indexes.
+ *
+ * @since 1.1
+ */
+public final class Metrics {
+
+  /**
+   * {@code DataStore.get(String)}.
+   *
+   * @since 1.1
+   */
+  public static final int GET = 0;
+
+  /**
+   * {@code DataStore.stat(String)}.
+   *
+   * @since 1.1
+   */
+  public static final int STAT = 1;
+
+  /**
+   * {@code DataStore.put(String, ByteBuffer)}.
+   *
+   * @since 1.1
+   */
+  public static final int PUT = 2;
+
+  /**
+   * {@code DataStore.remove(String)}, or a put of {@code null}.
+   *
+   * @since 1.1
+   */
+  public static final int REMOVE = 3;
+
+  /**
+   * {@code DataStore.clear()}.
+   *
+   * @since 1.1
+   */
+  public static final int CLEAR = 4;
+
+  /**
+   * {@code DataStore.removeAll(String)}.
+   *
+   * @since 1.1
+   */
+  public static final int REMOVE_ALL = 5;
+
+  /**
+   * {@code DataStore.trainCompressionDictionary(int)}.
+   *
+   * @since 1.1
+   */
+  public static final int TRAIN = 6;
+
+  /**
+   * {@code DataStore.compact()}.
+   *
+   * @since 1.1
+   */
+  public static final int COMPACT = 7;
+
+  /**
+   * {@code DataStore.rewrapKeys(long)}.
+   *
+   * @since 1.1
+   */
+  public static final int REWRAP = 8;
+
+  /**
+   * {@code DataStore.putIfAbsent(String, ByteBuffer)}.
+   *
+   * @since 1.1
+   */
+  public static final int PUT_IF_ABSENT = 9;
+
+  /**
+   * {@code DataStore.replace(String, ByteBuffer, ByteBuffer)}.
+   *
+   * @since 1.1
+   */
+  public static final int REPLACE = 10;
+
+  /**
+   * {@code DataStore.compute(String, BlobFunction)}.
+   *
+   * @since 1.1
+   */
+  public static final int COMPUTE = 11;
+
+  /**
+   * Number of operations.
+   *
+   * @since 1.1
+   */
+  public static final int OPERATION_COUNT = 12;
+
+  /**
+   * Coding of the key by the key coder.
+   *
+   * @since 1.1
+   */
+  public static final int KEY_CODING = 0;
+
+  /**
+   * Reading a record, or its first bytes, from the blob table.
+   *
+   * @since 1.1
+   */
+  public static final int TABLE_READ = 1;
+
+  /**
+   * Writing or removing a record in the blob table.
+   *
+   * @since 1.1
+   */
+  public static final int TABLE_WRITE = 2;
+
+  /**
+   * Encryption or decryption, including the authentication of metadata headers.
+   *
+   * @since 1.1
+   */
+  public static final int CRYPTO = 3;
+
+  /**
+   * Compression or decompression.
+   *
+   * @since 1.1
+   */
+  public static final int COMPRESSION = 4;
+
+  /**
+   * Number of stages.
+   *
+   * @since 1.1
+   */
+  public static final int STAGE_COUNT = 5;
+
+  private static final String[] OPERATION_NAMES = {
+      "get", "stat", "put", "remove", "clear", "removeAll", "train", "compact", "rewrap",
+      "putIfAbsent", "replace", "compute"
+  };
+
+  private static final String[] STAGE_NAMES = {
+      "keyCoding", "tableRead", "tableWrite", "crypto", "compression"
+  };
+
+  private Metrics() {
+  }
+
+  /**
+   * Get the name of an operation, e.g. to label exported metrics.
+   *
+   * @param operation One of the operations of this class.
+   * @return The name of the operation, e.g. {@code "get"} for {@link #GET}.
+   * @since 1.1
+   */
+  @NotNull
+  public static String getOperationName(final int operation) {
+    return OPERATION_NAMES[operation];
+  }
+
+  /**
+   * Get the name of a stage, e.g. to label exported metrics.
+   *
+   * @param stage One of the stages of this class.
+   * @return The name of the stage, e.g. {@code "crypto"} for {@link #CRYPTO}.
+   * @since 1.1
+   */
+  @NotNull
+  public static String getStageName(final int stage) {
+    return STAGE_NAMES[stage];
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+/**
+ * Receives the timings of data store operations, and of the stages they go through.
+ *
+ * <p>Listeners are called synchronously, from the threads running the operations, so they must be
+ * thread-safe, fast, and must not throw.
+ *
+ * @see Metrics
+ * @see HistogramMetricsListener
+ * @since 1.1
+ */
+public interface MetricsListener {
+
+  /**
+   * Called when an operation went through a stage, before the operation ends. Stages of failed
+   * operations may or may not be reported.
+   *
+   * @param operation One of the operations of {@link Metrics}, e.g. {@link Metrics#GET}.
+   * @param stage One of the stages of {@link Metrics}, e.g. {@link Metrics#CRYPTO}.
+   * @param nanos Time spent in the stage, in nanoseconds.
+   * @since 1.1
+   */
+  void onStage(final int operation, final int stage, final long nanos);
+
+  /**
+   * Called when an operation ends, successfully or not.
+   *
+   * @param operation One of the operations of {@link Metrics}, e.g. {@link Metrics#GET}.
+   * @param nanos Duration of the operation, in nanoseconds.
+   * @param bytesIn Bytes the operation took in: blobs written, or records read from the table.
+   * @param bytesOut Bytes the operation gave out: blobs read, or records written to the table.
+   * @param failed Whether the operation threw.
+   * @since 1.1
+   */
+  void onOperation(
+      final int operation,
+      final long nanos,
+      final long bytesIn,
+      final long bytesOut,
+      final boolean failed);
+}
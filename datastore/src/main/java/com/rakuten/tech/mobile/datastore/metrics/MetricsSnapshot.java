@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Metrics recorded by a {@link HistogramMetricsListener}, as of a {@link
+ * HistogramMetricsListener#snapshot()}. Operations and stages are those of {@link Metrics}.
+ *
+ * @since 1.1
+ */
+public final class MetricsSnapshot {
+
+  private final @NotNull LatencyHistogram[] operations;
+  private final @NotNull LatencyHistogram[] stages;
+  private final @NotNull long[] bytesIn;
+  private final @NotNull long[] bytesOut;
+  private final @NotNull long[] errors;
+
+  MetricsSnapshot(
+      final @NotNull LatencyHistogram[] operations,
+      final @NotNull LatencyHistogram[] stages,
+      final @NotNull long[] bytesIn,
+      final @NotNull long[] bytesOut,
+      final @NotNull long[] errors) {
+
+    this.operations = operations;
+    this.stages = stages;
+    this.bytesIn = bytesIn;
+    this.bytesOut = bytesOut;
+    this.errors = errors;
+  }
+
+  /**
+   * Get the latency of an operation, including failed calls.
+   *
+   * @param operation One of the operations of {@link Metrics}.
+   * @return Histogram of the durations of the operation, which counts its calls.
+   * @since 1.1
+   */
+  @NotNull
+  public LatencyHistogram getLatency(final int operation) {
+    return operations[operation];
+  }
+
+  /**
+   * Get the latency of a stage of an operation.
+   *
+   * @param operation One of the operations of {@link Metrics}.
+   * @param stage One of the stages of {@link Metrics}.
+   * @return Histogram of the time spent in the stage, empty if the operation never went through it.
+   * @since 1.1
+   */
+  @NotNull
+  public LatencyHistogram getStageLatency(final int operation, final int stage) {
+    if (stage < 0 || stage >= Metrics.STAGE_COUNT) {
+      throw new ArrayIndexOutOfBoundsException(stage);
+    }
+    return stages[operation * Metrics.STAGE_COUNT + stage];
+  }
+
+  /**
+   * Get the bytes an operation took in: blobs written, or records read from the blob table.
+   *
+   * @param operation One of the operations of {@link Metrics}.
+   * @return Total bytes.
+   * @since 1.1
+   */
+  public long getBytesIn(final int operation) {
+    return bytesIn[operation];
+  }
+
+  /**
+   * Get the bytes an operation gave out: blobs read, or records written to the blob table.
+   *
+   * @param operation One of the operations of {@link Metrics}.
+   * @return Total bytes.
+   * @since 1.1
+   */
+  public long getBytesOut(final int operation) {
+    return bytesOut[operation];
+  }
+
+  /**
+   * Get the number of calls of an operation that threw.
+   *
+   * @param operation One of the operations of {@link Metrics}.
+   * @return Number of failed calls.
+   * @since 1.1
+   */
+  public long getErrorCount(final int operation) {
+    return errors[operation];
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A metrics listener logging operations slower than a threshold, with the time spent in each of
+ * their stages, to find latency outliers in production.
+ *
+ * <p>Records are logged at {@link Level#WARNING} as {@code key=value} pairs, e.g.:
+ *
+ * <pre>
+ *   Slow datastore operation: operation=get nanos=48211330 keyHash=-1408212 bytesIn=4120
+ *   bytesOut=4096 failed=false keyCoding=2100 tableRead=47950100 tableWrite=0 crypto=160000
+ *   compression=98000
+ * </pre>
+ *
+ * <p>The same values are also the parameters of the {@link LogRecord}, in that order, for
+ * handlers that export them as structured fields. Stage timings are in nanoseconds.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class SlowOperationLogger implements TracingMetricsListener {
+
+  /**
+   * Name of the logger used by default.
+   *
+   * @since 1.1
+   */
+  public static final String LOGGER_NAME = "com.rakuten.tech.mobile.datastore";
+
+  private static final String[] FIELDS = {
+      "operation", "nanos", "keyHash", "bytesIn", "bytesOut", "failed"
+  };
+
+  private final long thresholdNanos;
+  private final @NotNull Logger logger;
+  private final @NotNull ThreadLocal<Trace> traces = new ThreadLocal<Trace>() {
+    @Override
+    protected Trace initialValue() {
+      return new Trace();
+    }
+  };
+
+  /**
+   * Create a new instance logging to the {@link #LOGGER_NAME} logger.
+   *
+   * @param threshold Duration from which operations are logged.
+   * @param unit Unit of {@code threshold}.
+   * @since 1.1
+   */
+  public SlowOperationLogger(final long threshold, final @NotNull TimeUnit unit) {
+    this(threshold, unit, Logger.getLogger(LOGGER_NAME));
+  }
+
+  /**
+   * Create a new instance.
+   *
+   * @param threshold Duration from which operations are logged.
+   * @param unit Unit of {@code threshold}.
+   * @param logger Logger to log slow operations to.
+   * @since 1.1
+   */
+  public SlowOperationLogger(
+      final long threshold,
+      final @NotNull TimeUnit unit,
+      final @NotNull Logger logger) {
+
+    this.thresholdNanos = unit.toNanos(threshold);
+    this.logger = logger;
+  }
+
+  @Override
+  public void onStart(final int operation) {
+    traces.get().start();
+  }
+
+  @Override
+  public void onKey(final int operation, final int keyHash) {
+    traces.get().setKeyHash(keyHash);
+  }
+
+  @Override
+  public void onStage(final int operation, final int stage, final long nanos) {
+    traces.get().addStage(stage, nanos);
+  }
+
+  @Override
+  public void onOperation(
+      final int operation,
+      final long nanos,
+      final long bytesIn,
+      final long bytesOut,
+      final boolean failed) {
+
+    if (nanos < thresholdNanos || !logger.isLoggable(Level.WARNING)) {
+      return;
+    }
+
+    final Trace trace = traces.get();
+    final Object[] values = new Object[FIELDS.length + Metrics.STAGE_COUNT];
+    values[0] = Metrics.getOperationName(operation);
+    values[1] = nanos;
+    values[2] = trace.getKeyHash();
+    values[3] = bytesIn;
+    values[4] = bytesOut;
+    values[5] = failed;
+    for (int stage = 0; stage < Metrics.STAGE_COUNT; stage++) {
+      values[FIELDS.length + stage] = trace.getStage(stage);
+    }
+
+    final StringBuilder message = new StringBuilder("Slow datastore operation:");
+    for (int index = 0; index < values.length; index++) {
+      final String name = index < FIELDS.length
+          ? FIELDS[index] : Metrics.getStageName(index - FIELDS.length);
+      message.append(' ').append(name).append('=').append(values[index]);
+    }
+
+    final LogRecord record = new LogRecord(Level.WARNING, message.toString());
+    record.setLoggerName(logger.getName());
+    record.setParameters(values);
+    logger.log(record);
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import java.util.Arrays;
+
+/**
+ * State of the operation in progress on a thread, for {@link TracingMetricsListener}s.
+ */
+final class Trace {
+
+  private int keyHash;
+  private final long[] stages = new long[Metrics.STAGE_COUNT];
+
+  void start() {
+    keyHash = 0;
+    Arrays.fill(stages, 0);
+  }
+
+  int getKeyHash() {
+    return keyHash;
+  }
+
+  void setKeyHash(final int keyHash) {
+    this.keyHash = keyHash;
+  }
+
+  /**
+   * Total time spent in a stage, in nanoseconds.
+   */
+  long getStage(final int stage) {
+    return stages[stage];
+  }
+
+  void addStage(final int stage, final long nanos) {
+    stages[stage] += nanos;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+/**
+ * A metrics listener also told when operations start, and which key they are about, so that it
+ * can follow each operation through its stages.
+ *
+ * <p>All the calls for an operation are made from the thread running it, in order: {@link
+ * #onStart(int)}, {@link #onKey(int, int)} for operations on a single blob, {@link #onStage(int,
+ * int, long)} for each stage, and {@link #onOperation(int, long, long, long, boolean)}. A thread
+ * runs one operation at a time, so listeners can keep the state of operations in thread-locals.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public interface TracingMetricsListener extends MetricsListener {
+
+  /**
+   * Called when an operation starts.
+   *
+   * @param operation One of the operations of {@link Metrics}, e.g. {@link Metrics#GET}.
+   * @since 1.1
+   */
+  void onStart(final int operation);
+
+  /**
+   * Called once the key of an operation on a single blob is coded.
+   *
+   * @param operation One of the operations of {@link Metrics}, e.g. {@link Metrics#GET}.
+   * @param keyHash Hash code of the coded key, which tells keys apart without revealing them.
+   * @since 1.1
+   */
+  void onKey(final int operation, final int keyHash);
+}
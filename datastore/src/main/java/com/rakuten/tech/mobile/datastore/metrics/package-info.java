@@ -0,0 +1,25 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Instrumentation of data stores: a listener interface for operation and stage timings, a default
+ * recorder keeping latency histograms, and listeners logging slow operations or emitting flight
+ * recorder events.
+ *
+ * @since 1.1
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
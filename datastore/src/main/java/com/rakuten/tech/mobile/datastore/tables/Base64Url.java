@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * URL-safe base64 encoding of coded keys, without padding, as used for file names.
+ *
+ * <p>The output matches commons-codec's {@code Base64.encodeBase64URLSafeString()}, but the key is
+ * read without copying it and encoded into a per-thread buffer, so the returned string is the only
+ * allocation.
+ */
+final class Base64Url {
+
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      // Enough for 32-byte keys, e.g. SHA-256 digests
+      return new char[43];
+    }
+  };
+
+  private Base64Url() {
+  }
+
+  @NotNull
+  static String encode(final @NotNull CodedKey codedKey) {
+    return encode(codedKey, codedKey.length());
+  }
+
+  /**
+   * Encode the longest part of a key prefix whose encoding is a prefix of the encoding of every
+   * key starting with it, i.e. its first whole 3-byte groups.
+   */
+  @NotNull
+  static String encodePrefix(final @NotNull CodedKey prefix) {
+    return encode(prefix, prefix.length() - prefix.length() % 3);
+  }
+
+  @NotNull
+  private static String encode(final @NotNull CodedKey codedKey, final int length) {
+    final ByteBuffer bytes = codedKey.asReadOnlyBuffer();
+    final int encodedLength = (length * 4 + 2) / 3;
+
+    char[] chars = BUFFER.get();
+    if (chars.length < encodedLength) {
+      chars = new char[encodedLength];
+      BUFFER.set(chars);
+    }
+
+    int position = 0;
+    int offset = 0;
+    for (; offset + 3 <= length; offset += 3) {
+      final int bits = (bytes.get(offset) & 0xFF) << 16
+          | (bytes.get(offset + 1) & 0xFF) << 8
+          | (bytes.get(offset + 2) & 0xFF);
+      chars[position++] = ALPHABET[bits >>> 18];
+      chars[position++] = ALPHABET[bits >>> 12 & 0x3F];
+      chars[position++] = ALPHABET[bits >>> 6 & 0x3F];
+      chars[position++] = ALPHABET[bits & 0x3F];
+    }
+
+    final int remaining = length - offset;
+    if (remaining > 0) {
+      int bits = (bytes.get(offset) & 0xFF) << 16;
+      if (remaining == 2) {
+        bits |= (bytes.get(offset + 1) & 0xFF) << 8;
+      }
+      chars[position++] = ALPHABET[bits >>> 18];
+      chars[position++] = ALPHABET[bits >>> 12 & 0x3F];
+      if (remaining == 2) {
+        chars[position++] = ALPHABET[bits >>> 6 & 0x3F];
+      }
+    }
+
+    return new String(chars, 0, position);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * File helpers of {@link FileBlobTable}.
+ */
+final class BlobFiles {
+
+  private BlobFiles() {
+  }
+
+  /**
+   * Read bytes until the array is full or the stream ends.
+   *
+   * @return Number of bytes read.
+   */
+  static int readFully(final @NotNull InputStream is, final @NotNull byte[] bytes)
+      throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      int l = is.read(bytes, offset, bytes.length - offset);
+      if (l == -1) {
+        break;
+      }
+      offset += l;
+    }
+    return offset;
+  }
+
+  /**
+   * Delete the temporary files of a directory that weren't modified for a while, as they were left
+   * by interrupted writes rather than by writes in progress.
+   */
+  static void deleteStaleTemporaryFiles(
+      final @NotNull File directory,
+      final @NotNull FilenameFilter temporaryFiles,
+      final long maximumAgeMillis) throws IOException {
+    final File[] files = directory.listFiles(temporaryFiles);
+    if (files == null) {
+      return;
+    }
+
+    final long staleBefore = System.currentTimeMillis() - maximumAgeMillis;
+    for (File file : files) {
+      if (file.lastModified() < staleBefore && !file.delete() && file.exists()) {
+        throw new IOException("Could not remove file at " + file.getAbsolutePath());
+      }
+    }
+  }
+
+  static void quietlyClose(final @Nullable Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (Exception ignored) {
+        // no-op
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Notified of changes in an {@link ObservableBlobTable}.
+ *
+ * <p>Listeners are called synchronously, from the thread that wrote the blob, or from a watcher
+ * thread for changes made outside the process, so they must be thread-safe, fast, and must not
+ * throw.
+ *
+ * @since 1.1
+ */
+public interface BlobTableListener {
+
+  /**
+   * Called after a blob was written or removed. The blob may have been written again with the same
+   * content, and a change may occasionally be reported more than once.
+   *
+   * @param codedKey The blob's coded key.
+   * @since 1.1
+   */
+  void onChanged(final @NotNull CodedKey codedKey);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Optional operations of blob tables, with fallbacks for the tables that don't implement them
+ * natively.
+ *
+ * @since 1.1
+ */
+public final class BlobTables {
+
+  private BlobTables() {
+  }
+
+  /**
+   * Try to read the beginning of a blob, reading the whole blob if the table isn't a {@link
+   * PeekableBlobTable}.
+   *
+   * @param table The table to read from.
+   * @param codedKey The blob's coded key.
+   * @param length Maximum number of bytes to read.
+   * @return The first {@code length} bytes of the blob, or the whole blob if it's shorter, or
+   *     {@code null} if none was found that matches the codedKey.
+   * @throws IOException Looking up the blob failed.
+   * @since 1.1
+   */
+  @Nullable
+  public static ByteBuffer peek(
+      final @NotNull BlobTable table,
+      final @NotNull CodedKey codedKey,
+      final int length) throws IOException {
+
+    if (table instanceof PeekableBlobTable) {
+      return ((PeekableBlobTable) table).peek(codedKey, length);
+    }
+
+    final ByteBuffer blob = table.get(codedKey);
+    if (blob == null) {
+      return null;
+    }
+
+    final ByteBuffer prefix = blob.duplicate();
+    prefix.limit(prefix.position() + Math.min(prefix.remaining(), Math.max(length, 0)));
+    return prefix.slice();
+  }
+
+  /**
+   * An iterator for looping through the keys of a table that start with a given prefix, going
+   * through all of its keys if the table isn't a {@link PrefixScannableBlobTable}.
+   *
+   * @param table The table to loop through.
+   * @param prefix Prefix of the keys to loop through.
+   * @return Iterator.
+   * @throws IOException The content of the table cannot be iterated upon.
+   * @since 1.1
+   */
+  @NotNull
+  public static Iterator<CodedKey> iterator(
+      final @NotNull BlobTable table,
+      final @NotNull CodedKey prefix) throws IOException {
+
+    if (table instanceof PrefixScannableBlobTable) {
+      return ((PrefixScannableBlobTable) table).iterator(prefix);
+    }
+    return BlobTableIterator.of(table, new PrefixIterator(table.iterator(), prefix));
+  }
+
+  /**
+   * Try to delete every blob of a table whose key starts with a given prefix, one by one if the
+   * table isn't a {@link PrefixScannableBlobTable}.
+   *
+   * @param table The table to delete from.
+   * @param prefix Prefix of the keys of the blobs to delete.
+   * @return Number of blobs deleted.
+   * @throws IOException At least one blob could not be deleted.
+   * @since 1.1
+   */
+  public static int removeAll(
+      final @NotNull BlobTable table,
+      final @NotNull CodedKey prefix) throws IOException {
+
+    if (table instanceof PrefixScannableBlobTable) {
+      return ((PrefixScannableBlobTable) table).removeAll(prefix);
+    }
+
+    final List<CodedKey> codedKeys = new ArrayList<>();
+    for (Iterator<CodedKey> it = iterator(table, prefix); it.hasNext(); ) {
+      codedKeys.add(it.next());
+    }
+    for (CodedKey codedKey : codedKeys) {
+      table.remove(codedKey);
+    }
+    return codedKeys.size();
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thread-safe Bloom filter over {@link CodedKey}s, used by tables to answer lookups of missing
+ * keys without any I/O.
+ *
+ * <p>A filter never yields false negatives for keys that were added to it, but may yield false
+ * positives. Keys cannot be removed, so the false positive rate grows with insertions and
+ * removals alike until the filter gets rebuilt. The filter reports both the false positive rate
+ * expected from how full it is, and the rate actually observed by its owner.
+ *
+ * @since 1.1
+ */
+public final class BloomFilter {
+
+  private static final int FORMAT = 1;
+
+  private final @NotNull AtomicLongArray bits;
+  private final long bitCount;
+  private final int hashCount;
+  private final int capacity;
+  private final double targetFalsePositiveRate;
+  private final @NotNull AtomicInteger setBits = new AtomicInteger();
+  private final @NotNull AtomicInteger insertions = new AtomicInteger();
+  private final @NotNull AtomicLong negatives = new AtomicLong();
+  private final @NotNull AtomicLong falsePositives = new AtomicLong();
+
+  /**
+   * Create a new, empty filter.
+   *
+   * @param capacity Number of insertions the filter is sized for.
+   * @param falsePositiveRate Target false positive rate once the filter holds {@code capacity}
+   *     keys, between {@code 0} and {@code 1} exclusive.
+   * @since 1.1
+   */
+  public BloomFilter(final int capacity, final double falsePositiveRate) {
+    if (capacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("Invalid filter parameters");
+    }
+
+    final double ln2 = Math.log(2);
+    final long words = Math.max(1,
+        ((long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2)) + 63) / 64);
+    if (words > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Filter too large");
+    }
+
+    this.bits = new AtomicLongArray((int) words);
+    this.bitCount = words * 64;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+    this.capacity = capacity;
+    this.targetFalsePositiveRate = falsePositiveRate;
+  }
+
+  /**
+   * Tell whether a key might have been added to the filter.
+   *
+   * @param codedKey Key to look up.
+   * @return {@code false} if the key was definitely never added.
+   * @since 1.1
+   */
+  public boolean mightContain(final @NotNull CodedKey codedKey) {
+    final long hash = hash(codedKey);
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++) {
+      final long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+      if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+        negatives.incrementAndGet();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Add a key to the filter.
+   *
+   * @param codedKey Key to add.
+   * @since 1.1
+   */
+  public void add(final @NotNull CodedKey codedKey) {
+    final long hash = hash(codedKey);
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++) {
+      final long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+      final int word = (int) (index >>> 6);
+      final long mask = 1L << index;
+      while (true) {
+        final long current = bits.get(word);
+        if ((current & mask) != 0) {
+          break;
+        }
+        if (bits.compareAndSet(word, current, current | mask)) {
+          setBits.incrementAndGet();
+          break;
+        }
+      }
+    }
+    insertions.incrementAndGet();
+  }
+
+  /**
+   * Number of insertions the filter was sized for.
+   *
+   * @return Capacity.
+   * @since 1.1
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Number of insertions so far, including repeated ones.
+   *
+   * @return Insertion count.
+   * @since 1.1
+   */
+  public int getInsertions() {
+    return insertions.get();
+  }
+
+  /**
+   * False positive rate expected from the proportion of bits set in the filter.
+   *
+   * @return Rate, between {@code 0} and {@code 1}.
+   * @since 1.1
+   */
+  public double getExpectedFalsePositiveRate() {
+    return Math.pow((double) setBits.get() / bitCount, hashCount);
+  }
+
+  /**
+   * False positive rate observed so far, i.e. the proportion of lookups of missing keys that the
+   * filter did not catch. Only lookups reported by the owner of the filter are counted.
+   *
+   * @return Rate, between {@code 0} and {@code 1}.
+   * @since 1.1
+   */
+  public double getObservedFalsePositiveRate() {
+    final long fp = falsePositives.get();
+    final long total = fp + negatives.get();
+    return total == 0 ? 0 : (double) fp / total;
+  }
+
+  /**
+   * Tell whether the filter got too full to meet its target false positive rate.
+   *
+   * @return {@code true} if the filter should be rebuilt with a larger capacity.
+   * @since 1.1
+   */
+  public boolean isSaturated() {
+    return insertions.get() > capacity
+        || getExpectedFalsePositiveRate() > 2 * targetFalsePositiveRate;
+  }
+
+  /**
+   * Report that a key for which {@link #mightContain(CodedKey)} returned {@code true} was missing.
+   */
+  void reportFalsePositive() {
+    falsePositives.incrementAndGet();
+  }
+
+  void writeTo(final @NotNull DataOutput out) throws IOException {
+    out.writeInt(FORMAT);
+    out.writeInt(capacity);
+    out.writeDouble(targetFalsePositiveRate);
+    out.writeInt(insertions.get());
+    out.writeInt(bits.length());
+    for (int i = 0; i < bits.length(); i++) {
+      out.writeLong(bits.get(i));
+    }
+  }
+
+  @NotNull
+  static BloomFilter readFrom(final @NotNull DataInput in) throws IOException {
+    if (in.readInt() != FORMAT) {
+      throw new IOException("Unsupported filter format");
+    }
+
+    final BloomFilter filter;
+    try {
+      filter = new BloomFilter(in.readInt(), in.readDouble());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Corrupted filter", e);
+    }
+
+    filter.insertions.set(in.readInt());
+    if (in.readInt() != filter.bits.length()) {
+      throw new IOException("Corrupted filter");
+    }
+
+    int set = 0;
+    for (int i = 0; i < filter.bits.length(); i++) {
+      final long word = in.readLong();
+      filter.bits.set(i, word);
+      set += Long.bitCount(word);
+    }
+    filter.setBits.set(set);
+    return filter;
+  }
+
+  /**
+   * 64-bit FNV-1a followed by MurmurHash3's finalizer, so that the two 32-bit halves used for
+   * double hashing are well mixed even for short or similar keys.
+   */
+  private static long hash(final @NotNull CodedKey codedKey) {
+    long hash = 0xcbf29ce484222325L;
+    final ByteBuffer bytes = codedKey.asReadOnlyBuffer();
+    while (bytes.hasRemaining()) {
+      hash ^= bytes.get() & 0xff;
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
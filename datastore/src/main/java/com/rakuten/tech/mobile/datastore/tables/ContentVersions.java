@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Version stamps derived from the content of blobs, for tables that don't store versions: the
+ * first 8 bytes of their SHA-256 digest.
+ */
+final class ContentVersions {
+
+  private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is not supported", e);
+      }
+    }
+  };
+
+  private ContentVersions() {
+  }
+
+  static long of(final @NotNull ByteBuffer blob) {
+    final MessageDigest md = DIGESTS.get();
+    md.reset();
+    md.update(blob.slice());
+    return of(md.digest());
+  }
+
+  static long of(final @NotNull byte[] digest) {
+    return ByteBuffer.wrap(digest).getLong();
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link BlobTable} that stores each distinct blob only once, on top of another table.
+ *
+ * <p>Blobs are stored in the underlying table under their SHA-256 digest, along with a reference
+ * count. Each key then only maps to the digest of its blob, so putting a blob that is already
+ * stored under another key costs a couple of small writes instead of a full copy. Overwriting or
+ * removing a key decrements the reference count of its previous blob, which gets deleted once no
+ * key references it anymore.
+ *
+ * <p>Identical blobs are only detected if they reach the table as identical bytes. When used by a
+ * {@link com.rakuten.tech.mobile.datastore.DataStore}, this means with crypto operations that
+ * produce the same output for the same input, such as {@link
+ * com.rakuten.tech.mobile.datastore.crypto.ConvergentCryptoOperations}, and without metadata
+ * headers, which hold the time of each write. Randomized encryption makes every stored blob
+ * unique.
+ *
+ * <p>References are always added before they are used and released after they stop being used,
+ * so an interrupted write may leak a blob in the underlying table but never leaves a key pointing
+ * to a missing one. Writes are serialized.
+ *
+ * <p>Version stamps are derived from the digest of blobs, so conditional writes only cost a read
+ * of the key's digest.
+ *
+ * <p>If the underlying table is an {@link ObservableBlobTable}, its notifications for keys are
+ * forwarded to listeners, so that changes it detects outside the process are reported too.
+ * Otherwise, listeners are notified of writes through this instance only. Likewise, warming up
+ * this table warms up the underlying one, if it is a {@link WarmableBlobTable}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public class DedupBlobTable
+    implements VersionedBlobTable, ObservableBlobTable, WarmableBlobTable, PeekableBlobTable,
+        PrefixScannableBlobTable {
+
+  private static final byte KEY_PREFIX = 'k';
+  private static final byte CONTENT_PREFIX = 'c';
+  private static final byte COUNT_PREFIX = 'r';
+
+  private final @NotNull BlobTable table;
+  private final @NotNull Object writeLock = new Object();
+  private final @NotNull TableListeners listeners = new TableListeners();
+  private final boolean forwarding;
+  private final @NotNull ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is not supported", e);
+      }
+    }
+  };
+
+  /**
+   * Create a new instance.
+   *
+   * @param table Table where keys, blobs and reference counts get stored. It should not be used
+   *     directly while managed by this instance.
+   * @since 1.1
+   */
+  public DedupBlobTable(final @NotNull BlobTable table) {
+    this.table = table;
+    this.forwarding = table instanceof ObservableBlobTable;
+    if (forwarding) {
+      ((ObservableBlobTable) table).addListener(new BlobTableListener() {
+        @Override
+        public void onChanged(final @NotNull CodedKey codedKey) {
+          final ByteBuffer bytes = codedKey.asReadOnlyBuffer();
+          if (bytes.hasRemaining() && bytes.get() == KEY_PREFIX) {
+            final byte[] key = new byte[bytes.remaining()];
+            bytes.get(key);
+            listeners.notifyChanged(new CodedKey(key));
+          }
+        }
+      });
+    }
+  }
+
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator() throws IOException {
+    return BlobTableIterator.of(this, unprefixed(table.iterator()));
+  }
+
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator(final @NotNull CodedKey prefix) throws IOException {
+    final Iterator<CodedKey> keys = BlobTables.iterator(table, prefixed(KEY_PREFIX, prefix));
+    return BlobTableIterator.of(this, unprefixed(keys));
+  }
+
+  @Override
+  public boolean contains(final @NotNull CodedKey codedKey) throws IOException {
+    return table.contains(prefixed(KEY_PREFIX, codedKey));
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer get(final @NotNull CodedKey codedKey) throws IOException {
+    return read(codedKey, -1);
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer peek(final @NotNull CodedKey codedKey, final int length) throws IOException {
+    return read(codedKey, Math.max(length, 0));
+  }
+
+  @Override
+  public void put(
+      final @NotNull CodedKey codedKey,
+      final @Nullable ByteBuffer blob) throws IOException {
+
+    if (blob == null) {
+      remove(codedKey);
+      return;
+    }
+
+    final MessageDigest md = digests.get();
+    md.reset();
+    md.update(blob.slice());
+    final byte[] digest = md.digest();
+    final CodedKey key = prefixed(KEY_PREFIX, codedKey);
+
+    synchronized (writeLock) {
+      final byte[] previous = read(key);
+      if (previous != null && MessageDigest.isEqual(previous, digest)) {
+        return;
+      }
+
+      final int count = getReferenceCount(digest);
+      if (count == 0) {
+        table.put(prefixed(CONTENT_PREFIX, digest), blob);
+      }
+      setReferenceCount(digest, count + 1);
+      table.put(key, ByteBuffer.wrap(digest));
+
+      if (previous != null) {
+        release(previous);
+      }
+    }
+    if (!forwarding) {
+      listeners.notifyChanged(codedKey);
+    }
+  }
+
+  @Nullable
+  @Override
+  public VersionedBlob getVersioned(final @NotNull CodedKey codedKey) throws IOException {
+    final ByteBuffer blob = get(codedKey);
+    return blob == null ? null : new VersionedBlob(blob, ContentVersions.of(blob));
+  }
+
+  @Override
+  public boolean putIfAbsent(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer blob)
+      throws IOException {
+    synchronized (writeLock) {
+      if (contains(codedKey)) {
+        return false;
+      }
+
+      put(codedKey, blob);
+      return true;
+    }
+  }
+
+  @Override
+  public boolean replace(
+      final @NotNull CodedKey codedKey,
+      final long expectedVersion,
+      final @Nullable ByteBuffer blob) throws IOException {
+
+    synchronized (writeLock) {
+      final byte[] digest = read(prefixed(KEY_PREFIX, codedKey));
+      if (digest == null || ContentVersions.of(digest) != expectedVersion) {
+        return false;
+      }
+
+      put(codedKey, blob);
+      return true;
+    }
+  }
+
+  @Override
+  public void remove(final @NotNull CodedKey codedKey) throws IOException {
+    final CodedKey key = prefixed(KEY_PREFIX, codedKey);
+    synchronized (writeLock) {
+      final byte[] previous = read(key);
+      if (previous == null) {
+        return;
+      }
+
+      table.remove(key);
+      release(previous);
+    }
+    if (!forwarding) {
+      listeners.notifyChanged(codedKey);
+    }
+  }
+
+  @Override
+  public int removeAll(final @NotNull CodedKey prefix) throws IOException {
+    /*
+     * Keys go through remove() one by one so the contents they reference get released.
+     */
+    final List<CodedKey> codedKeys = new ArrayList<>();
+    for (Iterator<CodedKey> it = iterator(prefix); it.hasNext(); ) {
+      codedKeys.add(it.next());
+    }
+
+    int removed = 0;
+    for (CodedKey codedKey : codedKeys) {
+      if (contains(codedKey)) {
+        remove(codedKey);
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() throws IOException {
+    final List<CodedKey> codedKeys = new ArrayList<>();
+    synchronized (writeLock) {
+      if (!forwarding && !listeners.isEmpty()) {
+        for (Iterator<CodedKey> it = iterator(); it.hasNext(); ) {
+          codedKeys.add(it.next());
+        }
+      }
+      table.clear();
+    }
+    for (CodedKey codedKey : codedKeys) {
+      listeners.notifyChanged(codedKey);
+    }
+  }
+
+  @Override
+  public void warmUp() throws IOException {
+    if (table instanceof WarmableBlobTable) {
+      ((WarmableBlobTable) table).warmUp();
+    }
+  }
+
+  @Override
+  public void addListener(final @NotNull BlobTableListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(final @NotNull BlobTableListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Read a key's blob, or only its beginning if {@code length} is not negative.
+   */
+  @Nullable
+  private ByteBuffer read(final @NotNull CodedKey codedKey, final int length) throws IOException {
+    final CodedKey key = prefixed(KEY_PREFIX, codedKey);
+    byte[] digest = read(key);
+    while (digest != null) {
+      final CodedKey contentKey = prefixed(CONTENT_PREFIX, digest);
+      final ByteBuffer blob = length < 0
+          ? table.get(contentKey) : BlobTables.peek(table, contentKey, length);
+      if (blob != null) {
+        return blob;
+      }
+
+      // The key was overwritten while we were reading it: try again with its new blob
+      final byte[] current = read(key);
+      if (current == null || MessageDigest.isEqual(current, digest)) {
+        return null;
+      }
+      digest = current;
+    }
+    return null;
+  }
+
+  private void release(final @NotNull byte[] digest) throws IOException {
+    final int count = getReferenceCount(digest);
+    if (count > 1) {
+      setReferenceCount(digest, count - 1);
+    } else {
+      table.remove(prefixed(CONTENT_PREFIX, digest));
+      table.remove(prefixed(COUNT_PREFIX, digest));
+    }
+  }
+
+  private int getReferenceCount(final @NotNull byte[] digest) throws IOException {
+    final ByteBuffer count = table.get(prefixed(COUNT_PREFIX, digest));
+    return count == null || count.remaining() < 4 ? 0 : count.getInt(count.position());
+  }
+
+  private void setReferenceCount(final @NotNull byte[] digest, final int count)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.putInt(0, count);
+    table.put(prefixed(COUNT_PREFIX, digest), buffer);
+  }
+
+  @Nullable
+  private byte[] read(final @NotNull CodedKey key) throws IOException {
+    final ByteBuffer buffer = table.get(key);
+    if (buffer == null) {
+      return null;
+    }
+
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Keep only the keys of a wrapped iterator that are user keys, with their prefix stripped.
+   */
+  @NotNull
+  private static Iterator<CodedKey> unprefixed(final @NotNull Iterator<CodedKey> wrapped) {
+    return new Iterator<CodedKey>() {
+      private CodedKey next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && wrapped.hasNext()) {
+          final ByteBuffer bytes = wrapped.next().asReadOnlyBuffer();
+          if (bytes.hasRemaining() && bytes.get() == KEY_PREFIX) {
+            final byte[] key = new byte[bytes.remaining()];
+            bytes.get(key);
+            next = new CodedKey(key);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public CodedKey next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final CodedKey result = next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @NotNull
+  private static CodedKey prefixed(final byte prefix, final @NotNull CodedKey codedKey) {
+    final ByteBuffer prefixed = ByteBuffer.allocate(codedKey.length() + 1);
+    prefixed.put(prefix);
+    codedKey.writeTo(prefixed);
+    return new CodedKey(prefixed.array());
+  }
+
+  @NotNull
+  private static CodedKey prefixed(final byte prefix, final @NotNull byte[] bytes) {
+    final byte[] prefixed = new byte[bytes.length + 1];
+    prefixed[0] = prefix;
+    System.arraycopy(bytes, 0, prefixed, 1, bytes.length);
+    return new CodedKey(prefixed);
+  }
+}
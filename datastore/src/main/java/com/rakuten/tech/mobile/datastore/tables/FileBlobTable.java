@@ -18,7 +18,6 @@ package com.rakuten.tech.mobile.datastore.tables;
 
 import com.rakuten.tech.mobile.datastore.keys.CodedKey;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -31,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import org.apache.commons.codec.binary.Base64;
 import org.jetbrains.annotations.NotNull;
@@ -50,18 +50,57 @@ import org.jetbrains.annotations.Nullable;
  * <p>Because of the blocking I/O operations involved, it is recommended that client code uses this
  * class from a background thread.
  *
+ * <h3>Bloom filter</h3>
+ *
+ * <p>Instances can optionally keep a {@link BloomFilter} of the keys they hold in memory, so that
+ * most lookups of missing keys are answered without touching the file system. The filter is saved
+ * next to the blob directory by {@link #saveBloomFilter()} and loaded back if the directory was not
+ * modified since, otherwise it is rebuilt from a directory listing. It is also rebuilt, with a
+ * larger capacity, whenever it saturates.
+ *
+ * <p>The filter only learns about blobs written through the instance that owns it, so it should
+ * only be enabled on instances that are the sole writer of their directory.
+ *
+ * <h3>Warm-up</h3>
+ *
+ * <p>Instances don't touch the file system until they are used. The bloom filter gets loaded by
+ * the first lookup, or ahead of time by {@link #warmUp()}, which also deletes the temporary files
+ * left by interrupted writes. While another thread loads the filter, lookups go to the file system
+ * instead of waiting for it.
+ *
+ * <h3>Conditional writes</h3>
+ *
+ * <p>Version stamps are derived from the content of blobs. Writes lock their key within the
+ * instance only, so conditional writes are only atomic with respect to other writes through the
+ * same instance: instances or processes sharing a directory can lose each other's updates.
+ *
+ * <h3>Change notifications</h3>
+ *
+ * <p>Listeners are notified of writes through the instance. Writes from other instances or
+ * processes sharing the directory are only reported while a {@link FileBlobTableWatcher} watches
+ * it.
+ *
  * @since 0.1 {@inheritDoc}
  */
 @SuppressFBWarnings({
     "IOI_USE_OF_FILE_STREAM_CONSTRUCTORS",
     "PATH_TRAVERSAL_IN",
 })
-public class FileBlobTable implements BlobTable {
+public class FileBlobTable
+    implements VersionedBlobTable, ObservableBlobTable, WarmableBlobTable, PeekableBlobTable,
+        PrefixScannableBlobTable {
 
   private static final @NotNull Pattern BAD_BLOB_FILE_NAME = Pattern.compile("^\\..+$");
   private static final @NotNull String OPERATION_NOT_PERMITTED = "Operation not permitted";
+  private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+  private static final int FILE_CACHE_SLOTS = 256;
+  private static final long STALE_TEMPORARY_FILE_MILLIS = TimeUnit.MINUTES.toMillis(5);
   private final @NotNull FilenameFilter blobFilter;
   private final @NotNull File directory;
+  private final @NotNull KeyFileCache files;
+  private final @Nullable PersistentBloomFilter bloomFilter;
+  private final @NotNull KeyLocks locks = new KeyLocks();
+  private final @NotNull TableListeners listeners = new TableListeners();
 
   /**
    * Construct a new instance backed by a directory.
@@ -74,20 +113,85 @@ public class FileBlobTable implements BlobTable {
    * @since 0.1
    */
   public FileBlobTable(final @NotNull String name, final @NotNull File rootDirectory) {
+    this(name, rootDirectory, false);
+  }
+
+  /**
+   * Construct a new instance backed by a directory, optionally using a {@link BloomFilter} to
+   * speed up lookups of missing keys.
+   *
+   * @param name Name of the blob store to encode under {@code rootDirectory}.
+   * @param rootDirectory Where to encode the blob store.
+   * @param useBloomFilter Whether to use a bloom filter. The filter gets saved under {@code
+   *     rootDirectory} as {@code &lt;name&gt;.bloom}.
+   * @since 1.1
+   */
+  public FileBlobTable(
+      final @NotNull String name,
+      final @NotNull File rootDirectory,
+      final boolean useBloomFilter) {
+
     directory = new File(rootDirectory, name);
+    files = new KeyFileCache(directory, FILE_CACHE_SLOTS);
     blobFilter = new FilenameFilter() {
       @Override
       public boolean accept(final @NotNull File file, @NotNull final String s) {
         return file.equals(directory) && !BAD_BLOB_FILE_NAME.matcher(s).matches();
       }
     };
+
+    bloomFilter = !useBloomFilter ? null : new PersistentBloomFilter(
+        new File(rootDirectory, name + ".bloom"),
+        directory,
+        DEFAULT_FALSE_POSITIVE_RATE,
+        new PersistentBloomFilter.KeyLister() {
+          @NotNull
+          @Override
+          public List<CodedKey> listKeys() throws IOException {
+            return getKeys(null);
+          }
+        });
+  }
+
+  /**
+   * The bloom filter used by this instance, e.g. for monitoring its false positive rate.
+   *
+   * @return The current filter, or {@code null} if this instance doesn't use one or didn't load it
+   *     yet.
+   * @since 1.1
+   */
+  @Nullable
+  public BloomFilter getBloomFilter() {
+    return bloomFilter == null ? null : bloomFilter.peek();
+  }
+
+  /**
+   * Save the bloom filter, so that the next instance using this directory can load it instead of
+   * rebuilding it. This is typically done when the application goes to the background or shuts
+   * down.
+   *
+   * @throws IOException The filter could not be saved.
+   * @since 1.1
+   */
+  public void saveBloomFilter() throws IOException {
+    if (bloomFilter != null) {
+      bloomFilter.save();
+    }
   }
 
   @Override
   public boolean contains(final @NotNull CodedKey codedKey) throws IOException {
+    if (isFilteredOut(codedKey)) {
+      return false;
+    }
+
     try {
-      final File file = new File(directory, getBasenameForKey(codedKey));
-      return file.exists() && file.canRead();
+      final File file = files.get(codedKey);
+      final boolean found = file.exists() && file.canRead();
+      if (!found) {
+        reportFalsePositive();
+      }
+      return found;
     } catch (SecurityException e) {
       throw new IOException(OPERATION_NOT_PERMITTED, e);
     }
@@ -96,35 +200,70 @@ public class FileBlobTable implements BlobTable {
   @Nullable
   @Override
   public ByteBuffer get(final @NotNull CodedKey codedKey) throws IOException {
+    if (isFilteredOut(codedKey)) {
+      return null;
+    }
+
     FileInputStream is = null;
     try {
-      final File file = new File(directory, getBasenameForKey(codedKey));
+      final File file = files.get(codedKey);
       if (!file.canRead()) {
+        reportFalsePositive();
         return null;
       }
 
       is = new FileInputStream(file);
 
-      final int length = (int) file.length();
-      byte[] bytes = new byte[length];
-      int offset = 0;
-      while (offset < length) {
-        int l = is.read(bytes, offset, length - offset);
-        if (l == -1) {
-          break;
-        }
-        offset += l;
-      }
-
+      final byte[] bytes = new byte[(int) file.length()];
+      BlobFiles.readFully(is, bytes);
       return ByteBuffer.wrap(bytes);
     } catch (FileNotFoundException e) {
+      reportFalsePositive();
       return null;
 
     } catch (SecurityException e) {
       throw new IOException(OPERATION_NOT_PERMITTED, e);
 
     } finally {
-      quietlyClose(is);
+      BlobFiles.quietlyClose(is);
+    }
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer peek(final @NotNull CodedKey codedKey, final int length) throws IOException {
+    if (isFilteredOut(codedKey)) {
+      return null;
+    }
+
+    FileInputStream is = null;
+    try {
+      is = new FileInputStream(files.get(codedKey));
+
+      final byte[] bytes = new byte[Math.max(length, 0)];
+      return ByteBuffer.wrap(bytes, 0, BlobFiles.readFully(is, bytes)).slice();
+    } catch (FileNotFoundException e) {
+      reportFalsePositive();
+      return null;
+
+    } catch (SecurityException e) {
+      throw new IOException(OPERATION_NOT_PERMITTED, e);
+
+    } finally {
+      BlobFiles.quietlyClose(is);
+    }
+  }
+
+  @Nullable
+  @Override
+  public VersionedBlob getVersioned(final @NotNull CodedKey codedKey) throws IOException {
+    // Under the lock, as writes briefly leave no file, or an empty one, for unlocked readers
+    locks.lock(codedKey);
+    try {
+      final ByteBuffer blob = get(codedKey);
+      return blob == null ? null : new VersionedBlob(blob, ContentVersions.of(blob));
+    } finally {
+      locks.unlock(codedKey);
     }
   }
 
@@ -133,16 +272,73 @@ public class FileBlobTable implements BlobTable {
       final @NotNull CodedKey codedKey,
       final @Nullable ByteBuffer blob) throws IOException {
 
-    if (blob == null) {
-      remove(codedKey);
-      return;
+    locks.lock(codedKey);
+    try {
+      if (blob == null) {
+        if (!delete(codedKey)) {
+          return;
+        }
+      } else {
+        write(codedKey, blob);
+      }
+    } finally {
+      locks.unlock(codedKey);
     }
+    listeners.notifyChanged(codedKey);
+  }
+
+  @Override
+  public boolean putIfAbsent(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer blob)
+      throws IOException {
+    locks.lock(codedKey);
+    try {
+      if (contains(codedKey)) {
+        return false;
+      }
+
+      write(codedKey, blob);
+    } finally {
+      locks.unlock(codedKey);
+    }
+    listeners.notifyChanged(codedKey);
+    return true;
+  }
+
+  @Override
+  public boolean replace(
+      final @NotNull CodedKey codedKey,
+      final long expectedVersion,
+      final @Nullable ByteBuffer blob) throws IOException {
+
+    locks.lock(codedKey);
+    try {
+      final VersionedBlob current = getVersioned(codedKey);
+      if (current == null || current.getVersion() != expectedVersion) {
+        return false;
+      }
+
+      if (blob == null) {
+        delete(codedKey);
+      } else {
+        write(codedKey, blob);
+      }
+    } finally {
+      locks.unlock(codedKey);
+    }
+    listeners.notifyChanged(codedKey);
+    return true;
+  }
+
+  private void write(
+      final @NotNull CodedKey codedKey,
+      final @NotNull ByteBuffer blob) throws IOException {
 
     checkCreateDirectory();
 
     FileOutputStream out = null;
     try {
-      final File tmpFile = new File(directory, "." + getBasenameForKey(codedKey) + ".tmp");
+      final File file = files.get(codedKey);
+      final File tmpFile = new File(directory, "." + file.getName() + ".tmp");
       if (!tmpFile.exists() && !tmpFile.createNewFile()) {
         throw new IOException("Could not encode file at " + tmpFile.getAbsolutePath());
       }
@@ -159,62 +355,177 @@ public class FileBlobTable implements BlobTable {
         }
       }
 
-      quietlyClose(out);
+      BlobFiles.quietlyClose(out);
 
-      remove(codedKey);
-      final File file = new File(directory, getBasenameForKey(codedKey));
+      delete(codedKey);
       if (!tmpFile.renameTo(file)) {
         throw new IOException(String.format("Could not move file %s to %s",
             tmpFile.getAbsolutePath(),
             file.getAbsolutePath()));
       }
+
+      if (bloomFilter != null) {
+        bloomFilter.add(codedKey);
+      }
     } catch (SecurityException e) {
       throw new IOException(OPERATION_NOT_PERMITTED, e);
 
     } finally {
-      quietlyClose(out);
+      BlobFiles.quietlyClose(out);
     }
   }
 
   @Override
   public void remove(final @NotNull CodedKey codedKey) throws IOException {
+    final boolean deleted;
+    locks.lock(codedKey);
     try {
-      final File file = new File(directory, getBasenameForKey(codedKey));
-      if (file.exists() && !file.delete()) {
+      deleted = delete(codedKey);
+    } finally {
+      locks.unlock(codedKey);
+    }
+    if (deleted) {
+      listeners.notifyChanged(codedKey);
+    }
+  }
+
+  /**
+   * Delete the file of a key.
+   *
+   * @return Whether there was one.
+   */
+  private boolean delete(final @NotNull CodedKey codedKey) throws IOException {
+    try {
+      final File file = files.get(codedKey);
+      if (!file.exists()) {
+        return false;
+      }
+      if (!file.delete()) {
         throw new IOException("Could not remove file at " + file.getAbsolutePath());
       }
+      return true;
     } catch (SecurityException e) {
       throw new IOException(OPERATION_NOT_PERMITTED, e);
     }
   }
 
+  @Override
+  public int removeAll(final @NotNull CodedKey prefix) throws IOException {
+    return removeKeys(getKeys(prefix));
+  }
+
   @Override
   public void clear() throws IOException {
-    /*
-     * Try to clear everything that can be. The first exception encountered is kept until all
-     * entries have been processed, then rethrown at the end.
-     */
-    IOException error = null;
+    try {
+      removeKeys(getKeys(null));
+    } finally {
+      if (bloomFilter != null) {
+        bloomFilter.invalidate();
+      }
+    }
+  }
+
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator() throws IOException {
+    return BlobTableIterator.of(this, getKeys(null).iterator());
+  }
+
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator(final @NotNull CodedKey prefix) throws IOException {
+    return BlobTableIterator.of(this, getKeys(prefix).iterator());
+  }
+
+  /**
+   * Load the bloom filter, if enabled, and delete the temporary files of writes that were
+   * interrupted, i.e. that weren't modified for 5 minutes.
+   *
+   * @since 1.1 {@inheritDoc}
+   */
+  @Override
+  public void warmUp() throws IOException {
+    try {
+      BlobFiles.deleteStaleTemporaryFiles(directory, new FilenameFilter() {
+        @Override
+        public boolean accept(final @NotNull File file, final @NotNull String s) {
+          return BAD_BLOB_FILE_NAME.matcher(s).matches() && s.endsWith(".tmp");
+        }
+      }, STALE_TEMPORARY_FILE_MILLIS);
+    } catch (SecurityException e) {
+      throw new IOException(OPERATION_NOT_PERMITTED, e);
+    }
+
+    if (bloomFilter != null) {
+      bloomFilter.get();
+    }
+  }
+
+  @Override
+  public void addListener(final @NotNull BlobTableListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(final @NotNull BlobTableListener listener) {
+    listeners.remove(listener);
+  }
 
-    for (CodedKey codedKey : getAllKeys()) {
+  @NotNull
+  File getDirectory() {
+    return directory;
+  }
+
+  @NotNull
+  File getFile(final @NotNull CodedKey codedKey) {
+    return files.get(codedKey);
+  }
+
+  /**
+   * Report a change made by another instance or process, adding the key to the bloom filter first
+   * if it was written, so that listeners can read it.
+   *
+   * @param source Listener that found the change, which doesn't get notified.
+   */
+  void notifyChangedElsewhere(
+      final @NotNull CodedKey codedKey,
+      final @NotNull BlobTableListener source) {
+    if (bloomFilter != null && getFile(codedKey).exists()) {
       try {
-        remove(codedKey);
+        bloomFilter.add(codedKey);
       } catch (IOException e) {
-        if (error == null) {
-          error = e;
-        }
+        // Rebuilt from the directory, which has the key, on next use
+        bloomFilter.invalidate();
       }
     }
+    listeners.notifyChanged(codedKey, source);
+  }
 
-    if (error != null) {
-      throw error;
+  /**
+   * Get the key of a file found in the directory.
+   *
+   * @return The key, or {@code null} if the file isn't a blob, e.g. a temporary file.
+   */
+  @Nullable
+  CodedKey getKeyForFileName(final @NotNull String name) {
+    return BAD_BLOB_FILE_NAME.matcher(name).matches() ? null : getKeyForBasename(name);
+  }
+
+  private boolean isFilteredOut(final @NotNull CodedKey codedKey) throws IOException {
+    if (bloomFilter == null) {
+      return false;
     }
+
+    // Not available while another thread loads it: look the key up in the file system meanwhile
+    final BloomFilter filter = bloomFilter.tryGet();
+    return filter != null && !filter.mightContain(codedKey);
   }
 
-  @NotNull
-  @Override
-  public Iterator<CodedKey> iterator() throws IOException {
-    return BlobTableIterator.of(this, getAllKeys().iterator());
+  private void reportFalsePositive() {
+    final BloomFilter filter = bloomFilter == null ? null : bloomFilter.peek();
+    if (filter != null) {
+      filter.reportFalsePositive();
+    }
   }
 
   private void checkCreateDirectory() throws IOException {
@@ -227,26 +538,56 @@ public class FileBlobTable implements BlobTable {
     }
   }
 
-  private void quietlyClose(final Closeable closeable) {
-    if (closeable != null) {
+  /**
+   * Try to remove every key in a list. The first exception encountered is kept until all keys have
+   * been processed, then rethrown at the end.
+   *
+   * @return Number of keys removed.
+   */
+  private int removeKeys(final @NotNull List<CodedKey> codedKeys) throws IOException {
+    IOException error = null;
+    int removed = 0;
+
+    for (CodedKey codedKey : codedKeys) {
       try {
-        closeable.close();
-      } catch (Exception ignored) {
-        // no-op
+        remove(codedKey);
+        removed++;
+      } catch (IOException e) {
+        if (error == null) {
+          error = e;
+        }
       }
     }
+
+    if (error != null) {
+      throw error;
+    }
+    return removed;
   }
 
-  private List<CodedKey> getAllKeys() throws IOException {
+  /**
+   * List the keys starting with {@code prefix}, or all of them if it's {@code null}. File names
+   * are matched against the encoded prefix before anything gets decoded.
+   */
+  private List<CodedKey> getKeys(final @Nullable CodedKey prefix) throws IOException {
     try {
-      final String[] nameArray = directory.list(blobFilter);
+      final String namePrefix = prefix == null ? "" : Base64Url.encodePrefix(prefix);
+      final String[] nameArray = directory.list(new FilenameFilter() {
+        @Override
+        public boolean accept(final @NotNull File file, final @NotNull String s) {
+          return s.startsWith(namePrefix) && blobFilter.accept(file, s);
+        }
+      });
 
       if (nameArray == null) {
         return Collections.emptyList();
       } else {
         List<CodedKey> codedKeys = new ArrayList<>(nameArray.length);
         for (String basename : nameArray) {
-          codedKeys.add(getKeyForBasename(basename));
+          final CodedKey codedKey = getKeyForBasename(basename);
+          if (prefix == null || codedKey.startsWith(prefix)) {
+            codedKeys.add(codedKey);
+          }
         }
         return codedKeys;
       }
@@ -255,10 +596,6 @@ public class FileBlobTable implements BlobTable {
     }
   }
 
-  private String getBasenameForKey(final @NotNull CodedKey codedKey) {
-    return Base64.encodeBase64URLSafeString(codedKey.getBytes());
-  }
-
   @NotNull
   private CodedKey getKeyForBasename(final @NotNull String basename) {
     return new CodedKey(Base64.decodeBase64(basename));
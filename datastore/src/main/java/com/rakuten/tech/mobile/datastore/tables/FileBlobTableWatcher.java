@@ -0,0 +1,336 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Watches the directory of a {@link FileBlobTable} for changes made by other instances or
+ * processes, and reports them to the listeners of the table, so that processes sharing a directory
+ * don't need to poll it.
+ *
+ * <p>Events of the {@link WatchService} are collected for the debounce delay after the first one,
+ * so that a burst of writes, or the several events of a single write, is reported once per key.
+ * Each file is then compared with the size and modification time it last had, and only actual
+ * changes are reported: writes through the watched instance, which already notified its listeners,
+ * are not reported again. Writes keeping both the size and the modification time of a file, to the
+ * millisecond, go unnoticed. Keys written elsewhere are added to the bloom filter of the table, if
+ * it uses one, before being reported, so that listeners can read them.
+ *
+ * <p>When the watch service overflows and drops events, or the directory gets deleted, the whole
+ * directory is listed again and compared with the known files, which reports every change missed.
+ * If the directory can't be listed or watched anymore, the watcher stops: {@link #isWatching()}
+ * then returns {@code false}, {@link #getFailure()} tells why, and it can be started again.
+ *
+ * <p>Listeners are called from the watcher thread. This class needs {@code java.nio.file}, i.e.
+ * Java 7 or Android 8.0 and above.
+ *
+ * @since 1.1
+ */
+@IgnoreJRERequirement
+public final class FileBlobTableWatcher implements Closeable {
+
+  private final @NotNull FileBlobTable table;
+  private final long debounceMillis;
+  private final @NotNull Map<CodedKey, Stamp> stamps = new ConcurrentHashMap<>();
+  private final @NotNull BlobTableListener ownWrites = new BlobTableListener() {
+    @Override
+    public void onChanged(final @NotNull CodedKey codedKey) {
+      record(codedKey, table.getFile(codedKey));
+    }
+  };
+  private @Nullable WatchService service;
+  private volatile @Nullable IOException failure;
+
+  /**
+   * Create a new watcher. It only starts watching once {@link #start()} is called.
+   *
+   * @param table The table to watch.
+   * @param debounce Delay during which events are collected before changes get reported.
+   * @param unit Unit of {@code debounce}.
+   * @throws IllegalArgumentException {@code debounce} is negative.
+   * @since 1.1
+   */
+  public FileBlobTableWatcher(
+      final @NotNull FileBlobTable table,
+      final long debounce,
+      final @NotNull TimeUnit unit) {
+    if (debounce < 0) {
+      throw new IllegalArgumentException("Debounce delay must not be negative");
+    }
+
+    this.table = table;
+    this.debounceMillis = unit.toMillis(debounce);
+  }
+
+  /**
+   * Start watching the directory of the table, creating it if needed, from a daemon thread.
+   *
+   * @throws IllegalStateException The watcher was already started.
+   * @throws IOException The directory could not be watched.
+   * @since 1.1
+   */
+  public synchronized void start() throws IOException {
+    if (service != null) {
+      throw new IllegalStateException("Watcher already started");
+    }
+
+    final WatchService watchService =
+        table.getDirectory().toPath().getFileSystem().newWatchService();
+    try {
+      register(watchService);
+    } catch (IOException e) {
+      watchService.close();
+      throw e;
+    }
+
+    service = watchService;
+    failure = null;
+    table.addListener(ownWrites);
+    rescan(false);
+
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch(watchService);
+      }
+    }, "FileBlobTableWatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop watching. Changes being collected when the watcher is closed are not reported.
+   *
+   * @throws IOException The watch service could not be closed.
+   * @since 1.1
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (service == null) {
+      return;
+    }
+
+    table.removeListener(ownWrites);
+    service.close();
+    service = null;
+  }
+
+  /**
+   * Whether the watcher was started, and neither closed nor stopped by a failure since.
+   *
+   * @return Whether changes are being watched.
+   * @since 1.1
+   */
+  public synchronized boolean isWatching() {
+    return service != null;
+  }
+
+  /**
+   * Get the error that stopped the watcher, e.g. because its directory could not be listed or
+   * watched anymore.
+   *
+   * @return The error, or {@code null} if the watcher didn't fail since it was last started.
+   * @since 1.1
+   */
+  @Nullable
+  public IOException getFailure() {
+    return failure;
+  }
+
+  /**
+   * Stop watching after a failure, unless the watcher was closed or restarted meanwhile.
+   */
+  private synchronized void fail(
+      final @NotNull WatchService watchService,
+      final @NotNull IOException e) {
+    if (service != watchService) {
+      return;
+    }
+
+    failure = e;
+    table.removeListener(ownWrites);
+    service = null;
+    try {
+      watchService.close();
+    } catch (IOException ignored) {
+      // Not watched anymore anyway
+    }
+  }
+
+  private void watch(final @NotNull WatchService watchService) {
+    try {
+      while (true) {
+        final Set<String> names = new LinkedHashSet<>();
+        boolean overflow = collect(watchService.take(), names);
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        long remaining = debounceMillis;
+        while (remaining > 0) {
+          final WatchKey key = watchService.poll(remaining, TimeUnit.MILLISECONDS);
+          if (key != null) {
+            overflow |= collect(key, names);
+          }
+          remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+
+        if (overflow) {
+          rescan(true);
+          register(watchService);
+        } else {
+          for (String name : names) {
+            check(name);
+          }
+        }
+      }
+    } catch (ClosedWatchServiceException ignored) {
+      // Closed
+    } catch (InterruptedException e) {
+      fail(watchService, new InterruptedIOException("Watcher thread interrupted"));
+    } catch (IOException e) {
+      fail(watchService, e);
+    } catch (RuntimeException e) {
+      fail(watchService, new IOException("Listener failed", e));
+      throw e;
+    }
+  }
+
+  /**
+   * Collect the names of the files changed in the events of a watch key.
+   *
+   * @return Whether a rescan is needed, i.e. events were lost or the directory went away.
+   */
+  private boolean collect(final @NotNull WatchKey key, final @NotNull Set<String> names) {
+    boolean overflow = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        overflow = true;
+      } else {
+        names.add(((Path) event.context()).getFileName().toString());
+      }
+    }
+    return !key.reset() || overflow;
+  }
+
+  private void register(final @NotNull WatchService watchService) throws IOException {
+    final File directory = table.getDirectory();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory at " + directory.getAbsolutePath());
+    }
+
+    directory.toPath().register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+  }
+
+  private void check(final @NotNull String name) {
+    final CodedKey codedKey = table.getKeyForFileName(name);
+    if (codedKey != null && record(codedKey, new File(table.getDirectory(), name))) {
+      table.notifyChangedElsewhere(codedKey, ownWrites);
+    }
+  }
+
+  /**
+   * List the whole directory again, and report the files that changed since last seen.
+   */
+  private void rescan(final boolean notify) {
+    final Map<CodedKey, File> found = new HashMap<>();
+    final String[] names = table.getDirectory().list();
+    if (names != null) {
+      for (String name : names) {
+        final CodedKey codedKey = table.getKeyForFileName(name);
+        if (codedKey != null) {
+          found.put(codedKey, new File(table.getDirectory(), name));
+        }
+      }
+    }
+
+    final Set<CodedKey> codedKeys = new LinkedHashSet<>(stamps.keySet());
+    codedKeys.addAll(found.keySet());
+    for (CodedKey codedKey : codedKeys) {
+      final File file = found.get(codedKey);
+      final boolean changed =
+          file == null ? stamps.remove(codedKey) != null : record(codedKey, file);
+      if (changed && notify) {
+        table.notifyChangedElsewhere(codedKey, ownWrites);
+      }
+    }
+  }
+
+  /**
+   * Remember the size and modification time of a blob's file.
+   *
+   * @return Whether they changed since last recorded.
+   */
+  private boolean record(final @NotNull CodedKey codedKey, final @NotNull File file) {
+    final long lastModified = file.lastModified();
+    if (lastModified == 0) {
+      // The file doesn't exist
+      return stamps.remove(codedKey) != null;
+    }
+
+    final Stamp stamp = new Stamp(lastModified, file.length());
+    return !stamp.equals(stamps.put(codedKey, stamp));
+  }
+
+  /**
+   * Size and modification time of a blob's file, compared separately, as any single number folding
+   * both would let some changes collide.
+   */
+  private static final class Stamp {
+
+    private final long lastModified;
+    private final long length;
+
+    Stamp(final long lastModified, final long length) {
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object other) {
+      return other instanceof Stamp
+          && ((Stamp) other).lastModified == lastModified
+          && ((Stamp) other).length == length;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (lastModified ^ length);
+    }
+  }
+}
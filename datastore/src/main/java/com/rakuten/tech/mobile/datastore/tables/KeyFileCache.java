@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Memoizes the file backing each key of a {@link FileBlobTable}.
+ *
+ * <p>This is a direct-mapped cache: each key can only live in one slot, picked from its hash, and
+ * evicts whatever was there. Lookups of hot keys thus don't allocate nor lock anything, and the
+ * cache never grows past its number of slots.
+ */
+final class KeyFileCache {
+
+  private static final class Entry {
+    final @NotNull CodedKey codedKey;
+    final @NotNull File file;
+
+    Entry(final @NotNull CodedKey codedKey, final @NotNull File file) {
+      this.codedKey = codedKey;
+      this.file = file;
+    }
+  }
+
+  private final @NotNull File directory;
+  private final @NotNull AtomicReferenceArray<Entry> slots;
+
+  /**
+   * Create a new cache of files under {@code directory}.
+   *
+   * @param slotCount Number of slots. Must be a power of two.
+   */
+  KeyFileCache(final @NotNull File directory, final int slotCount) {
+    if (Integer.bitCount(slotCount) != 1) {
+      throw new IllegalArgumentException("Slot count must be a power of two");
+    }
+
+    this.directory = directory;
+    this.slots = new AtomicReferenceArray<>(slotCount);
+  }
+
+  /**
+   * Get the file backing a key.
+   */
+  @NotNull
+  File get(final @NotNull CodedKey codedKey) {
+    final int hash = codedKey.hashCode();
+    final int slot = (hash ^ (hash >>> 16)) & (slots.length() - 1);
+
+    final Entry entry = slots.get(slot);
+    if (entry != null && entry.codedKey.equals(codedKey)) {
+      return entry.file;
+    }
+
+    final File file = new File(directory, Base64Url.encode(codedKey));
+    slots.set(slot, new Entry(codedKey, file));
+    return file;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reentrant locks of individual keys, so that writers of different keys never contend. A lock only
+ * exists while some thread holds or waits for it.
+ */
+final class KeyLocks {
+
+  private final @NotNull ConcurrentMap<CodedKey, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Lock a key, waiting for the thread holding it, if any. Each call must be followed by a call to
+   * {@link #unlock(CodedKey)}.
+   */
+  void lock(final @NotNull CodedKey codedKey) {
+    while (true) {
+      Entry entry = entries.get(codedKey);
+      if (entry == null) {
+        final Entry created = new Entry();
+        entry = entries.putIfAbsent(codedKey, created);
+        if (entry == null) {
+          entry = created;
+        }
+      }
+
+      synchronized (entry) {
+        if (entry.retired) {
+          // Removed by its last user meanwhile
+          continue;
+        }
+        entry.users++;
+      }
+      entry.lock.lock();
+      return;
+    }
+  }
+
+  /**
+   * Unlock a key locked by the calling thread.
+   */
+  void unlock(final @NotNull CodedKey codedKey) {
+    final Entry entry = entries.get(codedKey);
+    entry.lock.unlock();
+    synchronized (entry) {
+      if (--entry.users == 0) {
+        entry.retired = true;
+        entries.remove(codedKey, entry);
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    private final @NotNull ReentrantLock lock = new ReentrantLock();
+    private int users;
+    private boolean retired;
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A named table within a {@link SharedBlobTable}, with its own key space.
+ *
+ * <p>Every operation is delegated to the storage of the shared table, with the key prefixed by the
+ * table name. Listeners are notified of the changes of this table only, including those the
+ * storage detects outside the process. Warming up this table warms up the storage, if it is a
+ * {@link WarmableBlobTable}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public final class LogicalBlobTable
+    implements VersionedBlobTable, ObservableBlobTable, WarmableBlobTable, PeekableBlobTable,
+        PrefixScannableBlobTable {
+
+  private final @NotNull String name;
+  private final @NotNull VersionedBlobTable storage;
+  private final @NotNull CodedKey prefix;
+  private final @NotNull TableListeners listeners = new TableListeners();
+
+  LogicalBlobTable(
+      final @NotNull String name,
+      final @NotNull VersionedBlobTable storage,
+      final @NotNull CodedKey prefix) {
+    this.name = name;
+    this.storage = storage;
+    this.prefix = prefix;
+  }
+
+  /**
+   * Get the name of this table.
+   *
+   * @return Name, as passed to {@link SharedBlobTable#getTable(String)}.
+   * @since 1.1
+   */
+  @NotNull
+  public String getName() {
+    return name;
+  }
+
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator() throws IOException {
+    return BlobTableIterator.of(this, unprefixed(BlobTables.iterator(storage, prefix)));
+  }
+
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator(final @NotNull CodedKey keyPrefix) throws IOException {
+    final Iterator<CodedKey> keys = BlobTables.iterator(storage, prefixed(keyPrefix));
+    return BlobTableIterator.of(this, unprefixed(keys));
+  }
+
+  @Override
+  public boolean contains(final @NotNull CodedKey codedKey) throws IOException {
+    return storage.contains(prefixed(codedKey));
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer get(final @NotNull CodedKey codedKey) throws IOException {
+    return storage.get(prefixed(codedKey));
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer peek(final @NotNull CodedKey codedKey, final int length) throws IOException {
+    return BlobTables.peek(storage, prefixed(codedKey), length);
+  }
+
+  @Nullable
+  @Override
+  public VersionedBlob getVersioned(final @NotNull CodedKey codedKey) throws IOException {
+    return storage.getVersioned(prefixed(codedKey));
+  }
+
+  @Override
+  public void put(
+      final @NotNull CodedKey codedKey,
+      final @Nullable ByteBuffer blob) throws IOException {
+    storage.put(prefixed(codedKey), blob);
+  }
+
+  @Override
+  public boolean putIfAbsent(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer blob)
+      throws IOException {
+    return storage.putIfAbsent(prefixed(codedKey), blob);
+  }
+
+  @Override
+  public boolean replace(
+      final @NotNull CodedKey codedKey,
+      final long expectedVersion,
+      final @Nullable ByteBuffer blob) throws IOException {
+    return storage.replace(prefixed(codedKey), expectedVersion, blob);
+  }
+
+  @Override
+  public void remove(final @NotNull CodedKey codedKey) throws IOException {
+    storage.remove(prefixed(codedKey));
+  }
+
+  @Override
+  public int removeAll(final @NotNull CodedKey keyPrefix) throws IOException {
+    return BlobTables.removeAll(storage, prefixed(keyPrefix));
+  }
+
+  @Override
+  public void clear() throws IOException {
+    BlobTables.removeAll(storage, prefix);
+  }
+
+  @Override
+  public void warmUp() throws IOException {
+    if (storage instanceof WarmableBlobTable) {
+      ((WarmableBlobTable) storage).warmUp();
+    }
+  }
+
+  @Override
+  public void addListener(final @NotNull BlobTableListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(final @NotNull BlobTableListener listener) {
+    listeners.remove(listener);
+  }
+
+  @NotNull
+  TableListeners getListeners() {
+    return listeners;
+  }
+
+  @NotNull
+  private CodedKey prefixed(final @NotNull CodedKey codedKey) {
+    final ByteBuffer prefixed = ByteBuffer.allocate(prefix.length() + codedKey.length());
+    prefix.writeTo(prefixed);
+    codedKey.writeTo(prefixed);
+    return new CodedKey(prefixed.array());
+  }
+
+  /**
+   * Strip the table prefix from the keys of a wrapped iterator.
+   */
+  @NotNull
+  private Iterator<CodedKey> unprefixed(final @NotNull Iterator<CodedKey> wrapped) {
+    return new Iterator<CodedKey>() {
+      @Override
+      public boolean hasNext() {
+        return wrapped.hasNext();
+      }
+
+      @Override
+      public CodedKey next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final ByteBuffer bytes = wrapped.next().asReadOnlyBuffer();
+        bytes.position(prefix.length());
+        final byte[] key = new byte[bytes.remaining()];
+        bytes.get(key);
+        return new CodedKey(key);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -21,8 +21,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -32,11 +33,18 @@ import org.jetbrains.annotations.Nullable;
  * <p>Each instance internally uses a {@link ConcurrentHashMap} to manage its data. When an instance
  * gets released, all the data that it was storing is released as well.
  *
+ * <p>Version stamps come from a counter shared by all keys, and conditional writes are lock-free.
+ * Listeners are notified of every write, including the removal of each key when clearing.
+ *
  * @since 0.1 {@inheritDoc}
  */
-public class MemoryBlobTable implements BlobTable {
+public class MemoryBlobTable
+    implements VersionedBlobTable, ObservableBlobTable, PeekableBlobTable,
+        PrefixScannableBlobTable {
 
-  private final Map<CodedKey, byte[]> store;
+  private final ConcurrentMap<CodedKey, Entry> store;
+  private final AtomicLong versions = new AtomicLong();
+  private final TableListeners listeners = new TableListeners();
 
   /**
    * Creates a new table.
@@ -58,16 +66,47 @@ public class MemoryBlobTable implements BlobTable {
     return BlobTableIterator.of(this, store.keySet().iterator());
   }
 
+  @NotNull
+  @Override
+  public Iterator<CodedKey> iterator(final @NotNull CodedKey prefix) throws IOException {
+    return BlobTableIterator.of(this, new PrefixIterator(store.keySet().iterator(), prefix));
+  }
+
   @Nullable
   @Override
   public ByteBuffer get(final @NotNull CodedKey codedKey) throws IOException {
-    final byte[] value = store.get(codedKey);
+    final Entry entry = store.get(codedKey);
 
-    if (value == null) {
+    if (entry == null) {
       return null;
     }
 
-    return ByteBuffer.wrap(Arrays.copyOf(value, value.length));
+    return ByteBuffer.wrap(Arrays.copyOf(entry.bytes, entry.bytes.length));
+  }
+
+  @Nullable
+  @Override
+  public VersionedBlob getVersioned(final @NotNull CodedKey codedKey) throws IOException {
+    final Entry entry = store.get(codedKey);
+
+    if (entry == null) {
+      return null;
+    }
+
+    return new VersionedBlob(
+        ByteBuffer.wrap(Arrays.copyOf(entry.bytes, entry.bytes.length)), entry.version);
+  }
+
+  @Nullable
+  @Override
+  public ByteBuffer peek(final @NotNull CodedKey codedKey, final int length) throws IOException {
+    final Entry entry = store.get(codedKey);
+
+    if (entry == null) {
+      return null;
+    }
+
+    return ByteBuffer.wrap(Arrays.copyOf(entry.bytes, Math.min(length, entry.bytes.length)));
   }
 
   @Override
@@ -78,19 +117,100 @@ public class MemoryBlobTable implements BlobTable {
     if (blob == null) {
       remove(codedKey);
     } else {
-      final byte[] bytes = new byte[blob.remaining()];
-      blob.slice().get(bytes);
-      store.put(codedKey, bytes);
+      store.put(codedKey, newEntry(blob));
+      listeners.notifyChanged(codedKey);
+    }
+  }
+
+  @Override
+  public boolean putIfAbsent(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer blob)
+      throws IOException {
+    if (store.putIfAbsent(codedKey, newEntry(blob)) != null) {
+      return false;
     }
+
+    listeners.notifyChanged(codedKey);
+    return true;
+  }
+
+  @Override
+  public boolean replace(
+      final @NotNull CodedKey codedKey,
+      final long expectedVersion,
+      final @Nullable ByteBuffer blob) throws IOException {
+
+    final Entry entry = store.get(codedKey);
+    if (entry == null || entry.version != expectedVersion) {
+      return false;
+    }
+
+    // Entries are compared by identity, so a concurrent write in between makes this fail
+    final boolean replaced = blob == null
+        ? store.remove(codedKey, entry) : store.replace(codedKey, entry, newEntry(blob));
+    if (replaced) {
+      listeners.notifyChanged(codedKey);
+    }
+    return replaced;
   }
 
   @Override
   public void remove(final @NotNull CodedKey codedKey) throws IOException {
-    store.remove(codedKey);
+    if (store.remove(codedKey) != null) {
+      listeners.notifyChanged(codedKey);
+    }
+  }
+
+  @Override
+  public int removeAll(final @NotNull CodedKey prefix) throws IOException {
+    int removed = 0;
+    for (CodedKey codedKey : store.keySet()) {
+      if (codedKey.startsWith(prefix) && store.remove(codedKey) != null) {
+        listeners.notifyChanged(codedKey);
+        removed++;
+      }
+    }
+    return removed;
   }
 
   @Override
   public void clear() throws IOException {
-    store.clear();
+    if (listeners.isEmpty()) {
+      store.clear();
+      return;
+    }
+
+    for (CodedKey codedKey : store.keySet()) {
+      if (store.remove(codedKey) != null) {
+        listeners.notifyChanged(codedKey);
+      }
+    }
+  }
+
+  @Override
+  public void addListener(final @NotNull BlobTableListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(final @NotNull BlobTableListener listener) {
+    listeners.remove(listener);
+  }
+
+  @NotNull
+  private Entry newEntry(final @NotNull ByteBuffer blob) {
+    final byte[] bytes = new byte[blob.remaining()];
+    blob.slice().get(bytes);
+    return new Entry(bytes, versions.incrementAndGet());
+  }
+
+  private static final class Entry {
+
+    private final @NotNull byte[] bytes;
+    private final long version;
+
+    Entry(final @NotNull byte[] bytes, final long version) {
+      this.bytes = bytes;
+      this.version = version;
+    }
   }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A blob table that pushes key-level change notifications to its listeners, sparing them from
+ * polling the table to notice updates.
+ *
+ * <p>Writes through the table notify listeners directly, once they are done. Clearing the table or
+ * removing a prefix notifies each removed key. Changes made outside the process are only seen if
+ * the table watches its storage, e.g. with a {@link FileBlobTableWatcher}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public interface ObservableBlobTable extends BlobTable {
+
+  /**
+   * Start notifying a listener of changes. Adding a listener twice makes it notified twice.
+   *
+   * @param listener The listener.
+   * @since 1.1
+   */
+  void addListener(final @NotNull BlobTableListener listener);
+
+  /**
+   * Stop notifying a listener of changes.
+   *
+   * @param listener The listener, as passed to {@link #addListener(BlobTableListener)}.
+   * @since 1.1
+   */
+  void removeListener(final @NotNull BlobTableListener listener);
+}
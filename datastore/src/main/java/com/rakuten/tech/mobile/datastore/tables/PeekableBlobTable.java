@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A blob table that can read the beginning of a blob without reading the rest of it, e.g. so that
+ * record headers can be inspected cheaply.
+ *
+ * <p>Other tables are read in full instead, see {@link BlobTables#peek(BlobTable, CodedKey, int)}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public interface PeekableBlobTable extends BlobTable {
+
+  /**
+   * Try to read the beginning of a blob from the table, e.g. to inspect a header without loading
+   * the whole blob.
+   *
+   * @param codedKey The blob's coded key.
+   * @param length Maximum number of bytes to read.
+   * @return The first {@code length} bytes of the blob, or the whole blob if it's shorter, or
+   *     {@code null} if none was found that matches the codedKey.
+   * @throws IOException Looking up the blob failed.
+   * @since 1.1
+   */
+  @Nullable
+  ByteBuffer peek(final @NotNull CodedKey codedKey, final int length) throws IOException;
+}
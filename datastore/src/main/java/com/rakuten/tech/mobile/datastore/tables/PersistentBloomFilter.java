@@ -0,0 +1,292 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Manages the {@link BloomFilter} of a {@link FileBlobTable}: loading it from disk or rebuilding it
+ * from a directory listing, growing it when it saturates, and saving it.
+ *
+ * <p>A saved filter is only trusted if the blob directory was not modified since it was saved.
+ * Since file systems may only record modification times with a granularity of up to 2 seconds,
+ * it also needs to have been saved at least 2 seconds after the last modification, otherwise a
+ * later change could go unnoticed.
+ *
+ * <p>Lookups and writes don't wait for another thread loading the filter, e.g. a warm-up task:
+ * lookups go to the file system meanwhile, and keys written meanwhile are queued, then added once
+ * the filter is published.
+ */
+@SuppressFBWarnings({
+    "IOI_USE_OF_FILE_STREAM_CONSTRUCTORS",
+    "PATH_TRAVERSAL_IN",
+    "PATH_TRAVERSAL_OUT",
+})
+final class PersistentBloomFilter {
+
+  /**
+   * Source of truth used for rebuilding the filter.
+   */
+  interface KeyLister {
+
+    @NotNull
+    List<CodedKey> listKeys() throws IOException;
+  }
+
+  private static final int MINIMUM_CAPACITY = 1024;
+  private static final long TIMESTAMP_GRANULARITY = 2000;
+
+  private final @NotNull File file;
+  private final @NotNull File directory;
+  private final double falsePositiveRate;
+  private final @NotNull KeyLister lister;
+  private final @NotNull ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final @NotNull Queue<CodedKey> pending = new ConcurrentLinkedQueue<>();
+  private volatile @Nullable BloomFilter filter;
+
+  PersistentBloomFilter(
+      final @NotNull File file,
+      final @NotNull File directory,
+      final double falsePositiveRate,
+      final @NotNull KeyLister lister) {
+
+    this.file = file;
+    this.directory = directory;
+    this.falsePositiveRate = falsePositiveRate;
+    this.lister = lister;
+  }
+
+  /**
+   * The current filter, if it was loaded already.
+   */
+  @Nullable
+  BloomFilter peek() {
+    return filter;
+  }
+
+  /**
+   * The current filter, loading or building it first if needed.
+   */
+  @NotNull
+  BloomFilter get() throws IOException {
+    BloomFilter current = filter;
+    if (current == null) {
+      lock.writeLock().lock();
+      try {
+        current = loadLocked();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    return current;
+  }
+
+  /**
+   * The current filter, loading or building it first if needed, unless another thread holds the
+   * lock, e.g. to load it, in which case this doesn't wait.
+   *
+   * @return The filter, or {@code null} if it's not available yet.
+   */
+  @Nullable
+  BloomFilter tryGet() throws IOException {
+    final BloomFilter current = filter;
+    if (current != null || !lock.writeLock().tryLock()) {
+      return current;
+    }
+
+    try {
+      return loadLocked();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Record a key that was just written, rebuilding the filter if it got saturated.
+   */
+  void add(final @NotNull CodedKey codedKey) throws IOException {
+    BloomFilter current = tryGet();
+    if (current == null) {
+      // The loading thread adds queued keys once it published the filter, and if it already did,
+      // the filter is visible here
+      pending.add(codedKey);
+      if (filter == null) {
+        return;
+      }
+    }
+
+    lock.readLock().lock();
+    try {
+      // The filter may have been swapped while we were waiting for the lock
+      current = filter;
+      if (current != null) {
+        current.add(codedKey);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    if (current != null && current.isSaturated()) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Drop the filter, e.g. after the table got cleared, so that it gets rebuilt on next use.
+   */
+  void invalidate() {
+    lock.writeLock().lock();
+    try {
+      filter = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rebuild the filter from a directory listing.
+   */
+  void rebuild() throws IOException {
+    lock.writeLock().lock();
+    try {
+      final BloomFilter current = filter;
+      if (current == null || current.isSaturated()) {
+        filter = build(current == null ? 0 : current.getCapacity());
+        quietlySave();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Save the filter next to the table, so that it can be loaded instead of rebuilt.
+   */
+  void save() throws IOException {
+    lock.writeLock().lock();
+    try {
+      final BloomFilter current = filter;
+      if (current == null) {
+        return;
+      }
+
+      // The table may not have been written to yet, leaving its root directory missing
+      final File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory at " + parent.getAbsolutePath());
+      }
+
+      final File tmpFile = new File(file.getPath() + ".tmp");
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      try {
+        out.writeLong(directory.lastModified());
+        out.writeLong(System.currentTimeMillis());
+        current.writeTo(out);
+      } finally {
+        out.close();
+      }
+
+      if (!tmpFile.renameTo(file)) {
+        throw new IOException("Could not move file " + tmpFile.getAbsolutePath());
+      }
+    } catch (SecurityException e) {
+      throw new IOException("Operation not permitted", e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Load or build the filter if needed, holding the write lock.
+   */
+  @NotNull
+  private BloomFilter loadLocked() throws IOException {
+    BloomFilter current = filter;
+    if (current == null) {
+      current = load();
+      if (current == null) {
+        current = build(0);
+      }
+      filter = current;
+      for (CodedKey codedKey = pending.poll(); codedKey != null; codedKey = pending.poll()) {
+        current.add(codedKey);
+      }
+    }
+    return current;
+  }
+
+  @NotNull
+  private BloomFilter build(final int previousCapacity) throws IOException {
+    final List<CodedKey> keys = lister.listKeys();
+    final int capacity = Math.max(MINIMUM_CAPACITY,
+        Math.max(previousCapacity, keys.size()) * 2);
+    final BloomFilter built = new BloomFilter(capacity, falsePositiveRate);
+    for (CodedKey codedKey : keys) {
+      built.add(codedKey);
+    }
+    return built;
+  }
+
+  @Nullable
+  private BloomFilter load() {
+    try {
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      try {
+        final long modified = in.readLong();
+        final long saved = in.readLong();
+        if (modified != directory.lastModified() || saved - modified < TIMESTAMP_GRANULARITY) {
+          return null;
+        }
+        return BloomFilter.readFrom(in);
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException | SecurityException e) {
+      // A broken filter can always be rebuilt
+      return null;
+    }
+  }
+
+  private void quietlySave() {
+    try {
+      save();
+    } catch (IOException ignored) {
+      // The filter will be rebuilt next time
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Iterator skipping the keys that don't start with a given prefix.
+ */
+final class PrefixIterator implements Iterator<CodedKey> {
+
+  private final @NotNull Iterator<CodedKey> wrapped;
+  private final @NotNull CodedKey prefix;
+  private CodedKey next;
+
+  PrefixIterator(final @NotNull Iterator<CodedKey> wrapped, final @NotNull CodedKey prefix) {
+    this.wrapped = wrapped;
+    this.prefix = prefix;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (next == null && wrapped.hasNext()) {
+      final CodedKey codedKey = wrapped.next();
+      if (codedKey.startsWith(prefix)) {
+        next = codedKey;
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public CodedKey next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final CodedKey codedKey = next;
+    next = null;
+    return codedKey;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.util.Iterator;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A blob table that can list or remove the keys starting with a given prefix, e.g. one returned by
+ * {@link com.rakuten.tech.mobile.datastore.keys.PrefixKeyCoder}, without going through all of its
+ * keys.
+ *
+ * <p>Other tables are scanned in full instead, see {@link BlobTables#iterator(BlobTable,
+ * CodedKey)} and {@link BlobTables#removeAll(BlobTable, CodedKey)}.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public interface PrefixScannableBlobTable extends BlobTable {
+
+  /**
+   * An iterator for looping through the keys of this blob table that start with a given prefix.
+   *
+   * @param prefix Prefix of the keys to loop through.
+   * @return Iterator.
+   * @throws IOException The content of the table cannot be iterated upon.
+   * @since 1.1
+   */
+  @NotNull
+  Iterator<CodedKey> iterator(final @NotNull CodedKey prefix) throws IOException;
+
+  /**
+   * Try to delete every blob whose key starts with a given prefix.
+   *
+   * @param prefix Prefix of the keys of the blobs to delete.
+   * @return Number of blobs deleted.
+   * @throws IOException At least one blob could not be deleted.
+   * @since 1.1
+   */
+  int removeAll(final @NotNull CodedKey prefix) throws IOException;
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A single storage table hosting many named {@link LogicalBlobTable logical tables}, e.g. one
+ * {@link FileBlobTable} directory for all the data stores of an application, instead of one
+ * directory each.
+ *
+ * <p>Each logical table has its own key space: its coded keys are stored prefixed with the length
+ * and UTF-8 bytes of its name, so that keys of different tables never collide, and a whole table is
+ * found or dropped with a prefix scan of the storage. Fixed costs, such as directory handles,
+ * listings, bloom filters or watchers, are paid once for the storage rather than once per table.
+ *
+ * <p>Table names are limited to {@value #MAXIMUM_NAME_LENGTH} bytes in UTF-8, as every coded key of
+ * a table gets 1 byte longer than its name in the storage. {@link FileBlobTable} uses coded keys
+ * as Base64 file names, which most file systems limit to 255 bytes, including the 5 characters its
+ * temporary files add, i.e. 187 bytes of coded key: keys coded with {@link
+ * com.rakuten.tech.mobile.datastore.keys.Sha256KeyCoder} always fit, but keys coded with {@link
+ * com.rakuten.tech.mobile.datastore.keys.HierarchicalKeyCoder} should not have more than 12
+ * segments, or 15 with names of up to 6 bytes.
+ *
+ * <p>Each logical table supports conditional writes and change notifications, through the storage,
+ * which must support them too. Statistics are kept per logical table by the metrics of the {@link
+ * com.rakuten.tech.mobile.datastore.DataStore} using it.
+ *
+ * <pre><code>
+ *   final SharedBlobTable shared = new SharedBlobTable(new FileBlobTable("shared", directory));
+ *   final DataStore users = new DataStore(shared.getTable("users"), cryptoOperations, keyCoder);
+ *   final DataStore images = new DataStore(shared.getTable("images"), cryptoOperations, keyCoder);
+ * </code></pre>
+ *
+ * @since 1.1
+ */
+public final class SharedBlobTable {
+
+  private static final @NotNull Charset UTF_8 = Charset.forName("UTF-8");
+  /**
+   * Maximum length of table names, in bytes of UTF-8.
+   *
+   * @since 1.1
+   */
+  public static final int MAXIMUM_NAME_LENGTH = 32;
+
+  private final @NotNull VersionedBlobTable storage;
+  private final @NotNull ConcurrentMap<String, LogicalBlobTable> tables =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Create a new instance.
+   *
+   * @param storage Table where the blobs of all the logical tables get stored. It should not be
+   *     used directly while managed by this instance.
+   * @param <T> Type of the storage, which supports conditional writes and change notifications.
+   * @since 1.1
+   */
+  public <T extends VersionedBlobTable & ObservableBlobTable> SharedBlobTable(
+      final @NotNull T storage) {
+    this.storage = storage;
+    storage.addListener(new BlobTableListener() {
+      @Override
+      public void onChanged(final @NotNull CodedKey codedKey) {
+        dispatch(codedKey);
+      }
+    });
+  }
+
+  /**
+   * Get the storage table holding the blobs of all the logical tables.
+   *
+   * @return The storage table.
+   * @since 1.1
+   */
+  @NotNull
+  public BlobTable getStorage() {
+    return storage;
+  }
+
+  /**
+   * Get a logical table, creating it if needed. Creating a table costs nothing in the storage.
+   *
+   * @param name Name of the table.
+   * @return The same instance for a given name.
+   * @throws IllegalArgumentException {@code name} is empty, or longer than {@link
+   *     #MAXIMUM_NAME_LENGTH} bytes in UTF-8.
+   * @since 1.1
+   */
+  @NotNull
+  public LogicalBlobTable getTable(final @NotNull String name) {
+    LogicalBlobTable table = tables.get(name);
+    if (table == null) {
+      final LogicalBlobTable created =
+          new LogicalBlobTable(name, storage, getPrefix(name));
+      table = tables.putIfAbsent(name, created);
+      if (table == null) {
+        table = created;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Remove all the blobs of a logical table, with a single prefix removal in the storage. The table
+   * can still be used afterwards, and is then empty.
+   *
+   * @param name Name of the table.
+   * @return Number of blobs removed.
+   * @throws IllegalArgumentException {@code name} is empty, or longer than {@link
+   *     #MAXIMUM_NAME_LENGTH} bytes in UTF-8.
+   * @throws IOException Removing the blobs failed.
+   * @since 1.1
+   */
+  public int dropTable(final @NotNull String name) throws IOException {
+    return BlobTables.removeAll(storage, getPrefix(name));
+  }
+
+  /**
+   * Route a change of the storage to the logical table it belongs to, if it was ever requested.
+   */
+  private void dispatch(final @NotNull CodedKey codedKey) {
+    final ByteBuffer bytes = codedKey.asReadOnlyBuffer();
+    if (!bytes.hasRemaining()) {
+      return;
+    }
+
+    final int length = bytes.get() & 0xff;
+    if (bytes.remaining() < length) {
+      return;
+    }
+
+    final byte[] name = new byte[length];
+    bytes.get(name);
+    final LogicalBlobTable table = tables.get(new String(name, UTF_8));
+    if (table != null) {
+      final byte[] key = new byte[bytes.remaining()];
+      bytes.get(key);
+      table.getListeners().notifyChanged(new CodedKey(key));
+    }
+  }
+
+  @NotNull
+  private static CodedKey getPrefix(final @NotNull String name) {
+    final byte[] bytes = name.getBytes(UTF_8);
+    if (bytes.length == 0 || bytes.length > MAXIMUM_NAME_LENGTH) {
+      throw new IllegalArgumentException("Table name must be 1 to "
+          + MAXIMUM_NAME_LENGTH + " bytes long in UTF-8");
+    }
+
+    final byte[] prefix = new byte[bytes.length + 1];
+    prefix[0] = (byte) bytes.length;
+    System.arraycopy(bytes, 0, prefix, 1, bytes.length);
+    return new CodedKey(prefix);
+  }
+}
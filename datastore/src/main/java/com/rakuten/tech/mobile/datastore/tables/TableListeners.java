@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Listeners of an {@link ObservableBlobTable}. Notifying nobody costs a volatile read.
+ */
+final class TableListeners {
+
+  private final @NotNull List<BlobTableListener> listeners = new CopyOnWriteArrayList<>();
+
+  void add(final @NotNull BlobTableListener listener) {
+    listeners.add(listener);
+  }
+
+  void remove(final @NotNull BlobTableListener listener) {
+    listeners.remove(listener);
+  }
+
+  boolean isEmpty() {
+    return listeners.isEmpty();
+  }
+
+  void notifyChanged(final @NotNull CodedKey codedKey) {
+    for (BlobTableListener listener : listeners) {
+      listener.onChanged(codedKey);
+    }
+  }
+
+  /**
+   * Notify all listeners but one, e.g. the one that found the change.
+   */
+  void notifyChanged(final @NotNull CodedKey codedKey, final @NotNull BlobTableListener except) {
+    for (BlobTableListener listener : listeners) {
+      if (listener != except) {
+        listener.onChanged(codedKey);
+      }
+    }
+  }
+}
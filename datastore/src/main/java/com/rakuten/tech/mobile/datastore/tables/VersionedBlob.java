@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A blob read from a {@link VersionedBlobTable}, with the version stamp it had when read.
+ *
+ * @since 1.1
+ */
+public final class VersionedBlob {
+
+  private final @NotNull ByteBuffer blob;
+  private final long version;
+
+  /**
+   * Create a new instance.
+   *
+   * @param blob Content of the blob.
+   * @param version Version stamp of the blob.
+   * @since 1.1
+   */
+  public VersionedBlob(final @NotNull ByteBuffer blob, final long version) {
+    this.blob = blob;
+    this.version = version;
+  }
+
+  /**
+   * Get the content of the blob.
+   *
+   * @return The blob.
+   * @since 1.1
+   */
+  @NotNull
+  public ByteBuffer getBlob() {
+    return blob;
+  }
+
+  /**
+   * Get the version stamp of the blob, to pass to {@link VersionedBlobTable#replace(
+   * com.rakuten.tech.mobile.datastore.keys.CodedKey, long, ByteBuffer)}.
+   *
+   * @return The version stamp.
+   * @since 1.1
+   */
+  public long getVersion() {
+    return version;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A blob table whose blobs carry version stamps, so that they can be updated optimistically: read
+ * a blob and its version, compute its new content, then write it only if the version didn't
+ * change in the meantime, or start over.
+ *
+ * <p>Version stamps are opaque. They change whenever a blob is written, except that some tables
+ * derive them from the content, in which case a blob written back with the same bytes keeps its
+ * version, which is harmless for compare-and-set. Conditional writes of different keys don't
+ * contend with each other.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public interface VersionedBlobTable extends BlobTable {
+
+  /**
+   * Try to read a blob from the table, along with its version stamp.
+   *
+   * @param codedKey The blob's coded key.
+   * @return Blob and version, or {@code null} if none was found that matches the codedKey.
+   * @throws IOException Looking up the blob failed.
+   * @since 1.1
+   */
+  @Nullable
+  VersionedBlob getVersioned(final @NotNull CodedKey codedKey) throws IOException;
+
+  /**
+   * Write a blob, only if there is none for its key yet.
+   *
+   * @param codedKey The blob's coded key.
+   * @param blob Blob.
+   * @return Whether the blob was written.
+   * @throws IOException Writing the blob failed.
+   * @since 1.1
+   */
+  boolean putIfAbsent(final @NotNull CodedKey codedKey, final @NotNull ByteBuffer blob)
+      throws IOException;
+
+  /**
+   * Replace a blob, only if it still has a given version stamp.
+   *
+   * @param codedKey The blob's coded key.
+   * @param expectedVersion Version stamp of the blob, as returned by {@link
+   *     #getVersioned(CodedKey)}.
+   * @param blob New blob, or {@code null} to delete the blob.
+   * @return Whether the blob was replaced, i.e. {@code false} if it was changed or deleted since
+   *     {@code expectedVersion} was read.
+   * @throws IOException Writing the blob failed.
+   * @since 1.1
+   */
+  boolean replace(
+      final @NotNull CodedKey codedKey,
+      final long expectedVersion,
+      final @Nullable ByteBuffer blob) throws IOException;
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import java.io.IOException;
+
+/**
+ * A blob table that opens lazily, and can do the work it would otherwise do on first use ahead of
+ * time, e.g. from a background thread at application startup.
+ *
+ * <p>Tables work before they are warmed up, or while they are: only the first operations may be
+ * slower, or take a slower path.
+ *
+ * @since 1.1 {@inheritDoc}
+ */
+public interface WarmableBlobTable extends BlobTable {
+
+  /**
+   * Load indexes, clean up leftovers of interrupted writes, or do any other work that would
+   * otherwise slow down the first operations. Calling this again is cheap.
+   *
+   * @throws IOException The table could not be warmed up. It still works, as if it wasn't.
+   * @since 1.1
+   */
+  void warmUp() throws IOException;
+}
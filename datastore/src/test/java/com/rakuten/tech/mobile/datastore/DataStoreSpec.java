@@ -17,11 +17,48 @@
 package com.rakuten.tech.mobile.datastore;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import com.rakuten.tech.mobile.datastore.compression.CompressionDictionaries;
+import com.rakuten.tech.mobile.datastore.compression.CompressionStage;
+import com.rakuten.tech.mobile.datastore.compression.DeflateCodec;
+import com.rakuten.tech.mobile.datastore.compression.DictionaryDeflateCodec;
+import com.rakuten.tech.mobile.datastore.crypto.AeadCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.CryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.EnvelopeCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.MigratingCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.NullCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.SimpleCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.StreamingAeadCryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.HierarchicalKeyCoder;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import com.rakuten.tech.mobile.datastore.metrics.HistogramMetricsListener;
+import com.rakuten.tech.mobile.datastore.metrics.Metrics;
+import com.rakuten.tech.mobile.datastore.metrics.MetricsSnapshot;
+import com.rakuten.tech.mobile.datastore.tables.BlobTable;
+import com.rakuten.tech.mobile.datastore.tables.MemoryBlobTable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.security.Security;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -29,4 +66,952 @@ import org.junit.jupiter.api.Test;
 @DisplayName("Using DataStore")
 public class DataStoreSpec {
 
+  // Register BouncyCastle provider
+  static {
+    Security.insertProviderAt(new BouncyCastleProvider(), 1);
+  }
+
+  private static final String KEY = "foo";
+
+  private static ByteBuffer compressible() {
+    final byte[] bytes = new byte[4096];
+    Arrays.fill(bytes, (byte) 'a');
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static ByteBuffer incompressible() {
+    final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    new SecureRandom().nextBytes(buffer.array());
+    return buffer;
+  }
+
+  /**
+   * A memory table hidden behind the bare {@link BlobTable} interface, without any of the optional
+   * capabilities of the built-in tables.
+   */
+  private static BlobTable plainTable() {
+    final BlobTable delegate = new MemoryBlobTable();
+    return (BlobTable) Proxy.newProxyInstance(
+        BlobTable.class.getClassLoader(),
+        new Class<?>[] {BlobTable.class},
+        (proxy, method, args) -> {
+          try {
+            return method.invoke(delegate, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  @Nested
+  @DisplayName("With a compression stage")
+  class WithCompression {
+
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() {
+      store = new DataStore(
+          new MemoryBlobTable(),
+          new NullCryptoOperations(),
+          new Utf8KeyCoder(),
+          new CompressionStage(new DeflateCodec()));
+    }
+
+    @Test
+    @DisplayName("Compressible blobs are stored compressed")
+    void storesCompressed() throws Exception {
+      store.put(KEY, compressible());
+      final ByteBuffer stored = store.getBlobTable().get(store.getKeyCoder().encode(KEY));
+      assertThat(stored.remaining()).isLessThan(compressible().remaining());
+    }
+
+    @Test
+    @DisplayName("Compressible blobs can be retrieved")
+    void getCompressed() throws Exception {
+      store.put(KEY, compressible());
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+    }
+
+    @Test
+    @DisplayName("Incompressible blobs can be retrieved")
+    void getIncompressible() throws Exception {
+      final ByteBuffer original = incompressible();
+      store.put(KEY, original);
+      assertThat(store.get(KEY)).isEqualTo(original);
+    }
+  }
+
+  @Nested
+  @DisplayName("With a compression dictionary")
+  class WithDictionary {
+
+    private MemoryBlobTable table;
+    private DataStore store;
+
+    private DataStore createStore() {
+      return new DataStore(
+          table,
+          new NullCryptoOperations(),
+          new Utf8KeyCoder(),
+          new CompressionStage(
+              new DictionaryDeflateCodec(new CompressionDictionaries()),
+              new DeflateCodec()));
+    }
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+      table = new MemoryBlobTable();
+      store = createStore();
+
+      final Random random = new Random(42);
+      for (int i = 0; i < 100; i++) {
+        final String json = "{\"userId\":" + random.nextInt(100000)
+            + ",\"displayName\":\"user" + random.nextInt(1000)
+            + "\",\"preferences\":{\"language\":\"en-US\"}}";
+        store.put("key" + i, ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+
+    @Test
+    @DisplayName("A dictionary can be trained")
+    void train() throws Exception {
+      assertThat(store.trainCompressionDictionary(50)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Compacting rewrites older blobs")
+    void compact() throws Exception {
+      store.trainCompressionDictionary(50);
+      assertThat(store.compact()).isEqualTo(100);
+      assertThat(store.compact()).isZero();
+    }
+
+    @Test
+    @DisplayName("Blobs can be read by another instance")
+    void readBack() throws Exception {
+      final ByteBuffer expected = store.get("key1");
+      store.trainCompressionDictionary(50);
+      store.compact();
+      assertThat(createStore().get("key1")).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Clearing keeps the dictionaries of other instances")
+    void clearKeepsDictionaries() throws Exception {
+      final DataStore other = createStore();
+      other.trainCompressionDictionary(50);
+      store.clear();
+      assertThat(table.iterator())
+          .containsOnly(new Utf8KeyCoder().encode(DataStore.DICTIONARIES_KEY));
+
+      assertThat(other.get("key1")).isNull();
+      final ByteBuffer json = ByteBuffer.wrap(
+          "{\"userId\":1,\"displayName\":\"user1\",\"preferences\":{\"language\":\"en-US\"}}"
+              .getBytes(StandardCharsets.UTF_8));
+      other.put("key1", json.duplicate());
+      assertThat(createStore().get("key1")).isEqualTo(json);
+    }
+  }
+
+  @Nested
+  @DisplayName("With metadata headers")
+  class WithMetadataHeaders {
+
+    private MemoryBlobTable table;
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() {
+      final byte[] keyBytes = new byte[32];
+      table = new MemoryBlobTable();
+      store = new DataStore(
+          table,
+          new SimpleCryptoOperations(
+              new SecretKeySpec(keyBytes, "AES"),
+              new SecretKeySpec(keyBytes, "HmacSHA256")),
+          new Utf8KeyCoder(),
+          new CompressionStage(new DeflateCodec()),
+          true);
+    }
+
+    @Test
+    @DisplayName("Blobs can be retrieved")
+    void get() throws Exception {
+      store.put(KEY, compressible());
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+    }
+
+    @Test
+    @DisplayName("Metadata can be read")
+    void stat() throws Exception {
+      final long before = System.currentTimeMillis();
+      store.put(KEY, compressible());
+
+      final BlobMetadata metadata = store.stat(KEY);
+      assertThat(metadata.getSize()).isEqualTo(compressible().remaining());
+      assertThat(metadata.getTimestamp()).isBetween(before, System.currentTimeMillis());
+      assertThat(metadata.getFormatVersion()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Metadata of missing blobs is null")
+    void statMissing() throws Exception {
+      assertThat(store.stat(KEY)).isNull();
+    }
+
+    @Test
+    @DisplayName("Altered headers are rejected")
+    void altered() throws Exception {
+      store.put(KEY, compressible());
+      final CodedKey codedKey = store.getKeyCoder().encode(KEY);
+      final ByteBuffer record = table.get(codedKey);
+      record.putInt(4, 1);
+      table.put(codedKey, record);
+
+      assertThatThrownBy(() -> store.stat(KEY))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+      assertThatThrownBy(() -> store.get(KEY))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+    }
+
+    @Test
+    @DisplayName("Altered headers are rejected with AEAD crypto operations")
+    void alteredAead() throws Exception {
+      final DataStore aead = new DataStore(
+          table,
+          new AeadCryptoOperations(new SecretKeySpec(new byte[32], "AES")),
+          new Utf8KeyCoder(),
+          null,
+          true);
+      aead.put(KEY, compressible());
+      final CodedKey codedKey = aead.getKeyCoder().encode(KEY);
+      final ByteBuffer record = table.get(codedKey);
+      record.putInt(4, 1);
+      table.put(codedKey, record);
+
+      assertThatThrownBy(() -> aead.stat(KEY))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+    }
+
+    @Test
+    @DisplayName("Altered headers are rejected with streaming AEAD crypto operations")
+    void alteredStreaming() throws Exception {
+      final DataStore streaming = new DataStore(
+          table,
+          new StreamingAeadCryptoOperations(new SecretKeySpec(new byte[32], "AES")),
+          new Utf8KeyCoder(),
+          null,
+          true);
+      streaming.put(KEY, compressible());
+      assertThat(streaming.stat(KEY).getSize()).isEqualTo(compressible().remaining());
+
+      final CodedKey codedKey = streaming.getKeyCoder().encode(KEY);
+      final ByteBuffer record = table.get(codedKey);
+      record.putInt(4, 1);
+      table.put(codedKey, record);
+
+      assertThatThrownBy(() -> streaming.stat(KEY))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+    }
+
+    @Test
+    @DisplayName("Altered headers are rejected when migrating from unsigned records")
+    void alteredMigrating() throws Exception {
+      final DataStore migrating = new DataStore(
+          table,
+          MigratingCryptoOperations.of(
+              new AeadCryptoOperations(new SecretKeySpec(new byte[32], "AES")),
+              new NullCryptoOperations()),
+          new Utf8KeyCoder(),
+          null,
+          true);
+      migrating.put(KEY, compressible());
+      final CodedKey codedKey = migrating.getKeyCoder().encode(KEY);
+      final ByteBuffer record = table.get(codedKey);
+      record.putInt(4, 1);
+      table.put(codedKey, record);
+
+      assertThatThrownBy(() -> migrating.stat(KEY))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+    }
+
+    @Test
+    @DisplayName("Records moved to another key are rejected")
+    void moved() throws Exception {
+      store.put(KEY, compressible());
+      final ByteBuffer record = table.get(store.getKeyCoder().encode(KEY));
+      table.put(store.getKeyCoder().encode("bar"), record);
+
+      assertThatThrownBy(() -> store.stat("bar"))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+    }
+
+    @Test
+    @DisplayName("Blobs round-trip through views")
+    void views() throws Exception {
+      final DataStore viewing = new DataStore(
+          table, new NullCryptoOperations(true), new Utf8KeyCoder(), null, true);
+      viewing.put(KEY, compressible());
+      assertThat(viewing.get(KEY)).isEqualTo(compressible());
+      assertThat(viewing.stat(KEY).getSize()).isEqualTo(compressible().remaining());
+    }
+
+    @Test
+    @DisplayName("Metadata can be read from tables that can't peek")
+    void statPlain() throws Exception {
+      final DataStore plain = new DataStore(
+          plainTable(), new NullCryptoOperations(), new Utf8KeyCoder(), null, true);
+      plain.put(KEY, compressible());
+      assertThat(plain.stat(KEY).getSize()).isEqualTo(compressible().remaining());
+    }
+
+    @Test
+    @DisplayName("Reading metadata requires headers")
+    void disabled() {
+      final DataStore plain = new DataStore(
+          table, new NullCryptoOperations(), new Utf8KeyCoder());
+      assertThatThrownBy(() -> plain.stat(KEY)).isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Nested
+  @DisplayName("With a hierarchical key coder")
+  class WithNamespaces {
+
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+      store = new DataStore(
+          new MemoryBlobTable(), new NullCryptoOperations(), new HierarchicalKeyCoder());
+      for (String key : new String[] {"user/1", "user/1/name", "user/1/avatar", "user/2/name"}) {
+        store.put(key, compressible());
+      }
+    }
+
+    @Test
+    @DisplayName("Removing a namespace only removes its blobs")
+    void removeAll() throws Exception {
+      assertThat(store.removeAll("user/1")).isEqualTo(2);
+      assertThat(store.get("user/1/name")).isNull();
+      assertThat(store.get("user/1/avatar")).isNull();
+      assertThat(store.get("user/1")).isNotNull();
+      assertThat(store.get("user/2/name")).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Namespaces can be removed from tables that can't scan prefixes")
+    void removeAllPlain() throws Exception {
+      final DataStore plain = new DataStore(
+          plainTable(), new NullCryptoOperations(), new HierarchicalKeyCoder());
+      plain.put("user/1/name", compressible());
+      plain.put("user/2/name", compressible());
+      assertThat(plain.removeAll("user/1")).isEqualTo(1);
+      assertThat(plain.get("user/1/name")).isNull();
+      assertThat(plain.get("user/2/name")).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Removing the empty namespace is rejected")
+    void empty() {
+      assertThatThrownBy(() -> store.removeAll(""))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Removing a namespace requires a prefix key coder")
+    void unsupported() {
+      final DataStore plain = new DataStore(
+          new MemoryBlobTable(), new NullCryptoOperations(), new Utf8KeyCoder());
+      assertThatThrownBy(() -> plain.removeAll("user"))
+          .isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Nested
+  @DisplayName("With envelope encryption")
+  class WithEnvelopeEncryption {
+
+    private MemoryBlobTable table;
+    private EnvelopeCryptoOperations envelope;
+    private DataStore store;
+
+    private AeadCryptoOperations keyEncryption(final int seed) {
+      final byte[] bytes = new byte[16];
+      bytes[0] = (byte) seed;
+      return new AeadCryptoOperations(new SecretKeySpec(bytes, "AES"));
+    }
+
+    private DataStore createStore(final EnvelopeCryptoOperations cryptoOperations) {
+      return new DataStore(
+          table,
+          cryptoOperations,
+          new Utf8KeyCoder(),
+          new CompressionStage(
+              new DictionaryDeflateCodec(new CompressionDictionaries()),
+              new DeflateCodec()),
+          true);
+    }
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+      table = new MemoryBlobTable();
+      envelope = new EnvelopeCryptoOperations("first", keyEncryption(1));
+      store = createStore(envelope);
+
+      final Random random = new Random(42);
+      for (int i = 0; i < 20; i++) {
+        final String json = "{\"userId\":" + random.nextInt(100000)
+            + ",\"preferences\":{\"language\":\"en-US\"}}";
+        store.put("key" + i, ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+      }
+      store.trainCompressionDictionary(20);
+    }
+
+    @Test
+    @DisplayName("Rewrapping moves all blobs to the new key")
+    void rewrap() throws Exception {
+      final ByteBuffer expected = store.get("key1");
+      final long timestamp = store.stat("key1").getTimestamp();
+      envelope.rotate("second", keyEncryption(2));
+      store.put("new", compressible());
+
+      // 20 blobs and the dictionaries
+      assertThat(store.rewrapKeys(0)).isEqualTo(21);
+      assertThat(store.rewrapKeys(0)).isZero();
+
+      final DataStore other = createStore(
+          new EnvelopeCryptoOperations("second", keyEncryption(2)));
+      assertThat(other.get("key1")).isEqualTo(expected);
+      assertThat(other.get("new")).isEqualTo(compressible());
+      assertThat(other.stat("key1").getTimestamp()).isEqualTo(timestamp);
+    }
+
+    @Test
+    @DisplayName("Headers remain authenticated across rotations")
+    void headers() throws Exception {
+      final long timestamp = store.stat("key1").getTimestamp();
+      envelope.rotate("second", keyEncryption(2));
+      assertThat(store.stat("key1").getTimestamp()).isEqualTo(timestamp);
+
+      final CodedKey codedKey = store.getKeyCoder().encode("key1");
+      final ByteBuffer record = table.get(codedKey);
+      record.putLong(8, timestamp + 1);
+      table.put(codedKey, record);
+      assertThatThrownBy(() -> store.stat("key1"))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+    }
+
+    @Test
+    @DisplayName("Rewrapping stops when interrupted")
+    void interrupted() throws Exception {
+      envelope.rotate("second", keyEncryption(2));
+      Thread.currentThread().interrupt();
+      try {
+        assertThat(store.rewrapKeys(0)).isEqualTo(1);
+      } finally {
+        assertThat(Thread.interrupted()).isTrue();
+      }
+    }
+
+    @Test
+    @DisplayName("Rewrapping requires envelope encryption")
+    void unsupported() {
+      final DataStore plain = new DataStore(
+          table, new NullCryptoOperations(), new Utf8KeyCoder());
+      assertThatThrownBy(() -> plain.rewrapKeys(0)).isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Nested
+  @DisplayName("With concurrent reads")
+  class WithConcurrentReads {
+
+    private static final int READERS = 8;
+
+    private AtomicInteger reads;
+    private CountDownLatch release;
+    private MemoryBlobTable table;
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+      reads = new AtomicInteger();
+      release = new CountDownLatch(1);
+      table = new MemoryBlobTable() {
+        @Override
+        public ByteBuffer get(final CodedKey codedKey) throws IOException {
+          reads.incrementAndGet();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          return super.get(codedKey);
+        }
+      };
+      store = new DataStore(table, new NullCryptoOperations(), new Utf8KeyCoder());
+      store.put(KEY, compressible());
+    }
+
+    @Test
+    @DisplayName("Reads of the same blob are coalesced")
+    void coalesced() throws Exception {
+      final ExecutorService executor = Executors.newFixedThreadPool(READERS);
+      try {
+        final List<Future<ByteBuffer>> results = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+          results.add(executor.submit(() -> store.get(KEY)));
+        }
+
+        while (store.getCoalescedReadCount() < READERS - 1) {
+          Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<ByteBuffer> result : results) {
+          final ByteBuffer blob = result.get();
+          assertThat(blob).isEqualTo(compressible());
+          // Each reader owns its blob
+          blob.put(0, (byte) 0);
+          blob.position(blob.limit());
+        }
+        assertThat(reads.get()).isEqualTo(1);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    @Test
+    @DisplayName("Read-only blobs are shared instead of copied")
+    void shared() throws Exception {
+      final ByteBuffer stored = incompressible();
+      store = new DataStore(table, new NullCryptoOperations(true), new Utf8KeyCoder());
+      store.put(KEY, stored.duplicate());
+
+      final ExecutorService executor = Executors.newFixedThreadPool(READERS);
+      try {
+        final List<Future<ByteBuffer>> results = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+          results.add(executor.submit(() -> store.get(KEY)));
+        }
+
+        while (store.getCoalescedReadCount() < READERS - 1) {
+          Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<ByteBuffer> result : results) {
+          final ByteBuffer blob = result.get();
+          assertThat(blob.isReadOnly()).isTrue();
+          assertThat(blob).isEqualTo(stored);
+          // Each reader still has its own position
+          blob.position(blob.limit());
+        }
+        assertThat(reads.get()).isEqualTo(1);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    @Test
+    @DisplayName("Reads after a write see the new blob")
+    void afterWrite() throws Exception {
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        final Future<ByteBuffer> before = executor.submit(() -> store.get(KEY));
+        while (reads.get() == 0) {
+          Thread.sleep(1);
+        }
+
+        store.put(KEY, incompressible());
+        release.countDown();
+        final ByteBuffer after = store.get(KEY);
+        assertThat(after).isEqualTo(store.get(KEY));
+        assertThat(after).isNotEqualTo(compressible());
+        assertThat(before.get()).isNotNull();
+        assertThat(store.getCoalescedReadCount()).isZero();
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Nested
+  @DisplayName("With a plaintext cache")
+  class WithPlaintextCache {
+
+    private AtomicInteger decryptions;
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() {
+      decryptions = new AtomicInteger();
+      final CryptoOperations counting = new CryptoOperations() {
+        private final NullCryptoOperations delegate = new NullCryptoOperations();
+
+        @Override
+        public ByteBuffer encrypt(final ByteBuffer message) throws GeneralSecurityException {
+          return delegate.encrypt(message);
+        }
+
+        @Override
+        public ByteBuffer decrypt(final ByteBuffer message) throws GeneralSecurityException {
+          decryptions.incrementAndGet();
+          return delegate.decrypt(message);
+        }
+      };
+      store = new DataStore(new MemoryBlobTable(), counting, new Utf8KeyCoder());
+      store.setPlaintextCacheSize(10000);
+    }
+
+    @Test
+    @DisplayName("Cached blobs are not decrypted again")
+    void cached() throws Exception {
+      store.put(KEY, compressible());
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+      assertThat(decryptions.get()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Cached blobs are copies")
+    void copies() throws Exception {
+      store.put(KEY, compressible());
+      store.get(KEY).put(0, (byte) 'b');
+      store.get(KEY).put(0, (byte) 'b');
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+    }
+
+    @Test
+    @DisplayName("Writes invalidate cached blobs")
+    void invalidated() throws Exception {
+      store.put(KEY, compressible());
+      store.get(KEY);
+      final ByteBuffer blob = incompressible();
+      store.put(KEY, blob);
+      assertThat(store.get(KEY)).isEqualTo(blob);
+
+      store.remove(KEY);
+      assertThat(store.get(KEY)).isNull();
+    }
+
+    @Test
+    @DisplayName("Clearing the store empties the cache")
+    void cleared() throws Exception {
+      store.put(KEY, compressible());
+      store.get(KEY);
+      store.clear();
+      assertThat(store.get(KEY)).isNull();
+    }
+
+    @Test
+    @DisplayName("Blobs larger than the cache are not cached")
+    void tooLarge() throws Exception {
+      store.setPlaintextCacheSize(100);
+      store.put(KEY, compressible());
+      store.get(KEY);
+      store.get(KEY);
+      assertThat(decryptions.get()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("The cache can be disabled")
+    void disabled() throws Exception {
+      store.put(KEY, compressible());
+      store.get(KEY);
+      store.setPlaintextCacheSize(0);
+      store.get(KEY);
+      assertThat(decryptions.get()).isEqualTo(2);
+    }
+  }
+
+  @Nested
+  @DisplayName("With a metrics listener")
+  class WithMetrics {
+
+    private HistogramMetricsListener metrics;
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() {
+      metrics = new HistogramMetricsListener();
+      store = new DataStore(
+          new MemoryBlobTable(),
+          new NullCryptoOperations(),
+          new Utf8KeyCoder(),
+          new CompressionStage(new DeflateCodec()),
+          true);
+      store.setMetricsListener(metrics);
+    }
+
+    @Test
+    @DisplayName("Operations and their stages are timed")
+    void timed() throws Exception {
+      store.put(KEY, compressible());
+      store.get(KEY);
+      store.get("missing");
+      store.stat(KEY);
+      store.remove(KEY);
+
+      final MetricsSnapshot snapshot = metrics.snapshot();
+      assertThat(snapshot.getLatency(Metrics.PUT).getCount()).isEqualTo(1);
+      assertThat(snapshot.getLatency(Metrics.GET).getCount()).isEqualTo(2);
+      assertThat(snapshot.getLatency(Metrics.STAT).getCount()).isEqualTo(1);
+      assertThat(snapshot.getLatency(Metrics.REMOVE).getCount()).isEqualTo(1);
+
+      for (final int stage : new int[] {
+          Metrics.KEY_CODING, Metrics.COMPRESSION, Metrics.CRYPTO, Metrics.TABLE_WRITE}) {
+        assertThat(snapshot.getStageLatency(Metrics.PUT, stage).getCount()).isEqualTo(1);
+      }
+      assertThat(snapshot.getStageLatency(Metrics.GET, Metrics.TABLE_READ).getCount())
+          .isEqualTo(2);
+      assertThat(snapshot.getStageLatency(Metrics.GET, Metrics.CRYPTO).getCount()).isEqualTo(1);
+      assertThat(snapshot.getStageLatency(Metrics.GET, Metrics.TABLE_WRITE).getCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Bytes in and out are counted")
+    void bytes() throws Exception {
+      store.put(KEY, compressible());
+      store.get(KEY);
+
+      final MetricsSnapshot snapshot = metrics.snapshot();
+      final CodedKey codedKey = new Utf8KeyCoder().encode(KEY);
+      final long recordLength = store.getBlobTable().get(codedKey).remaining();
+      assertThat(snapshot.getBytesIn(Metrics.PUT)).isEqualTo(4096);
+      assertThat(snapshot.getBytesOut(Metrics.PUT)).isEqualTo(recordLength);
+      assertThat(snapshot.getBytesIn(Metrics.GET)).isEqualTo(recordLength);
+      assertThat(snapshot.getBytesOut(Metrics.GET)).isEqualTo(4096);
+    }
+
+    @Test
+    @DisplayName("Failed operations are counted")
+    void failures() throws Exception {
+      final CodedKey codedKey = new Utf8KeyCoder().encode(KEY);
+      store.getBlobTable().put(codedKey, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+      assertThatThrownBy(() -> store.get(KEY))
+          .isInstanceOf(FailedDatastoreOperationException.class);
+      store.put(KEY, compressible());
+
+      final MetricsSnapshot snapshot = metrics.snapshot();
+      assertThat(snapshot.getErrorCount(Metrics.GET)).isEqualTo(1);
+      assertThat(snapshot.getLatency(Metrics.GET).getCount()).isEqualTo(1);
+      assertThat(snapshot.getErrorCount(Metrics.PUT)).isZero();
+    }
+
+    @Test
+    @DisplayName("Bulk operations are timed")
+    void bulk() throws Exception {
+      store.put(KEY, compressible());
+      store.compact();
+      store.clear();
+
+      final MetricsSnapshot snapshot = metrics.snapshot();
+      assertThat(snapshot.getLatency(Metrics.COMPACT).getCount()).isEqualTo(1);
+      assertThat(snapshot.getLatency(Metrics.CLEAR).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Removing the listener stops reporting")
+    void removed() throws Exception {
+      store.setMetricsListener(null);
+      store.put(KEY, compressible());
+      assertThat(metrics.snapshot().getLatency(Metrics.PUT).getCount()).isZero();
+    }
+  }
+
+  @Nested
+  @DisplayName("With atomic updates")
+  class WithAtomicUpdates {
+
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() {
+      store = new DataStore(
+          new MemoryBlobTable(),
+          new NullCryptoOperations(),
+          new Utf8KeyCoder(),
+          new CompressionStage(new DeflateCodec()),
+          true);
+    }
+
+    @Test
+    @DisplayName("Putting if absent only writes missing blobs")
+    void putIfAbsent() throws Exception {
+      assertThat(store.putIfAbsent(KEY, compressible())).isTrue();
+      assertThat(store.putIfAbsent(KEY, incompressible())).isFalse();
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+    }
+
+    @Test
+    @DisplayName("Replacing compares decoded blobs")
+    void replace() throws Exception {
+      store.put(KEY, compressible());
+      assertThat(store.replace(KEY, incompressible(), null)).isFalse();
+      final ByteBuffer updated = (ByteBuffer) incompressible().limit(16);
+      assertThat(store.replace(KEY, compressible(), updated)).isTrue();
+      assertThat(store.get(KEY).remaining()).isEqualTo(16);
+      assertThat(store.replace("missing", compressible(), compressible())).isFalse();
+    }
+
+    @Test
+    @DisplayName("Computing null removes the blob")
+    void computeRemove() throws Exception {
+      store.put(KEY, compressible());
+      assertThat(store.compute(KEY, blob -> null)).isNull();
+      assertThat(store.get(KEY)).isNull();
+    }
+
+    @Test
+    @DisplayName("Concurrent computations are not lost")
+    void compute() throws Exception {
+      final int threads = 8;
+      final int increments = 100;
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+          futures.add(executor.submit(() -> {
+            for (int count = 0; count < increments; count++) {
+              store.compute(KEY, blob -> {
+                final int value = blob == null ? 0 : blob.getInt(0);
+                return (ByteBuffer) ByteBuffer.allocate(4).putInt(0, value + 1);
+              });
+            }
+            return null;
+          }));
+        }
+        for (final Future<?> future : futures) {
+          future.get();
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      assertThat(store.get(KEY).getInt(0)).isEqualTo(threads * increments);
+    }
+
+    @Test
+    @DisplayName("Atomic updates require version stamps")
+    void unsupported() {
+      final DataStore unversioned =
+          new DataStore(plainTable(), new NullCryptoOperations(), new Utf8KeyCoder());
+      assertThatThrownBy(() -> unversioned.putIfAbsent(KEY, compressible()))
+          .isInstanceOf(IllegalStateException.class);
+      assertThatThrownBy(() -> unversioned.compute(KEY, blob -> blob))
+          .isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Nested
+  @DisplayName("With change notifications")
+  class WithChangeNotifications {
+
+    private MemoryBlobTable table;
+    private List<String> changes;
+    private ChangeListener listener;
+    private DataStore store;
+
+    @BeforeEach
+    void beforeEach() {
+      table = new MemoryBlobTable();
+      changes = new ArrayList<>();
+      listener = changes::add;
+      store = new DataStore(table, new NullCryptoOperations(), new HierarchicalKeyCoder());
+    }
+
+    @Test
+    @DisplayName("Changes of a watched blob are reported")
+    void watch() throws Exception {
+      store.watch(KEY, listener);
+      store.put(KEY, compressible());
+      store.put("bar", compressible());
+      store.remove(KEY);
+      assertThat(changes).containsExactly(KEY, KEY);
+    }
+
+    @Test
+    @DisplayName("Changes within a watched namespace are reported")
+    void watchNamespace() throws Exception {
+      store.watchNamespace("user/1", listener);
+      store.put("user/1/name", compressible());
+      store.put("user/2/name", compressible());
+      store.removeAll("user/1");
+      assertThat(changes).containsExactly("user/1", "user/1");
+    }
+
+    @Test
+    @DisplayName("Changes from other instances are reported")
+    void otherInstance() throws Exception {
+      store.watch(KEY, listener);
+      new DataStore(table, new NullCryptoOperations(), new HierarchicalKeyCoder())
+          .put(KEY, compressible());
+      assertThat(changes).containsExactly(KEY);
+    }
+
+    @Test
+    @DisplayName("Unwatched listeners are not notified anymore")
+    void unwatch() throws Exception {
+      store.watch(KEY, listener);
+      store.unwatch(listener);
+      store.put(KEY, compressible());
+      assertThat(changes).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Changes from other instances invalidate the plaintext cache")
+    void invalidated() throws Exception {
+      store.setPlaintextCacheSize(1 << 20);
+      store.put(KEY, compressible());
+      store.get(KEY);
+
+      new DataStore(table, new NullCryptoOperations(), new HierarchicalKeyCoder())
+          .put(KEY, incompressible());
+      assertThat(store.get(KEY)).isNotEqualTo(compressible());
+    }
+
+    @Test
+    @DisplayName("Watching requires an observable blob table")
+    void unsupported() throws Exception {
+      final DataStore unobservable =
+          new DataStore(plainTable(), new NullCryptoOperations(), new Utf8KeyCoder());
+      assertThatThrownBy(() -> unobservable.watch(KEY, listener))
+          .isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Nested
+  @DisplayName("With warm-up")
+  class WithWarmUp {
+
+    private final List<String> steps = new ArrayList<>();
+
+    @Test
+    @DisplayName("Every step is reported")
+    void progress() throws Exception {
+      final DataStore store = new DataStore(
+          plainTable(),
+          new NullCryptoOperations(),
+          new Utf8KeyCoder(),
+          new CompressionStage(new DictionaryDeflateCodec(new CompressionDictionaries())));
+      store.warmUp((step, completed, total) -> {
+        assertThat(total).isEqualTo(4);
+        steps.add(completed + ":" + step);
+      });
+      assertThat(steps).containsExactly("1:keyCoder", "2:crypto", "3:dictionaries", "4:table");
+    }
+
+    @Test
+    @DisplayName("The store works as usual afterwards")
+    void usable() throws Exception {
+      final DataStore store =
+          new DataStore(new MemoryBlobTable(), new NullCryptoOperations(), new Utf8KeyCoder());
+      store.warmUp(null);
+      store.put(KEY, compressible());
+      assertThat(store.get(KEY)).isEqualTo(compressible());
+    }
+  }
 }
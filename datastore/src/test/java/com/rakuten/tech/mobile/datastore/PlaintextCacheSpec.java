@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using PlaintextCache")
+class PlaintextCacheSpec {
+
+  private static final CodedKey FOO = new CodedKey(new byte[] {'f', 'o', 'o'});
+  private static final CodedKey BAR = new CodedKey(new byte[] {'b', 'a', 'r'});
+  private static final CodedKey BAZ = new CodedKey(new byte[] {'b', 'a', 'z'});
+
+  private PlaintextCache subject;
+
+  @BeforeEach
+  void beforeEach() {
+    subject = new PlaintextCache(100);
+  }
+
+  @Test
+  @DisplayName("Least recently used blobs are evicted past the budget")
+  void evicts() {
+    load(FOO, ByteBuffer.allocate(40));
+    load(BAR, ByteBuffer.allocate(40));
+    subject.get(FOO);
+    load(BAZ, ByteBuffer.allocate(40));
+
+    assertThat(subject.get(FOO)).isNotNull();
+    assertThat(subject.get(BAR)).isNull();
+    assertThat(subject.get(BAZ)).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Replacing a blob frees its share of the budget")
+  void replaces() {
+    for (int i = 0; i < 10; i++) {
+      load(FOO, ByteBuffer.allocate(40));
+    }
+    load(BAR, ByteBuffer.allocate(40));
+
+    assertThat(subject.get(FOO)).isNotNull();
+    assertThat(subject.get(BAR)).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Blobs loaded before an invalidation are not cached")
+  void stale() {
+    final long started = subject.startLoad(FOO);
+    subject.invalidate(FOO);
+    subject.finishLoad(FOO, ByteBuffer.allocate(40), started);
+
+    assertThat(subject.get(FOO)).isNull();
+  }
+
+  @Test
+  @DisplayName("Blobs loaded before the whole cache got invalidated are not cached")
+  void staleAll() {
+    final long started = subject.startLoad(FOO);
+    subject.invalidateAll();
+    subject.finishLoad(FOO, ByteBuffer.allocate(40), started);
+
+    assertThat(subject.get(FOO)).isNull();
+  }
+
+  @Test
+  @DisplayName("Invalidating other keys doesn't prevent caching")
+  void otherKeys() {
+    final long started = subject.startLoad(FOO);
+    subject.invalidate(BAR);
+    subject.finishLoad(FOO, ByteBuffer.allocate(40), started);
+
+    assertThat(subject.get(FOO)).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Loads starting after an invalidation are cached")
+  void laterLoads() {
+    final long first = subject.startLoad(FOO);
+    subject.invalidate(FOO);
+    final long second = subject.startLoad(FOO);
+    subject.finishLoad(FOO, ByteBuffer.allocate(40), first);
+    assertThat(subject.get(FOO)).isNull();
+
+    subject.finishLoad(FOO, ByteBuffer.allocate(40), second);
+    assertThat(subject.get(FOO)).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Blobs are handed out as copies")
+  void copies() {
+    final ByteBuffer blob = ByteBuffer.wrap(new byte[] {1, 2, 3});
+    load(FOO, blob);
+    blob.put(0, (byte) 0);
+    subject.get(FOO).put(1, (byte) 0);
+
+    assertThat(subject.get(FOO)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+  }
+
+  private void load(final CodedKey codedKey, final ByteBuffer blob) {
+    subject.finishLoad(codedKey, blob, subject.startLoad(codedKey));
+  }
+}
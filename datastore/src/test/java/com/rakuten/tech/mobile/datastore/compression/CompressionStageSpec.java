@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using CompressionStage")
+class CompressionStageSpec {
+
+  private static final CompressionStage SUBJECT = new CompressionStage(new DeflateCodec());
+
+  private static ByteBuffer compressible() {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      builder.append("{\"id\":").append(i).append(",\"name\":\"foo\"},");
+    }
+    return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static ByteBuffer incompressible() {
+    final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    new SecureRandom().nextBytes(buffer.array());
+    return buffer;
+  }
+
+  @Nested
+  @DisplayName("When encoding a blob")
+  class WhenEncoding {
+
+    @Test
+    @DisplayName("It compresses compressible data")
+    void compresses() throws IOException {
+      final ByteBuffer record = SUBJECT.encode(compressible());
+      assertThat(record.get(0)).isEqualTo((byte) DeflateCodec.ID);
+      assertThat(record.remaining()).isLessThan(compressible().remaining());
+    }
+
+    @Test
+    @DisplayName("It stores high-entropy data as-is")
+    void storesIncompressible() throws IOException {
+      final ByteBuffer record = SUBJECT.encode(incompressible());
+      assertThat(record.get(0)).isEqualTo((byte) 0);
+      assertThat(record.remaining()).isEqualTo(4096 + CompressionStage.HEADER_LENGTH);
+    }
+
+    @Test
+    @DisplayName("It stores small blobs as-is")
+    void storesSmall() throws IOException {
+      final ByteBuffer record = SUBJECT.encode(ByteBuffer.allocate(10));
+      assertThat(record.get(0)).isEqualTo((byte) 0);
+    }
+  }
+
+  @Nested
+  @DisplayName("When decoding a record")
+  class WhenDecoding {
+
+    @Test
+    @DisplayName("It restores compressed blobs")
+    void restoresCompressed() throws IOException {
+      assertThat(SUBJECT.decode(SUBJECT.encode(compressible()))).isEqualTo(compressible());
+    }
+
+    @Test
+    @DisplayName("It restores uncompressed blobs")
+    void restoresStored() throws IOException {
+      final ByteBuffer original = incompressible();
+      assertThat(SUBJECT.decode(SUBJECT.encode(original))).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("It restores empty blobs")
+    void restoresEmpty() throws IOException {
+      assertThat(SUBJECT.decode(SUBJECT.encode(ByteBuffer.allocate(0))).remaining()).isZero();
+    }
+
+    @Test
+    @DisplayName("It throws if the codec is unknown")
+    void throwsIfUnknownCodec() throws IOException {
+      final ByteBuffer record = SUBJECT.encode(compressible());
+      record.put(0, (byte) 42);
+      assertThrows(IOException.class, () -> SUBJECT.decode(record));
+    }
+
+    @Test
+    @DisplayName("It throws if the record is too short")
+    void throwsIfTooShort() {
+      assertThrows(IOException.class, () -> SUBJECT.decode(ByteBuffer.allocate(2)));
+    }
+  }
+}
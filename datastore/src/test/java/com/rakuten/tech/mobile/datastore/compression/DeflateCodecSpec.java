@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using DeflateCodec")
+class DeflateCodecSpec {
+
+  private static final DeflateCodec SUBJECT = new DeflateCodec();
+
+  private static ByteBuffer compressible() {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      builder.append("{\"id\":").append(i).append(",\"name\":\"foo\"},");
+    }
+    return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Nested
+  @DisplayName("When compressing a buffer")
+  class WhenCompressing {
+
+    @Test
+    @DisplayName("It makes compressible data smaller")
+    void compresses() throws IOException {
+      final ByteBuffer original = compressible();
+      assertThat(SUBJECT.compress(original).remaining()).isLessThan(original.remaining());
+    }
+
+    @Test
+    @DisplayName("It declines data that would not get smaller")
+    void declines() throws IOException {
+      final ByteBuffer original = ByteBuffer.allocate(1000);
+      new SecureRandom().nextBytes(original.array());
+      assertThat(SUBJECT.compress(original)).isNull();
+    }
+
+    @Test
+    @DisplayName("The original buffer is not mutated")
+    void doesNotMutate() throws IOException {
+      final ByteBuffer original = compressible();
+      final int position = 12;
+      final int limit = 1000;
+
+      original.position(position);
+      original.limit(limit);
+
+      SUBJECT.compress(original);
+
+      assertThat(original.position()).isEqualTo(position);
+      assertThat(original.limit()).isEqualTo(limit);
+    }
+  }
+
+  @Nested
+  @DisplayName("When decompressing a buffer")
+  class WhenDecompressing {
+
+    @Test
+    @DisplayName("It returns a buffer with bytes equal to the original")
+    void returnsEqualBytes() throws IOException {
+      final ByteBuffer original = compressible();
+      final ByteBuffer compressed = SUBJECT.compress(original);
+      assertThat(SUBJECT.decompress(compressed, original.remaining())).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("It accepts direct buffers")
+    void acceptsDirectBuffers() throws IOException {
+      final ByteBuffer original = compressible();
+      final ByteBuffer compressed = SUBJECT.compress(original);
+      final ByteBuffer direct = ByteBuffer.allocateDirect(compressed.remaining());
+      direct.put(compressed).flip();
+      assertThat(SUBJECT.decompress(direct, original.remaining())).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("It throws if the data is truncated")
+    void throwsIfTruncated() throws IOException {
+      final ByteBuffer original = compressible();
+      final ByteBuffer compressed = SUBJECT.compress(original);
+      compressed.limit(compressed.limit() / 2);
+      assertThrows(IOException.class, () -> SUBJECT.decompress(compressed, original.remaining()));
+    }
+  }
+}
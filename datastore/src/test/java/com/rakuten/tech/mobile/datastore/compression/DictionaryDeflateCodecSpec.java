@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using DictionaryDeflateCodec")
+class DictionaryDeflateCodecSpec {
+
+  private static final byte[] DICTIONARY =
+      "{\"userId\":,\"displayName\":\"user\",\"theme\":\"dark\"}".getBytes(StandardCharsets.UTF_8);
+
+  private static final ByteBuffer BLOB = ByteBuffer.wrap(
+      "{\"userId\":42,\"displayName\":\"user42\",\"theme\":\"dark\"}"
+          .getBytes(StandardCharsets.UTF_8));
+
+  private CompressionDictionaries dictionaries;
+  private DictionaryDeflateCodec subject;
+
+  @BeforeEach
+  void beforeEach() {
+    dictionaries = new CompressionDictionaries();
+    subject = new DictionaryDeflateCodec(dictionaries);
+  }
+
+  @Test
+  @DisplayName("It declines blobs as long as there is no dictionary")
+  void declinesWithoutDictionary() throws IOException {
+    assertThat(subject.compress(BLOB)).isNull();
+  }
+
+  @Test
+  @DisplayName("It declines blobs longer than its maximum length")
+  void declinesLongBlobs() throws IOException {
+    dictionaries.add(DICTIONARY);
+    final ByteBuffer longBlob = ByteBuffer.allocate(
+        DictionaryDeflateCodec.DEFAULT_MAXIMUM_LENGTH + 1);
+    assertThat(subject.compress(longBlob)).isNull();
+  }
+
+  @Nested
+  @DisplayName("With a dictionary")
+  class WithDictionary {
+
+    @BeforeEach
+    void beforeEach() {
+      dictionaries.add(DICTIONARY);
+    }
+
+    @Test
+    @DisplayName("It compresses small blobs")
+    void compresses() throws IOException {
+      assertThat(subject.compress(BLOB).remaining()).isLessThan(BLOB.remaining());
+    }
+
+    @Test
+    @DisplayName("It restores the original blob")
+    void restores() throws IOException {
+      final ByteBuffer compressed = subject.compress(BLOB);
+      assertThat(subject.decompress(compressed, BLOB.remaining())).isEqualTo(BLOB);
+    }
+
+    @Test
+    @DisplayName("It can still read blobs compressed with an older dictionary")
+    void readsOlderVersions() throws IOException {
+      final ByteBuffer compressed = subject.compress(BLOB);
+      dictionaries.add("something else entirely".getBytes(StandardCharsets.UTF_8));
+      assertThat(subject.decompress(compressed, BLOB.remaining())).isEqualTo(BLOB);
+    }
+
+    @Test
+    @DisplayName("It throws if the dictionary is unknown")
+    void throwsIfUnknown() throws IOException {
+      final ByteBuffer compressed = subject.compress(BLOB);
+      final DictionaryDeflateCodec other = new DictionaryDeflateCodec(
+          new CompressionDictionaries());
+      assertThrows(UnknownDictionaryException.class,
+          () -> other.decompress(compressed, BLOB.remaining()));
+    }
+
+    @Test
+    @DisplayName("Dictionaries survive serialization")
+    void serialization() throws IOException {
+      final ByteBuffer compressed = subject.compress(BLOB);
+      final CompressionDictionaries loaded = new CompressionDictionaries();
+      loaded.load(dictionaries.serialize());
+
+      assertThat(loaded.getLatestVersion()).isEqualTo(dictionaries.getLatestVersion());
+      assertThat(new DictionaryDeflateCodec(loaded).decompress(compressed, BLOB.remaining()))
+          .isEqualTo(BLOB);
+    }
+  }
+}
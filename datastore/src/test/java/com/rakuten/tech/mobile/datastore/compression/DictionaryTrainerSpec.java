@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.compression;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using DictionaryTrainer")
+class DictionaryTrainerSpec {
+
+  private static List<ByteBuffer> samples() {
+    final Random random = new Random(42);
+    final List<ByteBuffer> samples = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      final String json = "{\"userId\":" + random.nextInt(100000)
+          + ",\"displayName\":\"user" + random.nextInt(1000)
+          + "\",\"preferences\":{\"theme\":\"" + (random.nextBoolean() ? "dark" : "light")
+          + "\",\"language\":\"en-US\",\"notifications\":" + random.nextBoolean() + "}}";
+      samples.add(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+    return samples;
+  }
+
+  @Test
+  @DisplayName("It respects the maximum length")
+  void respectsMaximumLength() {
+    assertThat(DictionaryTrainer.train(samples(), 64)).hasSize(64);
+  }
+
+  @Test
+  @DisplayName("It improves compression of similar blobs")
+  void improvesCompression() {
+    final List<ByteBuffer> samples = samples();
+    final byte[] dictionary = DictionaryTrainer.train(samples, 1024);
+
+    assertThat(DictionaryTrainer.measure(samples, dictionary))
+        .isLessThan(DictionaryTrainer.measure(samples, null) / 2);
+  }
+
+  @Test
+  @DisplayName("It returns nothing when samples have nothing in common")
+  void nothingInCommon() {
+    final List<ByteBuffer> samples = new ArrayList<>();
+    samples.add(ByteBuffer.wrap("0123456789abcdef".getBytes(StandardCharsets.UTF_8)));
+    samples.add(ByteBuffer.wrap("ghijklmnopqrstuv".getBytes(StandardCharsets.UTF_8)));
+    assertThat(DictionaryTrainer.train(samples, 1024)).isNull();
+  }
+
+  @Test
+  @DisplayName("It accepts an empty sample list")
+  void emptySamples() {
+    assertThat(DictionaryTrainer.train(Collections.<ByteBuffer>emptyList(), 1024)).isNull();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using AeadCryptoOperations")
+class AeadCryptoOperationsSpec {
+
+  private static final byte[] KEY_BYTES = new byte[32];
+
+  private static final AeadCryptoOperations SUBJECT = new AeadCryptoOperations(
+      new SecretKeySpec(KEY_BYTES, "AES"));
+
+  private final ByteBuffer original = ByteBuffer
+      .wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+
+  @Test
+  @DisplayName("Unknown algorithms are rejected")
+  void unknownAlgorithm() {
+    assertThrows(IllegalArgumentException.class, () -> new AeadCryptoOperations(
+        new SecretKeySpec(KEY_BYTES, "AES"), (byte) 0x7F, new ThreadLocalNonceSource()));
+  }
+
+  @Nested
+  @DisplayName("When encrypting a buffer")
+  class WhenEncrypting {
+
+    @Test
+    @DisplayName("The result starts with the version byte")
+    void versioned() throws GeneralSecurityException {
+      assertThat(SUBJECT.encrypt(original).get(0)).isEqualTo(AeadCryptoOperations.AES_GCM);
+    }
+
+    @Test
+    @DisplayName("The result has the right size")
+    void resultHasRightSize() throws GeneralSecurityException {
+      // Version (1 byte), nonce (12 bytes), message and tag (16 bytes)
+      assertThat(SUBJECT.encrypt(original).remaining())
+          .isEqualTo(1 + 12 + original.remaining() + 16);
+    }
+
+    @Test
+    @DisplayName("The original buffer is not mutated")
+    void doesNotMutate() throws GeneralSecurityException {
+      final ByteBuffer buffer = ByteBuffer.allocate(100);
+      buffer.position(12);
+      buffer.limit(48);
+
+      SUBJECT.encrypt(buffer);
+
+      assertThat(buffer.position()).isEqualTo(12);
+      assertThat(buffer.limit()).isEqualTo(48);
+    }
+
+    @Test
+    @DisplayName("Nonces are not reused")
+    void freshNonces() throws GeneralSecurityException {
+      assertThat(SUBJECT.encrypt(original)).isNotEqualTo(SUBJECT.encrypt(original));
+    }
+  }
+
+  @Nested
+  @DisplayName("When decrypting a buffer")
+  class WhenDecrypting {
+
+    @Test
+    @DisplayName("It returns a buffer with bytes equal to the original")
+    void returnsEqualArrays() throws GeneralSecurityException {
+      assertThat(SUBJECT.decrypt(SUBJECT.encrypt(original))).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("It can decrypt the same record twice")
+    void decryptsTwice() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(original);
+      SUBJECT.decrypt(encrypted);
+      assertThat(SUBJECT.decrypt(encrypted)).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("It throws if the buffer is too short")
+    void tooShort() {
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(ByteBuffer.allocate(28)));
+    }
+
+    @Test
+    @DisplayName("It throws if the ciphertext was altered")
+    void altered() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(original);
+      encrypted.put(20, (byte) (encrypted.get(20) ^ 1));
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(encrypted));
+    }
+
+    @Test
+    @DisplayName("It throws if the version byte was altered")
+    void alteredVersion() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(original);
+      encrypted.put(0, AeadCryptoOperations.CHACHA20_POLY1305);
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(encrypted));
+    }
+  }
+
+  @Nested
+  @DisplayName("Using ChaCha20-Poly1305")
+  class WithChaCha20 {
+
+    @Test
+    @DisplayName("Records round-trip")
+    void roundTrip() throws GeneralSecurityException {
+      assumeTrue(AeadCryptoOperations.isAvailable(AeadCryptoOperations.CHACHA20_POLY1305));
+
+      final AeadCryptoOperations chacha = new AeadCryptoOperations(
+          new SecretKeySpec(KEY_BYTES, "ChaCha20"),
+          AeadCryptoOperations.CHACHA20_POLY1305,
+          new ThreadLocalNonceSource());
+      final ByteBuffer encrypted = chacha.encrypt(original);
+
+      assertThat(encrypted.get(0)).isEqualTo(AeadCryptoOperations.CHACHA20_POLY1305);
+      assertThat(chacha.decrypt(encrypted)).isEqualByComparingTo(original);
+      assertThat(chacha.decrypt(encrypted)).isEqualByComparingTo(original);
+    }
+  }
+
+  @Nested
+  @DisplayName("When using caller-provided buffers")
+  class WithDestination {
+
+    @Test
+    @DisplayName("Direct buffers round-trip")
+    void direct() throws GeneralSecurityException {
+      final ByteBuffer input = ByteBuffer.allocateDirect(original.remaining());
+      input.put(original.duplicate()).flip();
+      final ByteBuffer encrypted = ByteBuffer.allocateDirect(
+          SUBJECT.getEncryptedLength(input.remaining()));
+      assertThat(SUBJECT.encrypt(input, encrypted)).isEqualTo(encrypted.capacity());
+      encrypted.flip();
+
+      final ByteBuffer decrypted = ByteBuffer.allocateDirect(
+          SUBJECT.getDecryptedLength(encrypted.remaining()));
+      SUBJECT.decrypt(encrypted, decrypted);
+      decrypted.flip();
+      assertThat(decrypted).isEqualByComparingTo(original);
+    }
+  }
+
+  @Nested
+  @DisplayName("When signing")
+  class WhenSigning {
+
+    @Test
+    @DisplayName("Signatures are deterministic")
+    void deterministic() throws GeneralSecurityException {
+      assertThat(SUBJECT.sign(original)).isEqualTo(SUBJECT.sign(original));
+      assertThat(SUBJECT.sign(original).remaining()).isEqualTo(32);
+    }
+
+    @Test
+    @DisplayName("The signing key is not the encryption key")
+    void derived() throws GeneralSecurityException {
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(KEY_BYTES, "HmacSHA256"));
+      assertThat(SUBJECT.sign(original)).isNotEqualTo(ByteBuffer.wrap(mac.doFinal(
+          "Hello World!".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    @DisplayName("Different keys give different signatures")
+    void keyed() throws GeneralSecurityException {
+      final byte[] other = new byte[32];
+      other[0] = 1;
+      assertThat(new AeadCryptoOperations(new SecretKeySpec(other, "AES")).sign(original))
+          .isNotEqualTo(SUBJECT.sign(original));
+    }
+
+    @Test
+    @DisplayName("A given signing key is used as is")
+    void explicit() throws GeneralSecurityException {
+      final SecretKeySpec signingKey = new SecretKeySpec(new byte[32], "HmacSHA256");
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(signingKey);
+      final AeadCryptoOperations subject = new AeadCryptoOperations(
+          new SecretKeySpec(KEY_BYTES, "AES"),
+          AeadCryptoOperations.AES_GCM,
+          new ThreadLocalNonceSource(),
+          signingKey);
+      assertThat(subject.sign(original)).isEqualTo(ByteBuffer.wrap(mac.doFinal(
+          "Hello World!".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    @DisplayName("Keys that cannot be exported need a signing key")
+    void notExportable() {
+      final Key key = new SecretKeySpec(KEY_BYTES, "AES") {
+        @Override
+        public byte[] getEncoded() {
+          return null;
+        }
+      };
+      final AeadCryptoOperations subject = new AeadCryptoOperations(
+          key, AeadCryptoOperations.AES_GCM, new ThreadLocalNonceSource());
+      assertThrows(GeneralSecurityException.class, () -> subject.sign(original));
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using ConvergentCryptoOperations")
+class ConvergentCryptoOperationsSpec {
+
+  private static final Key KEY = new SecretKeySpec(new byte[32], "AES");
+
+  private static final ConvergentCryptoOperations SUBJECT = new ConvergentCryptoOperations(KEY);
+
+  private final ByteBuffer original = ByteBuffer
+      .wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+
+  @Test
+  @DisplayName("Unknown algorithms are rejected")
+  void unknownAlgorithm() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new ConvergentCryptoOperations(KEY, (byte) 0x7F));
+  }
+
+  @Nested
+  @DisplayName("When encrypting a buffer")
+  class WhenEncrypting {
+
+    @Test
+    @DisplayName("Equal messages give equal records")
+    void convergent() throws GeneralSecurityException {
+      assertThat(SUBJECT.encrypt(original))
+          .isEqualTo(new ConvergentCryptoOperations(KEY).encrypt(original.duplicate()));
+    }
+
+    @Test
+    @DisplayName("Equal messages give equal records with ChaCha20-Poly1305")
+    void convergentChaCha() throws GeneralSecurityException {
+      assumeTrue(AeadCryptoOperations.isAvailable(AeadCryptoOperations.CHACHA20_POLY1305));
+      final ConvergentCryptoOperations chacha = new ConvergentCryptoOperations(
+          new SecretKeySpec(new byte[32], "ChaCha20"), AeadCryptoOperations.CHACHA20_POLY1305);
+      final ByteBuffer encrypted = chacha.encrypt(original);
+      assertThat(chacha.encrypt(original)).isEqualTo(encrypted);
+      assertThat(chacha.decrypt(encrypted)).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("Different messages get different nonces")
+    void nonces() throws GeneralSecurityException {
+      final ByteBuffer other = ByteBuffer.wrap("Hello World?".getBytes(StandardCharsets.UTF_8));
+      final ByteBuffer first = SUBJECT.encrypt(original);
+      final ByteBuffer second = SUBJECT.encrypt(other);
+      first.limit(13);
+      second.limit(13);
+      assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    @DisplayName("Other keys give other records")
+    void keyed() throws GeneralSecurityException {
+      final byte[] bytes = new byte[32];
+      bytes[0] = 1;
+      final Key other = new SecretKeySpec(bytes, "AES");
+      assertThat(SUBJECT.encrypt(original))
+          .isNotEqualTo(new ConvergentCryptoOperations(other).encrypt(original));
+    }
+
+    @Test
+    @DisplayName("The original buffer is not mutated")
+    void doesNotMutate() throws GeneralSecurityException {
+      final ByteBuffer buffer = ByteBuffer.allocate(100);
+      buffer.position(12);
+      buffer.limit(48);
+
+      SUBJECT.encrypt(buffer);
+
+      assertThat(buffer.position()).isEqualTo(12);
+      assertThat(buffer.limit()).isEqualTo(48);
+    }
+  }
+
+  @Nested
+  @DisplayName("When decrypting a buffer")
+  class WhenDecrypting {
+
+    @Test
+    @DisplayName("The result matches the original")
+    void roundTrip() throws GeneralSecurityException {
+      assertThat(SUBJECT.decrypt(SUBJECT.encrypt(original))).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("Records are compatible with AeadCryptoOperations")
+    void compatible() throws GeneralSecurityException {
+      final AeadCryptoOperations aead = new AeadCryptoOperations(KEY);
+      assertThat(aead.decrypt(SUBJECT.encrypt(original))).isEqualTo(original);
+      assertThat(SUBJECT.decrypt(aead.encrypt(original))).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("Altered records are rejected")
+    void altered() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(original);
+      encrypted.put(13, (byte) (encrypted.get(13) ^ 1));
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(encrypted));
+    }
+  }
+
+  @Nested
+  @DisplayName("When signing a buffer")
+  class WhenSigning {
+
+    @Test
+    @DisplayName("The signature matches AeadCryptoOperations with the same key")
+    void likeAead() throws GeneralSecurityException {
+      assertThat(SUBJECT.sign(original))
+          .isEqualTo(new AeadCryptoOperations(KEY).sign(original));
+    }
+  }
+}
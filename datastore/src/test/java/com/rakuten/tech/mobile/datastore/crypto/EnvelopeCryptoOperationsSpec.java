@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using EnvelopeCryptoOperations")
+class EnvelopeCryptoOperationsSpec {
+
+  private static AeadCryptoOperations keyEncryption(final int seed) {
+    final byte[] bytes = new byte[16];
+    bytes[0] = (byte) seed;
+    return new AeadCryptoOperations(new SecretKeySpec(bytes, "AES"));
+  }
+
+  private final ByteBuffer original = ByteBuffer
+      .wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+
+  private EnvelopeCryptoOperations subject;
+
+  @BeforeEach
+  void beforeEach() {
+    subject = new EnvelopeCryptoOperations("first", keyEncryption(1));
+  }
+
+  @Test
+  @DisplayName("Records round-trip")
+  void roundTrip() throws GeneralSecurityException {
+    assertThat(subject.decrypt(subject.encrypt(original))).isEqualByComparingTo(original);
+  }
+
+  @Test
+  @DisplayName("Records can be read by another instance with the same key")
+  void otherInstance() throws GeneralSecurityException {
+    final EnvelopeCryptoOperations other = new EnvelopeCryptoOperations("first", keyEncryption(1));
+    assertThat(other.decrypt(subject.encrypt(original))).isEqualByComparingTo(original);
+  }
+
+  @Test
+  @DisplayName("Each record has its own data key")
+  void dataKeyPerRecord() throws GeneralSecurityException {
+    final ByteBuffer first = subject.encrypt(original);
+    final ByteBuffer second = subject.encrypt(original);
+    final int offset = 2 + "first".length();
+    first.position(offset).limit(offset + 61);
+    second.position(offset).limit(offset + 61);
+    assertThat(first).isNotEqualByComparingTo(second);
+  }
+
+  @Test
+  @DisplayName("Altered records are rejected")
+  void altered() throws GeneralSecurityException {
+    final ByteBuffer encrypted = subject.encrypt(original);
+    final int last = encrypted.limit() - 1;
+    encrypted.put(last, (byte) (encrypted.get(last) ^ 1));
+    assertThrows(GeneralSecurityException.class, () -> subject.decrypt(encrypted));
+  }
+
+  @Test
+  @DisplayName("Invalid key ids are rejected")
+  void invalidKeyId() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new EnvelopeCryptoOperations("", keyEncryption(1)));
+    assertThrows(IllegalArgumentException.class,
+        () -> subject.addKey(new String(new char[256]).replace('\0', 'a'), keyEncryption(1)));
+  }
+
+  @Nested
+  @DisplayName("After rotating the key")
+  class AfterRotation {
+
+    private ByteBuffer old;
+
+    @BeforeEach
+    void beforeEach() throws GeneralSecurityException {
+      old = subject.encrypt(original);
+      subject.rotate("second", keyEncryption(2));
+    }
+
+    @Test
+    @DisplayName("New records use the new key")
+    void newRecords() throws GeneralSecurityException {
+      final ByteBuffer encrypted = subject.encrypt(original);
+      assertThat(subject.getCurrentKeyId()).isEqualTo("second");
+      assertThat(subject.isCurrent(encrypted)).isTrue();
+      assertThat(new EnvelopeCryptoOperations("second", keyEncryption(2)).decrypt(encrypted))
+          .isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Old records can still be read")
+    void oldRecords() throws GeneralSecurityException {
+      assertThat(subject.isCurrent(old)).isFalse();
+      assertThat(subject.decrypt(old)).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Rewrapped records only need the new key")
+    void rewrap() throws GeneralSecurityException {
+      final ByteBuffer rewrapped = subject.rewrap(old);
+      assertThat(subject.isCurrent(rewrapped)).isTrue();
+      assertThat(subject.rewrap(rewrapped)).isNull();
+      assertThat(new EnvelopeCryptoOperations("second", keyEncryption(2)).decrypt(rewrapped))
+          .isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Rewrapping keeps the encrypted message")
+    void rewrapKeepsMessage() throws GeneralSecurityException {
+      final ByteBuffer rewrapped = subject.rewrap(old);
+      old.position(2 + "first".length() + 61);
+      rewrapped.position(2 + "second".length() + 61);
+      assertThat(rewrapped).isEqualByComparingTo(old);
+    }
+
+    @Test
+    @DisplayName("Records with an unknown key are rejected")
+    void unknownKey() {
+      final EnvelopeCryptoOperations other =
+          new EnvelopeCryptoOperations("second", keyEncryption(2));
+      assertThrows(GeneralSecurityException.class, () -> other.decrypt(old));
+      assertThrows(GeneralSecurityException.class, () -> other.rewrap(old));
+      assertThrows(GeneralSecurityException.class, () -> other.sign(original, old));
+    }
+
+    @Test
+    @DisplayName("New data is signed by the new key")
+    void sign() throws GeneralSecurityException {
+      assertThat(subject.sign(original)).isEqualTo(keyEncryption(2).sign(original));
+    }
+
+    @Test
+    @DisplayName("Data stored along old records is signed by their key")
+    void signOld() throws GeneralSecurityException {
+      assertThat(subject.sign(original, old)).isEqualTo(keyEncryption(1).sign(original));
+      assertThat(subject.sign(original, subject.rewrap(old)))
+          .isEqualTo(keyEncryption(2).sign(original));
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using MigratingCryptoOperations")
+class MigratingCryptoOperationsSpec {
+
+  // Register BouncyCastle provider
+  static {
+    Security.insertProviderAt(new BouncyCastleProvider(), 1);
+  }
+
+  private static final byte[] KEY_BYTES = new byte[32];
+
+  private static final AeadCryptoOperations CURRENT = new AeadCryptoOperations(
+      new SecretKeySpec(KEY_BYTES, "AES"));
+
+  private static final SimpleCryptoOperations LEGACY = new SimpleCryptoOperations(
+      new SecretKeySpec(KEY_BYTES, 0, 16, "AES"),
+      new SecretKeySpec(KEY_BYTES, "HmacSHA256"));
+
+  private static final MigratingCryptoOperations SUBJECT =
+      MigratingCryptoOperations.of(CURRENT, LEGACY);
+
+  private final ByteBuffer original = ByteBuffer
+      .wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+
+  @Test
+  @DisplayName("New records use the AEAD format")
+  void encrypts() throws GeneralSecurityException {
+    final ByteBuffer encrypted = SUBJECT.encrypt(original);
+    assertThat(CURRENT.decrypt(encrypted)).isEqualByComparingTo(original);
+  }
+
+  @Test
+  @DisplayName("New records can be read back")
+  void decryptsCurrent() throws GeneralSecurityException {
+    assertThat(SUBJECT.decrypt(SUBJECT.encrypt(original))).isEqualByComparingTo(original);
+  }
+
+  @Test
+  @DisplayName("Legacy records can be read, whatever their first byte")
+  void decryptsLegacy() throws GeneralSecurityException {
+    boolean versionLookalike = false;
+    while (!versionLookalike) {
+      final ByteBuffer encrypted = LEGACY.encrypt(original);
+      versionLookalike = encrypted.get(0) == AeadCryptoOperations.AES_GCM;
+      assertThat(SUBJECT.decrypt(encrypted)).isEqualByComparingTo(original);
+    }
+  }
+
+  @Test
+  @DisplayName("Invalid records are rejected")
+  void rejects() {
+    final ByteBuffer invalid = ByteBuffer.allocate(64);
+    invalid.put(0, AeadCryptoOperations.AES_GCM);
+    assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(invalid));
+  }
+
+  @Test
+  @DisplayName("It signs like the legacy operations")
+  void signs() throws GeneralSecurityException {
+    assertThat(SUBJECT.sign(original)).isEqualTo(LEGACY.sign(original));
+  }
+
+  @Test
+  @DisplayName("It signs like the current operations if the legacy operations do not sign")
+  void signsLikeCurrent() throws GeneralSecurityException {
+    assertThat(MigratingCryptoOperations.of(CURRENT, new NullCryptoOperations()).sign(original))
+        .isEqualTo(CURRENT.sign(original));
+  }
+}
@@ -17,9 +17,11 @@
 package com.rakuten.tech.mobile.datastore.crypto;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import javax.crypto.ShortBufferException;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -118,4 +120,53 @@ class NullCryptoOperationsSpec {
       assertThat(original.limit()).isEqualTo(limit);
     }
   }
+
+  @Nested
+  @DisplayName("When returning views")
+  class WithViews {
+
+    private final NullCryptoOperations views = new NullCryptoOperations(true);
+
+    @Test
+    @DisplayName("It shares the content of the input")
+    void shares() {
+      final ByteBuffer original = ByteBuffer.allocate(10);
+      final ByteBuffer encrypted = views.encrypt(original);
+      original.put(0, (byte) 1);
+      assertThat(encrypted.get(0)).isEqualTo((byte) 1);
+      assertThat(views.decrypt(encrypted)).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("The result is read-only")
+    void readOnly() {
+      assertThat(views.decrypt(ByteBuffer.allocate(10)).isReadOnly()).isTrue();
+    }
+  }
+
+  @Nested
+  @DisplayName("When writing into a buffer")
+  class WithDestination {
+
+    @Test
+    @DisplayName("It copies the input to the destination")
+    void copies() throws ShortBufferException {
+      final ByteBuffer original = ByteBuffer.allocate(10);
+      new SecureRandom().nextBytes(original.array());
+      final ByteBuffer destination = ByteBuffer.allocateDirect(12);
+      destination.position(2);
+
+      assertThat(SUBJECT.encrypt(original, destination)).isEqualTo(10);
+      assertThat(destination.position()).isEqualTo(12);
+      destination.position(2);
+      assertThat(destination).isEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("It throws if the destination is too small")
+    void tooSmall() {
+      assertThrows(ShortBufferException.class,
+          () -> SUBJECT.decrypt(ByteBuffer.allocate(10), ByteBuffer.allocate(9)));
+    }
+  }
 }
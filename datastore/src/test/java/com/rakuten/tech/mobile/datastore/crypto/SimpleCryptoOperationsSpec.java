@@ -25,9 +25,19 @@ import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Tag;
@@ -217,4 +227,158 @@ class SimpleCryptoOperationsSpec {
       }
     }
   }
+
+  @Nested
+  @DisplayName("With a nonce source")
+  class WithNonceSource {
+
+    @Test
+    @DisplayName("IVs come from the nonce source")
+    void usesNonceSource() throws GeneralSecurityException {
+      final SimpleCryptoOperations subject = SimpleCryptoOperations.withNonceSource(
+          new SecretKeySpec(KEY_BYTES, "AES"),
+          new SecretKeySpec(KEY_BYTES, "HmacSHA256"),
+          nonce -> Arrays.fill(nonce, (byte) 42));
+
+      final ByteBuffer original = ByteBuffer.wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+      final ByteBuffer encrypted = subject.encrypt(original);
+      final byte[] iv = new byte[16];
+      encrypted.position(32);
+      encrypted.get(iv);
+      encrypted.rewind();
+
+      final byte[] expected = new byte[16];
+      Arrays.fill(expected, (byte) 42);
+      assertThat(iv).isEqualTo(expected);
+      assertThat(subject.decrypt(encrypted)).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Without a random, the provider generates IVs")
+    void providerIvs() throws GeneralSecurityException {
+      final SimpleCryptoOperations subject = new SimpleCryptoOperations(
+          new SecretKeySpec(KEY_BYTES, "AES"),
+          new SecretKeySpec(KEY_BYTES, "HmacSHA256"),
+          null);
+
+      final ByteBuffer original = ByteBuffer.wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+      assertThat(subject.decrypt(subject.encrypt(original))).isEqualByComparingTo(original);
+    }
+  }
+
+  @Nested
+  @DisplayName("When running several operations")
+  class WhenReusing {
+
+    private int ciphersCreated;
+    private int macsCreated;
+
+    private final SimpleCryptoOperations counting = new SimpleCryptoOperations(
+        new SecretKeySpec(KEY_BYTES, "AES"),
+        new SecretKeySpec(KEY_BYTES, "HmacSHA256")) {
+
+      @NotNull
+      @Override
+      protected Cipher createNewCipherInstance(final int mode, final ByteBuffer presetIv)
+          throws GeneralSecurityException {
+        ciphersCreated++;
+        return super.createNewCipherInstance(mode, presetIv);
+      }
+
+      @NotNull
+      @Override
+      protected Mac createNewMacInstance() throws GeneralSecurityException {
+        macsCreated++;
+        return super.createNewMacInstance();
+      }
+    };
+
+    @Test
+    @DisplayName("Ciphers and MACs are created once per thread")
+    void reuses() throws GeneralSecurityException {
+      final ByteBuffer original = ByteBuffer.wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+      for (int i = 0; i < 3; i++) {
+        assertThat(counting.decrypt(counting.encrypt(original))).isEqualByComparingTo(original);
+      }
+
+      assertThat(ciphersCreated).isEqualTo(1);
+      assertThat(macsCreated).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("A failed decryption does not break the next ones")
+    void recovers() throws GeneralSecurityException {
+      final ByteBuffer original = ByteBuffer.wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+      assertThrows(SignatureException.class, () -> counting.decrypt(ByteBuffer.allocate(64)));
+      assertThat(counting.decrypt(counting.encrypt(original))).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Concurrent operations do not interfere")
+    void concurrent() throws Exception {
+      final ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+        final List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+          final byte[] bytes = new byte[i * 7];
+          new SecureRandom().nextBytes(bytes);
+          results.add(executor.submit(() -> {
+            for (int j = 0; j < 50; j++) {
+              final ByteBuffer original = ByteBuffer.wrap(bytes);
+              if (SUBJECT.decrypt(SUBJECT.encrypt(original)).compareTo(original) != 0) {
+                return false;
+              }
+            }
+            return true;
+          }));
+        }
+
+        for (Future<Boolean> result : results) {
+          assertThat(result.get()).isTrue();
+        }
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Nested
+  @DisplayName("When using caller-provided buffers")
+  class WithDestination {
+
+    private final ByteBuffer original = ByteBuffer
+        .wrap("Hello World!".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    @DisplayName("Direct buffers round-trip")
+    void direct() throws GeneralSecurityException {
+      final ByteBuffer encrypted = ByteBuffer.allocateDirect(
+          SUBJECT.getEncryptedLength(original.remaining()));
+      final int length = SUBJECT.encrypt(original, encrypted);
+      assertThat(encrypted.position()).isEqualTo(length);
+      encrypted.flip();
+
+      final ByteBuffer decrypted = ByteBuffer.allocateDirect(
+          SUBJECT.getDecryptedLength(encrypted.remaining()));
+      SUBJECT.decrypt(encrypted, decrypted);
+      decrypted.flip();
+      assertThat(decrypted).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("The encrypted length matches the prediction")
+    void encryptedLength() throws GeneralSecurityException {
+      for (int length = 0; length < 40; length++) {
+        assertThat(SUBJECT.encrypt(ByteBuffer.allocate(length)).remaining())
+            .isEqualTo(SUBJECT.getEncryptedLength(length));
+      }
+    }
+
+    @Test
+    @DisplayName("It throws if the destination is too small")
+    void tooSmall() {
+      assertThrows(ShortBufferException.class, () -> SUBJECT.encrypt(original,
+          ByteBuffer.allocate(SUBJECT.getEncryptedLength(original.remaining()) - 1)));
+    }
+  }
 }
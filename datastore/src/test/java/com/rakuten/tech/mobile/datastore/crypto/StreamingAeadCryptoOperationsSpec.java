@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+@Tag("fast")
+@DisplayName("Using StreamingAeadCryptoOperations")
+class StreamingAeadCryptoOperationsSpec {
+
+  private static final int CHUNK_SIZE = 64;
+
+  private static final StreamingAeadCryptoOperations SUBJECT = new StreamingAeadCryptoOperations(
+      new SecretKeySpec(new byte[16], "AES"), AeadCryptoOperations.AES_GCM, CHUNK_SIZE);
+
+  private static byte[] randomBytes(final int length) {
+    final byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] encryptStream(final byte[] bytes) throws Exception {
+    final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+    try (OutputStream stream = SUBJECT.newEncryptingStream(encrypted)) {
+      // Uneven writes, straddling chunks
+      for (int offset = 0; offset < bytes.length; offset += 37) {
+        stream.write(bytes, offset, Math.min(37, bytes.length - offset));
+      }
+    }
+    return encrypted.toByteArray();
+  }
+
+  private static byte[] decryptStream(final byte[] bytes) throws Exception {
+    try (InputStream stream = SUBJECT.newDecryptingStream(new ByteArrayInputStream(bytes))) {
+      return IOUtils.toByteArray(stream);
+    }
+  }
+
+  private static Stream<Integer> lengths() {
+    return Stream.of(0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE, 1000);
+  }
+
+  @Test
+  @DisplayName("Out of range chunk sizes are rejected")
+  void chunkSize() {
+    assertThrows(IllegalArgumentException.class, () -> new StreamingAeadCryptoOperations(
+        new SecretKeySpec(new byte[16], "AES"), AeadCryptoOperations.AES_GCM, 8));
+  }
+
+  @ParameterizedTest(name = "Buffers of {0} bytes round-trip")
+  @MethodSource("lengths")
+  void roundTripBuffers(final int length) throws GeneralSecurityException {
+    final ByteBuffer original = ByteBuffer.wrap(randomBytes(length));
+    assertThat(SUBJECT.decrypt(SUBJECT.encrypt(original))).isEqualByComparingTo(original);
+  }
+
+  @ParameterizedTest(name = "Streams of {0} bytes round-trip")
+  @MethodSource("lengths")
+  void roundTripStreams(final int length) throws Exception {
+    final byte[] original = randomBytes(length);
+    assertThat(decryptStream(encryptStream(original))).isEqualTo(original);
+  }
+
+  @ParameterizedTest(name = "Streams and buffers agree for {0} bytes")
+  @MethodSource("lengths")
+  void interoperable(final int length) throws Exception {
+    final byte[] original = randomBytes(length);
+    final ByteBuffer encrypted = SUBJECT.encrypt(ByteBuffer.wrap(original));
+    final byte[] bytes = new byte[encrypted.remaining()];
+    encrypted.get(bytes);
+
+    assertThat(decryptStream(bytes)).isEqualTo(original);
+    assertThat(SUBJECT.decrypt(ByteBuffer.wrap(encryptStream(original))))
+        .isEqualByComparingTo(ByteBuffer.wrap(original));
+  }
+
+  @Nested
+  @DisplayName("When using buffers")
+  class WithBuffers {
+
+    @Test
+    @DisplayName("The result has the right size")
+    void resultHasRightSize() throws GeneralSecurityException {
+      // Header (29 bytes), then 3 chunks with a 16-byte tag each
+      assertThat(SUBJECT.encrypt(ByteBuffer.allocate(2 * CHUNK_SIZE + 1)).remaining())
+          .isEqualTo(29 + 2 * CHUNK_SIZE + 1 + 3 * 16);
+    }
+
+    @Test
+    @DisplayName("Direct buffers round-trip")
+    void direct() throws GeneralSecurityException {
+      final ByteBuffer original = ByteBuffer.wrap(randomBytes(3 * CHUNK_SIZE + 5));
+      final ByteBuffer encrypted = ByteBuffer.allocateDirect(
+          SUBJECT.getEncryptedLength(original.remaining()));
+      SUBJECT.encrypt(original, encrypted);
+      encrypted.flip();
+
+      final ByteBuffer decrypted = ByteBuffer.allocateDirect(
+          SUBJECT.getDecryptedLength(encrypted.remaining()));
+      SUBJECT.decrypt(encrypted, decrypted);
+      decrypted.flip();
+      assertThat(decrypted).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Truncated records are rejected")
+    void truncated() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(ByteBuffer.wrap(randomBytes(3 * CHUNK_SIZE)));
+      encrypted.limit(29 + CHUNK_SIZE + 16);
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(encrypted));
+    }
+
+    @Test
+    @DisplayName("Records sharing a nonce prefix are encrypted with different keys")
+    void recordKeys() throws GeneralSecurityException {
+      // Salts are random, nonce prefixes are all zeroes
+      final Random random = new Random(42);
+      final StreamingAeadCryptoOperations subject = new StreamingAeadCryptoOperations(
+          new SecretKeySpec(new byte[16], "AES"), AeadCryptoOperations.AES_GCM, CHUNK_SIZE, null,
+          1, nonce -> {
+            if (nonce.length == 16) {
+              random.nextBytes(nonce);
+            } else {
+              Arrays.fill(nonce, (byte) 0);
+            }
+          });
+
+      final ByteBuffer original = ByteBuffer.wrap(randomBytes(CHUNK_SIZE));
+      final ByteBuffer first = subject.encrypt(original.duplicate());
+      final ByteBuffer second = subject.encrypt(original.duplicate());
+      first.position(29);
+      second.position(29);
+      assertThat(first).isNotEqualByComparingTo(second);
+
+      first.rewind();
+      assertThat(subject.decrypt(first)).isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Records with an altered salt are rejected")
+    void alteredSalt() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(ByteBuffer.wrap(randomBytes(CHUNK_SIZE)));
+      encrypted.put(5, (byte) (encrypted.get(5) ^ 1));
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(encrypted));
+    }
+
+    @Test
+    @DisplayName("Reordered chunks are rejected")
+    void reordered() throws GeneralSecurityException {
+      final ByteBuffer encrypted = SUBJECT.encrypt(ByteBuffer.wrap(randomBytes(3 * CHUNK_SIZE)));
+      final byte[] bytes = new byte[encrypted.remaining()];
+      encrypted.get(bytes);
+
+      final int chunkLength = CHUNK_SIZE + 16;
+      final byte[] first = Arrays.copyOfRange(bytes, 29, 29 + chunkLength);
+      System.arraycopy(bytes, 29 + chunkLength, bytes, 29, chunkLength);
+      System.arraycopy(first, 0, bytes, 29 + chunkLength, chunkLength);
+
+      assertThrows(GeneralSecurityException.class, () -> SUBJECT.decrypt(ByteBuffer.wrap(bytes)));
+    }
+  }
+
+  @Nested
+  @DisplayName("When processing in parallel")
+  class InParallel {
+
+    private static final int LENGTH = StreamingAeadCryptoOperations.PARALLEL_THRESHOLD + 100;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    private StreamingAeadCryptoOperations sequential(final long seed) {
+      return new StreamingAeadCryptoOperations(new SecretKeySpec(new byte[16], "AES"),
+          AeadCryptoOperations.AES_GCM, 1024, null, 4,
+          new RandomNonceSource(new Random(seed)));
+    }
+
+    private StreamingAeadCryptoOperations parallel(final long seed) {
+      return new StreamingAeadCryptoOperations(new SecretKeySpec(new byte[16], "AES"),
+          AeadCryptoOperations.AES_GCM, 1024, executor, 4,
+          new RandomNonceSource(new Random(seed)));
+    }
+
+    @AfterEach
+    void shutdown() {
+      executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("The result is the same as on a single thread")
+    void sameAsSequential() throws GeneralSecurityException {
+      final ByteBuffer original = ByteBuffer.wrap(randomBytes(LENGTH));
+      assertThat(parallel(1).encrypt(original.duplicate()))
+          .isEqualByComparingTo(sequential(1).encrypt(original.duplicate()));
+    }
+
+    @Test
+    @DisplayName("Records round-trip")
+    void roundTrip() throws GeneralSecurityException {
+      final ByteBuffer original = ByteBuffer.wrap(randomBytes(LENGTH));
+      assertThat(parallel(1).decrypt(sequential(2).encrypt(original.duplicate())))
+          .isEqualByComparingTo(original);
+      assertThat(sequential(1).decrypt(parallel(2).encrypt(original.duplicate())))
+          .isEqualByComparingTo(original);
+    }
+
+    @Test
+    @DisplayName("Altered records are rejected")
+    void altered() throws GeneralSecurityException {
+      final ByteBuffer encrypted = sequential(1).encrypt(ByteBuffer.wrap(randomBytes(LENGTH)));
+      final int index = encrypted.limit() / 2;
+      encrypted.put(index, (byte) (encrypted.get(index) ^ 1));
+      assertThrows(GeneralSecurityException.class, () -> parallel(1).decrypt(encrypted));
+    }
+
+    @Test
+    @DisplayName("Rejected tasks are done by the calling thread")
+    void rejected() throws GeneralSecurityException {
+      final StreamingAeadCryptoOperations subject = new StreamingAeadCryptoOperations(
+          new SecretKeySpec(new byte[16], "AES"), AeadCryptoOperations.AES_GCM, 1024,
+          command -> {
+            throw new RejectedExecutionException();
+          }, 4, new RandomNonceSource(new Random(1)));
+
+      final ByteBuffer original = ByteBuffer.wrap(randomBytes(LENGTH));
+      final ByteBuffer encrypted = subject.encrypt(original.duplicate());
+      assertThat(encrypted).isEqualByComparingTo(sequential(1).encrypt(original.duplicate()));
+      assertThat(subject.decrypt(encrypted)).isEqualByComparingTo(original);
+    }
+  }
+
+  @Nested
+  @DisplayName("When using streams")
+  class WithStreams {
+
+    @Test
+    @DisplayName("The first chunk can be read before the rest of the record")
+    void firstChunk() throws Exception {
+      final byte[] original = randomBytes(3 * CHUNK_SIZE);
+      final byte[] encrypted = encryptStream(original);
+      final InputStream stream = SUBJECT.newDecryptingStream(
+          new ByteArrayInputStream(Arrays.copyOf(encrypted, 29 + CHUNK_SIZE + 16 + 1)));
+
+      final byte[] first = new byte[CHUNK_SIZE];
+      assertThat(stream.read(first)).isEqualTo(CHUNK_SIZE);
+      assertThat(first).isEqualTo(Arrays.copyOf(original, CHUNK_SIZE));
+    }
+
+    @Test
+    @DisplayName("Records truncated at a chunk boundary are rejected")
+    void truncated() throws Exception {
+      final byte[] encrypted = encryptStream(randomBytes(3 * CHUNK_SIZE));
+      final byte[] truncated = Arrays.copyOf(encrypted, 29 + CHUNK_SIZE + 16);
+      assertThrows(IOException.class, () -> decryptStream(truncated));
+    }
+
+    @Test
+    @DisplayName("Altered records are rejected")
+    void altered() throws Exception {
+      final byte[] encrypted = encryptStream(randomBytes(3 * CHUNK_SIZE));
+      encrypted[encrypted.length - 1] ^= 1;
+      assertThrows(IOException.class, () -> decryptStream(encrypted));
+    }
+  }
+
+  @Nested
+  @DisplayName("When signing")
+  class WhenSigning {
+
+    private final ByteBuffer original = ByteBuffer.wrap(randomBytes(12));
+
+    @Test
+    @DisplayName("Signatures are deterministic")
+    void deterministic() throws GeneralSecurityException {
+      assertThat(SUBJECT.sign(original)).isEqualTo(SUBJECT.sign(original));
+      assertThat(SUBJECT.sign(original).remaining()).isEqualTo(32);
+    }
+
+    @Test
+    @DisplayName("Signatures match those of AEAD crypto operations with the same key")
+    void derived() throws GeneralSecurityException {
+      assertThat(SUBJECT.sign(original)).isEqualTo(
+          new AeadCryptoOperations(new SecretKeySpec(new byte[16], "AES")).sign(original));
+    }
+  }
+}
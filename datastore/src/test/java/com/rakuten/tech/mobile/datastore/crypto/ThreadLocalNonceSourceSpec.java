@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using ThreadLocalNonceSource")
+class ThreadLocalNonceSourceSpec {
+
+  private AtomicInteger randomsCreated;
+  private ThreadLocalNonceSource subject;
+
+  @BeforeEach
+  void beforeEach() {
+    randomsCreated = new AtomicInteger();
+    subject = new ThreadLocalNonceSource(64) {
+      @NotNull
+      @Override
+      protected SecureRandom createRandom() {
+        randomsCreated.incrementAndGet();
+        return super.createRandom();
+      }
+    };
+  }
+
+  @Test
+  @DisplayName("Nonces are not repeated")
+  void unique() {
+    final Set<ByteBuffer> nonces = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      final byte[] nonce = new byte[12];
+      subject.nextNonce(nonce);
+      nonces.add(ByteBuffer.wrap(nonce));
+    }
+    assertThat(nonces).hasSize(1000);
+  }
+
+  @Test
+  @DisplayName("Nonces longer than a batch are filled")
+  void longNonces() {
+    final byte[] nonce = new byte[100];
+    subject.nextNonce(nonce);
+    assertThat(nonce).isNotEqualTo(new byte[100]);
+  }
+
+  @Test
+  @DisplayName("Each thread has its own generator")
+  void perThread() throws InterruptedException {
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 100; j++) {
+          subject.nextNonce(new byte[16]);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(randomsCreated.get()).isEqualTo(threads.length);
+  }
+
+  @Test
+  @DisplayName("Invalid batch sizes are rejected")
+  void invalidBatchSize() {
+    assertThrows(IllegalArgumentException.class, () -> new ThreadLocalNonceSource(0));
+  }
+}
@@ -17,8 +17,10 @@
 package com.rakuten.tech.mobile.datastore.keys;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -92,4 +94,39 @@ class CodedKeySpec {
       assertThat(new CodedKey(COPIED_BYTES)).isNotEqualByComparingTo(new CodedKey(BYTES));
     }
   }
+
+  @Nested
+  @DisplayName("When reading its content")
+  class Content {
+
+    @Test
+    @DisplayName("The buffer view matches its bytes")
+    void view() {
+      assertThat(new CodedKey(BYTES).asReadOnlyBuffer()).isEqualTo(ByteBuffer.wrap(BYTES));
+    }
+
+    @Test
+    @DisplayName("The buffer view is read-only")
+    void viewIsReadOnly() {
+      final ByteBuffer view = new CodedKey(BYTES).asReadOnlyBuffer();
+      assertThatThrownBy(() -> view.put(0, (byte) 1))
+          .isInstanceOf(ReadOnlyBufferException.class);
+    }
+
+    @Test
+    @DisplayName("It can be written to a buffer")
+    void writeTo() {
+      final ByteBuffer buffer = ByteBuffer.allocate(BYTES.length + 1);
+      buffer.put((byte) 42);
+      new CodedKey(BYTES).writeTo(buffer);
+      assertThat(buffer.position()).isEqualTo(BYTES.length + 1);
+      assertThat(buffer.array()).endsWith(BYTES);
+    }
+
+    @Test
+    @DisplayName("Its length matches its bytes")
+    void length() {
+      assertThat(new CodedKey(BYTES).length()).isEqualTo(BYTES.length);
+    }
+  }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rakuten.tech.mobile.datastore.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.security.GeneralSecurityException;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+@DisplayName("Using HierarchicalKeyCoder")
+class HierarchicalKeyCoderSpec {
+
+  private static final HierarchicalKeyCoder SUBJECT = new HierarchicalKeyCoder();
+
+  @DisplayName("When encoding keys")
+  @ParameterizedTest(name = "It properly encodes \"{0}\"")
+  @MethodSource("createValueExpectationPairs")
+  void encodes(final @NotNull String value, final @NotNull String expectation)
+      throws GeneralSecurityException {
+
+    assertThat(Hex.encodeHexString(SUBJECT.encode(value).getBytes())).isEqualTo(expectation);
+  }
+
+  @Test
+  @DisplayName("Non-ASCII separators are rejected")
+  void rejectsSeparator() {
+    assertThatThrownBy(() -> new HierarchicalKeyCoder('é'))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Nested
+  @DisplayName("When encoding namespaces")
+  class WithNamespaces {
+
+    @Test
+    @DisplayName("Keys in the namespace start with its prefix")
+    void contains() throws GeneralSecurityException {
+      final CodedKey prefix = SUBJECT.encodePrefix("user/42");
+      assertThat(SUBJECT.encode("user/42/avatar").startsWith(prefix)).isTrue();
+      assertThat(SUBJECT.encode("user/42/a/b").startsWith(prefix)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Other keys do not start with its prefix")
+    void excludes() throws GeneralSecurityException {
+      final CodedKey prefix = SUBJECT.encodePrefix("user/42");
+      assertThat(SUBJECT.encode("user/42").startsWith(prefix)).isFalse();
+      assertThat(SUBJECT.encode("user/420/avatar").startsWith(prefix)).isFalse();
+      assertThat(SUBJECT.encode("user/4/2").startsWith(prefix)).isFalse();
+    }
+
+    @Test
+    @DisplayName("A trailing separator is ignored")
+    void trailingSeparator() throws GeneralSecurityException {
+      assertThat(SUBJECT.encodePrefix("user/42/")).isEqualTo(SUBJECT.encodePrefix("user/42"));
+    }
+
+    @Test
+    @DisplayName("The empty namespace has an empty prefix")
+    void empty() throws GeneralSecurityException {
+      assertThat(SUBJECT.encodePrefix("").length()).isZero();
+    }
+
+    @Test
+    @DisplayName("Custom separators are honored")
+    void separator() throws GeneralSecurityException {
+      final HierarchicalKeyCoder coder = new HierarchicalKeyCoder(':');
+      assertThat(coder.encode("a:b").startsWith(coder.encodePrefix("a"))).isTrue();
+      assertThat(coder.encode("a/b").startsWith(coder.encodePrefix("a"))).isFalse();
+    }
+  }
+
+  private static Stream<Arguments> createValueExpectationPairs() {
+    return Stream.of(
+        Arguments.of("", "72dfcfb0c470ac255cde83fb"),
+        Arguments.of("foo", "91b99a4ecf7f5afce8b43158"),
+        Arguments.of("こんにちは/😀", "50eb4c136a546930a3184733ba8d7d07d152fb533bca726b"),
+        Arguments.of(
+            "user/42/avatar",
+            "5f1240af0404b77db80f19dd5ad25d2e3160c3ba12df25fb11c09bde51350f6a89841af0")
+    );
+  }
+}
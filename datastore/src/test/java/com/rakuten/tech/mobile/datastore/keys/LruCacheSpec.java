@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using LruCache")
+class LruCacheSpec {
+
+  @Test
+  @DisplayName("Stored values can be retrieved")
+  void get() {
+    final LruCache<String, String> cache = new LruCache<>(4);
+    cache.put("foo", "bar");
+    assertThat(cache.get("foo")).isEqualTo("bar");
+    assertThat(cache.get("baz")).isNull();
+  }
+
+  @Test
+  @DisplayName("Its size is bounded")
+  void bounded() {
+    final LruCache<Integer, Integer> cache = new LruCache<>(64);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+    }
+    assertThat(cache.size()).isLessThanOrEqualTo(64);
+  }
+
+  @Test
+  @DisplayName("Recently used values are kept")
+  void keepsRecentlyUsed() {
+    final LruCache<String, String> cache = new LruCache<>(1);
+    cache.put("foo", "bar");
+    cache.put("baz", "qux");
+    assertThat(cache.get("foo")).isNull();
+    assertThat(cache.get("baz")).isEqualTo("qux");
+  }
+
+  @Test
+  @DisplayName("Clearing removes all values")
+  void clear() {
+    final LruCache<String, String> cache = new LruCache<>(4);
+    cache.put("foo", "bar");
+    cache.clear();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  @DisplayName("Its size must be positive")
+  void invalidSize() {
+    assertThatThrownBy(() -> new LruCache<String, String>(0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
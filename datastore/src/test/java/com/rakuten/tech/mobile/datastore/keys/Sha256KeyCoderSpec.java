@@ -27,6 +27,7 @@ import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -35,6 +36,7 @@ import org.junit.jupiter.params.provider.MethodSource;
 class Sha256KeyCoderSpec {
 
   private static final Sha256KeyCoder SUBJECT = new Sha256KeyCoder();
+  private static final Sha256KeyCoder CACHED = new Sha256KeyCoder(2);
 
   @DisplayName("When encoding keys")
   @ParameterizedTest(name = "It properly encodes \"{0}\"")
@@ -45,6 +47,23 @@ class Sha256KeyCoderSpec {
     assertThat(Hex.encodeHexString(SUBJECT.encode(value).getBytes())).isEqualTo(expectation);
   }
 
+  @DisplayName("When encoding keys with a cache")
+  @ParameterizedTest(name = "It properly encodes \"{0}\"")
+  @MethodSource("createValueExpectationPairs")
+  void encodesCached(final @NotNull String value, final @NotNull String expectation)
+      throws GeneralSecurityException, DecoderException {
+
+    assertThat(Hex.encodeHexString(CACHED.encode(value).getBytes())).isEqualTo(expectation);
+    assertThat(Hex.encodeHexString(CACHED.encode(value).getBytes())).isEqualTo(expectation);
+  }
+
+  @Test
+  @DisplayName("Cached keys are reused")
+  void reusesCachedKeys() throws GeneralSecurityException {
+    final Sha256KeyCoder coder = new Sha256KeyCoder(16);
+    assertThat(coder.encode("foo")).isSameAs(coder.encode("foo"));
+  }
+
   private static Stream<Arguments> createValueExpectationPairs() {
     return Stream.of(
         Arguments.of(
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+@DisplayName("Using SipHashKeyCoder")
+class SipHashKeyCoderSpec {
+
+  // Key of the reference test vectors: 00 01 02 ... 0f
+  private static final byte[] KEY = new byte[]{
+      0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+  private static final SipHashKeyCoder SUBJECT = new SipHashKeyCoder(KEY);
+
+  @DisplayName("When encoding keys")
+  @ParameterizedTest(name = "It properly encodes \"{0}\"")
+  @MethodSource("createValueExpectationPairs")
+  void encodes(final @NotNull String value, final @NotNull String expectation) {
+    assertThat(Hex.encodeHexString(SUBJECT.encode(value).getBytes())).isEqualTo(expectation);
+  }
+
+  @Test
+  @DisplayName("It matches the reference test vector")
+  void referenceVector() {
+    final byte[] message = new byte[15];
+    for (int i = 0; i < message.length; i++) {
+      message[i] = (byte) i;
+    }
+    final ByteBuffer input = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+    assertThat(SUBJECT.hash(input)).isEqualTo(0xa129ca6149be45e5L);
+  }
+
+  @Test
+  @DisplayName("Different keys give different coded keys")
+  void keyed() {
+    final byte[] otherKey = KEY.clone();
+    otherKey[0] ^= 1;
+    assertThat(new SipHashKeyCoder(otherKey).encode("foo")).isNotEqualTo(SUBJECT.encode("foo"));
+  }
+
+  @Test
+  @DisplayName("Keys must be 16 bytes long")
+  void invalidKey() {
+    assertThatThrownBy(() -> new SipHashKeyCoder(new byte[8]))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static Stream<Arguments> createValueExpectationPairs() {
+    return Stream.of(
+        Arguments.of("", "310e0edd47db6f72"),
+        Arguments.of("😀", "6de8b3497f254544"),
+        Arguments.of("こんにちは！", "aa3d4fb7397dc911"),
+        Arguments.of("مرحبا", "a5c7d8d32f4ca925")
+    );
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.keys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+@DisplayName("Using Xxh3KeyCoder")
+class Xxh3KeyCoderSpec {
+
+  private static final Xxh3KeyCoder SUBJECT = new Xxh3KeyCoder(42);
+
+  // Expectations computed with the reference implementation, XXH3_128bits_withSeed()
+  @DisplayName("When encoding keys")
+  @ParameterizedTest(name = "It properly encodes \"{0}\"")
+  @MethodSource("createValueExpectationPairs")
+  void encodes(final @NotNull String value, final @NotNull String expectation) {
+    assertThat(Hex.encodeHexString(SUBJECT.encode(value).getBytes())).isEqualTo(expectation);
+  }
+
+  @Test
+  @DisplayName("Different seeds give different coded keys")
+  void seeded() {
+    assertThat(new Xxh3KeyCoder(43).encode("foo")).isNotEqualTo(SUBJECT.encode("foo"));
+  }
+
+  private static String repeat(final char c, final int count) {
+    final char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  private static Stream<Arguments> createValueExpectationPairs() {
+    return Stream.of(
+        Arguments.of("", "16c20acd33f7af2f3c1d09e9fe249164"),
+        Arguments.of("😀", "db1cbf106c3b97af24aaad8f0ebd70eb"),
+        Arguments.of("مرحبا", "49dba4f4e77c67b5828bed72d818800d"),
+        Arguments.of("こんにちは！", "770da975211fbabad523599195158d76"),
+        Arguments.of("com.example.preferences.user", "28b6ec1c108d21b1cda7a5a769f45767"),
+        Arguments.of(repeat('a', 200), "1d4af52ecf902d146356e6a2db920c9e"),
+        Arguments.of(repeat('a', 300), "b58741bd04f5b130d15fd803104126eb")
+    );
+  }
+}
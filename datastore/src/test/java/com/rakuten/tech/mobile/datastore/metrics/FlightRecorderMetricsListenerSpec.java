@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.rakuten.tech.mobile.datastore.DataStore;
+import com.rakuten.tech.mobile.datastore.crypto.NullCryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import com.rakuten.tech.mobile.datastore.tables.MemoryBlobTable;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using FlightRecorderMetricsListener")
+class FlightRecorderMetricsListenerSpec {
+
+  @Test
+  @DisplayName("Operations emit events when the flight recorder is available")
+  void events() throws Exception {
+    assumeTrue(FlightRecorderMetricsListener.isSupported());
+
+    final DataStore store = new DataStore(
+        new MemoryBlobTable(), new NullCryptoOperations(), new Utf8KeyCoder());
+    store.setMetricsListener(new FlightRecorderMetricsListener());
+    store.put("foo", ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    assertThat(store.get("foo")).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    store.clear();
+  }
+
+  @Test
+  @DisplayName("Operations without a start are ignored")
+  void unstarted() {
+    assumeTrue(FlightRecorderMetricsListener.isSupported());
+    new FlightRecorderMetricsListener().onOperation(Metrics.GET, 100, 0, 0, false);
+  }
+}
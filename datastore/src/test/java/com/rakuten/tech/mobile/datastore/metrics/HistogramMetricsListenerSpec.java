@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using HistogramMetricsListener")
+class HistogramMetricsListenerSpec {
+
+  private HistogramMetricsListener subject;
+
+  @BeforeEach
+  void beforeEach() {
+    subject = new HistogramMetricsListener();
+  }
+
+  @Test
+  @DisplayName("Operations are recorded separately")
+  void operations() {
+    subject.onOperation(Metrics.GET, 100, 10, 20, false);
+    subject.onOperation(Metrics.GET, 300, 10, 20, true);
+    subject.onOperation(Metrics.PUT, 200, 5, 7, false);
+
+    final MetricsSnapshot snapshot = subject.snapshot();
+    assertThat(snapshot.getLatency(Metrics.GET).getCount()).isEqualTo(2);
+    assertThat(snapshot.getLatency(Metrics.GET).getMax()).isEqualTo(300);
+    assertThat(snapshot.getBytesIn(Metrics.GET)).isEqualTo(20);
+    assertThat(snapshot.getBytesOut(Metrics.GET)).isEqualTo(40);
+    assertThat(snapshot.getErrorCount(Metrics.GET)).isEqualTo(1);
+    assertThat(snapshot.getLatency(Metrics.PUT).getSum()).isEqualTo(200);
+    assertThat(snapshot.getErrorCount(Metrics.PUT)).isZero();
+    assertThat(snapshot.getLatency(Metrics.STAT).getCount()).isZero();
+  }
+
+  @Test
+  @DisplayName("Stages are recorded per operation")
+  void stages() {
+    subject.onStage(Metrics.GET, Metrics.CRYPTO, 100);
+    subject.onStage(Metrics.PUT, Metrics.CRYPTO, 200);
+    subject.onStage(Metrics.PUT, Metrics.COMPRESSION, 300);
+
+    final MetricsSnapshot snapshot = subject.snapshot();
+    assertThat(snapshot.getStageLatency(Metrics.GET, Metrics.CRYPTO).getMax()).isEqualTo(100);
+    assertThat(snapshot.getStageLatency(Metrics.PUT, Metrics.CRYPTO).getMax()).isEqualTo(200);
+    assertThat(snapshot.getStageLatency(Metrics.PUT, Metrics.COMPRESSION).getMax())
+        .isEqualTo(300);
+    assertThat(snapshot.getStageLatency(Metrics.GET, Metrics.COMPRESSION).getCount()).isZero();
+  }
+
+  @Test
+  @DisplayName("Concurrent recordings are not lost")
+  void concurrent() throws InterruptedException {
+    final List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          subject.onOperation(Metrics.GET, i, 1, 1, false);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final MetricsSnapshot snapshot = subject.snapshot();
+    assertThat(snapshot.getLatency(Metrics.GET).getCount()).isEqualTo(40_000);
+    assertThat(snapshot.getBytesIn(Metrics.GET)).isEqualTo(40_000);
+  }
+
+  @Test
+  @DisplayName("Operations and stages have names")
+  void names() {
+    assertThat(Metrics.getOperationName(Metrics.REMOVE_ALL)).isEqualTo("removeAll");
+    assertThat(Metrics.getStageName(Metrics.TABLE_READ)).isEqualTo("tableRead");
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using LatencyHistogram")
+class LatencyHistogramSpec {
+
+  private AtomicHistogram subject;
+
+  @BeforeEach
+  void beforeEach() {
+    subject = new AtomicHistogram();
+  }
+
+  @Test
+  @DisplayName("Empty histograms report zeroes")
+  void empty() {
+    final LatencyHistogram histogram = subject.snapshot();
+    assertThat(histogram.getCount()).isZero();
+    assertThat(histogram.getMean()).isZero();
+    assertThat(histogram.getValueAtPercentile(99)).isZero();
+  }
+
+  @Test
+  @DisplayName("Small values are exact")
+  void small() {
+    for (int value = 1; value <= 50; value++) {
+      subject.record(value);
+    }
+
+    final LatencyHistogram histogram = subject.snapshot();
+    assertThat(histogram.getCount()).isEqualTo(50);
+    assertThat(histogram.getSum()).isEqualTo(1275);
+    assertThat(histogram.getMax()).isEqualTo(50);
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(25);
+    assertThat(histogram.getValueAtPercentile(0)).isEqualTo(1);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(50);
+  }
+
+  @Test
+  @DisplayName("Large values are within 3%")
+  void large() {
+    for (long value = 1000; value <= 1_000_000; value += 1000) {
+      subject.record(value);
+    }
+
+    final LatencyHistogram histogram = subject.snapshot();
+    assertThat((double) histogram.getValueAtPercentile(50)).isCloseTo(500_000, within(15_000.0));
+    assertThat((double) histogram.getValueAtPercentile(99)).isCloseTo(990_000, within(30_000.0));
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1_000_000);
+  }
+
+  @Test
+  @DisplayName("Buckets are contiguous")
+  void buckets() {
+    for (int index = 1; index < LatencyHistogram.BUCKET_COUNT; index++) {
+      final long lowest = LatencyHistogram.getHighestValue(index - 1) + 1;
+      assertThat(LatencyHistogram.getBucketIndex(lowest)).isEqualTo(index);
+      assertThat(LatencyHistogram.getBucketIndex(LatencyHistogram.getHighestValue(index)))
+          .isEqualTo(index);
+    }
+  }
+
+  @Test
+  @DisplayName("Out of range values are clamped")
+  void clamped() {
+    subject.record(-5);
+    subject.record(Long.MAX_VALUE);
+
+    final LatencyHistogram histogram = subject.snapshot();
+    assertThat(histogram.getCount()).isEqualTo(2);
+    assertThat(histogram.getMax()).isEqualTo(LatencyHistogram.MAXIMUM_VALUE);
+    assertThat(histogram.getValueAtPercentile(50)).isZero();
+  }
+
+  @Test
+  @DisplayName("Out of range percentiles are rejected")
+  void percentiles() {
+    assertThrows(IllegalArgumentException.class,
+        () -> subject.snapshot().getValueAtPercentile(101));
+    assertThrows(IllegalArgumentException.class,
+        () -> subject.snapshot().getValueAtPercentile(Double.NaN));
+  }
+
+  @Test
+  @DisplayName("Snapshots don't change afterwards")
+  void snapshots() {
+    subject.record(10);
+    final LatencyHistogram histogram = subject.snapshot();
+    subject.record(20);
+    assertThat(histogram.getCount()).isEqualTo(1);
+    assertThat(histogram.getMax()).isEqualTo(10);
+  }
+}
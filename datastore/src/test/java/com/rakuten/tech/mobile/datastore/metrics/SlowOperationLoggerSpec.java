@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using SlowOperationLogger")
+class SlowOperationLoggerSpec {
+
+  private final Logger logger = Logger.getLogger(SlowOperationLoggerSpec.class.getName());
+  private final List<LogRecord> records = new ArrayList<>();
+  private final Handler handler = new Handler() {
+    @Override
+    public void publish(final LogRecord record) {
+      records.add(record);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private SlowOperationLogger subject;
+
+  @BeforeEach
+  void beforeEach() {
+    records.clear();
+    subject = new SlowOperationLogger(1, TimeUnit.MILLISECONDS, logger);
+    logger.setUseParentHandlers(false);
+    logger.addHandler(handler);
+  }
+
+  @AfterEach
+  void afterEach() {
+    logger.removeHandler(handler);
+  }
+
+  @Test
+  @DisplayName("Fast operations are not logged")
+  void fast() {
+    subject.onStart(Metrics.GET);
+    subject.onOperation(Metrics.GET, 999_999, 10, 10, false);
+    assertThat(records).isEmpty();
+  }
+
+  @Test
+  @DisplayName("Slow operations are logged with their stages")
+  void slow() {
+    subject.onStart(Metrics.PUT);
+    subject.onKey(Metrics.PUT, 42);
+    subject.onStage(Metrics.PUT, Metrics.COMPRESSION, 300);
+    subject.onStage(Metrics.PUT, Metrics.TABLE_WRITE, 2_000_000);
+    subject.onOperation(Metrics.PUT, 2_500_000, 100, 80, true);
+
+    assertThat(records).hasSize(1);
+    assertThat(records.get(0).getMessage())
+        .contains("operation=put", "nanos=2500000", "keyHash=42", "bytesIn=100", "bytesOut=80",
+            "failed=true", "compression=300", "tableWrite=2000000", "crypto=0");
+    assertThat(records.get(0).getParameters())
+        .startsWith("put", 2_500_000L, 42, 100L, 80L, true);
+  }
+
+  @Test
+  @DisplayName("Stages of previous operations are forgotten")
+  void forgotten() {
+    subject.onStart(Metrics.PUT);
+    subject.onStage(Metrics.PUT, Metrics.CRYPTO, 500);
+    subject.onOperation(Metrics.PUT, 1000, 0, 0, false);
+
+    subject.onStart(Metrics.GET);
+    subject.onOperation(Metrics.GET, 2_000_000, 0, 0, false);
+    assertThat(records.get(0).getMessage()).contains("crypto=0", "keyHash=0");
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using Base64Url")
+class Base64UrlSpec {
+
+  @Test
+  @DisplayName("Empty keys encode to empty strings")
+  void empty() {
+    assertThat(Base64Url.encode(new CodedKey(new byte[0]))).isEmpty();
+  }
+
+  @Test
+  @DisplayName("It matches commons-codec for all padding lengths")
+  void matchesCommonsCodec() {
+    final Random random = new Random(42);
+    for (int length = 1; length < 100; length++) {
+      final byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      assertThat(Base64Url.encode(new CodedKey(bytes)))
+          .isEqualTo(Base64.encodeBase64URLSafeString(bytes));
+    }
+  }
+}
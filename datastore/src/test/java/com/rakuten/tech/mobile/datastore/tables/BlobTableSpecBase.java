@@ -17,6 +17,7 @@
 package com.rakuten.tech.mobile.datastore.tables;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.junit.jupiter.api.Assumptions.assumingThat;
 
 import com.rakuten.tech.mobile.datastore.keys.CodedKey;
@@ -25,7 +26,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -69,6 +72,18 @@ class BlobTableSpecBase {
       assertThat(table.contains(KEY)).isFalse();
     }
 
+    @Test
+    @DisplayName("Peeking at a value does not throw")
+    void peek() throws IOException {
+      assertThat(BlobTables.peek(table, KEY, 2)).isNull();
+    }
+
+    @Test
+    @DisplayName("Removing a prefix does not throw")
+    void removeAll() throws IOException {
+      assertThat(BlobTables.removeAll(table, KEY)).isZero();
+    }
+
     @Nested
     @DisplayName("Using the iterator")
     class WithIterator {
@@ -119,6 +134,20 @@ class BlobTableSpecBase {
       assertThat(table.contains(KEY)).isTrue();
     }
 
+    @Test
+    @DisplayName("Peeking at it yields the start of the value")
+    void peek() throws IOException {
+      final byte[] expected = "😀".getBytes(StandardCharsets.UTF_8);
+      assertThat(BlobTables.peek(table, KEY, 2)).isEqualTo(ByteBuffer.wrap(expected, 0, 2));
+    }
+
+    @Test
+    @DisplayName("Peeking past its end yields the whole value")
+    void peekPastEnd() throws IOException {
+      final byte[] expected = "😀".getBytes(StandardCharsets.UTF_8);
+      assertThat(BlobTables.peek(table, KEY, 100)).isEqualTo(ByteBuffer.wrap(expected));
+    }
+
     @Nested
     @DisplayName("Using the iterator")
     class WithIterator {
@@ -234,4 +263,150 @@ class BlobTableSpecBase {
       }
     }
   }
+
+  @Nested
+  @DisplayName("After keys sharing prefixes are stored")
+  class AfterPrefixesStored {
+
+    private final Utf8KeyCoder coder = new Utf8KeyCoder();
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+      for (String key : new String[] {"ab", "abcd", "abcdef", "xyz"}) {
+        table.put(coder.encode(key), ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+
+    @Test
+    @DisplayName("Iterating over a prefix yields only the keys starting with it")
+    void iterator() throws IOException {
+      assertThat(BlobTables.iterator(table, coder.encode("abc")))
+          .containsExactlyInAnyOrder(coder.encode("abcd"), coder.encode("abcdef"));
+    }
+
+    @Test
+    @DisplayName("Iterating over the empty prefix yields all keys")
+    void iteratorEmpty() throws IOException {
+      assertThat(BlobTables.iterator(table, coder.encode(""))).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("Removing a prefix only removes the keys starting with it")
+    void removeAll() throws IOException {
+      assertThat(BlobTables.removeAll(table, coder.encode("abcd"))).isEqualTo(2);
+      assertThat(table.iterator())
+          .containsExactlyInAnyOrder(coder.encode("ab"), coder.encode("xyz"));
+    }
+  }
+
+  @Nested
+  @DisplayName("If the table has version stamps")
+  class Versioned {
+
+    private final ByteBuffer first = ByteBuffer.wrap(new byte[] {1});
+    private final ByteBuffer second = ByteBuffer.wrap(new byte[] {2});
+    private VersionedBlobTable versioned;
+
+    @BeforeEach
+    void beforeEach() {
+      assumeTrue(table instanceof VersionedBlobTable);
+      versioned = (VersionedBlobTable) table;
+    }
+
+    @Test
+    @DisplayName("A missing value has no version")
+    void missing() throws IOException {
+      assertThat(versioned.getVersioned(KEY)).isNull();
+    }
+
+    @Test
+    @DisplayName("Putting if absent only writes missing values")
+    void putIfAbsent() throws IOException {
+      assertThat(versioned.putIfAbsent(KEY, first)).isTrue();
+      assertThat(versioned.putIfAbsent(KEY, second)).isFalse();
+      assertThat(table.get(KEY)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+    }
+
+    @Test
+    @DisplayName("Replacing with the current version succeeds")
+    void replace() throws IOException {
+      table.put(KEY, first);
+      final VersionedBlob current = versioned.getVersioned(KEY);
+      assertThat(current.getBlob()).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+      assertThat(versioned.replace(KEY, current.getVersion(), second)).isTrue();
+      assertThat(table.get(KEY)).isEqualTo(ByteBuffer.wrap(new byte[] {2}));
+    }
+
+    @Test
+    @DisplayName("Replacing with a stale version fails")
+    void stale() throws IOException {
+      table.put(KEY, first);
+      final long version = versioned.getVersioned(KEY).getVersion();
+      table.put(KEY, second);
+      assertThat(versioned.replace(KEY, version, ByteBuffer.wrap(new byte[] {3}))).isFalse();
+      assertThat(table.get(KEY)).isEqualTo(ByteBuffer.wrap(new byte[] {2}));
+    }
+
+    @Test
+    @DisplayName("Replacing with null removes the value")
+    void remove() throws IOException {
+      table.put(KEY, first);
+      final long version = versioned.getVersioned(KEY).getVersion();
+      assertThat(versioned.replace(KEY, version, null)).isTrue();
+      assertThat(table.get(KEY)).isNull();
+    }
+  }
+
+  @Nested
+  @DisplayName("If the table reports changes")
+  class Observable {
+
+    private List<CodedKey> changes;
+    private BlobTableListener listener;
+    private ObservableBlobTable observable;
+
+    @BeforeEach
+    void beforeEach() {
+      assumeTrue(table instanceof ObservableBlobTable);
+      changes = new ArrayList<>();
+      listener = changes::add;
+      observable = (ObservableBlobTable) table;
+      observable.addListener(listener);
+    }
+
+    @Test
+    @DisplayName("Writes and removals are reported")
+    void reported() throws IOException {
+      table.put(KEY, ByteBuffer.wrap(new byte[] {1}));
+      table.remove(KEY);
+      assertThat(changes).containsExactly(KEY, KEY);
+    }
+
+    @Test
+    @DisplayName("Removing a missing value is not reported")
+    void missing() throws IOException {
+      table.remove(KEY);
+      assertThat(changes).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Clearing reports every removed value")
+    void clear() throws IOException {
+      final Utf8KeyCoder coder = new Utf8KeyCoder();
+      table.put(coder.encode("a"), ByteBuffer.wrap(new byte[] {1}));
+      table.put(coder.encode("b"), ByteBuffer.wrap(new byte[] {2}));
+      changes.clear();
+
+      table.clear();
+      assertThat(changes).containsExactlyInAnyOrder(coder.encode("a"), coder.encode("b"));
+    }
+
+    @Test
+    @DisplayName("Removed listeners are not notified anymore")
+    void removed() throws IOException {
+      observable.removeListener(listener);
+      table.put(KEY, ByteBuffer.wrap(new byte[] {1}));
+      assertThat(changes).isEmpty();
+    }
+  }
 }
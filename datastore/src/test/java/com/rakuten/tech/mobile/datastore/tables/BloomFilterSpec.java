@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using BloomFilter")
+class BloomFilterSpec {
+
+  private static final Utf8KeyCoder CODER = new Utf8KeyCoder();
+
+  private static CodedKey key(final String prefix, final int i) {
+    return CODER.encode(prefix + i);
+  }
+
+  @Test
+  @DisplayName("It never yields false negatives")
+  void noFalseNegatives() {
+    final BloomFilter filter = new BloomFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      filter.add(key("present", i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertThat(filter.mightContain(key("present", i))).isTrue();
+    }
+  }
+
+  @Test
+  @DisplayName("It meets its target false positive rate")
+  void falsePositiveRate() {
+    final BloomFilter filter = new BloomFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      filter.add(key("present", i));
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (filter.mightContain(key("missing", i))) {
+        falsePositives++;
+      }
+    }
+
+    assertThat(falsePositives).isLessThan(200);
+    assertThat(filter.getExpectedFalsePositiveRate()).isLessThan(0.02);
+    assertThat(filter.isSaturated()).isFalse();
+  }
+
+  @Test
+  @DisplayName("It saturates past its capacity")
+  void saturates() {
+    final BloomFilter filter = new BloomFilter(100, 0.01);
+    for (int i = 0; i < 101; i++) {
+      filter.add(key("present", i));
+    }
+    assertThat(filter.isSaturated()).isTrue();
+  }
+
+  @Test
+  @DisplayName("It reports the observed false positive rate")
+  void observedRate() {
+    final BloomFilter filter = new BloomFilter(100, 0.01);
+    filter.mightContain(key("missing", 0));
+    filter.reportFalsePositive();
+    assertThat(filter.getObservedFalsePositiveRate()).isEqualTo(0.5);
+  }
+}
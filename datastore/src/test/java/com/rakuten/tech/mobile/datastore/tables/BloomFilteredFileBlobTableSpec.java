@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using FileBlobTable with a bloom filter")
+class BloomFilteredFileBlobTableSpec extends BlobTableSpecBase {
+
+  private static final CodedKey OTHER = new Utf8KeyCoder().encode("other");
+
+  private File temporaryFolder;
+  private FileBlobTable fileTable;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    final String name = "tests-" + UUID.randomUUID() + "-" + Timestamp.valueOf(LocalDateTime.now());
+    temporaryFolder = new File(FileUtils.getTempDirectory(), name);
+    FileUtils.deleteDirectory(temporaryFolder);
+    fileTable = new FileBlobTable("default", temporaryFolder, true);
+    setTable(fileTable);
+  }
+
+  @AfterEach
+  void afterEach() throws IOException {
+    setTable(null);
+    FileUtils.deleteDirectory(temporaryFolder);
+  }
+
+  @Nested
+  @DisplayName("After a value is written by another instance")
+  class AfterWrittenElsewhere {
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+      fileTable.contains(OTHER);
+      fileTable.saveBloomFilter();
+      new FileBlobTable("default", temporaryFolder).put(OTHER, ByteBuffer.allocate(1));
+    }
+
+    @Test
+    @DisplayName("A new instance does not trust the saved filter")
+    void rebuilds() throws IOException {
+      assertThat(new FileBlobTable("default", temporaryFolder, true).contains(OTHER)).isTrue();
+    }
+  }
+
+  @Nested
+  @DisplayName("After the filter is loaded")
+  class AfterLoaded {
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+      fileTable.contains(OTHER);
+    }
+
+    @Test
+    @DisplayName("It exposes its false positive rate")
+    void metrics() {
+      assertThat(fileTable.getBloomFilter()).isNotNull();
+      assertThat(fileTable.getBloomFilter().getObservedFalsePositiveRate()).isZero();
+    }
+  }
+
+  @Nested
+  @DisplayName("When warmed up")
+  class WhenWarmedUp {
+
+    @Test
+    @DisplayName("It loads the filter")
+    void loadsFilter() throws IOException {
+      fileTable.warmUp();
+      assertThat(fileTable.getBloomFilter()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("It deletes stale temporary files, and only those")
+    void deletesStaleTemporaryFiles() throws IOException {
+      final File directory = new File(temporaryFolder, "default");
+      assertThat(directory.mkdirs()).isTrue();
+      final File stale = new File(directory, ".stale.tmp");
+      final File fresh = new File(directory, ".fresh.tmp");
+      assertThat(stale.createNewFile()).isTrue();
+      assertThat(fresh.createNewFile()).isTrue();
+      assertThat(stale.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)))
+          .isTrue();
+
+      fileTable.warmUp();
+      assertThat(stale).doesNotExist();
+      assertThat(fresh).exists();
+    }
+
+    @Test
+    @DisplayName("Values written while the filter loads are found")
+    void writesWhileLoading() throws Exception {
+      final Thread warmUp = new Thread(() -> {
+        try {
+          fileTable.warmUp();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      warmUp.start();
+      fileTable.put(OTHER, ByteBuffer.allocate(1));
+      warmUp.join();
+      assertThat(fileTable.contains(OTHER)).isTrue();
+    }
+  }
+}
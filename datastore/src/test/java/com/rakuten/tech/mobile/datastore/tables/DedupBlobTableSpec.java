@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rakuten.tech.mobile.datastore.DataStore;
+import com.rakuten.tech.mobile.datastore.crypto.AeadCryptoOperations;
+import com.rakuten.tech.mobile.datastore.crypto.ConvergentCryptoOperations;
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Iterator;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using DedupBlobTable")
+class DedupBlobTableSpec extends BlobTableSpecBase {
+
+  private static final CodedKey FIRST = new Utf8KeyCoder().encode("first");
+  private static final CodedKey SECOND = new Utf8KeyCoder().encode("second");
+  private static final ByteBuffer BLOB = ByteBuffer.wrap("😀".getBytes(StandardCharsets.UTF_8));
+
+  private MemoryBlobTable backing;
+  private DedupBlobTable dedup;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    backing = new MemoryBlobTable();
+    dedup = new DedupBlobTable(backing);
+    setTable(dedup);
+  }
+
+  @AfterEach
+  void afterEach() throws IOException {
+    setTable(null);
+  }
+
+  private int backingSize() throws IOException {
+    int size = 0;
+    for (Iterator<CodedKey> it = backing.iterator(); it.hasNext(); it.next()) {
+      size++;
+    }
+    return size;
+  }
+
+  @Nested
+  @DisplayName("After the same value is stored under two keys")
+  class AfterDuplicated {
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+      dedup.put(FIRST, BLOB);
+      dedup.put(SECOND, BLOB);
+    }
+
+    @Test
+    @DisplayName("The value is stored once")
+    void storedOnce() throws IOException {
+      // 2 keys, 1 blob, 1 reference count
+      assertThat(backingSize()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Both keys yield the value")
+    void bothKeys() throws IOException {
+      assertThat(dedup.get(FIRST)).isEqualTo(BLOB);
+      assertThat(dedup.get(SECOND)).isEqualTo(BLOB);
+    }
+
+    @Test
+    @DisplayName("Removing one key keeps the value for the other")
+    void removeOne() throws IOException {
+      dedup.remove(FIRST);
+      assertThat(dedup.get(FIRST)).isNull();
+      assertThat(dedup.get(SECOND)).isEqualTo(BLOB);
+    }
+
+    @Test
+    @DisplayName("Removing both keys frees the value")
+    void removeBoth() throws IOException {
+      dedup.remove(FIRST);
+      dedup.remove(SECOND);
+      assertThat(backingSize()).isZero();
+    }
+
+    @Test
+    @DisplayName("Overwriting both keys frees the value")
+    void overwriteBoth() throws IOException {
+      final ByteBuffer other = ByteBuffer.wrap("other".getBytes(StandardCharsets.UTF_8));
+      dedup.put(FIRST, other);
+      dedup.put(SECOND, other);
+      assertThat(backingSize()).isEqualTo(4);
+      assertThat(dedup.get(FIRST)).isEqualTo(other);
+    }
+
+    @Test
+    @DisplayName("The iterator yields both keys only")
+    void iterator() throws IOException {
+      assertThat(dedup.iterator()).containsOnly(FIRST, SECOND);
+    }
+  }
+
+  @Nested
+  @DisplayName("Behind a data store")
+  class BehindDataStore {
+
+    private final Key key = new SecretKeySpec(new byte[32], "AES");
+
+    @Test
+    @DisplayName("Values are stored once with convergent encryption")
+    void convergent() throws Exception {
+      final DataStore store = new DataStore(
+          dedup, new ConvergentCryptoOperations(key), new Utf8KeyCoder());
+      store.put("first", BLOB.duplicate());
+      store.put("second", BLOB.duplicate());
+      assertThat(backingSize()).isEqualTo(4);
+      assertThat(store.get("second")).isEqualTo(BLOB);
+    }
+
+    @Test
+    @DisplayName("Values are stored twice with randomized encryption")
+    void randomized() throws Exception {
+      final DataStore store = new DataStore(
+          dedup, new AeadCryptoOperations(key), new Utf8KeyCoder());
+      store.put("first", BLOB.duplicate());
+      store.put("second", BLOB.duplicate());
+      assertThat(backingSize()).isEqualTo(6);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using FileBlobTableWatcher")
+class FileBlobTableWatcherSpec {
+
+  private static final CodedKey KEY = new Utf8KeyCoder().encode("foo");
+
+  private BlockingQueue<CodedKey> changes;
+  private File temporaryFolder;
+  private FileBlobTable table;
+  private FileBlobTable other;
+  private FileBlobTableWatcher watcher;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    final String name = "tests-" + UUID.randomUUID() + "-" + Timestamp.valueOf(LocalDateTime.now());
+    temporaryFolder = new File(FileUtils.getTempDirectory(), name);
+    FileUtils.deleteDirectory(temporaryFolder);
+    changes = new LinkedBlockingQueue<>();
+    table = new FileBlobTable("default", temporaryFolder);
+    other = new FileBlobTable("default", temporaryFolder);
+    table.addListener(changes::add);
+    watcher = new FileBlobTableWatcher(table, 50, TimeUnit.MILLISECONDS);
+    watcher.start();
+  }
+
+  @AfterEach
+  void afterEach() throws IOException {
+    watcher.close();
+    FileUtils.deleteDirectory(temporaryFolder);
+  }
+
+  @Test
+  @DisplayName("Writes from other instances are reported")
+  void external() throws Exception {
+    other.put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    assertThat(changes.poll(5, TimeUnit.SECONDS)).isEqualTo(KEY);
+
+    other.remove(KEY);
+    assertThat(changes.poll(5, TimeUnit.SECONDS)).isEqualTo(KEY);
+  }
+
+  @Test
+  @DisplayName("Writes from other instances can be read by listeners using a bloom filter")
+  void bloomFilter() throws Exception {
+    watcher.close();
+    final FileBlobTable filtered = new FileBlobTable("default", temporaryFolder, true);
+    assertThat(filtered.get(KEY)).isNull();
+
+    final BlockingQueue<ByteBuffer> blobs = new LinkedBlockingQueue<>();
+    filtered.addListener(codedKey -> {
+      try {
+        blobs.add(filtered.get(codedKey));
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    watcher = new FileBlobTableWatcher(filtered, 50, TimeUnit.MILLISECONDS);
+    watcher.start();
+
+    other.put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    assertThat(blobs.poll(5, TimeUnit.SECONDS)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+  }
+
+  @Test
+  @DisplayName("Rewrites whose size and modification time changed together are reported")
+  void stamps() throws Exception {
+    other.put(KEY, ByteBuffer.wrap(new byte[40]));
+    assertThat(changes.poll(5, TimeUnit.SECONDS)).isEqualTo(KEY);
+
+    // 1 ms later and 31 bytes shorter
+    final File file = table.getFile(KEY);
+    final long lastModified = file.lastModified();
+    other.put(KEY, ByteBuffer.wrap(new byte[9]));
+    assertThat(file.setLastModified(lastModified + 1)).isTrue();
+    assertThat(changes.poll(5, TimeUnit.SECONDS)).isEqualTo(KEY);
+  }
+
+  @Test
+  @DisplayName("Watchers stop and report why when their directory can't be watched anymore")
+  void failed() throws Exception {
+    FileUtils.deleteDirectory(table.getDirectory());
+    assertThat(table.getDirectory().createNewFile()).isTrue();
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (watcher.isWatching() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(watcher.isWatching()).isFalse();
+    assertThat(watcher.getFailure()).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  @DisplayName("Bursts of writes are reported once")
+  void debounced() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      other.put(KEY, ByteBuffer.wrap(new byte[i + 1]));
+    }
+    assertThat(changes.poll(5, TimeUnit.SECONDS)).isEqualTo(KEY);
+    assertThat(changes.poll(500, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  @DisplayName("Writes through the watched instance are only reported by it")
+  void own() throws Exception {
+    table.put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    assertThat(changes.poll()).isEqualTo(KEY);
+    assertThat(changes.poll(500, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  @DisplayName("Closed watchers don't report anything")
+  void closed() throws Exception {
+    watcher.close();
+    assertThat(watcher.isWatching()).isFalse();
+    assertThat(watcher.getFailure()).isNull();
+    other.put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    assertThat(changes.poll(500, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  @DisplayName("Starting twice is rejected")
+  void startedTwice() {
+    assertThatThrownBy(() -> watcher.start()).isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.io.File;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using KeyFileCache")
+class KeyFileCacheSpec {
+
+  private static final File DIRECTORY = new File("blobs");
+
+  @Test
+  @DisplayName("Files are named after the encoded key")
+  void naming() {
+    final File file = new KeyFileCache(DIRECTORY, 4).get(new Utf8KeyCoder().encode("foo"));
+    assertThat(file).isEqualTo(new File(DIRECTORY, "Zm9v"));
+  }
+
+  @Test
+  @DisplayName("Files of hot keys are reused")
+  void reuse() {
+    final KeyFileCache cache = new KeyFileCache(DIRECTORY, 4);
+    final CodedKey codedKey = new Utf8KeyCoder().encode("foo");
+    assertThat(cache.get(codedKey)).isSameAs(cache.get(codedKey));
+  }
+
+  @Test
+  @DisplayName("Evicted keys still map to the right file")
+  void eviction() {
+    final KeyFileCache cache = new KeyFileCache(DIRECTORY, 1);
+    final Utf8KeyCoder coder = new Utf8KeyCoder();
+    cache.get(coder.encode("foo"));
+    assertThat(cache.get(coder.encode("bar"))).isEqualTo(new File(DIRECTORY, "YmFy"));
+    assertThat(cache.get(coder.encode("foo"))).isEqualTo(new File(DIRECTORY, "Zm9v"));
+  }
+
+  @Test
+  @DisplayName("The slot count must be a power of two")
+  void invalidSlotCount() {
+    assertThatThrownBy(() -> new KeyFileCache(DIRECTORY, 3))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
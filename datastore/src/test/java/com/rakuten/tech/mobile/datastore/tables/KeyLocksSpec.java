@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("fast")
+@DisplayName("Using KeyLocks")
+class KeyLocksSpec {
+
+  private static final Utf8KeyCoder CODER = new Utf8KeyCoder();
+  private static final CodedKey FOO = CODER.encode("foo");
+  private static final CodedKey BAR = CODER.encode("bar");
+
+  private final KeyLocks locks = new KeyLocks();
+
+  private Thread lockInThread(final CodedKey codedKey, final CountDownLatch locked) {
+    final Thread thread = new Thread(() -> {
+      locks.lock(codedKey);
+      try {
+        locked.countDown();
+      } finally {
+        locks.unlock(codedKey);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  @DisplayName("It doesn't make other keys wait")
+  void otherKeys() throws InterruptedException {
+    locks.lock(FOO);
+    try {
+      final CountDownLatch locked = new CountDownLatch(1);
+      lockInThread(BAR, locked);
+      assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      locks.unlock(FOO);
+    }
+  }
+
+  @Test
+  @DisplayName("It makes the same key wait")
+  void sameKey() throws InterruptedException {
+    final CountDownLatch locked = new CountDownLatch(1);
+    final Thread thread;
+    locks.lock(FOO);
+    try {
+      thread = lockInThread(CODER.encode("foo"), locked);
+      assertThat(locked.await(100, TimeUnit.MILLISECONDS)).isFalse();
+    } finally {
+      locks.unlock(FOO);
+    }
+    assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+    thread.join();
+  }
+
+  @Test
+  @DisplayName("It is reentrant")
+  void reentrant() {
+    locks.lock(FOO);
+    locks.lock(FOO);
+    locks.unlock(FOO);
+    locks.unlock(FOO);
+    locks.lock(FOO);
+    locks.unlock(FOO);
+  }
+
+  @Test
+  @DisplayName("It excludes threads locking and unlocking a key repeatedly")
+  void exclusion() throws InterruptedException {
+    final AtomicBoolean held = new AtomicBoolean();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 2000; j++) {
+          locks.lock(FOO);
+          try {
+            if (!held.compareAndSet(false, true)) {
+              overlapped.set(true);
+            }
+            held.set(false);
+          } finally {
+            locks.unlock(FOO);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(overlapped).isFalse();
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+
+@DisplayName("Using LogicalBlobTable")
+class LogicalBlobTableSpec extends BlobTableSpecBase {
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    final SharedBlobTable shared = new SharedBlobTable(new MemoryBlobTable());
+    // Blobs of another table must not show up in this one
+    shared.getTable("other").put(new Utf8KeyCoder().encode("foo"), ByteBuffer.wrap(new byte[1]));
+    setTable(shared.getTable("default"));
+  }
+
+  @AfterEach
+  void afterEach() throws IOException {
+    setTable(null);
+  }
+}
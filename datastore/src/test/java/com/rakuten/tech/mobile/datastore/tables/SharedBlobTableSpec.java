@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Rakuten, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rakuten.tech.mobile.datastore.tables;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rakuten.tech.mobile.datastore.keys.CodedKey;
+import com.rakuten.tech.mobile.datastore.keys.HierarchicalKeyCoder;
+import com.rakuten.tech.mobile.datastore.keys.Utf8KeyCoder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Using SharedBlobTable")
+class SharedBlobTableSpec {
+
+  private static final CodedKey KEY = new Utf8KeyCoder().encode("foo");
+
+  private MemoryBlobTable storage;
+  private SharedBlobTable shared;
+
+  @BeforeEach
+  void beforeEach() {
+    storage = new MemoryBlobTable();
+    shared = new SharedBlobTable(storage);
+  }
+
+  @Test
+  @DisplayName("Tables have separate key spaces")
+  void separate() throws IOException {
+    shared.getTable("a").put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    shared.getTable("b").put(KEY, ByteBuffer.wrap(new byte[] {2}));
+
+    assertThat(shared.getTable("a").get(KEY)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+    assertThat(shared.getTable("b").get(KEY)).isEqualTo(ByteBuffer.wrap(new byte[] {2}));
+    assertThat(storage.iterator()).hasSize(2);
+  }
+
+  @Test
+  @DisplayName("Tables whose names share a prefix don't overlap")
+  void sharedPrefix() throws IOException {
+    shared.getTable("ab").put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    assertThat(shared.getTable("a").iterator()).isEmpty();
+    assertThat(shared.dropTable("a")).isZero();
+  }
+
+  @Test
+  @DisplayName("Dropping a table only removes its blobs")
+  void drop() throws IOException {
+    shared.getTable("a").put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    shared.getTable("b").put(KEY, ByteBuffer.wrap(new byte[] {2}));
+
+    assertThat(shared.dropTable("a")).isEqualTo(1);
+    assertThat(shared.getTable("a").get(KEY)).isNull();
+    assertThat(shared.getTable("b").get(KEY)).isNotNull();
+  }
+
+  @Test
+  @DisplayName("Changes are reported to the table they belong to")
+  void changes() throws IOException {
+    final List<CodedKey> changes = new ArrayList<>();
+    shared.getTable("a").addListener(changes::add);
+    shared.getTable("a").put(KEY, ByteBuffer.wrap(new byte[] {1}));
+    shared.getTable("b").put(KEY, ByteBuffer.wrap(new byte[] {2}));
+    assertThat(changes).containsExactly(KEY);
+  }
+
+  @Test
+  @DisplayName("Getting a table twice yields the same instance")
+  void sameInstance() {
+    assertThat(shared.getTable("a")).isSameAs(shared.getTable("a"));
+    assertThat(shared.getTable("a").getName()).isEqualTo("a");
+  }
+
+  @Test
+  @DisplayName("Empty or too long names are rejected")
+  void badNames() {
+    assertThatThrownBy(() -> shared.getTable("")).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> shared.getTable(name(SharedBlobTable.MAXIMUM_NAME_LENGTH + 1)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  @DisplayName("Keys of 12 segments fit in file names with the longest table names")
+  void fileNames() throws Exception {
+    final File directory = new File(FileUtils.getTempDirectory(), "tests-" + UUID.randomUUID());
+    try {
+      final SharedBlobTable files = new SharedBlobTable(new FileBlobTable("shared", directory));
+      final CodedKey codedKey = new HierarchicalKeyCoder().encode("a/b/c/d/e/f/g/h/i/j/k/l");
+      final LogicalBlobTable table = files.getTable(name(SharedBlobTable.MAXIMUM_NAME_LENGTH));
+      table.put(codedKey, ByteBuffer.wrap(new byte[] {1}));
+      assertThat(table.get(codedKey)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  private static String name(final int length) {
+    final StringBuilder name = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      name.append('x');
+    }
+    return name.toString();
+  }
+}